@@ -1,6 +1,7 @@
 package com.helger.rabbit.client;
 
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.URL;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -9,6 +10,7 @@ import com.helger.rabbit.dns.DNSJavaHandler;
 import com.helger.rabbit.http.HttpHeader;
 import com.helger.rabbit.httpio.HttpResponseListener;
 import com.helger.rabbit.httpio.HttpResponseReader;
+import com.helger.rabbit.httpio.ProxiedProxyChain;
 import com.helger.rabbit.httpio.SimpleProxyChain;
 import com.helger.rabbit.httpio.WebConnectionResourceSource;
 import com.helger.rabbit.io.BufferHandle;
@@ -23,8 +25,8 @@ import com.helger.rnio.IBufferHandler;
 import com.helger.rnio.INioHandler;
 import com.helger.rnio.IStatisticsHolder;
 import com.helger.rnio.impl.BasicStatisticsHolder;
-import com.helger.rnio.impl.CachingBufferHandler;
 import com.helger.rnio.impl.MultiSelectorNioHandler;
+import com.helger.rnio.impl.PooledBufferHandler;
 import com.helger.rnio.impl.SimpleThreadFactory;
 
 /**
@@ -46,6 +48,21 @@ public class ClientBase
    *         if creating the nio handler fails
    */
   public ClientBase () throws IOException
+  {
+    this (null, 0);
+  }
+
+  /**
+   * Create a new ClientBase that sends all requests through the given proxy.
+   *
+   * @param proxy
+   *        the proxy to send requests through, null to connect directly
+   * @param proxyPort
+   *        the port of the proxy
+   * @throws IOException
+   *         if creating the nio handler fails
+   */
+  public ClientBase (final InetAddress proxy, final int proxyPort) throws IOException
   {
     final ExecutorService es = Executors.newCachedThreadPool ();
     final IStatisticsHolder sh = new BasicStatisticsHolder ();
@@ -53,11 +70,12 @@ public class ClientBase
     nioHandler.start (new SimpleThreadFactory ());
     final DNSJavaHandler jh = new DNSJavaHandler ();
     jh.setup (null);
-    final IProxyChain proxyChain = new SimpleProxyChain (nioHandler, jh);
+    final IProxyChain proxyChain = proxy == null ? new SimpleProxyChain (nioHandler, jh)
+                                                 : new ProxiedProxyChain (proxy, proxyPort, null);
     final Counter counter = new Counter ();
     connectionHandler = new ConnectionHandler (counter, proxyChain, nioHandler);
 
-    bufHandler = new CachingBufferHandler ();
+    bufHandler = new PooledBufferHandler ();
   }
 
   /**
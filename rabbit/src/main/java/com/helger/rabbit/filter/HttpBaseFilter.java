@@ -6,7 +6,6 @@ import java.net.URL;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
 
 import javax.annotation.Nonnull;
@@ -522,7 +521,7 @@ public class HttpBaseFilter implements IHttpFilter
     {
       // ok, maybe we should check if there is an Age set
       // otherwise we can do like this.
-      header.setHeader ("Date", HttpDateParser.getDateString (new Date ()));
+      header.setHeader ("Date", HttpDateParser.getCurrentDateString ());
     }
 
     final String cl = header.getHeader ("Content-Length");
@@ -164,6 +164,7 @@ public class BaseHandler implements IHandler, IHandlerFactory, HttpHeaderSentLis
     {
       final HttpHeaderSender hhs = new HttpHeaderSender (con.getChannel (),
                                                          con.getNioHandler (),
+                                                         con.getProxy ().getBufferHandler (),
                                                          tlh.getClient (),
                                                          response,
                                                          false,
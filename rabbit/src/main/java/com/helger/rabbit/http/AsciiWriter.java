@@ -0,0 +1,115 @@
+package com.helger.rabbit.http;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Helper methods that write header text as US-ASCII straight into a
+ * ByteBuffer. Characters outside of US-ASCII are written as '?', just like
+ * String.getBytes (&quot;US-ASCII&quot;) does.
+ *
+ * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
+ */
+final class AsciiWriter
+{
+  /** The bytes of CRLF */
+  static final byte [] CRLF = { '\r', '\n' };
+
+  /** The bytes used between the type and value of a header line */
+  static final byte [] COLON_SPACE = { ':', ' ' };
+
+  private AsciiWriter ()
+  {
+    // only static methods
+  }
+
+  /**
+   * Get the encoded form of the given String.
+   *
+   * @param s
+   *        the String to encode
+   * @return the US-ASCII bytes of s
+   */
+  static byte [] encode (final String s)
+  {
+    final byte [] ret = new byte [s.length ()];
+    put (ByteBuffer.wrap (ret), s);
+    return ret;
+  }
+
+  /**
+   * Get the number of bytes that put will write for the given String.
+   *
+   * @param s
+   *        the String, null is written as &quot;null&quot;
+   * @return the number of bytes needed
+   */
+  static int length (final String s)
+  {
+    return s == null ? 4 : s.length ();
+  }
+
+  /**
+   * Write the given String.
+   *
+   * @param buffer
+   *        the buffer to write to
+   * @param s
+   *        the String to write, null is written as &quot;null&quot;
+   */
+  static void put (final ByteBuffer buffer, final String s)
+  {
+    final String str = s == null ? "null" : s;
+    final int len = str.length ();
+    if (buffer.hasArray ())
+    {
+      if (buffer.remaining () < len)
+        throw new BufferOverflowException ();
+      final byte [] a = buffer.array ();
+      final int pos = buffer.position ();
+      final int offset = buffer.arrayOffset () + pos;
+      for (int i = 0; i < len; i++)
+        a[offset + i] = toAscii (str.charAt (i));
+      buffer.position (pos + len);
+    }
+    else
+    {
+      for (int i = 0; i < len; i++)
+        buffer.put (toAscii (str.charAt (i)));
+    }
+  }
+
+  /**
+   * Write the given ISO-8859-1 bytes.
+   *
+   * @param buffer
+   *        the buffer to write to
+   * @param raw
+   *        the bytes to write
+   * @param start
+   *        the index of the first byte to write
+   * @param length
+   *        the number of bytes to write
+   */
+  static void put (final ByteBuffer buffer, final byte [] raw, final int start, final int length)
+  {
+    final int end = start + length;
+    for (int i = start; i < end; i++)
+    {
+      if (raw[i] < 0)
+      {
+        // slow path, non ascii data
+        buffer.put (raw, start, i - start);
+        for (int j = i; j < end; j++)
+          buffer.put (raw[j] < 0 ? (byte) '?' : raw[j]);
+        return;
+      }
+    }
+    buffer.put (raw, start, length);
+  }
+
+  private static byte toAscii (final char c)
+  {
+    return c < 0x80 ? (byte) c : (byte) '?';
+  }
+}
@@ -0,0 +1,190 @@
+package com.helger.rabbit.http;
+
+/**
+ * The well known http header names. Headers with these names are indexed by
+ * GeneralHeader so that they can be found without scanning all the headers.
+ *
+ * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
+ */
+public enum EHeaderToken
+{
+  ACCEPT ("Accept"),
+  ACCEPT_CHARSET ("Accept-Charset"),
+  ACCEPT_ENCODING ("Accept-Encoding"),
+  ACCEPT_LANGUAGE ("Accept-Language"),
+  ACCEPT_RANGES ("Accept-Ranges"),
+  AGE ("Age"),
+  ALLOW ("Allow"),
+  AUTHORIZATION ("Authorization"),
+  CACHE_CONTROL ("Cache-Control"),
+  CONNECTION ("Connection"),
+  CONTENT_ENCODING ("Content-Encoding"),
+  CONTENT_LANGUAGE ("Content-Language"),
+  CONTENT_LENGTH ("Content-Length"),
+  CONTENT_LOCATION ("Content-Location"),
+  CONTENT_RANGE ("Content-Range"),
+  CONTENT_TYPE ("Content-Type"),
+  COOKIE ("Cookie"),
+  DATE ("Date"),
+  ETAG ("ETag"),
+  EXPECT ("Expect"),
+  EXPIRES ("Expires"),
+  HOST ("Host"),
+  IF_MATCH ("If-Match"),
+  IF_MODIFIED_SINCE ("If-Modified-Since"),
+  IF_NONE_MATCH ("If-None-Match"),
+  IF_RANGE ("If-Range"),
+  IF_UNMODIFIED_SINCE ("If-Unmodified-Since"),
+  KEEP_ALIVE ("Keep-Alive"),
+  LAST_MODIFIED ("Last-Modified"),
+  LOCATION ("Location"),
+  MAX_FORWARDS ("Max-Forwards"),
+  PRAGMA ("Pragma"),
+  PROXY_AGENT ("Proxy-Agent"),
+  PROXY_AUTHENTICATE ("Proxy-Authenticate"),
+  PROXY_AUTHORIZATION ("Proxy-Authorization"),
+  PROXY_CONNECTION ("Proxy-Connection"),
+  RANGE ("Range"),
+  REFERER ("Referer"),
+  RETRY_AFTER ("Retry-After"),
+  SERVER ("Server"),
+  SET_COOKIE ("Set-Cookie"),
+  TE ("TE"),
+  TRAILER ("Trailer"),
+  TRANSFER_ENCODING ("Transfer-Encoding"),
+  UPGRADE ("Upgrade"),
+  USER_AGENT ("User-Agent"),
+  VARY ("Vary"),
+  VIA ("Via"),
+  WARNING ("Warning"),
+  WWW_AUTHENTICATE ("WWW-Authenticate");
+
+  // Open addressing, the size must be a power of two
+  private static final EHeaderToken [] TABLE = new EHeaderToken [256];
+
+  static
+  {
+    for (final EHeaderToken t : values ())
+    {
+      int i = hash (t.name) & (TABLE.length - 1);
+      while (TABLE[i] != null)
+        i = (i + 1) & (TABLE.length - 1);
+      TABLE[i] = t;
+    }
+  }
+
+  private final String name;
+  private final byte [] nameBytes;
+
+  private EHeaderToken (final String name)
+  {
+    this.name = name;
+    nameBytes = AsciiWriter.encode (name);
+  }
+
+  /**
+   * Get the name of this header, as it is normally written.
+   *
+   * @return the header name
+   */
+  public String getName ()
+  {
+    return name;
+  }
+
+  /**
+   * Get the US-ASCII bytes of the name of this header. The returned array is
+   * shared and must not be modified.
+   *
+   * @return the encoded header name
+   */
+  byte [] getNameBytes ()
+  {
+    return nameBytes;
+  }
+
+  private static int fold (final int c)
+  {
+    return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+  }
+
+  private static int hash (final String s)
+  {
+    int h = 0;
+    for (int i = 0; i < s.length (); i++)
+      h = 31 * h + fold (s.charAt (i));
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * Find the token for a header name, case is ignored.
+   *
+   * @param name
+   *        the header name, may be null
+   * @return the token or null if the name is not a well known header
+   */
+  public static EHeaderToken lookup (final String name)
+  {
+    if (name == null)
+      return null;
+    int h = 0;
+    for (int i = 0; i < name.length (); i++)
+    {
+      final char c = name.charAt (i);
+      if (c > 127)
+        return null;
+      h = 31 * h + fold (c);
+    }
+    int i = (h ^ (h >>> 16)) & (TABLE.length - 1);
+    EHeaderToken t;
+    while ((t = TABLE[i]) != null)
+    {
+      if (t.name.length () == name.length () && t.name.equalsIgnoreCase (name))
+        return t;
+      i = (i + 1) & (TABLE.length - 1);
+    }
+    return null;
+  }
+
+  /**
+   * Find the token for a header name given as ISO-8859-1 bytes, case is
+   * ignored.
+   *
+   * @param raw
+   *        the bytes holding the name
+   * @param start
+   *        the index of the first byte of the name
+   * @param length
+   *        the number of bytes in the name
+   * @return the token or null if the name is not a well known header
+   */
+  public static EHeaderToken lookup (final byte [] raw, final int start, final int length)
+  {
+    int h = 0;
+    for (int i = start; i < start + length; i++)
+    {
+      if (raw[i] < 0)
+        return null;
+      h = 31 * h + fold (raw[i]);
+    }
+    int i = (h ^ (h >>> 16)) & (TABLE.length - 1);
+    EHeaderToken t;
+    while ((t = TABLE[i]) != null)
+    {
+      if (t.matches (raw, start, length))
+        return t;
+      i = (i + 1) & (TABLE.length - 1);
+    }
+    return null;
+  }
+
+  private boolean matches (final byte [] raw, final int start, final int length)
+  {
+    if (name.length () != length)
+      return false;
+    for (int i = 0; i < length; i++)
+      if (fold (raw[start + i]) != fold (name.charAt (i)))
+        return false;
+    return true;
+  }
+}
@@ -99,13 +99,25 @@ public enum EStatusCode
   /** 505 HTTP Version Not Supported */
   _505 (505, "HTTP Version Not Supported");
 
+  private static final EStatusCode [] BY_CODE = new EStatusCode [600];
+
+  static
+  {
+    for (final EStatusCode sc : values ())
+      BY_CODE[sc.code] = sc;
+  }
+
   private final int code;
   private final String description;
+  private final byte [] http10Line;
+  private final byte [] http11Line;
 
   private EStatusCode (final int code, final String description)
   {
     this.code = code;
     this.description = description;
+    http10Line = AsciiWriter.encode (getStatusLine ("HTTP/1.0") + Header.CRLF);
+    http11Line = AsciiWriter.encode (getStatusLine ("HTTP/1.1") + Header.CRLF);
   }
 
   /**
@@ -139,4 +151,42 @@ public enum EStatusCode
   {
     return httpVersion + " " + getCode () + " " + getDescription ();
   }
+
+  /**
+   * Get the pre-encoded status line, including the trailing CRLF, for the
+   * given parts of a response line.
+   *
+   * @param httpVersion
+   *        the HTTP version of the response
+   * @param statusCode
+   *        the status code of the response
+   * @param reasonPhrase
+   *        the reason phrase of the response
+   * @return the shared bytes of the status line, or null if the response line
+   *         is not one of the standard ones. The returned array must not be
+   *         modified.
+   */
+  static byte [] getStatusLineBytes (final String httpVersion,
+                                     final String statusCode,
+                                     final String reasonPhrase)
+  {
+    if (statusCode == null || statusCode.length () != 3 || reasonPhrase == null)
+      return null;
+    int c = 0;
+    for (int i = 0; i < 3; i++)
+    {
+      final char ch = statusCode.charAt (i);
+      if (ch < '0' || ch > '9')
+        return null;
+      c = c * 10 + ch - '0';
+    }
+    final EStatusCode sc = c < BY_CODE.length ? BY_CODE[c] : null;
+    if (sc == null || !sc.description.equals (reasonPhrase))
+      return null;
+    if ("HTTP/1.1".equals (httpVersion))
+      return sc.http11Line;
+    if ("HTTP/1.0".equals (httpVersion))
+      return sc.http10Line;
+    return null;
+  }
 }
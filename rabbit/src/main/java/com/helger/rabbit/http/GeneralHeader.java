@@ -3,6 +3,7 @@ package com.helger.rabbit.http;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
 
 import com.helger.commons.collection.impl.CommonsArrayList;
@@ -21,6 +22,12 @@ public class GeneralHeader implements IStorable, Iterable <Header>
    */
   protected final CommonsArrayList <Header> headers = new CommonsArrayList<> ();
 
+  /**
+   * The first header, in wire order, for each well known header name, indexed
+   * by the ordinal of the token. Created when the first such header is added.
+   */
+  private Header [] firstByToken;
+
   /**
    * Create a new HTTPHeader from scratch
    */
@@ -31,7 +38,60 @@ public class GeneralHeader implements IStorable, Iterable <Header>
 
   public Iterator <Header> iterator ()
   {
-    return headers.iterator ();
+    final Iterator <Header> it = headers.iterator ();
+    return new Iterator <Header> ()
+    {
+      private Header last;
+
+      public boolean hasNext ()
+      {
+        return it.hasNext ();
+      }
+
+      public Header next ()
+      {
+        last = it.next ();
+        return last;
+      }
+
+      @Override
+      public void remove ()
+      {
+        it.remove ();
+        unindex (last);
+      }
+    };
+  }
+
+  private void index (final Header h)
+  {
+    final EHeaderToken t = h.getToken ();
+    if (t == null)
+      return;
+    if (firstByToken == null)
+      firstByToken = new Header [EHeaderToken.values ().length];
+    if (firstByToken[t.ordinal ()] == null)
+      firstByToken[t.ordinal ()] = h;
+  }
+
+  /** Update the index after h has been removed from the headers. */
+  private void unindex (final Header h)
+  {
+    final EHeaderToken t = h.getToken ();
+    if (t == null || firstByToken[t.ordinal ()] != h)
+      return;
+    firstByToken[t.ordinal ()] = null;
+    for (final Header o : headers)
+      if (o.getToken () == t)
+      {
+        firstByToken[t.ordinal ()] = o;
+        return;
+      }
+  }
+
+  private Header getFirst (final EHeaderToken t)
+  {
+    return firstByToken == null ? null : firstByToken[t.ordinal ()];
   }
 
   /**
@@ -75,6 +135,33 @@ public class GeneralHeader implements IStorable, Iterable <Header>
     sb.append (Header.CRLF);
   }
 
+  /**
+   * Get the number of bytes writeHeaders will write.
+   *
+   * @return the length in bytes of the header lines and the empty line
+   */
+  protected int getHeadersByteLength ()
+  {
+    int len = 2;
+    for (final Header h : headers)
+      len += h.getByteLength ();
+    return len;
+  }
+
+  /**
+   * Write the header lines, followed by an empty line, as US-ASCII to the
+   * given buffer.
+   *
+   * @param buffer
+   *        the ByteBuffer this header is written to
+   */
+  protected void writeHeaders (final ByteBuffer buffer)
+  {
+    for (final Header h : headers)
+      h.writeTo (buffer);
+    buffer.put (AsciiWriter.CRLF);
+  }
+
   /**
    * get the value of header type
    *
@@ -84,12 +171,29 @@ public class GeneralHeader implements IStorable, Iterable <Header>
    */
   public String getHeader (final String type)
   {
+    final EHeaderToken t = EHeaderToken.lookup (type);
+    if (t != null)
+      return getHeader (t);
     for (final Header h : headers)
-      if (h.getType ().equalsIgnoreCase (type))
+      if (h.hasType (type))
         return h.getValue ();
     return null;
   }
 
+  /**
+   * Get the value of a well known header.
+   *
+   * @param t
+   *        the token of the header
+   * @return the value of the first header with the given name or null if no
+   *         value is set.
+   */
+  public String getHeader (final EHeaderToken t)
+  {
+    final Header h = getFirst (t);
+    return h == null ? null : h.getValue ();
+  }
+
   /**
    * Set or replaces a value for given type.
    *
@@ -100,16 +204,45 @@ public class GeneralHeader implements IStorable, Iterable <Header>
    */
   public void setHeader (final String type, final String value)
   {
-    for (final Header h : headers)
+    final EHeaderToken t = EHeaderToken.lookup (type);
+    if (t != null)
     {
-      if (h.getType ().equalsIgnoreCase (type))
+      final Header h = getFirst (t);
+      if (h != null)
       {
         h.setValue (value);
         return;
       }
     }
-    final Header h = new Header (type, value);
-    headers.add (h);
+    else
+    {
+      for (final Header h : headers)
+      {
+        if (h.hasType (type))
+        {
+          h.setValue (value);
+          return;
+        }
+      }
+    }
+    addHeader (new Header (type, value));
+  }
+
+  /**
+   * Set or replaces the value of a well known header.
+   *
+   * @param t
+   *        the token of the header to set
+   * @param value
+   *        the value we want to set
+   */
+  public void setHeader (final EHeaderToken t, final String value)
+  {
+    final Header h = getFirst (t);
+    if (h != null)
+      h.setValue (value);
+    else
+      addHeader (new Header (t.getName (), value));
   }
 
   /**
@@ -155,6 +288,7 @@ public class GeneralHeader implements IStorable, Iterable <Header>
   public void addHeader (final Header h)
   {
     headers.add (h);
+    index (h);
   }
 
   /**
@@ -165,19 +299,49 @@ public class GeneralHeader implements IStorable, Iterable <Header>
    */
   public void removeHeader (final String type)
   {
+    final EHeaderToken t = EHeaderToken.lookup (type);
+    if (t != null)
+    {
+      removeHeader (t);
+      return;
+    }
     int s = headers.size ();
     for (int i = 0; i < s; i++)
     {
       final Header h = headers.get (i);
-      if (h.getType ().equalsIgnoreCase (type))
+      if (h.hasType (type))
       {
         headers.remove (i);
+        unindex (h);
         i--;
         s--;
       }
     }
   }
 
+  /**
+   * Remove all headers with a well known name.
+   *
+   * @param t
+   *        the token of the headers to remove
+   */
+  public void removeHeader (final EHeaderToken t)
+  {
+    if (getFirst (t) == null)
+      return;
+    int s = headers.size ();
+    for (int i = 0; i < s; i++)
+    {
+      if (headers.get (i).getToken () == t)
+      {
+        headers.remove (i);
+        i--;
+        s--;
+      }
+    }
+    firstByToken[t.ordinal ()] = null;
+  }
+
   /**
    * removes a header with the specified value
    *
@@ -193,6 +357,7 @@ public class GeneralHeader implements IStorable, Iterable <Header>
       if (h.getValue ().equals (value))
       {
         headers.remove (i);
+        unindex (h);
         return;
       }
     }
@@ -206,10 +371,31 @@ public class GeneralHeader implements IStorable, Iterable <Header>
    * @return all the headers lines of this header
    */
   public ICommonsList <String> getHeaders (final String type)
+  {
+    final EHeaderToken t = EHeaderToken.lookup (type);
+    if (t != null)
+      return getHeaders (t);
+    final ICommonsList <String> ret = new CommonsArrayList<> ();
+    for (final Header h : headers)
+      if (h.hasType (type))
+        ret.add (h.getValue ());
+    return ret;
+  }
+
+  /**
+   * Get all headers with a well known name.
+   *
+   * @param t
+   *        the token of the headers to get
+   * @return the values of all the matching headers, in wire order
+   */
+  public ICommonsList <String> getHeaders (final EHeaderToken t)
   {
     final ICommonsList <String> ret = new CommonsArrayList<> ();
+    if (getFirst (t) == null)
+      return ret;
     for (final Header h : headers)
-      if (h.getType ().equalsIgnoreCase (type))
+      if (h.getToken () == t)
         ret.add (h.getValue ());
     return ret;
   }
@@ -234,7 +420,7 @@ public class GeneralHeader implements IStorable, Iterable <Header>
     {
       final Header h = new Header ();
       h.read (in);
-      headers.add (h);
+      addHeader (h);
     }
   }
 
@@ -3,6 +3,7 @@ package com.helger.rabbit.http;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import com.helger.commons.io.stream.StreamHelper;
 import com.helger.rabbit.io.IStorable;
@@ -17,6 +18,15 @@ public class Header implements IStorable
 {
   private String type;
   private String value;
+  private EHeaderToken token;
+
+  // The raw header line, type and value are decoded from it on first use and
+  // it is dropped once both of them have been decoded.
+  private byte [] raw;
+  private int typeStart;
+  private int typeLength;
+  private int valueStart;
+  private int valueLength = -1;
 
   /** The String consisting of \r and \n */
   public static final String CRLF = "\r\n";
@@ -47,6 +57,42 @@ public class Header implements IStorable
   {
     this.type = getCachedString (type);
     this.value = getCachedString (value);
+    token = EHeaderToken.lookup (type);
+  }
+
+  /**
+   * Create a new header that is backed by raw ISO-8859-1 bytes. The type and
+   * value are only turned into Strings when they are asked for. The bytes must
+   * not be changed after this.
+   *
+   * @param raw
+   *        the bytes holding the header line
+   * @param typeStart
+   *        the index of the first byte of the type
+   * @param typeLength
+   *        the number of bytes in the type
+   * @param valueStart
+   *        the index of the first byte of the value
+   * @param valueLength
+   *        the number of bytes in the value
+   */
+  public Header (final byte [] raw,
+                 final int typeStart,
+                 final int typeLength,
+                 final int valueStart,
+                 final int valueLength)
+  {
+    this.raw = raw;
+    this.typeStart = typeStart;
+    this.typeLength = typeLength;
+    this.valueStart = valueStart;
+    this.valueLength = valueLength;
+    token = EHeaderToken.lookup (raw, typeStart, typeLength);
+  }
+
+  private String decode (final int start, final int length)
+  {
+    return stringCache.getCachedString (raw, start, length);
   }
 
   /**
@@ -56,9 +102,51 @@ public class Header implements IStorable
    */
   public String getType ()
   {
+    if (type == null && raw != null)
+    {
+      type = decode (typeStart, typeLength);
+      if (valueLength < 0)
+        raw = null;
+    }
     return type;
   }
 
+  /**
+   * Get the token for the type of this header.
+   *
+   * @return the token or null if the type is not a well known header name
+   */
+  public EHeaderToken getToken ()
+  {
+    return token;
+  }
+
+  /**
+   * Check if this header has the given type, ignoring case. This does not
+   * decode the type of a header that has not been used yet.
+   *
+   * @param t
+   *        the type to check for
+   * @return true if the type of this header is t
+   */
+  public boolean hasType (final String t)
+  {
+    if (type != null || raw == null)
+      return type != null && type.equalsIgnoreCase (t);
+    if (t.length () != typeLength)
+      return false;
+    for (int i = 0; i < typeLength; i++)
+    {
+      final char c1 = (char) (raw[typeStart + i] & 0xff);
+      final char c2 = t.charAt (i);
+      if (c1 != c2 &&
+          Character.toUpperCase (c1) != Character.toUpperCase (c2) &&
+          Character.toLowerCase (c1) != Character.toLowerCase (c2))
+        return false;
+    }
+    return true;
+  }
+
   /**
    * Get the value of this header.
    *
@@ -66,6 +154,15 @@ public class Header implements IStorable
    */
   public String getValue ()
   {
+    if (valueLength >= 0)
+    {
+      final String v = decode (valueStart, valueLength);
+      value = v;
+      valueLength = -1;
+      if (type != null)
+        raw = null;
+      return v;
+    }
     return value;
   }
 
@@ -78,6 +175,9 @@ public class Header implements IStorable
   public void setValue (final String newValue)
   {
     value = newValue;
+    valueLength = -1;
+    if (type != null)
+      raw = null;
   }
 
   @Override
@@ -85,7 +185,7 @@ public class Header implements IStorable
   {
     if (o instanceof Header)
     {
-      return (((Header) o).type.equalsIgnoreCase (type));
+      return ((Header) o).getType ().equalsIgnoreCase (getType ());
     }
     return false;
   }
@@ -93,7 +193,7 @@ public class Header implements IStorable
   @Override
   public int hashCode ()
   {
-    return type.hashCode ();
+    return getType ().hashCode ();
   }
 
   /**
@@ -104,19 +204,69 @@ public class Header implements IStorable
    */
   public void append (final String s)
   {
-    value += CRLF + s;
-    value = getCachedString (value);
+    value = getCachedString (getValue () + CRLF + s);
+  }
+
+  /**
+   * Get the number of bytes this header needs when it is written as a header
+   * line, including the trailing CRLF.
+   *
+   * @return the length in bytes
+   */
+  int getByteLength ()
+  {
+    final int tl = raw != null ? typeLength : AsciiWriter.length (type);
+    final int vl = valueLength >= 0 ? valueLength : AsciiWriter.length (value);
+    return tl + vl + 4;
+  }
+
+  /**
+   * Write this header as a US-ASCII header line, including the trailing CRLF.
+   * Headers that are still backed by raw bytes are copied without decoding
+   * them and well known header names use their pre-encoded bytes.
+   *
+   * @param buffer
+   *        the ByteBuffer to write to
+   */
+  void writeTo (final ByteBuffer buffer)
+  {
+    if (valueLength >= 0 &&
+        valueStart == typeStart + typeLength + 2 &&
+        raw[valueStart - 2] == ':' &&
+        raw[valueStart - 1] == ' ')
+    {
+      // the line is still as it was read, write it in one go
+      AsciiWriter.put (buffer, raw, typeStart, typeLength + 2 + valueLength);
+      buffer.put (AsciiWriter.CRLF);
+      return;
+    }
+    if (raw != null)
+      AsciiWriter.put (buffer, raw, typeStart, typeLength);
+    else
+      if (token != null && token.getName ().equals (type))
+        buffer.put (token.getNameBytes ());
+      else
+        AsciiWriter.put (buffer, type);
+    buffer.put (AsciiWriter.COLON_SPACE);
+    if (valueLength >= 0)
+      AsciiWriter.put (buffer, raw, valueStart, valueLength);
+    else
+      AsciiWriter.put (buffer, value);
+    buffer.put (AsciiWriter.CRLF);
   }
 
   public void write (final DataOutput out) throws IOException
   {
-    StreamHelper.writeSafeUTF (out, type);
-    StreamHelper.writeSafeUTF (out, value);
+    StreamHelper.writeSafeUTF (out, getType ());
+    StreamHelper.writeSafeUTF (out, getValue ());
   }
 
   public void read (final DataInput in) throws IOException
   {
+    raw = null;
+    valueLength = -1;
     type = getCachedString (StreamHelper.readSafeUTF (in));
     value = getCachedString (StreamHelper.readSafeUTF (in));
+    token = EHeaderToken.lookup (type);
   }
 }
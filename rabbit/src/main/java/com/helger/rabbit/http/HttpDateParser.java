@@ -1,25 +1,54 @@
 package com.helger.rabbit.http;
 
-import java.text.DateFormat;
-import java.text.ParsePosition;
-import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.Locale;
 
 /**
  * A utility class that parses date in the http headers. A date in http may be
  * written in many different formats so try them all.
+ * <p>
+ * Parsing is done by hand on the characters of the date, so it does not
+ * allocate and does not need any locking. All dates are in GMT.
  *
  * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
  */
 public class HttpDateParser
 {
-  private static final SimpleDateFormat sdf1 = new SimpleDateFormat ("EE',' dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
-  private static final SimpleDateFormat sdf2 = new SimpleDateFormat ("EEEE, dd-MMM-yy HH:mm:ss 'GMT'", Locale.US);
-  private static final SimpleDateFormat sdf3 = new SimpleDateFormat ("EE MMM d HH:mm:ss yyyy", Locale.US);
-  private static final SimpleDateFormat sdf4 = new SimpleDateFormat ("EE MMM  d HH:mm:ss yyyy", Locale.US);
+  /** The value returned by getTime when a date can not be parsed. */
+  public static final long UNKNOWN = Long.MIN_VALUE;
 
-  private static long offset;
+  private static final String [] DAYS = { "Sun", "Mon", "Tue", "Wed", "Thu", "Fri", "Sat" };
+  private static final String [] MONTHS = { "Jan",
+                                            "Feb",
+                                            "Mar",
+                                            "Apr",
+                                            "May",
+                                            "Jun",
+                                            "Jul",
+                                            "Aug",
+                                            "Sep",
+                                            "Oct",
+                                            "Nov",
+                                            "Dec" };
+
+  private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
+  /** The current http date, updated at most once a second. */
+  private static volatile FormattedSecond currentDate = new FormattedSecond (-1, null);
+
+  /** The current access log date, updated at most once a second. */
+  private static volatile FormattedSecond currentLogDate = new FormattedSecond (-1, null);
+
+  private static final class FormattedSecond
+  {
+    private final long second;
+    private final String text;
+
+    FormattedSecond (final long second, final String text)
+    {
+      this.second = second;
+      this.text = text;
+    }
+  }
 
   /**
    * The default constructor.
@@ -31,79 +60,401 @@ public class HttpDateParser
 
   /**
    * Set the time offset relative GMT.
-   * 
+   *
    * @param offset
    *        the time difference in millis
+   * @deprecated dates are parsed and formatted in GMT so no offset is needed
    */
+  @Deprecated
   public static void setOffset (final long offset)
   {
-    HttpDateParser.offset = offset;
+    // empty
   }
 
   /**
    * Try to get a date from the given string. According to RFC 2068 We have to
    * read 3 formats.
-   * 
+   *
    * @param date
    *        the String we are trying to parse.
    * @return a Date or null if parsing was not possible.
    */
   public static Date getDate (final String date)
   {
-    if (date == null)
-      return null;
+    final long t = getTime (date);
+    return t == UNKNOWN ? null : new Date (t);
+  }
 
-    Date d = getDate (date, sdf1, offset);
-    if (d == null)
+  /**
+   * Try to get the time from the given date. The date may be in RFC 1123, RFC
+   * 850 or asctime format.
+   *
+   * @param date
+   *        the characters we are trying to parse, may be null.
+   * @return the time in millis since the epoch or UNKNOWN if parsing was not
+   *         possible.
+   */
+  public static long getTime (final CharSequence date)
+  {
+    if (date == null)
+      return UNKNOWN;
+    final int len = date.length ();
+    // day name, short or long, we do not check it
+    int i = skipLetters (date, 0);
+    if (i == 0 || i >= len)
+      return UNKNOWN;
+    if (date.charAt (i) == ',')
     {
-      d = getDate (date, sdf2, offset);
-      if (d == null)
-      {
-        d = getDate (date, sdf3, offset);
-        if (d == null)
-        {
-          d = getDate (date, sdf4, offset);
-        }
-      }
+      // "Sun, 06 Nov 1994 08:49:37 GMT" or "Sunday, 06-Nov-94 08:49:37 GMT"
+      if (++i >= len || date.charAt (i) != ' ')
+        return UNKNOWN;
+      final int ds = ++i;
+      i = skipDigits (date, ds, 2);
+      if (i == ds || i >= len)
+        return UNKNOWN;
+      final int day = getNumber (date, ds, i);
+      final char sep = date.charAt (i);
+      if (sep != ' ' && sep != '-')
+        return UNKNOWN;
+      final int month = getMonth (date, ++i);
+      if (month < 0)
+        return UNKNOWN;
+      i += 3;
+      if (i >= len || date.charAt (i) != sep)
+        return UNKNOWN;
+      final int ys = ++i;
+      i = skipDigits (date, ys, 4);
+      if (i - ys != 4 && i - ys != 2)
+        return UNKNOWN;
+      int year = getNumber (date, ys, i);
+      if (i - ys == 2)
+        year = getFullYear (year);
+      if (i >= len || date.charAt (i) != ' ')
+        return UNKNOWN;
+      final long tod = getTimeOfDay (date, i + 1);
+      if (tod < 0)
+        return UNKNOWN;
+      i += 1 + (tod & 0xf);
+      if (i + 4 != len ||
+          date.charAt (i) != ' ' ||
+          date.charAt (i + 1) != 'G' ||
+          date.charAt (i + 2) != 'M' ||
+          date.charAt (i + 3) != 'T')
+        return UNKNOWN;
+      return getTime (year, month, day, tod >> 4);
     }
-    return d;
+
+    // asctime: "Sun Nov  6 08:49:37 1994"
+    if (date.charAt (i) != ' ')
+      return UNKNOWN;
+    final int month = getMonth (date, ++i);
+    if (month < 0)
+      return UNKNOWN;
+    i += 3;
+    final int ds = skipSpaces (date, i);
+    if (ds == i)
+      return UNKNOWN;
+    i = skipDigits (date, ds, 2);
+    if (i == ds || i >= len || date.charAt (i) != ' ')
+      return UNKNOWN;
+    final int day = getNumber (date, ds, i);
+    final long tod = getTimeOfDay (date, i + 1);
+    if (tod < 0)
+      return UNKNOWN;
+    i += 1 + (tod & 0xf);
+    if (i >= len || date.charAt (i) != ' ')
+      return UNKNOWN;
+    final int ys = ++i;
+    i = skipDigits (date, ys, 4);
+    if (i - ys != 4 || i != len)
+      return UNKNOWN;
+    return getTime (getNumber (date, ys, i), month, day, tod >> 4);
   }
 
-  private static Date getDate (final String date, final DateFormat sdf, final long offsetUsed)
+  private static int skipLetters (final CharSequence s, final int start)
   {
-    try
+    int i = start;
+    while (i < s.length () && isLetter (s.charAt (i)))
+      i++;
+    return i;
+  }
+
+  private static int skipSpaces (final CharSequence s, final int start)
+  {
+    int i = start;
+    while (i < s.length () && s.charAt (i) == ' ')
+      i++;
+    return i;
+  }
+
+  private static int skipDigits (final CharSequence s, final int start, final int max)
+  {
+    int i = start;
+    final int end = Math.min (s.length (), start + max);
+    while (i < end && isDigit (s.charAt (i)))
+      i++;
+    return i;
+  }
+
+  private static int getNumber (final CharSequence s, final int start, final int end)
+  {
+    int ret = 0;
+    for (int i = start; i < end; i++)
+      ret = ret * 10 + s.charAt (i) - '0';
+    return ret;
+  }
+
+  private static boolean isLetter (final char c)
+  {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+  }
+
+  private static boolean isDigit (final char c)
+  {
+    return c >= '0' && c <= '9';
+  }
+
+  private static int toLower (final char c)
+  {
+    return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+  }
+
+  /**
+   * Get the month starting at the given index.
+   *
+   * @return the month, 1 - 12, or -1 if there is no valid month name.
+   */
+  private static int getMonth (final CharSequence s, final int start)
+  {
+    if (start + 3 > s.length ())
+      return -1;
+    final int c1 = toLower (s.charAt (start));
+    final int c2 = toLower (s.charAt (start + 1));
+    final int c3 = toLower (s.charAt (start + 2));
+    for (int m = 0; m < MONTHS.length; m++)
     {
-      final ParsePosition pos = new ParsePosition (0);
-      Date d;
-      synchronized (sdf)
-      {
-        d = sdf.parse (date, pos);
-      }
-      if (pos.getIndex () == 0 || pos.getIndex () != date.length ())
-        return null;
-      d.setTime (d.getTime () + offsetUsed);
-      return d;
+      final String name = MONTHS[m];
+      if (c1 == toLower (name.charAt (0)) && c2 == name.charAt (1) && c3 == name.charAt (2))
+        return m + 1;
     }
-    catch (final NumberFormatException e)
+    return -1;
+  }
+
+  /**
+   * Parse a &quot;HH:mm:ss&quot; time, each field may be one or two digits.
+   *
+   * @return the millis since midnight shifted left 4 bits with the number of
+   *         characters used in the low bits, or -1 if the time is not valid.
+   */
+  private static long getTimeOfDay (final CharSequence s, final int start)
+  {
+    final int he = skipDigits (s, start, 2);
+    if (he == start || he >= s.length () || s.charAt (he) != ':')
+      return -1;
+    final int ms = he + 1;
+    final int me = skipDigits (s, ms, 2);
+    if (me == ms || me >= s.length () || s.charAt (me) != ':')
+      return -1;
+    final int ss = me + 1;
+    final int se = skipDigits (s, ss, 2);
+    if (se == ss)
+      return -1;
+    final int hour = getNumber (s, start, he);
+    final int minute = getNumber (s, ms, me);
+    final int second = getNumber (s, ss, se);
+    // allow leap seconds
+    if (hour > 23 || minute > 59 || second > 60)
+      return -1;
+    final long millis = ((hour * 60L + minute) * 60 + second) * 1000;
+    return millis << 4 | (se - start);
+  }
+
+  /**
+   * Get the full year of a two digit year. Like SimpleDateFormat this picks the
+   * year that is within 80 years before and 20 years after the current year.
+   */
+  private static int getFullYear (final int twoDigitYear)
+  {
+    final long days = Math.floorDiv (System.currentTimeMillis (), MILLIS_PER_DAY);
+    final int currentYear = getYear (days);
+    int year = currentYear - currentYear % 100 + twoDigitYear;
+    if (year > currentYear + 20)
+      year -= 100;
+    else
+      if (year <= currentYear - 80)
+        year += 100;
+    return year;
+  }
+
+  private static long getTime (final int year, final int month, final int day, final long timeOfDay)
+  {
+    if (day < 1 || day > getDaysInMonth (year, month))
+      return UNKNOWN;
+    return getDaysFromCivil (year, month, day) * MILLIS_PER_DAY + timeOfDay;
+  }
+
+  private static boolean isLeapYear (final int year)
+  {
+    return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+  }
+
+  private static int getDaysInMonth (final int year, final int month)
+  {
+    switch (month)
     {
-      // ignore...
+      case 2:
+        return isLeapYear (year) ? 29 : 28;
+      case 4:
+      case 6:
+      case 9:
+      case 11:
+        return 30;
+      default:
+        return 31;
     }
-    return null;
+  }
+
+  /**
+   * Get the number of days since 1970-01-01 for the given date in the
+   * proleptic Gregorian calendar.
+   */
+  private static long getDaysFromCivil (final int year, final int month, final int day)
+  {
+    final int y = month <= 2 ? year - 1 : year;
+    final int era = (y >= 0 ? y : y - 399) / 400;
+    final int yoe = y - era * 400;
+    final int doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+    final int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+    return era * 146097L + doe - 719468;
+  }
+
+  /**
+   * Split the number of days since 1970-01-01 into year, month and day.
+   *
+   * @return a long holding year * 10000 + month * 100 + day
+   */
+  private static long getCivilFromDays (final long days)
+  {
+    final long z = days + 719468;
+    final long era = (z >= 0 ? z : z - 146096) / 146097;
+    final int doe = (int) (z - era * 146097);
+    final int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+    final int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+    final int mp = (5 * doy + 2) / 153;
+    final int day = doy - (153 * mp + 2) / 5 + 1;
+    final int month = mp < 10 ? mp + 3 : mp - 9;
+    final long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+    return year * 10000 + month * 100 + day;
+  }
+
+  private static int getYear (final long days)
+  {
+    return (int) (getCivilFromDays (days) / 10000);
   }
 
   /**
    * Get a String from the date.
-   * 
+   *
    * @param d
    *        the Date to format.
    * @return a String describing the date in the right way.
    */
   public static String getDateString (final Date d)
   {
-    synchronized (sdf1)
+    return getDateString (d.getTime ());
+  }
+
+  /**
+   * Get the RFC 1123 date String, &quot;Sun, 06 Nov 1994 08:49:37 GMT&quot;,
+   * for the given time.
+   *
+   * @param millis
+   *        the time in millis since the epoch
+   * @return a String describing the date in the right way.
+   */
+  public static String getDateString (final long millis)
+  {
+    final long days = Math.floorDiv (millis, MILLIS_PER_DAY);
+    final long civil = getCivilFromDays (days);
+    final int tod = (int) (Math.floorMod (millis, MILLIS_PER_DAY) / 1000);
+    final StringBuilder sb = new StringBuilder (29);
+    sb.append (DAYS[(int) Math.floorMod (days + 4, 7L)]).append (", ");
+    append2 (sb, (int) (civil % 100)).append (' ');
+    sb.append (MONTHS[(int) (civil / 100 % 100) - 1]).append (' ');
+    sb.append (civil / 10000).append (' ');
+    appendTime (sb, tod).append (" GMT");
+    return sb.toString ();
+  }
+
+  /**
+   * Get the access log date String, &quot;06/Nov/1994:08:49:37 GMT&quot;, for
+   * the given time.
+   *
+   * @param millis
+   *        the time in millis since the epoch
+   * @return the formatted date
+   */
+  public static String getLogDateString (final long millis)
+  {
+    final long days = Math.floorDiv (millis, MILLIS_PER_DAY);
+    final long civil = getCivilFromDays (days);
+    final int tod = (int) (Math.floorMod (millis, MILLIS_PER_DAY) / 1000);
+    final StringBuilder sb = new StringBuilder (24);
+    append2 (sb, (int) (civil % 100)).append ('/');
+    sb.append (MONTHS[(int) (civil / 100 % 100) - 1]).append ('/');
+    sb.append (civil / 10000).append (':');
+    appendTime (sb, tod).append (" GMT");
+    return sb.toString ();
+  }
+
+  /**
+   * Get the RFC 1123 date String for the current time. The String is only
+   * formatted once a second so this is cheap to call for every response.
+   *
+   * @return the current date
+   */
+  public static String getCurrentDateString ()
+  {
+    final long now = System.currentTimeMillis ();
+    final long second = Math.floorDiv (now, 1000L);
+    FormattedSecond fs = currentDate;
+    if (fs.second != second)
     {
-      return sdf1.format (d);
+      fs = new FormattedSecond (second, getDateString (now));
+      currentDate = fs;
     }
+    return fs.text;
+  }
+
+  /**
+   * Get the access log date String for the current time. The String is only
+   * formatted once a second.
+   *
+   * @return the current date
+   */
+  public static String getCurrentLogDateString ()
+  {
+    final long now = System.currentTimeMillis ();
+    final long second = Math.floorDiv (now, 1000L);
+    FormattedSecond fs = currentLogDate;
+    if (fs.second != second)
+    {
+      fs = new FormattedSecond (second, getLogDateString (now));
+      currentLogDate = fs;
+    }
+    return fs.text;
+  }
+
+  private static StringBuilder append2 (final StringBuilder sb, final int n)
+  {
+    return sb.append ((char) ('0' + n / 10)).append ((char) ('0' + n % 10));
+  }
+
+  private static StringBuilder appendTime (final StringBuilder sb, final int secondOfDay)
+  {
+    append2 (sb, secondOfDay / 3600).append (':');
+    append2 (sb, secondOfDay / 60 % 60).append (':');
+    return append2 (sb, secondOfDay % 60);
   }
 
   private static void compare (final String d1, final String d2)
@@ -120,7 +471,7 @@ public class HttpDateParser
 
   /**
    * Simple self test method.
-   * 
+   *
    * @param args
    *        the command line arguments
    */
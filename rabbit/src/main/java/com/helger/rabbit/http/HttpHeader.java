@@ -3,7 +3,7 @@ package com.helger.rabbit.http;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 
 import com.helger.rabbit.util.StringCache;
 
@@ -51,18 +51,55 @@ public class HttpHeader extends GeneralHeader
    */
   public byte [] getBytes ()
   {
-    final StringBuilder sb = new StringBuilder ();
-    sb.append (getRequestLine ());
-    sb.append (Header.CRLF);
-    super.fillBuffer (sb);
-    try
+    final byte [] ret = new byte [getByteLength ()];
+    writeTo (ByteBuffer.wrap (ret));
+    return ret;
+  }
+
+  /**
+   * Get the number of bytes that writeTo and getBytes will produce.
+   *
+   * @return the length in bytes of this header
+   */
+  public int getByteLength ()
+  {
+    int len = AsciiWriter.length (method) + 1 + AsciiWriter.length (requestURI);
+    if (httpVersion != null)
+      len += 1 + httpVersion.length ();
+    return len + 2 + getHeadersByteLength ();
+  }
+
+  /**
+   * Write this header as US-ASCII, and any content, straight into the given
+   * buffer. Standard status lines and well known header names are written
+   * from pre-encoded bytes.
+   *
+   * @param buffer
+   *        the ByteBuffer to write to, it must have at least getByteLength
+   *        bytes remaining
+   * @throws java.nio.BufferOverflowException
+   *         if the buffer is too small
+   */
+  public void writeTo (final ByteBuffer buffer)
+  {
+    final byte [] statusLine = EStatusCode.getStatusLineBytes (method, requestURI, httpVersion);
+    if (statusLine != null)
     {
-      return sb.toString ().getBytes ("US-ASCII");
+      buffer.put (statusLine);
     }
-    catch (final UnsupportedEncodingException e)
+    else
     {
-      throw new RuntimeException ("Failed to find ascii", e);
+      AsciiWriter.put (buffer, method);
+      buffer.put ((byte) ' ');
+      AsciiWriter.put (buffer, requestURI);
+      if (httpVersion != null)
+      {
+        buffer.put ((byte) ' ');
+        AsciiWriter.put (buffer, httpVersion);
+      }
+      buffer.put (AsciiWriter.CRLF);
     }
+    writeHeaders (buffer);
   }
 
   /**
@@ -1,6 +1,7 @@
 package com.helger.rabbit.http;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 
 /**
  * A http header with some predefined content
@@ -28,15 +29,18 @@ public class HttpHeaderWithContent extends HttpHeader
   }
 
   @Override
-  public byte [] getBytes ()
+  public int getByteLength ()
   {
-    final byte [] header = super.getBytes ();
-    if (content == null)
-      return header;
-    final byte [] res = new byte [header.length + content.length];
-    System.arraycopy (header, 0, res, 0, header.length);
-    System.arraycopy (content, 0, res, header.length, content.length);
-    return res;
+    final int len = super.getByteLength ();
+    return content == null ? len : len + content.length;
+  }
+
+  @Override
+  public void writeTo (final ByteBuffer buffer)
+  {
+    super.writeTo (buffer);
+    if (content != null)
+      buffer.put (content);
   }
 
   /**
@@ -2,6 +2,7 @@ package com.helger.rabbit.httpio;
 
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -10,11 +11,14 @@ import com.helger.rabbit.http.Header;
 import com.helger.rabbit.http.HttpHeader;
 
 /**
- * A parser of http headers
+ * A parser of http headers. The parser scans the bytes of the ByteBuffer and
+ * copies each header line once, the type and value of each Header are only
+ * turned into Strings when they are used. A line that is split over several
+ * reads is not scanned again when more data arrives.
  *
  * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
  */
-public class HttpHeaderParser implements LineListener
+public class HttpHeaderParser
 {
   private static final Logger LOGGER = LoggerFactory.getLogger (HttpHeaderParser.class);
 
@@ -30,14 +34,22 @@ public class HttpHeaderParser implements LineListener
                                                                                     (byte) '\r',
                                                                                     (byte) '\n' });
 
+  /** The largest chunk of header bytes to allocate up front. */
+  private static final int MAX_CHUNK_SIZE = 8192;
+
   private final boolean request;
   private final boolean strictHttp;
-  private final LineReader lr;
   private HttpHeader header;
   private Header head;
   private boolean append = false;
   private boolean headerRead = false;
 
+  // Where the header lines are copied to, shared by the Headers.
+  private byte [] chunk;
+  private int chunkUsed;
+  // The number of bytes of the current, partial, line that have been scanned.
+  private int scanned;
+
   /**
    * Create a new HttpHeaderParser
    *
@@ -51,7 +63,6 @@ public class HttpHeaderParser implements LineListener
   {
     this.request = request;
     this.strictHttp = strictHttp;
-    lr = new LineReader (strictHttp);
   }
 
   /**
@@ -63,6 +74,9 @@ public class HttpHeaderParser implements LineListener
     head = null;
     append = false;
     headerRead = false;
+    chunk = null;
+    chunkUsed = 0;
+    scanned = 0;
   }
 
   /**
@@ -87,7 +101,8 @@ public class HttpHeaderParser implements LineListener
     if (!request && header == null && !verifyResponse (buffer))
       return true;
     while (!headerRead && buffer.hasRemaining ())
-      lr.readLine (buffer, this);
+      if (!readLine (buffer))
+        break;
     return headerRead;
   }
 
@@ -106,6 +121,7 @@ public class HttpHeaderParser implements LineListener
     {
       LOGGER.warn ("Found a last-chunk, trying to ignore it.");
       buffer.position (buffer.position () + EXTRA_LAST_CHUNK.capacity ());
+      buffer.mark ();
       return verifyResponse (buffer);
     }
 
@@ -148,10 +164,45 @@ public class HttpHeaderParser implements LineListener
     }
   }
 
-  /** Handle a newly read line. */
-  public void lineRead (final String line)
+  /**
+   * Try to find the end of the current line. The line starts at the position of
+   * the buffer, bytes that were scanned by an earlier call are skipped. If a
+   * line ending is found the line is handled and the buffers mark is set to the
+   * next position.
+   *
+   * @return true if a full line was read, false if more data is needed
+   */
+  private boolean readLine (final ByteBuffer buffer)
   {
-    if (line.length () == 0)
+    final int start = buffer.position ();
+    final int limit = buffer.limit ();
+    if (scanned > limit - start)
+      scanned = 0;
+    for (int i = start + scanned; i < limit; i++)
+    {
+      if (buffer.get (i) == '\n')
+      {
+        final boolean crlf = i > start && buffer.get (i - 1) == '\r';
+        // In strict mode a single \n is part of the line
+        if (crlf || !strictHttp)
+        {
+          scanned = 0;
+          buffer.position (i + 1);
+          buffer.mark ();
+          lineRead (buffer, start, crlf ? i - 1 : i);
+          return true;
+        }
+      }
+    }
+    scanned = limit - start;
+    buffer.position (limit);
+    return false;
+  }
+
+  /** Handle a newly read line, the bytes from start to end of the buffer. */
+  private void lineRead (final ByteBuffer buffer, final int start, final int end)
+  {
+    if (start == end)
     {
       headerRead = header != null;
       return;
@@ -160,7 +211,7 @@ public class HttpHeaderParser implements LineListener
     if (header == null)
     {
       header = new HttpHeader ();
-      header.setRequestLine (line);
+      header.setRequestLine (getString (buffer, start, end));
       headerRead = false;
       return;
     }
@@ -171,64 +222,52 @@ public class HttpHeaderParser implements LineListener
       return;
     }
 
-    char c;
-    if (header.size () == 0 && line.length () > 0 && ((c = line.charAt (0)) == ' ' || c == '\t'))
+    final byte c = buffer.get (start);
+    if (header.size () == 0 && (c == ' ' || c == '\t'))
     {
-      header.setReasonPhrase (header.getReasonPhrase () + line);
+      header.setReasonPhrase (header.getReasonPhrase () + getString (buffer, start, end));
       headerRead = false;
       return;
     }
 
-    readHeader (line);
+    readHeader (buffer, start, end);
     headerRead = false;
   }
 
-  private void readHeader (final String msg)
+  private void readHeader (final ByteBuffer buffer, final int start, final int end)
   {
-    if (msg == null)
-    {
-      final String err = "Couldnt read headers, connection must be closed";
-      throw (new BadHttpHeaderException (err));
-    }
-    char c = msg.charAt (0);
+    byte c = buffer.get (start);
     if (c == ' ' || c == '\t' || append)
     {
       if (head != null)
       {
-        head.append (msg);
+        head.append (getString (buffer, start, end));
         append = checkQuotes (head.getValue ());
       }
       else
       {
-        final String ex = "Malformed header: msg: " + msg;
+        final String ex = "Malformed header: msg: " + getString (buffer, start, end);
         throw (new BadHttpHeaderException (ex));
       }
       return;
     }
-    final int i = msg.indexOf (':');
-    if (i < 0)
+    int i = start;
+    while (i < end && buffer.get (i) != ':')
+      i++;
+    if (i == end)
     {
-      switch (msg.charAt (0))
+      if (startsWithHttp (buffer, start, end))
       {
-        case 'h':
-        case 'H':
-          if (msg.toLowerCase ().startsWith ("http/"))
-          {
-            /*
-             * ignoring header since it looks like a duplicate responseline
-             */
-            return;
-          }
-          // fallthrough
-        default:
-          throw (new BadHttpHeaderException ("Malformed header:" + msg));
+        /*
+         * ignoring header since it looks like a duplicate responseline
+         */
+        return;
       }
+      throw (new BadHttpHeaderException ("Malformed header:" + getString (buffer, start, end)));
     }
     int j = i;
-    while (j > 0 && ((c = msg.charAt (j - 1)) == ' ' || c == '\t'))
+    while (j > start && ((c = buffer.get (j - 1)) == ' ' || c == '\t'))
       j--;
-    // ok, the header may be empty, so trim away whites.
-    String value = msg.substring (i + 1);
 
     /*
      * there are some sites with broken headers like
@@ -236,14 +275,116 @@ public class HttpHeaderParser implements LineListener
      * (20040416) /robo msg is: 'Cache-control: must-revalidate"' so we only
      * check for append when in strict mode...
      */
+    int valueStart = i + 1;
+    int valueEnd = end;
     if (strictHttp)
-      append = checkQuotes (value);
+      append = checkQuotes (buffer, valueStart, valueEnd);
     if (!append)
-      value = value.trim ();
-    head = new Header (msg.substring (0, j), value);
+    {
+      // ok, the header may be empty, so trim away whites.
+      while (valueStart < valueEnd && (buffer.get (valueStart) & 0xff) <= ' ')
+        valueStart++;
+      while (valueEnd > valueStart && (buffer.get (valueEnd - 1) & 0xff) <= ' ')
+        valueEnd--;
+    }
+
+    final int offset = copyLine (buffer, start, end) - start;
+    head = new Header (chunk, start + offset, j - start, valueStart + offset, valueEnd - valueStart);
     header.addHeader (head);
   }
 
+  /**
+   * Copy a header line into the current chunk, a new chunk is started when the
+   * line does not fit. Old chunks are still used by the Headers that point into
+   * them.
+   *
+   * @return the index in the chunk of the first byte of the line
+   */
+  private int copyLine (final ByteBuffer buffer, final int start, final int end)
+  {
+    final int length = end - start;
+    if (chunk == null || chunk.length - chunkUsed < length)
+    {
+      // Most likely the rest of the header is already in the buffer, but
+      // the chunk must not hold on to the body that follows it.
+      final int size = Math.min (MAX_CHUNK_SIZE, getHeaderBlockEnd (buffer, start) - start);
+      chunk = new byte [Math.max (length, size)];
+      chunkUsed = 0;
+    }
+    final ByteBuffer src = buffer.duplicate ();
+    src.limit (end).position (start);
+    src.get (chunk, chunkUsed, length);
+    final int ret = chunkUsed;
+    chunkUsed += length;
+    return ret;
+  }
+
+  /**
+   * Find the end of the header block, the empty line, that the line starting
+   * at start is part of.
+   *
+   * @return the index after the line ending that starts the empty line, or the
+   *         limit of the buffer if the empty line has not been read yet
+   */
+  private static int getHeaderBlockEnd (final ByteBuffer buffer, final int start)
+  {
+    final int limit = buffer.limit ();
+    for (int i = start; i < limit - 1; i++)
+    {
+      if (buffer.get (i) == '\n')
+      {
+        final byte next = buffer.get (i + 1);
+        if (next == '\n' || (next == '\r' && i + 2 < limit && buffer.get (i + 2) == '\n'))
+          return i + 1;
+      }
+    }
+    return limit;
+  }
+
+  private static String getString (final ByteBuffer buffer, final int start, final int end)
+  {
+    if (buffer.hasArray ())
+      return new String (buffer.array (),
+                         buffer.arrayOffset () + start,
+                         end - start,
+                         StandardCharsets.ISO_8859_1);
+    final byte [] arr = new byte [end - start];
+    for (int i = start; i < end; i++)
+      arr[i - start] = buffer.get (i);
+    return new String (arr, StandardCharsets.ISO_8859_1);
+  }
+
+  private static boolean startsWithHttp (final ByteBuffer buffer, final int start, final int end)
+  {
+    final int len = HTTP_IDENTIFIER.capacity ();
+    if (end - start < len)
+      return false;
+    for (int i = 0; i < len; i++)
+    {
+      int b = buffer.get (start + i);
+      if (b >= 'a' && b <= 'z')
+        b -= 'a' - 'A';
+      if (b != HTTP_IDENTIFIER.get (i))
+        return false;
+    }
+    return true;
+  }
+
+  private boolean checkQuotes (final ByteBuffer buffer, final int start, final int end)
+  {
+    boolean halfquote = false;
+    for (int q = start; q < end; q++)
+    {
+      final byte c = buffer.get (q);
+      if (c == '\\')
+        q++; // skip one...
+      else
+        if (c == '"')
+          halfquote = !halfquote;
+    }
+    return halfquote;
+  }
+
   private boolean checkQuotes (final String v)
   {
     int q = v.indexOf ('"');
@@ -7,6 +7,7 @@ import java.nio.channels.SocketChannel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.helger.rabbit.http.EHeaderToken;
 import com.helger.rabbit.http.HttpHeader;
 import com.helger.rabbit.io.BufferHandle;
 import com.helger.rabbit.util.ITrafficLogger;
@@ -213,7 +214,7 @@ public class HttpHeaderReader extends BaseSocketHandler implements IReadHandler
   private void setState (final HttpHeader header)
   {
     dataSize = -1;
-    final String cl = header.getHeader ("Content-Length");
+    final String cl = header.getHeader (EHeaderToken.CONTENT_LENGTH);
     if (cl != null)
     {
       try
@@ -225,9 +226,9 @@ public class HttpHeaderReader extends BaseSocketHandler implements IReadHandler
         dataSize = -1;
       }
     }
-    final String con = header.getHeader ("Connection");
+    final String con = header.getHeader (EHeaderToken.CONNECTION);
     // Netscape specific header...
-    final String pcon = header.getHeader ("Proxy-Connection");
+    final String pcon = header.getHeader (EHeaderToken.PROXY_CONNECTION);
     if (con != null && con.equalsIgnoreCase ("close"))
       setKeepAlive (false);
     if (keepalive && pcon != null && pcon.equalsIgnoreCase ("close"))
@@ -237,7 +238,7 @@ public class HttpHeaderReader extends BaseSocketHandler implements IReadHandler
     {
       if (header.getResponseHTTPVersion ().equals ("HTTP/1.1"))
       {
-        final String chunked = header.getHeader ("Transfer-Encoding");
+        final String chunked = header.getHeader (EHeaderToken.TRANSFER_ENCODING);
         setKeepAlive (true);
         ischunked = false;
 
@@ -250,7 +251,7 @@ public class HttpHeaderReader extends BaseSocketHandler implements IReadHandler
            * means that we throw away footers and it is legal.
            */
           ischunked = true;
-          header.removeHeader ("Content-Length");
+          header.removeHeader (EHeaderToken.CONTENT_LENGTH);
           dataSize = -1;
         }
       }
@@ -269,18 +270,18 @@ public class HttpHeaderReader extends BaseSocketHandler implements IReadHandler
       {
         if (httpVersion.equals ("HTTP/1.1"))
         {
-          final String chunked = header.getHeader ("Transfer-Encoding");
+          final String chunked = header.getHeader (EHeaderToken.TRANSFER_ENCODING);
           if (chunked != null && chunked.equalsIgnoreCase ("chunked"))
           {
             ischunked = true;
-            header.removeHeader ("Content-Length");
+            header.removeHeader (EHeaderToken.CONTENT_LENGTH);
             dataSize = -1;
           }
         }
         else
           if (httpVersion.equals ("HTTP/1.0"))
           {
-            final String ka = header.getHeader ("Connection");
+            final String ka = header.getHeader (EHeaderToken.CONNECTION);
             if (ka == null || !ka.equalsIgnoreCase ("Keep-Alive"))
               setKeepAlive (false);
           }
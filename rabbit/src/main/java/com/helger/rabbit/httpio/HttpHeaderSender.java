@@ -7,8 +7,10 @@ import java.nio.channels.SocketChannel;
 
 import com.helger.rabbit.http.HttpHeader;
 import com.helger.rabbit.io.BufferHandle;
+import com.helger.rabbit.io.CacheBufferHandle;
 import com.helger.rabbit.io.SimpleBufferHandle;
 import com.helger.rabbit.util.ITrafficLogger;
+import com.helger.rnio.IBufferHandler;
 import com.helger.rnio.INioHandler;
 
 /**
@@ -45,10 +47,45 @@ public class HttpHeaderSender implements BlockSentListener
                            final HttpHeader header,
                            final boolean fullURI,
                            final HttpHeaderSentListener sender) throws IOException
+  {
+    this (channel, nioHandler, null, tl, header, fullURI, sender);
+  }
+
+  /**
+   * Create a new HttpHeaderSender that writes the header into a buffer taken
+   * from the given buffer handler. The buffer is given back once the header has
+   * been sent.
+   *
+   * @param channel
+   *        the SocketChannel to write the header to
+   * @param nioHandler
+   *        the NioHandler to use to wait for write ready
+   * @param bufferHandler
+   *        the IBufferHandler to get the buffer from, may be null in which case
+   *        a new buffer is allocated
+   * @param tl
+   *        the statics gatherer to use
+   * @param header
+   *        the HttpHeader to send
+   * @param fullURI
+   *        if false then try to change header.uri into just the file
+   * @param sender
+   *        the listener that will be notified when the header has been sent (or
+   *        sending has failed
+   * @throws IOException
+   *         if the header can not be converted to network data
+   */
+  public HttpHeaderSender (final SocketChannel channel,
+                           final INioHandler nioHandler,
+                           final IBufferHandler bufferHandler,
+                           final ITrafficLogger tl,
+                           final HttpHeader header,
+                           final boolean fullURI,
+                           final HttpHeaderSentListener sender) throws IOException
   {
     this.fullURI = fullURI;
     this.sender = sender;
-    final BufferHandle bh = new SimpleBufferHandle (getBuffer (header));
+    final BufferHandle bh = getBufferHandle (header, bufferHandler);
     bs = new BlockSender (channel, nioHandler, tl, bh, false, this);
   }
 
@@ -60,7 +97,8 @@ public class HttpHeaderSender implements BlockSentListener
     bs.write ();
   }
 
-  private ByteBuffer getBuffer (final HttpHeader header) throws IOException
+  private BufferHandle getBufferHandle (final HttpHeader header,
+                                        final IBufferHandler bufferHandler) throws IOException
   {
     final String uri = header.getRequestURI ();
     try
@@ -73,8 +111,31 @@ public class HttpHeaderSender implements BlockSentListener
           file = "/";
         header.setRequestURI (file);
       }
-      final byte [] bytes = header.getBytes ();
-      return ByteBuffer.wrap (bytes);
+      final int length = header.getByteLength ();
+      if (bufferHandler != null)
+      {
+        ByteBuffer buffer = bufferHandler.getBuffer ();
+        if (buffer.capacity () < length)
+        {
+          buffer.clear ();
+          buffer.limit (0);
+          buffer = bufferHandler.growBuffer (buffer);
+        }
+        if (buffer.capacity () >= length)
+        {
+          buffer.clear ();
+          header.writeTo (buffer);
+          buffer.flip ();
+          return new CacheBufferHandle (bufferHandler, buffer);
+        }
+        // really big header or content, do not hold on to a pooled buffer
+        buffer.clear ();
+        bufferHandler.putBuffer (buffer);
+      }
+      final ByteBuffer buffer = ByteBuffer.allocate (length);
+      header.writeTo (buffer);
+      buffer.flip ();
+      return new SimpleBufferHandle (buffer);
     }
     finally
     {
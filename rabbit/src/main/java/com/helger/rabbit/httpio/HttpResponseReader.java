@@ -64,7 +64,7 @@ public class HttpResponseReader implements HttpHeaderSentListener, HttpHeaderLis
     this.bufHandler = bufHandler;
     this.strictHttp = strictHttp;
     this.listener = listener;
-    sender = new HttpHeaderSender (channel, nioHandler, tl, header, fullURI, this);
+    sender = new HttpHeaderSender (channel, nioHandler, bufHandler, tl, header, fullURI, this);
   }
 
   /**
@@ -27,6 +27,22 @@ public class CacheBufferHandle implements BufferHandle
     this.bh = bh;
   }
 
+  /**
+   * Create a new CacheBufferHandle that holds the given buffer. The buffer
+   * must have been taken from the given BufferHandler and will be given back to
+   * it when it has been fully used.
+   *
+   * @param bh
+   *        the BufferHandler that is the actual cache
+   * @param buffer
+   *        the ByteBuffer to start with
+   */
+  public CacheBufferHandle (final IBufferHandler bh, final ByteBuffer buffer)
+  {
+    this.bh = bh;
+    this.buffer = buffer;
+  }
+
   public synchronized boolean isEmpty ()
   {
     return buffer == null || !buffer.hasRemaining ();
@@ -6,7 +6,6 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.channels.FileChannel;
 import java.nio.channels.WritableByteChannel;
-import java.util.Date;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -76,8 +75,7 @@ public class FileSender implements MetaHandler, HttpHeaderSentListener
     length = fle.length ();
     response.setHeader ("Content-Length", Long.toString (length));
     con.setContentLength (response.getHeader ("Content-Length"));
-    final Date lm = new Date (fle.lastModified () - con.getProxy ().getOffset ());
-    response.setHeader ("Last-Modified", HttpDateParser.getDateString (lm));
+    response.setHeader ("Last-Modified", HttpDateParser.getDateString (fle.lastModified ()));
     try
     {
       fis = new FileInputStream (filename);
@@ -107,6 +105,7 @@ public class FileSender implements MetaHandler, HttpHeaderSentListener
   {
     final HttpHeaderSender hhs = new HttpHeaderSender (con.getChannel (),
                                                        con.getNioHandler (),
+                                                       con.getProxy ().getBufferHandler (),
                                                        tlClient,
                                                        header,
                                                        true,
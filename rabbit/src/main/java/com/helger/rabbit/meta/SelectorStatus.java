@@ -6,7 +6,11 @@ import java.util.Date;
 import java.util.Set;
 
 import com.helger.rabbit.proxy.HtmlPage;
+import com.helger.rnio.INioHandler;
 import com.helger.rnio.ISelectorVisitor;
+import com.helger.rnio.impl.MultiSelectorNioHandler;
+import com.helger.rnio.statistics.LatencyHistogram;
+import com.helger.rnio.statistics.SelectorStatistics;
 
 /**
  * A status page for the proxy.
@@ -36,17 +40,34 @@ public class SelectorStatus extends BaseMetaHandler
     sb.append (new Date ());
     sb.append ("<p>\n");
 
-    con.getNioHandler ().visitSelectors (new ISelectorVisitor ()
+    final INioHandler nio = con.getNioHandler ();
+    if (nio instanceof MultiSelectorNioHandler)
+    {
+      final MultiSelectorNioHandler msnh = (MultiSelectorNioHandler) nio;
+      sb.append ("Owned channels: ").append (msnh.getNumOwnedChannels ());
+      sb.append (", wakeups avoided: ").append (msnh.getWakeupsAvoided ());
+      sb.append (", channels moved: ").append (msnh.getChannelsMoved ());
+      sb.append ("<p>\n");
+    }
+
+    nio.visitSelectors (new ISelectorVisitor ()
     {
       int count = 0;
+      Selector current;
 
       public void selector (final Selector selector)
+      {
+        current = selector;
+      }
+
+      public void statistics (final SelectorStatistics stats)
       {
         final boolean odd = (count & 1) == 1;
         final String trColor = odd ? "#EE8888" : "#DD6666";
         final String tdColor = odd ? "#EEFFFF" : "#DDDDFF";
-        appendKeys (sb, selector.selectedKeys (), "Selected key", trColor, tdColor);
-        appendKeys (sb, selector.keys (), "Registered key", trColor, tdColor);
+        appendStatistics (sb, count, stats, trColor, tdColor);
+        appendKeys (sb, current.selectedKeys (), "Selected key", trColor, tdColor);
+        appendKeys (sb, current.keys (), "Registered key", trColor, tdColor);
         count++;
       }
 
@@ -55,6 +76,66 @@ public class SelectorStatus extends BaseMetaHandler
     });
   }
 
+  private static String toMicros (final long nanos)
+  {
+    return Long.toString (nanos / 1000);
+  }
+
+  private void appendStatistics (final StringBuilder sb,
+                                 final int id,
+                                 final SelectorStatistics stats,
+                                 final String thColor,
+                                 final String trColor)
+  {
+    final long loops = stats.getLoops ();
+    sb.append ("Selector ").append (id);
+    sb.append (": loops: ").append (loops);
+    sb.append (", registered keys: ").append (stats.getRegisteredKeys ());
+    sb.append (", queued tasks: ").append (stats.getQueuedTasks ());
+    sb.append (", ready keys: ").append (stats.getReadyKeys ());
+    sb.append (" (max ").append (stats.getMaxReadyKeys ()).append (" per select)");
+    sb.append (", tasks: ").append (stats.getTasks ());
+    sb.append (" (max ").append (stats.getMaxTasks ()).append (" per loop)");
+    sb.append (", spin evasions: ").append (stats.getSpinEvasions ());
+    sb.append (", channels moved in: ").append (stats.getChannelsMovedIn ());
+    sb.append (", moved out: ").append (stats.getChannelsMovedOut ());
+    sb.append (", inline handlers: ").append (stats.getInlineHandlers ());
+    sb.append (", offloaded handlers: ").append (stats.getOffloadedHandlers ());
+    sb.append (" (").append (stats.getOffloadedOverBudget ()).append (" over budget)");
+    sb.append (", spins: ").append (stats.getSpins ());
+    sb.append (" (").append (stats.getSpinHits ()).append (" found work, ");
+    sb.append (stats.getSpinNanos () / 1000000).append (" ms, ");
+    sb.append (stats.getSpinBudgetExhausted ()).append (" over budget)");
+    sb.append ("<br>\n");
+
+    sb.append (HtmlPage.getTableHeader (100, 1));
+    sb.append ("<tr bgcolor=\"").append (thColor).append ("\">");
+    sb.append ("<th width=\"40%\">Time (&micro;s)</th>" +
+               "<th>p50</th>" +
+               "<th>p90</th>" +
+               "<th>p99</th>" +
+               "<th>max</th>" +
+               "</tr>\n");
+    appendHistogram (sb, "Waiting in select", stats.getSelectTimes (), trColor);
+    appendHistogram (sb, "Handling one loop", stats.getHandleTimes (), trColor);
+    appendHistogram (sb, "Handling one ready key", stats.getKeyTimes (), trColor);
+    sb.append ("</table>\n<br>\n");
+  }
+
+  private void appendHistogram (final StringBuilder sb,
+                                final String what,
+                                final LatencyHistogram h,
+                                final String trColor)
+  {
+    sb.append ("<tr bgcolor=\"").append (trColor).append ("\"><td>");
+    sb.append (what);
+    sb.append ("</td><td>").append (toMicros (h.getValueAtPercentile (50)));
+    sb.append ("</td><td>").append (toMicros (h.getValueAtPercentile (90)));
+    sb.append ("</td><td>").append (toMicros (h.getValueAtPercentile (99)));
+    sb.append ("</td><td>").append (toMicros (h.getMax ()));
+    sb.append ("</td></tr>\n");
+  }
+
   private void appendKeys (final StringBuilder sb,
                            final Set <SelectionKey> sks,
                            final String header,
@@ -12,6 +12,11 @@ import com.helger.rabbit.proxy.HtmlPage;
 import com.helger.rabbit.proxy.HttpProxy;
 import com.helger.rabbit.proxy.TrafficLoggerHandler;
 import com.helger.rabbit.util.ITrafficLogger;
+import com.helger.rabbit.util.StringCache;
+import com.helger.rnio.IBufferHandler;
+import com.helger.rnio.impl.Acceptor;
+import com.helger.rnio.impl.AdmissionController;
+import com.helger.rnio.impl.PooledBufferHandler;
 
 /**
  * A status page for the proxy.
@@ -44,6 +49,11 @@ public class Status extends BaseMetaHandler
     sb.append ("Started at: " + new Date (proxy.getStartTime ()) + "<br>\n");
     sb.append ("Current time: " + new Date () + "<br>\n");
     sb.append ("Alive and kicking with " + connections.size () + " current connections.<br>\n");
+    for (final Acceptor acceptor : proxy.getAcceptors ())
+      appendAcceptor (sb, acceptor);
+    final AdmissionController ac = proxy.getAdmissionController ();
+    if (ac != null)
+      appendAdmission (sb, ac);
 
     sb.append (HtmlPage.getTableHeader (100, 1));
     sb.append (HtmlPage.getTableTopicRow ());
@@ -62,6 +72,11 @@ public class Status extends BaseMetaHandler
     }
     sb.append ("</table>\n<br>\n");
 
+    final IBufferHandler bh = proxy.getBufferHandler ();
+    if (bh instanceof PooledBufferHandler)
+      appendBufferPool (sb, (PooledBufferHandler) bh);
+    appendStringCache (sb, StringCache.getSharedInstance ());
+
     sb.append (HtmlPage.getTableHeader (100, 1));
     sb.append (HtmlPage.getTableTopicRow ());
     sb.append ("<th width=\"20%\">InetAddress</th><th>Id</th>" +
@@ -100,6 +115,59 @@ public class Status extends BaseMetaHandler
     sb.append ("</table>\n");
   }
 
+  private void appendAcceptor (final StringBuilder sb, final Acceptor acceptor)
+  {
+    final long events = acceptor.getAcceptEvents ();
+    final long accepted = acceptor.getAccepted ();
+    sb.append ("Accepted " + accepted + " connections in " + events + " accept events");
+    if (accepted > 0)
+    {
+      sb.append (", average accept time: " + acceptor.getAcceptNanos () / accepted / 1000 + " &micro;s");
+      sb.append (", largest batch: " + acceptor.getMaxBatch () + " of " + acceptor.getBatchSize ());
+      sb.append (", full batches: " + acceptor.getFullBatches ());
+    }
+    sb.append (".<br>\n");
+  }
+
+  private void appendAdmission (final StringBuilder sb, final AdmissionController ac)
+  {
+    sb.append ("Admission control: " + ac.getAction ());
+    sb.append (", overloaded: " + ac.isOverloaded ());
+    sb.append (", overloads: " + ac.getOverloads ());
+    sb.append (", time overloaded: " + ac.getOverloadMillis () + " ms");
+    sb.append (", paused accepts: " + ac.getPauses ());
+    sb.append (", rejected connections: " + ac.getRejected ());
+    for (final AdmissionController.Limit l : ac.getLimits ())
+      sb.append (", " + l + " (tripped " + l.getTrips () + " times)");
+    sb.append (".<br>\n");
+  }
+
+  private void appendBufferPool (final StringBuilder sb, final PooledBufferHandler pbh)
+  {
+    sb.append (HtmlPage.getTableHeader (100, 1));
+    sb.append (HtmlPage.getTableTopicRow ());
+    sb.append ("<th>Buffer size</th><th>Hits</th><th>Misses</th>" +
+               "<th>Outstanding</th><th>Pooled</th><th>Dropped</th></tr>\n");
+    for (int i = 0; i < pbh.getNumSizeClasses (); i++)
+    {
+      sb.append ("<tr><td>").append (pbh.getSize (i));
+      sb.append ("</td><td>").append (pbh.getHits (i));
+      sb.append ("</td><td>").append (pbh.getMisses (i));
+      sb.append ("</td><td>").append (pbh.getOutstanding (i));
+      sb.append ("</td><td>").append (pbh.getPooled (i));
+      sb.append ("</td><td>").append (pbh.getDropped (i));
+      sb.append ("</td></tr>\n");
+    }
+    sb.append ("</table>\n<br>\n");
+  }
+
+  private void appendStringCache (final StringBuilder sb, final StringCache sc)
+  {
+    sb.append ("String cache: " + sc.getKnownHits () + " known tokens, ");
+    sb.append (sc.getHits () + " cache hits, " + sc.getMisses () + " misses");
+    sb.append (", hit rate: " + Math.round (sc.getHitRate () * 100) + "%<br><br>\n");
+  }
+
   private void appendTL (final StringBuilder sb, final String type, final ITrafficLogger tl)
   {
     sb.append ("<tr><td>" + type + "</td>");
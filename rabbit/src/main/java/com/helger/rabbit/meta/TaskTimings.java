@@ -1,5 +1,7 @@
 package com.helger.rabbit.meta;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -7,7 +9,12 @@ import com.helger.rabbit.proxy.HtmlPage;
 import com.helger.rnio.INioHandler;
 import com.helger.rnio.IStatisticsHolder;
 import com.helger.rnio.ITaskIdentifier;
+import com.helger.rnio.impl.CompletionNioHandler;
+import com.helger.rnio.impl.MeteredExecutorService;
+import com.helger.rnio.impl.MultiSelectorNioHandler;
+import com.helger.rnio.impl.TaskLane;
 import com.helger.rnio.statistics.CompletionEntry;
+import com.helger.rnio.statistics.LatencyHistogram;
 import com.helger.rnio.statistics.TotalTimeSpent;
 
 /**
@@ -36,15 +43,83 @@ public class TaskTimings extends BaseMetaHandler
     final INioHandler nio = con.getNioHandler ();
     final IStatisticsHolder stats = nio.getTimingStatistics ();
 
+    if (nio instanceof MultiSelectorNioHandler)
+    {
+      final MultiSelectorNioHandler msnh = (MultiSelectorNioHandler) nio;
+      appendExecutor (sb, msnh.getExecutorService ());
+      appendLanes (sb, msnh.getTaskLanes ().getLanes ());
+    }
+    else
+      if (nio instanceof CompletionNioHandler)
+      {
+        final CompletionNioHandler cnh = (CompletionNioHandler) nio;
+        appendExecutor (sb, cnh.getExecutorService ());
+        appendLanes (sb, cnh.getTaskLanes ().getLanes ());
+      }
+
     appendTable (sb, "Pending tasks", stats.getPendingTasks ());
     appendTable (sb, "Runing tasks", stats.getRunningTasks ());
 
     appendTotalTimes (sb, "Total time spent", stats.getTotalTimeSpent ());
+    appendLatencies (sb, "Latencies (ms)", stats.getWaitTimes (), stats.getRunTimes ());
 
     appendCompletion (sb, "Latest completed tasks", stats.getLatest ());
     appendCompletion (sb, "Longest completed tasks", stats.getLongest ());
   }
 
+  private void appendExecutor (final StringBuilder sb, final MeteredExecutorService es)
+  {
+    sb.append ("Executor: " + es.getStrategy ());
+    sb.append (", active: " + es.getActive () + " (max " + es.getMaxActive () + ")");
+    sb.append (", queued: " + es.getQueued () + " (max " + es.getMaxQueued () + ")");
+    final long completed = es.getCompleted ();
+    sb.append (", completed: " + completed);
+    if (completed > 0)
+      sb.append (", average wait: " + es.getWaitNanos () / completed / 1000 + " &micro;s");
+    sb.append ("<br><br>\n");
+  }
+
+  private void appendLanes (final StringBuilder sb, final List <TaskLane> lanes)
+  {
+    if (lanes.isEmpty ())
+      return;
+    appenTableHeader (sb,
+                      "Task lanes",
+                      new int [] { 30, 10, 10, 10, 10, 10, 10, 10 },
+                      new String [] { "Lane",
+                                      "Policy",
+                                      "Active",
+                                      "Queued",
+                                      "Saturation",
+                                      "Completed",
+                                      "Rejected",
+                                      "Average wait (&micro;s)" });
+    int row = 0;
+    for (final TaskLane lane : lanes)
+    {
+      final MeteredExecutorService es = lane.getExecutorService ();
+      final int active = es.getActive ();
+      final int maxThreads = lane.getMaxThreads ();
+      final int maxQueued = lane.getMaxQueued ();
+      final long completed = es.getCompleted ();
+      sb.append ("<tr bgcolor=\"").append (getRowColor (row++)).append ("\">");
+      sb.append ("<td>").append (lane.getName ()).append ("</td>");
+      sb.append ("<td>").append (lane.getRejectionPolicy ()).append ("</td>");
+      sb.append ("<td align=\"right\">").append (active).append (" / ").append (maxThreads);
+      sb.append (" (max ").append (es.getMaxActive ()).append (")</td>");
+      sb.append ("<td align=\"right\">").append (es.getQueued ());
+      if (maxQueued > 0)
+        sb.append (" / ").append (maxQueued);
+      sb.append (" (max ").append (es.getMaxQueued ()).append (")</td>");
+      sb.append ("<td align=\"right\">").append (100 * active / maxThreads).append ("%</td>");
+      sb.append ("<td align=\"right\">").append (completed).append ("</td>");
+      sb.append ("<td align=\"right\">").append (lane.getRejected ()).append ("</td>");
+      sb.append ("<td align=\"right\">").append (completed > 0 ? es.getWaitNanos () / completed / 1000 : 0);
+      sb.append ("</td></tr>\n");
+    }
+    sb.append ("</table><br>\n");
+  }
+
   private String getRowColor (final int row)
   {
     final boolean odd = (row & 1) == 1;
@@ -117,6 +192,62 @@ public class TaskTimings extends BaseMetaHandler
     sb.append ("</table><br>\n");
   }
 
+  private static String toMillis (final long nanos)
+  {
+    return String.format ("%.3f", Double.valueOf (nanos / 1e6));
+  }
+
+  private void appendLatencies (final StringBuilder sb,
+                                final String title,
+                                final Map <String, LatencyHistogram> waits,
+                                final Map <String, LatencyHistogram> runs)
+  {
+    appenTableHeader (sb,
+                      title,
+                      new int [] { 30, 7, 7, 7, 7, 7, 7, 7, 7, 7 },
+                      new String [] { "Group",
+                                      "Tasks",
+                                      "Wait p50",
+                                      "Wait p99",
+                                      "Wait max",
+                                      "Run p50",
+                                      "Run p90",
+                                      "Run p99",
+                                      "Run p99.9",
+                                      "Run max" });
+    final List <String> groups = new ArrayList<> (runs.keySet ());
+    Collections.sort (groups);
+    int row = 0;
+    for (final String group : groups)
+    {
+      final LatencyHistogram run = runs.get (group);
+      final LatencyHistogram wait = waits.get (group);
+      sb.append ("<tr bgcolor=\"" + getRowColor (row) + "\"><td>" + group + "</td><td>" + run.getCount ());
+      if (wait != null)
+        sb.append ("</td><td>" +
+                   toMillis (wait.getValueAtPercentile (50)) +
+                   "</td><td>" +
+                   toMillis (wait.getValueAtPercentile (99)) +
+                   "</td><td>" +
+                   toMillis (wait.getMax ()));
+      else
+        sb.append ("</td><td></td><td></td><td>");
+      sb.append ("</td><td>" +
+                 toMillis (run.getValueAtPercentile (50)) +
+                 "</td><td>" +
+                 toMillis (run.getValueAtPercentile (90)) +
+                 "</td><td>" +
+                 toMillis (run.getValueAtPercentile (99)) +
+                 "</td><td>" +
+                 toMillis (run.getValueAtPercentile (99.9)) +
+                 "</td><td>" +
+                 toMillis (run.getMax ()) +
+                 "</td></tr>\n");
+      row++;
+    }
+    sb.append ("</table><br>\n");
+  }
+
   private void appendTotalTimes (final StringBuilder sb, final String title, final Map <String, TotalTimeSpent> m)
   {
     appenTableHeader (sb,
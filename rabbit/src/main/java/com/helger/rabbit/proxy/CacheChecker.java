@@ -4,7 +4,6 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Date;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -141,38 +140,33 @@ class CacheChecker
       if (!ETagUtils.checkWeakEtag (inm, etag))
         return false;
     }
-    Date dm = null;
+    long dm = HttpDateParser.UNKNOWN;
     final String sims = header.getHeader ("If-Modified-Since");
     if (sims != null)
     {
-      final Date ims = HttpDateParser.getDate (sims);
+      final long ims = HttpDateParser.getTime (sims);
       final String lm = webheader.getHeader ("Last-Modified");
       if (lm != null)
       {
-        dm = HttpDateParser.getDate (lm);
-        if (dm.getTime () - ims.getTime () < 60000) // dm.after (ims))
+        dm = HttpDateParser.getTime (lm);
+        if (ims != HttpDateParser.UNKNOWN && dm != HttpDateParser.UNKNOWN && dm - ims < 60000) // dm.after (ims))
           return false;
       }
     }
     final String sums = header.getHeader ("If-Unmodified-Since");
     if (sums != null)
     {
-      final Date ums = HttpDateParser.getDate (sums);
-      if (dm != null)
-      {
-        if (dm.after (ums))
-          return false;
-      }
-      else
+      final long ums = HttpDateParser.getTime (sums);
+      if (ums == HttpDateParser.UNKNOWN)
+        return true;
+      if (dm == HttpDateParser.UNKNOWN)
       {
         final String lm = webheader.getHeader ("Last-Modified");
         if (lm != null)
-        {
-          dm = HttpDateParser.getDate (lm);
-          if (dm.after (ums))
-            return false;
-        }
+          dm = HttpDateParser.getTime (lm);
       }
+      if (dm != HttpDateParser.UNKNOWN && dm > ums)
+        return false;
     }
     return true;
   }
@@ -356,11 +356,11 @@ class ConditionalChecker
     final String cd = cachedWebHeader.getHeader ("Date");
     if (sd != null && cd != null)
     {
-      final Date d1 = HttpDateParser.getDate (sd);
-      final Date d2 = HttpDateParser.getDate (cd);
+      final long d1 = HttpDateParser.getTime (sd);
+      final long d2 = HttpDateParser.getTime (cd);
       // if we get a response with a date older than we have,
       // we keep our cache.
-      if (d1 != null && d1.before (d2))
+      if (d1 != HttpDateParser.UNKNOWN && d2 != HttpDateParser.UNKNOWN && d1 < d2)
         return false;
     }
     final ICache <HttpHeader, HttpHeader> cache = con.getProxy ().getCache ();
@@ -1386,6 +1386,7 @@ public class Connection
     {
       final HttpHeaderSender hhs = new HttpHeaderSender (channel,
                                                          getNioHandler (),
+                                                         proxy.getBufferHandler (),
                                                          tlh.getClient (),
                                                          header,
                                                          false,
@@ -7,13 +7,12 @@ import java.net.NetworkInterface;
 import java.net.SocketException;
 import java.net.UnknownHostException;
 import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.StringTokenizer;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 import javax.naming.NamingException;
 
@@ -27,7 +26,7 @@ import com.helger.rabbit.dns.DNSJavaHandler;
 import com.helger.rabbit.dns.DNSSunHandler;
 import com.helger.rabbit.dns.IDNSHandler;
 import com.helger.rabbit.handler.IHandlerFactory;
-import com.helger.rabbit.http.HttpDateParser;
+import com.helger.rabbit.http.EStatusCode;
 import com.helger.rabbit.http.HttpHeader;
 import com.helger.rabbit.httpio.ProxiedProxyChain;
 import com.helger.rabbit.httpio.SimpleProxyChain;
@@ -42,11 +41,22 @@ import com.helger.rnio.IBufferHandler;
 import com.helger.rnio.INioHandler;
 import com.helger.rnio.IStatisticsHolder;
 import com.helger.rnio.impl.Acceptor;
+import com.helger.rnio.impl.AdmissionController;
 import com.helger.rnio.impl.BasicStatisticsHolder;
-import com.helger.rnio.impl.CachingBufferHandler;
+import com.helger.rnio.impl.CompletionNioHandler;
+import com.helger.rnio.impl.ExecutorStrategy;
 import com.helger.rnio.impl.IAcceptorListener;
+import com.helger.rnio.impl.ISelectorAssignmentPolicy;
+import com.helger.rnio.impl.LaneRejectionPolicy;
 import com.helger.rnio.impl.MultiSelectorNioHandler;
+import com.helger.rnio.impl.OverloadAction;
+import com.helger.rnio.impl.PooledBufferHandler;
+import com.helger.rnio.impl.ReusePort;
+import com.helger.rnio.impl.SelectorAssignment;
+import com.helger.rnio.impl.SelectorLocalAcceptorListener;
 import com.helger.rnio.impl.SimpleThreadFactory;
+import com.helger.rnio.impl.TaskLane;
+import com.helger.rnio.impl.TaskLanes;
 
 /**
  * A filtering and caching http proxy.
@@ -99,13 +109,20 @@ public class HttpProxy
   /** The proxy chain we are using */
   private IProxyChain proxyChain;
 
-  /** The serversocket the proxy is using. */
-  private ServerSocketChannel ssc = null;
+  /**
+   * The serversockets the proxy is using, one unless each selector has its
+   * own.
+   */
+  private final List <ServerSocketChannel> sscs = new ArrayList <> ();
+
+  /** The acceptors for the serversockets. */
+  private final List <Acceptor> acceptors = new ArrayList <> ();
 
   private INioHandler nioHandler;
 
   /** The buffer handlers. */
-  private final IBufferHandler bufferHandler = new CachingBufferHandler ();
+  /** The buffer handler used by all connections */
+  private IBufferHandler bufferHandler;
 
   /** If this proxy is using strict http parsing. */
   private boolean strictHttp = true;
@@ -113,6 +130,9 @@ public class HttpProxy
   /** Maximum number of concurrent connections */
   private int maxConnections = 50;
 
+  /** Decides if new connections are accepted, null if they always are. */
+  private AdmissionController admissionController;
+
   /** The counter of events. */
   private final Counter counter = new Counter ();
 
@@ -176,11 +196,6 @@ public class HttpProxy
     }
   }
 
-  private void setupDateParsing ()
-  {
-    HttpDateParser.setOffset (getOffset ());
-  }
-
   private void setup3rdPartyClassLoader ()
   {
     final ProxyClassLoaderHelper clh = new ProxyClassLoaderHelper ();
@@ -225,12 +240,34 @@ public class HttpProxy
     final String section = getClass ().getName ();
     final int cpus = Runtime.getRuntime ().availableProcessors ();
     final int threads = getInt (section, "num_selector_threads", cpus);
-    final ExecutorService es = Executors.newCachedThreadPool ();
+    final ExecutorStrategy strategy = getExecutorStrategy (section);
+    final int maxThreads = getInt (section, "executor_threads", 256);
     final IStatisticsHolder sh = new BasicStatisticsHolder ();
     final Long timeout = Long.valueOf (15000);
     try
     {
-      nioHandler = new MultiSelectorNioHandler (es, sh, threads, timeout);
+      if ("completion".equalsIgnoreCase (config.getProperty (section, "nio_handler", "selector").trim ()))
+      {
+        final CompletionNioHandler cnh = new CompletionNioHandler (strategy,
+                                                                   maxThreads,
+                                                                   sh,
+                                                                   getInt (section, "num_io_threads", threads),
+                                                                   timeout);
+        setupTaskLanes (cnh.getTaskLanes ());
+        nioHandler = cnh;
+        return;
+      }
+      final MultiSelectorNioHandler msnh = new MultiSelectorNioHandler (strategy, maxThreads, sh, threads, timeout);
+      msnh.setSelectorAssignmentPolicy (getSelectorAssignmentPolicy (section));
+      msnh.setRebalanceInterval (getInt (section, "selector_rebalance_interval", 0));
+      msnh.setAdaptiveDispatch ("adaptive".equalsIgnoreCase (config.getProperty (section,
+                                                                                 "handler_dispatch",
+                                                                                 "static").trim ()));
+      msnh.setInlineBudget (getInt (section, "inline_budget", 1000));
+      msnh.setSpinWindow (getInt (section, "select_spin", 0));
+      msnh.setSpinBudget (getInt (section, "select_spin_budget", 10) / 100.0);
+      setupTaskLanes (msnh.getTaskLanes ());
+      nioHandler = msnh;
     }
     catch (final IOException e)
     {
@@ -239,6 +276,96 @@ public class HttpProxy
     }
   }
 
+  /**
+   * Give the task groups listed in the task_lanes section their own threads.
+   * Each entry is "group=threads,queue,policy", where queue and policy may be
+   * left out.
+   */
+  private void setupTaskLanes (final TaskLanes lanes)
+  {
+    if (!config.getSections ().contains ("task_lanes"))
+      return;
+    final StringMap props = config.getProperties ("task_lanes");
+    for (final String group : props.keySet ())
+    {
+      final String value = props.get (group);
+      if (value == null || value.trim ().isEmpty ())
+        continue;
+      final String [] parts = value.split (",");
+      try
+      {
+        final int laneThreads = Integer.parseInt (parts[0].trim ());
+        final int queue = parts.length > 1 ? Integer.parseInt (parts[1].trim ()) : 0;
+        final LaneRejectionPolicy policy = parts.length > 2 ? LaneRejectionPolicy.getFromName (parts[2])
+                                                            : LaneRejectionPolicy.SHARED;
+        lanes.addLane (new TaskLane (group.trim (), laneThreads, queue, policy));
+      }
+      catch (final IllegalArgumentException e)
+      {
+        LOGGER.warn ("Bad task lane: '" + group + "=" + value + "', its tasks will use the shared executor", e);
+      }
+    }
+  }
+
+  private ISelectorAssignmentPolicy getSelectorAssignmentPolicy (final String section)
+  {
+    final String name = config.getProperty (section, "selector_assignment", "least_loaded").trim ();
+    try
+    {
+      return SelectorAssignment.getFromName (name);
+    }
+    catch (final IllegalArgumentException e)
+    {
+      // Not one of the built in policies, try to load it as a class
+    }
+    try
+    {
+      final Class <? extends ISelectorAssignmentPolicy> clz = load3rdPartyClass (name,
+                                                                                 ISelectorAssignmentPolicy.class);
+      return clz.newInstance ();
+    }
+    catch (final Exception e)
+    {
+      LOGGER.warn ("Unable to create selector assignment policy: '" + name + "', will use least_loaded", e);
+      return SelectorAssignment.LEAST_LOADED;
+    }
+  }
+
+  private ExecutorStrategy getExecutorStrategy (final String section)
+  {
+    final String name = config.getProperty (section, "executor", "cached");
+    ExecutorStrategy strategy;
+    try
+    {
+      strategy = ExecutorStrategy.getFromName (name);
+    }
+    catch (final IllegalArgumentException e)
+    {
+      LOGGER.warn ("Unknown executor: '" + name + "', will use a cached thread pool");
+      return ExecutorStrategy.CACHED;
+    }
+    if (!strategy.isSupported ())
+    {
+      LOGGER.warn ("Executor: '" + name + "' is not supported by this jvm, will use a cached thread pool");
+      return ExecutorStrategy.CACHED;
+    }
+    return strategy;
+  }
+
+  private void setupBufferHandler ()
+  {
+    final String section = getClass ().getName ();
+    final long poolSize = getInt (section, "buffer_pool_mb", 64) * 1024L * 1024L;
+    final int slabSize = getInt (section, "buffer_slab_kb", 0) * 1024;
+    final PooledBufferHandler pbh = new PooledBufferHandler (PooledBufferHandler.DEFAULT_SMALL_SIZE,
+                                                             PooledBufferHandler.DEFAULT_LARGE_SIZE,
+                                                             PooledBufferHandler.DEFAULT_MAX_SIZE,
+                                                             poolSize,
+                                                             slabSize);
+    pbh.setTrimInterval (getInt (section, "buffer_trim_seconds", 60) * 1000L);
+    bufferHandler = pbh;
+  }
+
   private IProxyChain setupProxyChainFromFactory (final String pcf)
   {
     try
@@ -413,6 +540,83 @@ public class HttpProxy
     }
   }
 
+  /**
+   * Set up the limits that make the acceptors stop accepting, or reject, new
+   * connections when the proxy is overloaded.
+   */
+  private void setupAdmissionControl ()
+  {
+    final String section = getClass ().getName ();
+    final String mode = config.getProperty (section, "admission_control", "off").trim ();
+    if ("off".equalsIgnoreCase (mode))
+    {
+      admissionController = null;
+      return;
+    }
+    final AdmissionController ac = new AdmissionController ();
+    try
+    {
+      ac.setAction (OverloadAction.getFromName (mode));
+    }
+    catch (final IllegalArgumentException e)
+    {
+      LOGGER.warn ("Unknown admission_control: '" + mode + "', will pause accepts when overloaded");
+    }
+    if (maxConnections > 0)
+      ac.addLimit ("connections", this::getNumCurrentConnections, maxConnections);
+    if (nioHandler instanceof MultiSelectorNioHandler)
+    {
+      final MultiSelectorNioHandler msnh = (MultiSelectorNioHandler) nioHandler;
+      final int backlog = getInt (section, "admission_max_selector_backlog", 0);
+      if (backlog > 0)
+        ac.limitSelectorBacklog (msnh, backlog);
+      final int queue = getInt (section, "admission_max_executor_queue", 0);
+      if (queue > 0)
+        ac.limitExecutorQueue (msnh.getExecutorService (), queue);
+      final int pending = getInt (section, "admission_max_pending_tasks", 0);
+      if (pending > 0)
+        ac.limitPendingTasks (msnh.getTimingStatistics (), pending);
+    }
+    else
+      if (nioHandler instanceof CompletionNioHandler)
+      {
+        final CompletionNioHandler cnh = (CompletionNioHandler) nioHandler;
+        final int queue = getInt (section, "admission_max_executor_queue", 0);
+        if (queue > 0)
+          ac.limitExecutorQueue (cnh.getExecutorService (), queue);
+        final int pending = getInt (section, "admission_max_pending_tasks", 0);
+        if (pending > 0)
+          ac.limitPendingTasks (cnh.getTimingStatistics (), pending);
+      }
+    final int bufferMB = getInt (section, "admission_max_buffer_mb", 0);
+    if (bufferMB > 0 && bufferHandler instanceof PooledBufferHandler)
+      ac.limitBufferBytes ((PooledBufferHandler) bufferHandler, bufferMB * 1024L * 1024L);
+    ac.setResumeFraction (getInt (section, "admission_resume_percent", 80) / 100.0);
+    ac.setRejectResponse (getOverloadedResponse ());
+    admissionController = ac;
+  }
+
+  /**
+   * Get the complete response that is sent to rejected clients, it is only
+   * built once.
+   */
+  private byte [] getOverloadedResponse ()
+  {
+    final byte [] body = "The proxy is overloaded, please try again later.\n".getBytes (StandardCharsets.US_ASCII);
+    final HttpHeader header = new HttpHeader ();
+    header.setStatusLine (EStatusCode._503.getStatusLine ("HTTP/1.1"));
+    header.setHeader ("Server", serverIdentity);
+    header.setHeader ("Content-Type", "text/plain");
+    header.setHeader ("Content-Length", Integer.toString (body.length));
+    header.setHeader ("Retry-After", "1");
+    header.setHeader ("Connection", "close");
+    final byte [] head = header.getBytes ();
+    final byte [] ret = new byte [head.length + body.length];
+    System.arraycopy (head, 0, ret, 0, head.length);
+    System.arraycopy (body, 0, ret, head.length, body.length);
+    return ret;
+  }
+
   private void setupConnectionHandler ()
   {
     if (nioHandler == null)
@@ -447,16 +651,17 @@ public class HttpProxy
   {
     this.config = config;
     setupLogging ();
-    setupDateParsing ();
     setup3rdPartyClassLoader ();
     setupDNSHandler ();
     setupNioHandler ();
+    setupBufferHandler ();
     setupProxyConnection ();
     final String cn = getClass ().getName ();
     serverIdentity = config.getProperty (cn, "serverIdentity", VERSION);
     final String strictHttp = config.getProperty (cn, "StrictHTTP", "true");
     setStrictHttp (strictHttp.equals ("true"));
     setupMaxConnections ();
+    setupAdmissionControl ();
     setupResources ();
     setupCache ();
     setupSSLSupport ();
@@ -476,7 +681,8 @@ public class HttpProxy
 
   /**
    * Open a socket on the specified port also make the proxy continue accepting
-   * connections.
+   * connections. If reuse_port is set and the NioHandler supports it each
+   * selector thread gets its own listening socket, bound using SO_REUSEPORT.
    */
   private void openSocket ()
   {
@@ -484,27 +690,42 @@ public class HttpProxy
     final int tport = getInt (section, "port", 9666);
 
     final String bindIP = config.getProperty (section, "listen_ip");
+    final int acceptBatchSize = getInt (section, "accept_batch_size", Acceptor.DEFAULT_BATCH_SIZE);
+    final boolean reusePort = "true".equalsIgnoreCase (config.getProperty (section, "reuse_port", "false").trim ());
     if (tport != port)
     {
       try
       {
         closeSocket ();
         port = tport;
-        ssc = ServerSocketChannel.open ();
-        ssc.configureBlocking (false);
+        InetSocketAddress isa;
         if (bindIP == null)
         {
-          ssc.socket ().bind (new InetSocketAddress (port));
+          isa = new InetSocketAddress (port);
         }
         else
         {
           final InetAddress ia = InetAddress.getByName (bindIP);
           LOGGER.info ("listening on inetaddress: " + ia + ":" + port + " on inet address: " + ia);
-          ssc.socket ().bind (new InetSocketAddress (ia, port));
+          isa = new InetSocketAddress (ia, port);
         }
         final IAcceptorListener listener = new ProxyConnectionAcceptor (acceptorId++, this);
-        final Acceptor acceptor = new Acceptor (ssc, nioHandler, listener);
-        acceptor.register ();
+        if (reusePort && canReusePort ())
+        {
+          final MultiSelectorNioHandler msnh = (MultiSelectorNioHandler) nioHandler;
+          final IAcceptorListener local = new SelectorLocalAcceptorListener (msnh, listener);
+          for (int i = 0; i < msnh.getNumSelectors (); i++)
+          {
+            final ServerSocketChannel ssc = openServerSocket (isa, true);
+            msnh.bindToSelector (ssc, i);
+            startAcceptor (ssc, local, acceptBatchSize);
+          }
+          LOGGER.info ("Using SO_REUSEPORT with " + sscs.size () + " listening sockets");
+        }
+        else
+        {
+          startAcceptor (openServerSocket (isa, false), listener, acceptBatchSize);
+        }
       }
       catch (final IOException e)
       {
@@ -514,25 +735,68 @@ public class HttpProxy
     }
   }
 
+  private boolean canReusePort () throws IOException
+  {
+    if (!(nioHandler instanceof MultiSelectorNioHandler))
+    {
+      LOGGER.warn ("reuse_port needs a MultiSelectorNioHandler, using one listening socket");
+      return false;
+    }
+    try (final ServerSocketChannel test = ServerSocketChannel.open ())
+    {
+      if (!ReusePort.isSupported (test))
+      {
+        LOGGER.warn ("SO_REUSEPORT is not supported, using one listening socket");
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private ServerSocketChannel openServerSocket (final InetSocketAddress isa,
+                                                final boolean reusePort) throws IOException
+  {
+    final ServerSocketChannel ssc = ServerSocketChannel.open ();
+    sscs.add (ssc);
+    ssc.configureBlocking (false);
+    if (reusePort)
+      ReusePort.enable (ssc);
+    ssc.socket ().bind (isa, Acceptor.DEFAULT_BACKLOG);
+    return ssc;
+  }
+
+  private void startAcceptor (final ServerSocketChannel ssc,
+                              final IAcceptorListener listener,
+                              final int acceptBatchSize)
+  {
+    final Acceptor acceptor = new Acceptor (ssc, nioHandler, listener, acceptBatchSize);
+    acceptor.setAdmissionController (admissionController);
+    acceptors.add (acceptor);
+    acceptor.register ();
+  }
+
   /**
-   * Closes the serversocket and makes the proxy stop listening for connections.
+   * Closes the serversockets and makes the proxy stop listening for
+   * connections.
    */
   private void closeSocket ()
   {
     try
     {
       port = -1;
-      if (ssc != null)
-      {
+      for (final ServerSocketChannel ssc : sscs)
         ssc.close ();
-        ssc = null;
-      }
     }
     catch (final IOException e)
     {
       LOGGER.error ("Failed to close serversocket on port " + port);
       stop ();
     }
+    finally
+    {
+      sscs.clear ();
+      acceptors.clear ();
+    }
   }
 
   private void closeNioHandler ()
@@ -566,6 +830,10 @@ public class HttpProxy
   {
     started = System.currentTimeMillis ();
     nioHandler.start (new SimpleThreadFactory ());
+    if (admissionController != null)
+      admissionController.start (getInt (getClass ().getName (),
+                                         "admission_sample_interval",
+                                         (int) AdmissionController.DEFAULT_SAMPLE_INTERVAL));
   }
 
   /** Run the proxy in a separate thread. */
@@ -575,9 +843,13 @@ public class HttpProxy
     synchronized (this)
     {
       closeSocket ();
+      if (admissionController != null)
+        admissionController.stop ();
       // TODO: wait for remaining connections.
       // TODO: as it is now, it will just close connections in the middle.
       closeNioHandler ();
+      if (bufferHandler instanceof PooledBufferHandler)
+        ((PooledBufferHandler) bufferHandler).setTrimInterval (0);
       cache.flush ();
       cache.stop ();
     }
@@ -607,7 +879,9 @@ public class HttpProxy
    * Get the time offset, that is the time between GMT and local time.
    *
    * @return the current time offset in millis
+   * @deprecated dates are parsed and formatted in GMT so no offset is needed
    */
+  @Deprecated
   public long getOffset ()
   {
     return accessLogger.getOffset ();
@@ -630,7 +904,28 @@ public class HttpProxy
 
   ServerSocketChannel getServerSocketChannel ()
   {
-    return ssc;
+    return sscs.isEmpty () ? null : sscs.get (0);
+  }
+
+  /**
+   * Get the Acceptors that accept connections for this proxy, there is one for
+   * each listening socket.
+   *
+   * @return the current Acceptors, empty if the proxy is not listening
+   */
+  public List <Acceptor> getAcceptors ()
+  {
+    return Collections.unmodifiableList (acceptors);
+  }
+
+  /**
+   * Get the controller that decides if new connections are accepted.
+   *
+   * @return the AdmissionController, null if admission control is off
+   */
+  public AdmissionController getAdmissionController ()
+  {
+    return admissionController;
   }
 
   /**
@@ -838,6 +1133,19 @@ public class HttpProxy
     return conhandler;
   }
 
+  /**
+   * Get the number of current connections.
+   *
+   * @return the number of connections being handled
+   */
+  public int getNumCurrentConnections ()
+  {
+    synchronized (connections)
+    {
+      return connections.size ();
+    }
+  }
+
   /**
    * Get all the current connections
    *
@@ -3,7 +3,6 @@ package com.helger.rabbit.proxy;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.Socket;
-import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
@@ -13,6 +12,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.helger.commons.collection.attr.StringMap;
+import com.helger.rabbit.http.HttpDateParser;
 
 /**
  * A class to handle proxy logging.
@@ -25,19 +25,14 @@ public class ProxyLogger implements ConnectionLogger
   /** Output for accesses */
   private Logger accessLog;
 
-  /** The format we write dates on. */
-  private final SimpleDateFormat sdf = new SimpleDateFormat ("dd/MMM/yyyy:HH:mm:ss 'GMT'");
-
-  /** The monitor for sdf. */
-  private final Object sdfMonitor = new Object ();
-
   /** The distance to GMT in milis. */
   private final long offset;
 
   /** Create a new ProxyLogger. */
   public ProxyLogger ()
   {
-    final TimeZone tz = sdf.getTimeZone ();
+    // The zone that the old, local time, access log date format used
+    final TimeZone tz = TimeZone.getDefault ();
     final GregorianCalendar gc = new GregorianCalendar ();
     gc.setTime (new Date ());
     offset = tz.getOffset (gc.get (Calendar.ERA),
@@ -52,7 +47,9 @@ public class ProxyLogger implements ConnectionLogger
    * Get the distance to GMT in millis.
    *
    * @return the time offset
+   * @deprecated dates are parsed and formatted in GMT so no offset is needed
    */
+  @Deprecated
   public long getOffset ()
   {
     return offset;
@@ -89,12 +86,7 @@ public class ProxyLogger implements ConnectionLogger
     sb.append (" - ");
     sb.append ((con.getUserName () != null ? con.getUserName () : "-"));
     sb.append (" ");
-    final long now = System.currentTimeMillis ();
-    final Date d = new Date (now - offset);
-    synchronized (sdfMonitor)
-    {
-      sb.append (sdf.format (d));
-    }
+    sb.append (HttpDateParser.getCurrentLogDateString ());
     sb.append (" \"");
     sb.append (con.getRequestLine ());
     sb.append ("\" ");
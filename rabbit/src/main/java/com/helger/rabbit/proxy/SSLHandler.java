@@ -242,6 +242,7 @@ public class SSLHandler implements TunnelDoneListener
     {
       final HttpHeaderSender hhs = new HttpHeaderSender (channel,
                                                          proxy.getNioHandler (),
+                                                         proxy.getBufferHandler (),
                                                          tlh.getClient (),
                                                          reply,
                                                          false,
@@ -119,6 +119,7 @@ public class SWC implements
 
       final HttpHeaderSender hhs = new HttpHeaderSender (wc.getChannel (),
                                                          con.getNioHandler (),
+                                                         con.getProxy ().getBufferHandler (),
                                                          tlh.getNetwork (),
                                                          header,
                                                          useFullURI (),
@@ -221,6 +222,7 @@ public class SWC implements
       {
         final HttpHeaderSender hhs = new HttpHeaderSender (con.getChannel (),
                                                            con.getNioHandler (),
+                                                           con.getProxy ().getBufferHandler (),
                                                            tlh.getClient (),
                                                            header,
                                                            false,
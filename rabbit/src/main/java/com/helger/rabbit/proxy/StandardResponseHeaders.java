@@ -18,7 +18,6 @@ import static com.helger.rabbit.http.EStatusCode._504;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.UnknownHostException;
-import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Properties;
@@ -91,7 +90,7 @@ class StandardResponseHeaders implements HttpGenerator
     ret.setHeader ("Cache-Control", "no-cache");
     // Set pragma for compatibility with old browsers.
     ret.setHeader ("Pragma", "no-cache");
-    ret.setHeader ("Date", HttpDateParser.getDateString (new Date ()));
+    ret.setHeader ("Date", HttpDateParser.getCurrentDateString ());
     return ret;
   }
 
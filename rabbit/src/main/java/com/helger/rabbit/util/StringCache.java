@@ -1,37 +1,143 @@
 package com.helger.rabbit.util;
 
-import java.lang.ref.WeakReference;
-import java.util.WeakHashMap;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.helger.rabbit.http.EHeaderToken;
 
 /**
- * A cache for strings. The cache is weak so GC can happen quickly.
- * String.intern may seem similar, but String.intern is a hard cache, that is no
- * GC will remove interned strings.
+ * A cache for strings. Well known tokens, like header names, methods and
+ * common values, are found in a fixed table. Other strings are kept in a
+ * bounded, direct mapped cache where a new string simply replaces the one
+ * that used the same slot, so old strings can be collected. Both lookups are
+ * lock free.
  *
  * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
  */
-public class StringCache extends WeakHashMap <String, WeakReference <String>>
+public class StringCache
 {
+  /** The default number of slots for dynamic strings. */
+  public static final int DEFAULT_SIZE = 4096;
+
+  /** Strings longer than this are not cached, they are most likely unique. */
+  public static final int MAX_CACHED_LENGTH = 128;
+
+  private static final String [] KNOWN_TOKENS = { "GET",
+                                                  "POST",
+                                                  "HEAD",
+                                                  "PUT",
+                                                  "DELETE",
+                                                  "OPTIONS",
+                                                  "TRACE",
+                                                  "CONNECT",
+                                                  "PATCH",
+                                                  "HTTP/1.0",
+                                                  "HTTP/1.1",
+                                                  "",
+                                                  "0",
+                                                  "close",
+                                                  "Close",
+                                                  "keep-alive",
+                                                  "Keep-Alive",
+                                                  "chunked",
+                                                  "gzip",
+                                                  "deflate",
+                                                  "gzip, deflate",
+                                                  "identity",
+                                                  "bytes",
+                                                  "none",
+                                                  "no-cache",
+                                                  "no-store",
+                                                  "private",
+                                                  "public",
+                                                  "max-age=0",
+                                                  "must-revalidate",
+                                                  "Accept-Encoding",
+                                                  "*/*",
+                                                  "text/html",
+                                                  "text/plain",
+                                                  "text/css",
+                                                  "text/javascript",
+                                                  "application/javascript",
+                                                  "application/json",
+                                                  "application/octet-stream",
+                                                  "image/gif",
+                                                  "image/jpeg",
+                                                  "image/png",
+                                                  "1" };
+
+  // Open addressing, the size is a power of two
+  private static final String [] KNOWN;
+
+  static
+  {
+    final EHeaderToken [] tokens = EHeaderToken.values ();
+    int size = 1;
+    while (size < 4 * (KNOWN_TOKENS.length + tokens.length))
+      size <<= 1;
+    KNOWN = new String [size];
+    for (final EHeaderToken t : tokens)
+      addKnown (t.getName ());
+    for (final String s : KNOWN_TOKENS)
+      addKnown (s);
+  }
+
+  private static final StringCache instance = new StringCache (DEFAULT_SIZE);
 
-  private static StringCache instance;
+  private final AtomicReferenceArray <String> cache;
+  private final int mask;
+  private final LongAdder knownHits = new LongAdder ();
+  private final LongAdder hits = new LongAdder ();
+  private final LongAdder misses = new LongAdder ();
+
+  private static void addKnown (final String s)
+  {
+    int i = spread (s.hashCode ()) & (KNOWN.length - 1);
+    while (KNOWN[i] != null)
+    {
+      if (KNOWN[i].equals (s))
+        return;
+      i = (i + 1) & (KNOWN.length - 1);
+    }
+    KNOWN[i] = s;
+  }
 
   /**
    * Get the shared instance of the string caches.
-   * 
+   *
    * @return the StringCache
    */
-  public static synchronized StringCache getSharedInstance ()
+  public static StringCache getSharedInstance ()
   {
-    if (instance == null)
-      instance = new StringCache ();
     return instance;
   }
 
+  /**
+   * Create a new StringCache.
+   *
+   * @param size
+   *        the number of dynamic strings to keep, rounded up to a power of two
+   */
+  public StringCache (final int size)
+  {
+    int slots = 1;
+    while (slots < size)
+      slots <<= 1;
+    cache = new AtomicReferenceArray<> (slots);
+    mask = slots - 1;
+  }
+
+  private static int spread (final int h)
+  {
+    return h ^ (h >>> 16);
+  }
+
   /**
    * Get a cached string with the same contents as the given string. If the
-   * string given is not null then the cache will hold one entry with the same
-   * value as the given string after this method has completed.
-   * 
+   * string is not known the cache will normally hold it after this method has
+   * completed, but it may be replaced by another string at any time.
+   *
    * @param s
    *        the string to get a shared string for.
    * @return the shared string
@@ -40,15 +146,126 @@ public class StringCache extends WeakHashMap <String, WeakReference <String>>
   {
     if (s == null)
       return null;
-    synchronized (this)
+    final int h = spread (s.hashCode ());
+    int i = h & (KNOWN.length - 1);
+    String k;
+    while ((k = KNOWN[i]) != null)
     {
-      WeakReference <String> wr = get (s);
-      String k;
-      if (wr != null && ((k = wr.get ()) != null))
+      if (k.equals (s))
+      {
+        knownHits.increment ();
         return k;
-      wr = new WeakReference <> (s);
-      put (s, wr);
+      }
+      i = (i + 1) & (KNOWN.length - 1);
+    }
+    if (s.length () > MAX_CACHED_LENGTH)
       return s;
+    final int slot = h & mask;
+    final String c = cache.get (slot);
+    if (s.equals (c))
+    {
+      hits.increment ();
+      return c;
     }
+    misses.increment ();
+    cache.lazySet (slot, s);
+    return s;
+  }
+
+  /**
+   * Get a cached string with the contents of the given ISO-8859-1 bytes. A new
+   * String is only created if the cache does not already hold one with the
+   * same contents.
+   *
+   * @param raw
+   *        the bytes holding the string
+   * @param start
+   *        the index of the first byte
+   * @param length
+   *        the number of bytes
+   * @return the shared string
+   */
+  public String getCachedString (final byte [] raw, final int start, final int length)
+  {
+    int h0 = 0;
+    for (int i = start; i < start + length; i++)
+      h0 = 31 * h0 + (raw[i] & 0xff);
+    final int h = spread (h0);
+    int i = h & (KNOWN.length - 1);
+    String k;
+    while ((k = KNOWN[i]) != null)
+    {
+      if (matches (k, raw, start, length))
+      {
+        knownHits.increment ();
+        return k;
+      }
+      i = (i + 1) & (KNOWN.length - 1);
+    }
+    if (length > MAX_CACHED_LENGTH)
+      return new String (raw, start, length, StandardCharsets.ISO_8859_1);
+    final int slot = h & mask;
+    final String c = cache.get (slot);
+    if (c != null && matches (c, raw, start, length))
+    {
+      hits.increment ();
+      return c;
+    }
+    misses.increment ();
+    final String s = new String (raw, start, length, StandardCharsets.ISO_8859_1);
+    cache.lazySet (slot, s);
+    return s;
+  }
+
+  private static boolean matches (final String s, final byte [] raw, final int start, final int length)
+  {
+    if (s.length () != length)
+      return false;
+    for (int i = 0; i < length; i++)
+      if (s.charAt (i) != (raw[start + i] & 0xff))
+        return false;
+    return true;
+  }
+
+  /**
+   * Get the number of lookups that found a well known token.
+   *
+   * @return the number of token hits
+   */
+  public long getKnownHits ()
+  {
+    return knownHits.sum ();
+  }
+
+  /**
+   * Get the number of lookups that found a string in the dynamic cache.
+   *
+   * @return the number of cache hits
+   */
+  public long getHits ()
+  {
+    return hits.sum ();
+  }
+
+  /**
+   * Get the number of lookups that did not find a cached string.
+   *
+   * @return the number of misses
+   */
+  public long getMisses ()
+  {
+    return misses.sum ();
+  }
+
+  /**
+   * Get the share of lookups that returned a cached string.
+   *
+   * @return the hit rate, between 0 and 1
+   */
+  public double getHitRate ()
+  {
+    final long found = getKnownHits () + getHits ();
+    final long total = found + getMisses ();
+    return total == 0 ? 0 : (double) found / total;
   }
 }
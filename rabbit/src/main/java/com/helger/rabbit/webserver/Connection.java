@@ -4,7 +4,6 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.nio.channels.SocketChannel;
-import java.util.Date;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -111,8 +110,7 @@ public class Connection
           if (type != null)
             resp.setHeader ("Content-Type", type);
           resp.setHeader ("Content-Length", Long.toString (f.length ()));
-          final Date d = new Date (f.lastModified ());
-          resp.setHeader ("Last-Modified", HttpDateParser.getDateString (d));
+          resp.setHeader ("Last-Modified", HttpDateParser.getDateString (f.lastModified ()));
           if ("HTTP/1.0".equals (header.getHTTPVersion ()))
             resp.setHeader ("Connection", "Keep-Alive");
 
@@ -184,6 +182,7 @@ public class Connection
       final ResponseSentListener sentListener = new ResponseSentListener ();
       final HttpHeaderSender sender = new HttpHeaderSender (sc,
                                                             sws.getNioHandler (),
+                                                            sws.getBufferHandler (),
                                                             sws.getTrafficLogger (),
                                                             response,
                                                             false,
@@ -210,7 +209,7 @@ public class Connection
     final HttpHeader ret = new HttpHeader ();
     ret.setStatusLine (statusLine);
     ret.setHeader ("Server", sws.getClass ().getName ());
-    ret.setHeader ("Date", HttpDateParser.getDateString (new Date ()));
+    ret.setHeader ("Date", HttpDateParser.getCurrentDateString ());
     return ret;
   }
 
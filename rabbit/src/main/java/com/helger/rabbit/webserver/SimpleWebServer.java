@@ -15,9 +15,9 @@ import com.helger.rnio.INioHandler;
 import com.helger.rnio.IStatisticsHolder;
 import com.helger.rnio.impl.Acceptor;
 import com.helger.rnio.impl.BasicStatisticsHolder;
-import com.helger.rnio.impl.CachingBufferHandler;
 import com.helger.rnio.impl.IAcceptorListener;
 import com.helger.rnio.impl.MultiSelectorNioHandler;
+import com.helger.rnio.impl.PooledBufferHandler;
 import com.helger.rnio.impl.SimpleThreadFactory;
 
 /**
@@ -31,7 +31,7 @@ public class SimpleWebServer
   private final int port;
   private final INioHandler nioHandler;
   private final ITrafficLogger trafficLogger = new SimpleTrafficLogger ();
-  private final IBufferHandler bufferHandler = new CachingBufferHandler ();
+  private final IBufferHandler bufferHandler = new PooledBufferHandler ();
 
   /**
    * Start a web server using the port and base dir given as arguments.
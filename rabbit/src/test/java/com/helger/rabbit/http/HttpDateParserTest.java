@@ -0,0 +1,117 @@
+package com.helger.rabbit.http;
+
+import static org.junit.Assert.assertEquals;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Test the hand written date parsing and formatting of {@link HttpDateParser}
+ * against the java.time formatters.
+ *
+ * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
+ */
+public final class HttpDateParserTest
+{
+  /** The example date of RFC 2616, section 3.3.1. */
+  private static final long EXAMPLE = 784111777000L;
+
+  private static final DateTimeFormatter PADDED = DateTimeFormatter.ofPattern ("EEE, dd MMM yyyy HH:mm:ss 'GMT'",
+                                                                              Locale.US)
+                                                                   .withZone (ZoneOffset.UTC);
+
+  private static void assertUnknown (final String date)
+  {
+    assertEquals (date, HttpDateParser.UNKNOWN, HttpDateParser.getTime (date));
+  }
+
+  @Test
+  public void testRoundTrips ()
+  {
+    final Random r = new Random (4711);
+    // From 1900 to 2100, in whole seconds
+    final long min = -2208988800L;
+    final long max = 4102444800L;
+    for (int i = 0; i < 10000; i++)
+    {
+      final long millis = (min + (long) (r.nextDouble () * (max - min))) * 1000;
+      final Instant instant = Instant.ofEpochMilli (millis);
+      final String rfc1123 = DateTimeFormatter.RFC_1123_DATE_TIME.format (instant.atOffset (ZoneOffset.UTC));
+      assertEquals (rfc1123, millis, HttpDateParser.getTime (rfc1123));
+      final String ours = HttpDateParser.getDateString (millis);
+      assertEquals (PADDED.format (instant), ours);
+      assertEquals (ours, millis, HttpDateParser.getTime (ours));
+    }
+  }
+
+  @Test
+  public void testFormats ()
+  {
+    assertEquals (EXAMPLE, HttpDateParser.getTime ("Sun, 06 Nov 1994 08:49:37 GMT"));
+    assertEquals (EXAMPLE, HttpDateParser.getTime ("Sunday, 06-Nov-94 08:49:37 GMT"));
+    assertEquals (EXAMPLE, HttpDateParser.getTime ("Sun Nov  6 08:49:37 1994"));
+    assertEquals (EXAMPLE, HttpDateParser.getTime ("Sun Nov 06 08:49:37 1994"));
+    assertEquals (EXAMPLE, HttpDateParser.getTime ("Sun, 6 Nov 1994 8:49:37 GMT"));
+    assertEquals (EXAMPLE, HttpDateParser.getTime ("sun, 06 NOV 1994 08:49:37 GMT"));
+    assertEquals (EXAMPLE, HttpDateParser.getDate ("Sun, 06 Nov 1994 08:49:37 GMT").getTime ());
+    assertEquals ("Sun, 06 Nov 1994 08:49:37 GMT", HttpDateParser.getDateString (EXAMPLE));
+    assertEquals ("06/Nov/1994:08:49:37 GMT", HttpDateParser.getLogDateString (EXAMPLE));
+  }
+
+  @Test
+  public void testLeapDays ()
+  {
+    assertEquals (951782400000L, HttpDateParser.getTime ("Tue, 29 Feb 2000 00:00:00 GMT"));
+    assertEquals (1078012800000L, HttpDateParser.getTime ("Sun, 29 Feb 2004 00:00:00 GMT"));
+    assertEquals (1078012800000L, HttpDateParser.getTime ("Sun Feb 29 00:00:00 2004"));
+    assertUnknown ("Thu, 29 Feb 1900 00:00:00 GMT");
+    assertUnknown ("Sat, 29 Feb 2003 00:00:00 GMT");
+    assertUnknown ("Sat Feb 29 00:00:00 2003");
+    assertUnknown ("Wed, 30 Feb 2000 00:00:00 GMT");
+  }
+
+  @Test
+  public void testInvalidDays ()
+  {
+    assertUnknown ("Mon, 00 Jan 2024 00:00:00 GMT");
+    assertUnknown ("Thu, 32 Jan 2024 00:00:00 GMT");
+    assertUnknown ("Wed, 31 Apr 2024 00:00:00 GMT");
+    assertUnknown ("Monday, 31-Jun-24 00:00:00 GMT");
+    assertUnknown ("Sun Sep 31 00:00:00 2024");
+    assertEquals (1704067199000L, HttpDateParser.getTime ("Sun, 31 Dec 2023 23:59:59 GMT"));
+  }
+
+  @Test
+  public void testInvalidDates ()
+  {
+    assertUnknown (null);
+    assertUnknown ("");
+    assertUnknown ("Sun");
+    assertUnknown ("Sun,06 Nov 1994 08:49:37 GMT");
+    assertUnknown ("Sun, 06 Nox 1994 08:49:37 GMT");
+    assertUnknown ("Sun, 06 Nov 1994 24:00:00 GMT");
+    assertUnknown ("Sun, 06 Nov 1994 08:60:00 GMT");
+    assertUnknown ("Sun, 06 Nov 1994 08:49 GMT");
+    assertUnknown ("Sun, 06 Nov 994 08:49:37 GMT");
+    assertUnknown ("Sun, 06-Nov 1994 08:49:37 GMT");
+    assertUnknown ("Sun, 06 Nov 1994 08:49:37 UTC");
+    assertUnknown ("Sun Nov 6 08:49:37 94");
+  }
+
+  @Test
+  public void testTrailingGarbage ()
+  {
+    assertUnknown ("Sun, 06 Nov 1994 08:49:37 GMT ");
+    assertUnknown ("Sun, 06 Nov 1994 08:49:37 GMTx");
+    assertUnknown ("Sun, 06 Nov 2043 08:49:37 GMT - 49 years (1994)");
+    assertUnknown ("Sunday, 06-Nov-94 08:49:37 GMT; more");
+    assertUnknown ("Sun Nov  6 08:49:37 1994 ");
+    assertUnknown ("Sun Nov  6 08:49:37 19945");
+    assertUnknown ("Sun Nov  6 08:49:37 1994 GMT");
+  }
+}
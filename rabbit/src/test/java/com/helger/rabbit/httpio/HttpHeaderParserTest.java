@@ -0,0 +1,246 @@
+package com.helger.rabbit.httpio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.helger.rabbit.http.EHeaderToken;
+import com.helger.rabbit.http.Header;
+import com.helger.rabbit.http.HttpHeader;
+
+/**
+ * Test that {@link HttpHeaderParser} gives the same header no matter how the
+ * bytes are split over reads. The reads are fed the way HttpHeaderReader does
+ * it, the partial line is compacted to the start of the buffer and more data
+ * is appended after it.
+ *
+ * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
+ */
+public final class HttpHeaderParserTest
+{
+  private static final String REQUEST = "GET http://www.example.com/index.html HTTP/1.1\r\n" +
+                                        "Host: www.example.com\r\n" +
+                                        "User-Agent: Mozilla/5.0 (X11; Linux x86_64)\r\n" +
+                                        "Accept:text/html,*/*;q=0.8  \r\n" +
+                                        "Cookie: session=abcdef0123456789; theme=dark\r\n" +
+                                        "X-Empty:\r\n" +
+                                        "Folded: first\r\n" +
+                                        "\tsecond\r\n" +
+                                        "Content-Length: 5\r\n" +
+                                        "\r\n";
+
+  private static final String BODY = "hello";
+
+  private static byte [] bytes (final String s)
+  {
+    return s.getBytes (StandardCharsets.ISO_8859_1);
+  }
+
+  /**
+   * Parse the data split at the given offsets.
+   *
+   * @return the parsed header or null if the parser wants more data
+   */
+  private static HttpHeader parse (final HttpHeaderParser parser, final byte [] data, final int... splits)
+  {
+    final ByteBuffer buffer = ByteBuffer.allocate (data.length);
+    buffer.limit (0);
+    int from = 0;
+    for (int i = 0; i <= splits.length; i++)
+    {
+      final int to = i < splits.length ? splits[i] : data.length;
+      final int limit = buffer.limit ();
+      buffer.limit (limit + to - from);
+      for (int j = from; j < to; j++)
+        buffer.put (limit + j - from, data[j]);
+      from = to;
+      buffer.mark ();
+      if (parser.handleBuffer (buffer))
+        return parser.getHeader ();
+      buffer.reset ();
+      buffer.compact ();
+      buffer.flip ();
+    }
+    return null;
+  }
+
+  private static String describe (final HttpHeader h)
+  {
+    final StringBuilder sb = new StringBuilder (h.getRequestLine ()).append ('\n');
+    for (final Header hh : h)
+      sb.append ('[').append (hh.getType ()).append ("]=[").append (hh.getValue ()).append ("]\n");
+    return sb.toString ();
+  }
+
+  @Test
+  public void testSplitAtEveryOffset ()
+  {
+    final byte [] data = bytes (REQUEST + BODY);
+    final String expected = describe (parse (new HttpHeaderParser (true, true), data));
+    for (int s = 1; s < data.length; s++)
+    {
+      final HttpHeader h = parse (new HttpHeaderParser (true, true), data, s);
+      assertEquals ("split at: " + s, expected, describe (h));
+    }
+    for (int s = 1; s < data.length - 1; s++)
+    {
+      final HttpHeader h = parse (new HttpHeaderParser (true, true), data, s, s + 1);
+      assertEquals ("split at: " + s + " and " + (s + 1), expected, describe (h));
+    }
+    final int [] everyByte = new int [data.length - 1];
+    for (int i = 0; i < everyByte.length; i++)
+      everyByte[i] = i + 1;
+    assertEquals (expected, describe (parse (new HttpHeaderParser (true, true), data, everyByte)));
+  }
+
+  @Test
+  public void testHeaderValues ()
+  {
+    final HttpHeader h = parse (new HttpHeaderParser (true, true), bytes (REQUEST + BODY));
+    assertEquals ("GET", h.getMethod ());
+    assertEquals ("http://www.example.com/index.html", h.getRequestURI ());
+    assertEquals (7, h.size ());
+    assertEquals ("www.example.com", h.getHeader ("Host"));
+    assertEquals ("text/html,*/*;q=0.8", h.getHeader ("accept"));
+    assertEquals ("", h.getHeader ("X-Empty"));
+    assertEquals ("first\r\n\tsecond", h.getHeader ("Folded"));
+    assertEquals ("5", h.getHeader (EHeaderToken.CONTENT_LENGTH));
+  }
+
+  @Test
+  public void testBodyIsLeftInBuffer ()
+  {
+    final HttpHeaderParser parser = new HttpHeaderParser (true, true);
+    final ByteBuffer buffer = ByteBuffer.wrap (bytes (REQUEST + BODY));
+    assertTrue (parser.handleBuffer (buffer));
+    assertEquals (REQUEST.length (), buffer.position ());
+  }
+
+  @Test
+  public void testResponse ()
+  {
+    final String response = "HTTP/1.1 200 OK\r\nServer: test\r\n\r\n";
+    final byte [] data = bytes (response);
+    for (int s = 1; s < data.length; s++)
+    {
+      final HttpHeader h = parse (new HttpHeaderParser (false, true), data, s);
+      assertEquals ("split at: " + s, "200", h.getStatusCode ());
+      assertEquals ("test", h.getHeader ("Server"));
+    }
+  }
+
+  @Test
+  public void testLongLinesSpanChunks ()
+  {
+    final char [] c = new char [20000];
+    Arrays.fill (c, 'x');
+    final String longValue = new String (c);
+    final StringBuilder sb = new StringBuilder ("GET / HTTP/1.1\r\n");
+    for (int i = 0; i < 10; i++)
+      sb.append ("X-Long-").append (i).append (": ").append (longValue, 0, 1000 * i + 1).append ("\r\n");
+    sb.append ("Cookie: ").append (longValue).append ("\r\n");
+    sb.append ("Host: www.example.com\r\n\r\n");
+    final byte [] data = bytes (sb.toString ());
+    final String expected = describe (parse (new HttpHeaderParser (true, true), data));
+    for (final int s : new int [] { 1, 100, 4096, 8191, 8192, 8193, 30000, 60000, data.length - 10 })
+      assertEquals ("split at: " + s,
+                    expected,
+                    describe (parse (new HttpHeaderParser (true, true), data, s, Math.min (data.length, s + 7000))));
+
+    final HttpHeader h = parse (new HttpHeaderParser (true, true), data, 5000, 10000, 15000, 20000, 25000);
+    assertEquals (longValue, h.getHeader ("Cookie"));
+    assertEquals (4001, h.getHeader ("X-Long-4").length ());
+    assertEquals ("www.example.com", h.getHeader ("Host"));
+  }
+
+  @Test
+  public void testStrictNewlines ()
+  {
+    final byte [] data = bytes ("GET / HTTP/1.1\nHost: a\nX: b\n\n");
+    // A single \n does not end a line in strict mode
+    assertNull (parse (new HttpHeaderParser (true, true), data));
+
+    final HttpHeader h = parse (new HttpHeaderParser (true, false), data);
+    assertEquals ("/", h.getRequestURI ());
+    assertEquals (2, h.size ());
+    assertEquals ("a", h.getHeader ("Host"));
+    assertEquals ("b", h.getHeader ("X"));
+    for (int s = 1; s < data.length; s++)
+      assertEquals ("split at: " + s, describe (h), describe (parse (new HttpHeaderParser (true, false), data, s)));
+
+    // Split between the \r and \n of a line ending
+    final byte [] crlf = bytes ("GET / HTTP/1.1\r\nHost: a\r\n\r\n");
+    for (int s = 1; s < crlf.length; s++)
+    {
+      assertEquals ("a", parse (new HttpHeaderParser (true, false), crlf, s).getHeader ("Host"));
+      assertEquals ("a", parse (new HttpHeaderParser (true, true), crlf, s).getHeader ("Host"));
+    }
+  }
+
+  @Test
+  public void testStrictQuotes ()
+  {
+    final byte [] data = bytes ("GET / HTTP/1.1\r\nX: \"a\r\nb\"\r\nY: c\r\n\r\n");
+    // In strict mode an open quote continues the header on the next line
+    HttpHeader h = parse (new HttpHeaderParser (true, true), data);
+    assertEquals (2, h.size ());
+    assertEquals (" \"a\r\nb\"", h.getHeader ("X"));
+    for (int s = 1; s < data.length; s++)
+      assertEquals ("split at: " + s, describe (h), describe (parse (new HttpHeaderParser (true, true), data, s)));
+
+    h = parse (new HttpHeaderParser (true, false), bytes ("GET / HTTP/1.1\r\nX: \"a\r\nY: c\r\n\r\n"));
+    assertEquals (2, h.size ());
+    assertEquals ("\"a", h.getHeader ("X"));
+  }
+
+  @Test
+  public void testLazyDecoding ()
+  {
+    final byte [] data = bytes (REQUEST);
+    final ByteBuffer buffer = ByteBuffer.wrap (data);
+    final HttpHeaderParser parser = new HttpHeaderParser (true, true);
+    assertTrue (parser.handleBuffer (buffer));
+    final HttpHeader h = parser.getHeader ();
+    // The headers must not depend on the read buffer
+    Arrays.fill (data, (byte) '?');
+
+    // Written as read, without decoding, only the odd spacing is normalized
+    final String written = REQUEST.replace ("Accept:text/html,*/*;q=0.8  ", "Accept: text/html,*/*;q=0.8")
+                                  .replace ("X-Empty:", "X-Empty: ");
+    assertEquals (written, new String (h.getBytes (), StandardCharsets.ISO_8859_1));
+    assertEquals (h.getBytes ().length, h.getByteLength ());
+
+    Header contentLength = null;
+    for (final Header hh : h)
+      if (hh.getToken () == EHeaderToken.CONTENT_LENGTH)
+        contentLength = hh;
+    assertTrue (contentLength.hasType ("content-LENGTH"));
+    assertFalse (contentLength.hasType ("Content-Type"));
+    assertEquals ("5", contentLength.getValue ());
+    assertEquals ("Content-Length", contentLength.getType ());
+    assertSame (contentLength.getType (), contentLength.getType ());
+
+    contentLength.setValue ("6");
+    assertEquals ("6", h.getHeader ("Content-Length"));
+    assertTrue (new String (h.getBytes (), StandardCharsets.ISO_8859_1).contains ("\r\nContent-Length: 6\r\n"));
+  }
+
+  @Test
+  public void testReset ()
+  {
+    final HttpHeaderParser parser = new HttpHeaderParser (true, true);
+    assertNull (parse (parser, bytes ("GET /first HTTP/1.1\r\nHost: a")));
+    parser.reset ();
+    final HttpHeader h = parse (parser, bytes ("GET /second HTTP/1.1\r\nHost: b\r\n\r\n"), 3);
+    assertEquals ("/second", h.getRequestURI ());
+    assertEquals ("b", h.getHeader ("Host"));
+  }
+}
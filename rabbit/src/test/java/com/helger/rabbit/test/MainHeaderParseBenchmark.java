@@ -0,0 +1,122 @@
+package com.helger.rabbit.test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.helger.rabbit.http.Header;
+import com.helger.rabbit.http.HttpHeader;
+import com.helger.rabbit.httpio.HttpHeaderParser;
+import com.helger.rabbit.util.StringCache;
+
+/**
+ * Benchmark http header parsing with one and with many threads, every header
+ * type and value is used so that each of them goes through the StringCache.
+ *
+ * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
+ */
+public class MainHeaderParseBenchmark
+{
+  private static final String [] REQUESTS = { "GET http://www.example.com/index.html HTTP/1.1\r\n" +
+                                              "Host: www.example.com\r\n" +
+                                              "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:109.0) Gecko/20100101 Firefox/115.0\r\n" +
+                                              "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n" +
+                                              "Accept-Language: en-US,en;q=0.5\r\n" +
+                                              "Accept-Encoding: gzip, deflate\r\n" +
+                                              "Connection: keep-alive\r\n" +
+                                              "Cookie: session=abcdef0123456789; theme=dark\r\n" +
+                                              "Cache-Control: max-age=0\r\n\r\n",
+                                              "GET http://static.example.com/img/logo.png HTTP/1.1\r\n" +
+                                              "Host: static.example.com\r\n" +
+                                              "Accept: image/png,image/*;q=0.8,*/*;q=0.5\r\n" +
+                                              "Referer: http://www.example.com/index.html\r\n" +
+                                              "If-Modified-Since: Tue, 15 Nov 1994 08:12:31 GMT\r\n" +
+                                              "If-None-Match: \"686897696a7c876b7e\"\r\n\r\n" };
+
+  private static final String [] RESPONSES = { "HTTP/1.1 200 OK\r\n" +
+                                               "Date: Mon, 27 Jul 2009 12:28:53 GMT\r\n" +
+                                               "Server: Apache\r\n" +
+                                               "Last-Modified: Wed, 22 Jul 2009 19:15:56 GMT\r\n" +
+                                               "ETag: \"34aa387-d-1568eb00\"\r\n" +
+                                               "Accept-Ranges: bytes\r\n" +
+                                               "Content-Length: 51\r\n" +
+                                               "Vary: Accept-Encoding\r\n" +
+                                               "Content-Type: text/html\r\n\r\n",
+                                               "HTTP/1.1 304 Not Modified\r\n" +
+                                               "Date: Mon, 27 Jul 2009 12:28:54 GMT\r\n" +
+                                               "Cache-Control: public, max-age=3600\r\n" +
+                                               "Connection: keep-alive\r\n\r\n" };
+
+  /**
+   * Run the benchmark.
+   *
+   * @param args
+   *        the thread counts to run with and the number of seconds for each
+   *        run, defaults to 1 and 32 threads for 5 seconds
+   * @throws InterruptedException
+   *         if interrupted while waiting for the threads
+   */
+  public static void main (final String [] args) throws InterruptedException
+  {
+    final int [] threads = { args.length > 0 ? Integer.parseInt (args[0]) : 1,
+                             args.length > 1 ? Integer.parseInt (args[1]) : 32 };
+    final long seconds = args.length > 2 ? Long.parseLong (args[2]) : 5;
+    // Warm up
+    run (threads[0], 2);
+    for (final int t : threads)
+      run (t, seconds);
+  }
+
+  private static void run (final int threads, final long seconds) throws InterruptedException
+  {
+    final byte [] [] requests = encode (REQUESTS);
+    final byte [] [] responses = encode (RESPONSES);
+    final StringCache sc = StringCache.getSharedInstance ();
+    final long startHits = sc.getKnownHits () + sc.getHits ();
+    final long startMisses = sc.getMisses ();
+    final LongAdder parsed = new LongAdder ();
+    final LongAdder used = new LongAdder ();
+    final long end = System.nanoTime () + seconds * 1000000000L;
+    final CountDownLatch done = new CountDownLatch (threads);
+    for (int i = 0; i < threads; i++)
+    {
+      new Thread ( () -> {
+        final HttpHeaderParser requestParser = new HttpHeaderParser (true, false);
+        final HttpHeaderParser responseParser = new HttpHeaderParser (false, false);
+        long n = 0;
+        int length = 0;
+        while ((n & 0xff) != 0 || System.nanoTime () < end)
+        {
+          final byte [] [] data = (n & 1) == 0 ? requests : responses;
+          final HttpHeaderParser parser = (n & 1) == 0 ? requestParser : responseParser;
+          parser.reset ();
+          parser.handleBuffer (ByteBuffer.wrap (data[(int) (n >> 1) % data.length]));
+          final HttpHeader header = parser.getHeader ();
+          for (final Header h : header)
+            length += h.getType ().length () + h.getValue ().length ();
+          n++;
+        }
+        parsed.add (n);
+        // Keep the work from being optimized away
+        used.add (length);
+        done.countDown ();
+      }).start ();
+    }
+    done.await ();
+    final long hits = sc.getKnownHits () + sc.getHits () - startHits;
+    final long misses = sc.getMisses () - startMisses;
+    System.out.printf ("threads: %d, %.0f headers/s, string cache hit rate: %.1f%%%n",
+                       Integer.valueOf (threads),
+                       Double.valueOf (parsed.sum () / (double) seconds),
+                       Double.valueOf (100.0 * hits / Math.max (1, hits + misses)));
+  }
+
+  private static byte [] [] encode (final String [] headers)
+  {
+    final byte [] [] ret = new byte [headers.length] [];
+    for (int i = 0; i < headers.length; i++)
+      ret[i] = headers[i].getBytes (StandardCharsets.ISO_8859_1);
+    return ret;
+  }
+}
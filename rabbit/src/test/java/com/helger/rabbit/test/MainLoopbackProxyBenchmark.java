@@ -0,0 +1,284 @@
+package com.helger.rabbit.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.spi.SelectorProvider;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.helger.rabbit.client.ClientBase;
+import com.helger.rabbit.client.ClientListenerAdapter;
+import com.helger.rabbit.http.HttpHeader;
+import com.helger.rabbit.httpio.BlockListener;
+import com.helger.rabbit.httpio.WebConnectionResourceSource;
+import com.helger.rabbit.io.BufferHandle;
+import com.helger.rabbit.proxy.HttpProxy;
+import com.helger.rabbit.util.Config;
+import com.helger.rabbit.webserver.SimpleWebServer;
+import com.helger.rnio.loopback.LoopbackNetwork;
+import com.helger.rnio.loopback.LoopbackSelectorProvider;
+
+/**
+ * Benchmark the whole request path in one jvm: a ClientBase sends requests
+ * through an HttpProxy to a SimpleWebServer, all connected over the in memory
+ * loopback network so that runs are repeatable and free from kernel noise.
+ * <p>
+ * Run this from the rabbit directory, the proxy uses conf/rabbit.conf with the
+ * cache, logging and name lookups changed for the benchmark.
+ *
+ * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
+ */
+public class MainLoopbackProxyBenchmark
+{
+  private static final int ORIGIN_PORT = 18080;
+  private static final int PROXY_PORT = 19666;
+  private static final String PROXY_SECTION = HttpProxy.class.getName ();
+
+  private final ClientBase client;
+  private final String url;
+  private final LongAdder bytes = new LongAdder ();
+  private final LongAdder failures = new LongAdder ();
+  private final LongAdder latencyNanos = new LongAdder ();
+
+  /**
+   * Run the benchmark.
+   *
+   * @param args
+   *        the one way latency in microseconds, the bandwidth in bytes per
+   *        second (0 for unlimited), the number of concurrent clients, the
+   *        number of requests and the response size in bytes, defaults to 0,
+   *        0, 8, 20000 and 16384
+   * @throws Exception
+   *         if the benchmark fails
+   */
+  public static void main (final String [] args) throws Exception
+  {
+    // Has to be set before any selector or channel is created
+    if (System.getProperty ("java.nio.channels.spi.SelectorProvider") == null)
+      System.setProperty ("java.nio.channels.spi.SelectorProvider", LoopbackSelectorProvider.class.getName ());
+    final SelectorProvider sp = SelectorProvider.provider ();
+    if (!(sp instanceof LoopbackSelectorProvider))
+    {
+      System.err.println ("Not using the loopback network: " + sp);
+      return;
+    }
+    final long latency = args.length > 0 ? Long.parseLong (args[0]) : 0;
+    final long bandwidth = args.length > 1 ? Long.parseLong (args[1]) : 0;
+    final int clients = args.length > 2 ? Integer.parseInt (args[2]) : 8;
+    final int requests = args.length > 3 ? Integer.parseInt (args[3]) : 20000;
+    final int size = args.length > 4 ? Integer.parseInt (args[4]) : 16384;
+
+    final LoopbackNetwork network = ((LoopbackSelectorProvider) sp).getNetwork ();
+    network.setLatency (latency);
+    network.setBandwidth (bandwidth);
+
+    final File dir = Files.createTempDirectory ("rabbit-loopback").toFile ();
+    try (final OutputStream os = new FileOutputStream (new File (dir, "data.bin")))
+    {
+      os.write (new byte [size]);
+    }
+    final SimpleWebServer origin = new SimpleWebServer (ORIGIN_PORT, dir.getPath ());
+    origin.start ();
+    final HttpProxy proxy = new HttpProxy ();
+    proxy.setConfig (writeConfig (dir).getPath ());
+    proxy.start ();
+
+    final String url = "http://127.0.0.1:" + ORIGIN_PORT + "/data.bin";
+    final MainLoopbackProxyBenchmark bench = new MainLoopbackProxyBenchmark (url);
+    // Warm up
+    bench.run (clients, Math.max (clients, requests / 10));
+    bench.reset ();
+    final long startBytes = network.getBytes ();
+    final long start = System.nanoTime ();
+    bench.run (clients, requests);
+    final long time = System.nanoTime () - start;
+    final long ok = requests - bench.failures.sum ();
+    System.out.printf ("latency: %d µs, bandwidth: %d B/s, clients: %d, size: %d%n",
+                       Long.valueOf (latency),
+                       Long.valueOf (bandwidth),
+                       Integer.valueOf (clients),
+                       Integer.valueOf (size));
+    System.out.printf ("requests: %d, failed: %d, %.0f requests/s, average latency: %.1f µs%n",
+                       Long.valueOf (ok),
+                       Long.valueOf (bench.failures.sum ()),
+                       Double.valueOf (requests / (time / 1e9)),
+                       Double.valueOf (bench.latencyNanos.sum () / 1000.0 / Math.max (1, ok)));
+    System.out.printf ("body bytes: %d, network bytes: %d, connections: %d%n",
+                       Long.valueOf (bench.bytes.sum ()),
+                       Long.valueOf (network.getBytes () - startBytes),
+                       Long.valueOf (network.getConnections ()));
+
+    bench.client.shutdown ();
+    proxy.stop ();
+    origin.getNioHandler ().shutdown ();
+    System.exit (0);
+  }
+
+  private static File writeConfig (final File dir) throws IOException
+  {
+    final Config config = new Config ("conf/rabbit.conf");
+    config.setProperty (PROXY_SECTION, "port", Integer.toString (PROXY_PORT));
+    config.setProperty (PROXY_SECTION, "dnsHandler", "com.helger.rabbit.dns.DNSSunHandler");
+    config.setProperty ("logging", "access_log", new File (dir, "access_log.%g").getPath ());
+    config.setProperty ("logging", "error_log", new File (dir, "error_log.%g").getPath ());
+    config.setProperty ("logging", "access_log_level", "WARNING");
+    config.setProperty ("logging", "error_log_level", "WARNING");
+    // Every request has to go to the web server
+    final String filters = config.getProperty ("Filters", "httpinfilters", "");
+    config.setProperty ("Filters", "httpinfilters", filters + ",com.helger.rabbit.filter.DontCacheFilter");
+    config.setProperty ("com.helger.rabbit.filter.DontCacheFilter", "dontCacheURLmatching", ".");
+    config.setProperty ("com.helger.rabbit.cache.ncache.NCache",
+                        "directory",
+                        new File (dir, "cache").getPath ());
+    final File f = new File (dir, "rabbit.conf");
+    try (final OutputStream os = new FileOutputStream (f))
+    {
+      config.save (os);
+    }
+    return f;
+  }
+
+  private MainLoopbackProxyBenchmark (final String url) throws IOException
+  {
+    client = new ClientBase (InetAddress.getLoopbackAddress (), PROXY_PORT);
+    this.url = url;
+  }
+
+  private void reset ()
+  {
+    bytes.reset ();
+    failures.reset ();
+    latencyNanos.reset ();
+  }
+
+  /**
+   * Run the given number of requests, each client sends its next request
+   * when the previous one is done.
+   */
+  private void run (final int clients, final int requests) throws IOException, InterruptedException
+  {
+    final AtomicInteger left = new AtomicInteger (requests);
+    final CountDownLatch done = new CountDownLatch (requests);
+    for (int i = 0; i < clients && left.getAndDecrement () > 0; i++)
+      send (left, done);
+    if (!done.await (10, TimeUnit.MINUTES))
+      throw new IOException ("Requests did not finish, " + done.getCount () + " left");
+  }
+
+  private void send (final AtomicInteger left, final CountDownLatch done) throws IOException
+  {
+    client.sendRequest (client.getRequest ("GET", url), new Listener (left, done));
+  }
+
+  private class Listener extends ClientListenerAdapter
+  {
+    private final AtomicInteger left;
+    private final CountDownLatch done;
+    private final long start = System.nanoTime ();
+    private boolean failed;
+
+    public Listener (final AtomicInteger left, final CountDownLatch done)
+    {
+      this.left = left;
+      this.done = done;
+    }
+
+    @Override
+    public boolean followRedirects ()
+    {
+      return false;
+    }
+
+    @Override
+    public void handleResponse (final HttpHeader request,
+                                final HttpHeader response,
+                                final WebConnectionResourceSource wrs)
+    {
+      wrs.addBlockListener (new Discarder (request, this, wrs));
+    }
+
+    @Override
+    public void handleFailure (final HttpHeader request, final Exception e)
+    {
+      failed = true;
+      failures.increment ();
+      super.handleFailure (request, e);
+    }
+
+    @Override
+    public void handleTimeout (final HttpHeader request)
+    {
+      failed = true;
+      failures.increment ();
+      super.handleTimeout (request);
+    }
+
+    @Override
+    public void requestDone (final HttpHeader request)
+    {
+      if (!failed)
+        latencyNanos.add (System.nanoTime () - start);
+      done.countDown ();
+      if (left.getAndDecrement () > 0)
+      {
+        try
+        {
+          send (left, done);
+        }
+        catch (final IOException e)
+        {
+          handleFailure (request, e);
+        }
+      }
+    }
+  }
+
+  /** Read and drop the response body. */
+  private class Discarder implements BlockListener
+  {
+    private final HttpHeader request;
+    private final Listener listener;
+    private final WebConnectionResourceSource wrs;
+
+    public Discarder (final HttpHeader request, final Listener listener, final WebConnectionResourceSource wrs)
+    {
+      this.request = request;
+      this.listener = listener;
+      this.wrs = wrs;
+    }
+
+    public void bufferRead (final BufferHandle bufHandle)
+    {
+      final ByteBuffer buf = bufHandle.getBuffer ();
+      bytes.add (buf.remaining ());
+      buf.position (buf.limit ());
+      bufHandle.possiblyFlush ();
+      wrs.addBlockListener (this);
+    }
+
+    public void finishedRead ()
+    {
+      wrs.release ();
+      listener.requestDone (request);
+    }
+
+    public void failed (final Exception cause)
+    {
+      wrs.release ();
+      listener.handleFailure (request, cause);
+    }
+
+    public void timeout ()
+    {
+      wrs.release ();
+      listener.handleTimeout (request);
+    }
+  }
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright (c) 2010 Robert Olofsson.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the authors nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHORS AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE AUTHORS OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package com.helger.rnio.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.helger.rnio.IBufferHandler;
+import com.helger.rnio.impl.CachingBufferHandler;
+import com.helger.rnio.impl.PooledBufferHandler;
+
+/**
+ * Get and return buffers from one thread and from many threads that share
+ * the buffer handler.
+ *
+ * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
+ */
+@State (Scope.Benchmark)
+@BenchmarkMode (Mode.Throughput)
+@OutputTimeUnit (TimeUnit.SECONDS)
+@Fork (value = 2, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+@Warmup (iterations = 5, time = 1)
+@Measurement (iterations = 5, time = 1)
+public class BufferHandlerBenchmarks
+{
+  /** The buffer handler to test. */
+  @Param ({ "caching", "pooled" })
+  public String handler;
+
+  private IBufferHandler bufferHandler;
+
+  /** Create the buffer handler. */
+  @Setup
+  public void setup ()
+  {
+    bufferHandler = "pooled".equals (handler) ? new PooledBufferHandler () : new CachingBufferHandler ();
+  }
+
+  private ByteBuffer getAndPut ()
+  {
+    final ByteBuffer buf = bufferHandler.getBuffer ();
+    buf.put ((byte) 1);
+    bufferHandler.putBuffer (buf);
+    return buf;
+  }
+
+  private ByteBuffer getGrowAndPut ()
+  {
+    ByteBuffer buf = bufferHandler.getBuffer ();
+    buf.put ((byte) 1);
+    buf = bufferHandler.growBuffer (buf);
+    bufferHandler.putBuffer (buf);
+    return buf;
+  }
+
+  /**
+   * @return the buffer, so that the work is not optimized away
+   */
+  @Benchmark
+  @Threads (1)
+  public ByteBuffer getPutOneThread ()
+  {
+    return getAndPut ();
+  }
+
+  /**
+   * @return the buffer, so that the work is not optimized away
+   */
+  @Benchmark
+  @Threads (8)
+  public ByteBuffer getPutEightThreads ()
+  {
+    return getAndPut ();
+  }
+
+  /**
+   * @return the buffer, so that the work is not optimized away
+   */
+  @Benchmark
+  @Threads (8)
+  public ByteBuffer getGrowPutEightThreads ()
+  {
+    return getGrowAndPut ();
+  }
+}
@@ -0,0 +1,281 @@
+/**
+ * Copyright (c) 2010 Robert Olofsson.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the authors nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHORS AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE AUTHORS OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package com.helger.rnio.benchmarks;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.helger.rnio.IBufferHandler;
+import com.helger.rnio.INioHandler;
+import com.helger.rnio.impl.AbstractSimpleBlockReader;
+import com.helger.rnio.impl.AbstractSimpleBlockSender;
+import com.helger.rnio.impl.Acceptor;
+import com.helger.rnio.impl.BasicStatisticsHolder;
+import com.helger.rnio.impl.CompletionNioHandler;
+import com.helger.rnio.impl.MultiSelectorNioHandler;
+import com.helger.rnio.impl.PooledBufferHandler;
+import com.helger.rnio.impl.SimpleThreadFactory;
+
+/**
+ * Echo small messages over loopback through an rnio echo server. Each
+ * benchmark thread has its own blocking client connection and sends one
+ * message at a time, the throughput and the round trip time distribution are
+ * measured for different numbers of selector threads. The selector backend is
+ * the {@link MultiSelectorNioHandler}, the completion backend is the
+ * {@link CompletionNioHandler} with the same number of I/O threads.
+ * <p>
+ * To run the echo over the in memory loopback network instead of the kernel
+ * add
+ * <code>-jvmArgsAppend -Djava.nio.channels.spi.SelectorProvider=com.helger.rnio.loopback.LoopbackSelectorProvider</code>
+ * to the command line, the latency and bandwidth can be set with the
+ * <code>rnio.loopback.*</code> system properties.
+ *
+ * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
+ */
+@State (Scope.Benchmark)
+@BenchmarkMode ({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit (TimeUnit.MICROSECONDS)
+@Fork (value = 2, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+@Warmup (iterations = 5, time = 2)
+@Measurement (iterations = 5, time = 2)
+public class EchoBenchmarks
+{
+  private static final int MESSAGE_SIZE = 128;
+
+  /** The number of selector threads in the echo server. */
+  @Param ({ "1", "2", "4" })
+  public int numSelectors;
+
+  /** The NioHandler to use, "selector" or "completion". */
+  @Param ({ "selector", "completion" })
+  public String backend;
+
+  private final IBufferHandler bufferHandler = new PooledBufferHandler ();
+  private INioHandler nioHandler;
+  private ServerSocketChannel ssc;
+  private InetSocketAddress address;
+
+  /**
+   * Start the echo server.
+   *
+   * @throws IOException
+   *         if the server can not be started
+   */
+  @Setup (Level.Trial)
+  public void startServer () throws IOException
+  {
+    if ("completion".equals (backend))
+      nioHandler = new CompletionNioHandler (Executors.newCachedThreadPool (),
+                                             new BasicStatisticsHolder (),
+                                             numSelectors,
+                                             null);
+    else
+      nioHandler = new MultiSelectorNioHandler (Executors.newCachedThreadPool (),
+                                                new BasicStatisticsHolder (),
+                                                numSelectors,
+                                                null);
+    nioHandler.start (new SimpleThreadFactory ());
+    ssc = ServerSocketChannel.open ();
+    ssc.configureBlocking (false);
+    ssc.bind (new InetSocketAddress (InetAddress.getLoopbackAddress (), 0), Acceptor.DEFAULT_BACKLOG);
+    address = (InetSocketAddress) ssc.getLocalAddress ();
+    new Acceptor (ssc, nioHandler, sc -> new Reader (sc, nioHandler).register ()).register ();
+  }
+
+  /**
+   * Stop the echo server.
+   *
+   * @throws IOException
+   *         if the listening socket can not be closed
+   */
+  @TearDown (Level.Trial)
+  public void stopServer () throws IOException
+  {
+    nioHandler.shutdown ();
+    ssc.close ();
+  }
+
+  /** One client connection for each benchmark thread. */
+  @State (Scope.Thread)
+  public static class Client
+  {
+    private SocketChannel sc;
+    private final ByteBuffer buf = ByteBuffer.allocateDirect (MESSAGE_SIZE);
+
+    /**
+     * Connect to the echo server.
+     *
+     * @param server
+     *        the running echo server
+     * @throws IOException
+     *         if the connection fails
+     */
+    @Setup (Level.Trial)
+    public void connect (final EchoBenchmarks server) throws IOException
+    {
+      sc = SocketChannel.open (server.address);
+      sc.socket ().setTcpNoDelay (true);
+    }
+
+    /**
+     * Close the connection.
+     *
+     * @throws IOException
+     *         if the connection can not be closed
+     */
+    @TearDown (Level.Trial)
+    public void close () throws IOException
+    {
+      sc.close ();
+    }
+  }
+
+  private static void roundTrip (final Client c) throws IOException
+  {
+    final ByteBuffer buf = c.buf;
+    buf.clear ();
+    while (buf.hasRemaining ())
+      c.sc.write (buf);
+    buf.clear ();
+    while (buf.hasRemaining ())
+      if (c.sc.read (buf) < 0)
+        throw new IOException ("Echo server closed the connection");
+  }
+
+  /**
+   * Send one message and wait for the echo, with one client.
+   *
+   * @param c
+   *        the client of this thread
+   * @throws IOException
+   *         if the echo fails
+   */
+  @Benchmark
+  @Threads (1)
+  public void echoOneClient (final Client c) throws IOException
+  {
+    roundTrip (c);
+  }
+
+  /**
+   * Send one message and wait for the echo, with eight concurrent clients.
+   *
+   * @param c
+   *        the client of this thread
+   * @throws IOException
+   *         if the echo fails
+   */
+  @Benchmark
+  @Threads (8)
+  public void echoEightClients (final Client c) throws IOException
+  {
+    roundTrip (c);
+  }
+
+  private class Reader extends AbstractSimpleBlockReader
+  {
+    public Reader (final SocketChannel sc, final INioHandler nioHandler)
+    {
+      super (sc, nioHandler, null);
+    }
+
+    @Override
+    public ByteBuffer getByteBuffer ()
+    {
+      return bufferHandler.getBuffer ();
+    }
+
+    @Override
+    public void putByteBuffer (final ByteBuffer buf)
+    {
+      bufferHandler.putBuffer (buf);
+    }
+
+    @Override
+    public void channelClosed ()
+    {
+      closed ();
+    }
+
+    @Override
+    public void handleBufferRead (final ByteBuffer buf)
+    {
+      new Writer (sc, nioHandler, buf, this).write ();
+    }
+  }
+
+  private class Writer extends AbstractSimpleBlockSender
+  {
+    private final Reader reader;
+
+    public Writer (final SocketChannel sc, final INioHandler nioHandler, final ByteBuffer buf, final Reader reader)
+    {
+      super (sc, nioHandler, buf, null);
+      this.reader = reader;
+    }
+
+    @Override
+    public void done ()
+    {
+      bufferHandler.putBuffer (getBuffer ());
+      reader.register ();
+    }
+
+    @Override
+    public void closed ()
+    {
+      bufferHandler.putBuffer (getBuffer ());
+      super.closed ();
+    }
+  }
+}
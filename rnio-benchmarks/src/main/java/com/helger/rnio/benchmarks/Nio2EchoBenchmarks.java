@@ -0,0 +1,248 @@
+/**
+ * Copyright (c) 2010 Robert Olofsson.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the authors nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHORS AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE AUTHORS OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package com.helger.rnio.benchmarks;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.helger.rnio.impl.SimpleThreadFactory;
+
+/**
+ * The same echo as {@link EchoBenchmarks} but with a server written directly
+ * on the NIO.2 asynchronous channels, as a baseline for the rnio backends.
+ *
+ * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
+ */
+@State (Scope.Benchmark)
+@BenchmarkMode ({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit (TimeUnit.MICROSECONDS)
+@Fork (value = 2, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+@Warmup (iterations = 5, time = 2)
+@Measurement (iterations = 5, time = 2)
+public class Nio2EchoBenchmarks
+{
+  private static final int MESSAGE_SIZE = 128;
+
+  /** The number of threads in the channel group. */
+  @Param ({ "1", "2", "4" })
+  public int numThreads;
+
+  private AsynchronousChannelGroup group;
+  private AsynchronousServerSocketChannel server;
+  private InetSocketAddress address;
+
+  /**
+   * Start the echo server.
+   *
+   * @throws IOException
+   *         if the server can not be started
+   */
+  @Setup (Level.Trial)
+  public void startServer () throws IOException
+  {
+    group = AsynchronousChannelGroup.withFixedThreadPool (numThreads, new SimpleThreadFactory ());
+    server = AsynchronousServerSocketChannel.open (group);
+    server.bind (new InetSocketAddress (InetAddress.getLoopbackAddress (), 0));
+    address = (InetSocketAddress) server.getLocalAddress ();
+    server.accept (null, new CompletionHandler <AsynchronousSocketChannel, Void> ()
+    {
+      public void completed (final AsynchronousSocketChannel ch, final Void v)
+      {
+        server.accept (null, this);
+        new Echo (ch).read ();
+      }
+
+      public void failed (final Throwable t, final Void v)
+      {
+        // Server closed
+      }
+    });
+  }
+
+  /**
+   * Stop the echo server.
+   *
+   * @throws IOException
+   *         if the group can not be shut down
+   */
+  @TearDown (Level.Trial)
+  public void stopServer () throws IOException
+  {
+    server.close ();
+    group.shutdownNow ();
+  }
+
+  /** One client connection for each benchmark thread. */
+  @State (Scope.Thread)
+  public static class Client
+  {
+    private SocketChannel sc;
+    private final ByteBuffer buf = ByteBuffer.allocateDirect (MESSAGE_SIZE);
+
+    /**
+     * Connect to the echo server.
+     *
+     * @param server
+     *        the running echo server
+     * @throws IOException
+     *         if the connection fails
+     */
+    @Setup (Level.Trial)
+    public void connect (final Nio2EchoBenchmarks server) throws IOException
+    {
+      sc = SocketChannel.open (server.address);
+      sc.socket ().setTcpNoDelay (true);
+    }
+
+    /**
+     * Close the connection.
+     *
+     * @throws IOException
+     *         if the connection can not be closed
+     */
+    @TearDown (Level.Trial)
+    public void close () throws IOException
+    {
+      sc.close ();
+    }
+  }
+
+  private static void roundTrip (final Client c) throws IOException
+  {
+    final ByteBuffer buf = c.buf;
+    buf.clear ();
+    while (buf.hasRemaining ())
+      c.sc.write (buf);
+    buf.clear ();
+    while (buf.hasRemaining ())
+      if (c.sc.read (buf) < 0)
+        throw new IOException ("Echo server closed the connection");
+  }
+
+  /**
+   * Send one message and wait for the echo, with one client.
+   *
+   * @param c
+   *        the client of this thread
+   * @throws IOException
+   *         if the echo fails
+   */
+  @Benchmark
+  @Threads (1)
+  public void echoOneClient (final Client c) throws IOException
+  {
+    roundTrip (c);
+  }
+
+  /**
+   * Send one message and wait for the echo, with eight concurrent clients.
+   *
+   * @param c
+   *        the client of this thread
+   * @throws IOException
+   *         if the echo fails
+   */
+  @Benchmark
+  @Threads (8)
+  public void echoEightClients (final Client c) throws IOException
+  {
+    roundTrip (c);
+  }
+
+  /** Read into a buffer and write it back, then read again. */
+  private static class Echo implements CompletionHandler <Integer, Boolean>
+  {
+    private final AsynchronousSocketChannel ch;
+    private final ByteBuffer buf = ByteBuffer.allocateDirect (4096);
+
+    public Echo (final AsynchronousSocketChannel ch)
+    {
+      this.ch = ch;
+    }
+
+    public void read ()
+    {
+      buf.clear ();
+      ch.read (buf, Boolean.TRUE, this);
+    }
+
+    public void completed (final Integer n, final Boolean reading)
+    {
+      if (n.intValue () < 0)
+      {
+        failed (null, reading);
+        return;
+      }
+      if (reading.booleanValue ())
+        buf.flip ();
+      if (buf.hasRemaining ())
+        ch.write (buf, Boolean.FALSE, this);
+      else
+        read ();
+    }
+
+    public void failed (final Throwable t, final Boolean reading)
+    {
+      try
+      {
+        ch.close ();
+      }
+      catch (final IOException e)
+      {
+        // Ignore
+      }
+    }
+  }
+}
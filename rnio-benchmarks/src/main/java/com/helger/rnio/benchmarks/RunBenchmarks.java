@@ -0,0 +1,77 @@
+/**
+ * Copyright (c) 2010 Robert Olofsson.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the authors nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHORS AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE AUTHORS OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package com.helger.rnio.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Run the rnio benchmarks. This takes the normal JMH command line options, if
+ * no result options are given the results are written as JSON to
+ * rnio-benchmarks.json so that runs can be compared.
+ * <p>
+ * The benchmarks fix their forks, heap size, warmup and measurement
+ * iterations so that runs on the same machine are comparable. For stable
+ * numbers run on an otherwise idle Linux box with a fixed cpu frequency.
+ *
+ * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
+ */
+public final class RunBenchmarks
+{
+  /** The file the results are written to by default. */
+  public static final String DEFAULT_RESULT_FILE = "rnio-benchmarks.json";
+
+  private RunBenchmarks ()
+  {}
+
+  /**
+   * Run the benchmarks.
+   *
+   * @param args
+   *        JMH command line options, for instance a benchmark name pattern
+   * @throws Exception
+   *         if the options are bad or the benchmarks fail
+   */
+  public static void main (final String [] args) throws Exception
+  {
+    final CommandLineOptions cmd = new CommandLineOptions (args);
+    final ChainedOptionsBuilder ob = new OptionsBuilder ().parent (cmd);
+    if (!cmd.getResultFormat ().hasValue ())
+      ob.resultFormat (ResultFormatType.JSON);
+    if (!cmd.getResult ().hasValue ())
+      ob.result (DEFAULT_RESULT_FILE);
+    new Runner (ob.build ()).run ();
+  }
+}
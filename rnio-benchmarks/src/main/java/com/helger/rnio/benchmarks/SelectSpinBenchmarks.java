@@ -0,0 +1,277 @@
+/**
+ * Copyright (c) 2010 Robert Olofsson.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the authors nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHORS AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE AUTHORS OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package com.helger.rnio.benchmarks;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.helger.rnio.IBufferHandler;
+import com.helger.rnio.INioHandler;
+import com.helger.rnio.impl.AbstractSimpleBlockReader;
+import com.helger.rnio.impl.AbstractSimpleBlockSender;
+import com.helger.rnio.impl.Acceptor;
+import com.helger.rnio.impl.BasicStatisticsHolder;
+import com.helger.rnio.impl.MultiSelectorNioHandler;
+import com.helger.rnio.impl.PooledBufferHandler;
+import com.helger.rnio.impl.SimpleThreadFactory;
+
+/**
+ * Compare the request latency with blocking select and with busy polling
+ * selectors. Each request is a small message that the echo server reads on the
+ * executor, like a proxy does with requests that need background work, so the
+ * selector has to be told to wait for the next request by a selector task from
+ * another thread. The sampled round trip times give the p99 latency for each
+ * spin window, the spin window 0 is plain blocking select.
+ *
+ * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
+ */
+@State (Scope.Benchmark)
+@BenchmarkMode (Mode.SampleTime)
+@OutputTimeUnit (TimeUnit.MICROSECONDS)
+@Fork (value = 2, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+@Warmup (iterations = 5, time = 2)
+@Measurement (iterations = 5, time = 2)
+public class SelectSpinBenchmarks
+{
+  private static final int MESSAGE_SIZE = 128;
+  private static final int NUM_SELECTORS = 2;
+
+  /** The spin window of the selectors, in microseconds. */
+  @Param ({ "0", "20", "100" })
+  public int spinMicros;
+
+  /** The percentage of time each selector may spend spinning. */
+  @Param ({ "10", "100" })
+  public int spinBudget;
+
+  private final IBufferHandler bufferHandler = new PooledBufferHandler ();
+  private MultiSelectorNioHandler nioHandler;
+  private ServerSocketChannel ssc;
+  private InetSocketAddress address;
+
+  /**
+   * Start the echo server.
+   *
+   * @throws IOException
+   *         if the server can not be started
+   */
+  @Setup (Level.Trial)
+  public void startServer () throws IOException
+  {
+    nioHandler = new MultiSelectorNioHandler (Executors.newCachedThreadPool (),
+                                              new BasicStatisticsHolder (),
+                                              NUM_SELECTORS,
+                                              null);
+    nioHandler.setSpinWindow (spinMicros);
+    nioHandler.setSpinBudget (spinBudget / 100.0);
+    nioHandler.start (new SimpleThreadFactory ());
+    ssc = ServerSocketChannel.open ();
+    ssc.configureBlocking (false);
+    ssc.bind (new InetSocketAddress (InetAddress.getLoopbackAddress (), 0), Acceptor.DEFAULT_BACKLOG);
+    address = (InetSocketAddress) ssc.getLocalAddress ();
+    new Acceptor (ssc, nioHandler, sc -> new Reader (sc, nioHandler).register ()).register ();
+  }
+
+  /**
+   * Stop the echo server.
+   *
+   * @throws IOException
+   *         if the listening socket can not be closed
+   */
+  @TearDown (Level.Trial)
+  public void stopServer () throws IOException
+  {
+    nioHandler.shutdown ();
+    ssc.close ();
+  }
+
+  /** One client connection for each benchmark thread. */
+  @State (Scope.Thread)
+  public static class Client
+  {
+    private SocketChannel sc;
+    private final ByteBuffer buf = ByteBuffer.allocateDirect (MESSAGE_SIZE);
+
+    /**
+     * Connect to the echo server.
+     *
+     * @param server
+     *        the running echo server
+     * @throws IOException
+     *         if the connection fails
+     */
+    @Setup (Level.Trial)
+    public void connect (final SelectSpinBenchmarks server) throws IOException
+    {
+      sc = SocketChannel.open (server.address);
+      sc.socket ().setTcpNoDelay (true);
+    }
+
+    /**
+     * Close the connection.
+     *
+     * @throws IOException
+     *         if the connection can not be closed
+     */
+    @TearDown (Level.Trial)
+    public void close () throws IOException
+    {
+      sc.close ();
+    }
+  }
+
+  private static void roundTrip (final Client c) throws IOException
+  {
+    final ByteBuffer buf = c.buf;
+    buf.clear ();
+    while (buf.hasRemaining ())
+      c.sc.write (buf);
+    buf.clear ();
+    while (buf.hasRemaining ())
+      if (c.sc.read (buf) < 0)
+        throw new IOException ("Echo server closed the connection");
+  }
+
+  /**
+   * One request at a time from a single client.
+   *
+   * @param c
+   *        the client of this thread
+   * @throws IOException
+   *         if the echo fails
+   */
+  @Benchmark
+  @Threads (1)
+  public void requestOneClient (final Client c) throws IOException
+  {
+    roundTrip (c);
+  }
+
+  /**
+   * One request at a time from each of four concurrent clients.
+   *
+   * @param c
+   *        the client of this thread
+   * @throws IOException
+   *         if the echo fails
+   */
+  @Benchmark
+  @Threads (4)
+  public void requestFourClients (final Client c) throws IOException
+  {
+    roundTrip (c);
+  }
+
+  private class Reader extends AbstractSimpleBlockReader
+  {
+    public Reader (final SocketChannel sc, final INioHandler nioHandler)
+    {
+      super (sc, nioHandler, null);
+    }
+
+    @Override
+    public boolean useSeparateThread ()
+    {
+      return true;
+    }
+
+    @Override
+    public ByteBuffer getByteBuffer ()
+    {
+      return bufferHandler.getBuffer ();
+    }
+
+    @Override
+    public void putByteBuffer (final ByteBuffer buf)
+    {
+      bufferHandler.putBuffer (buf);
+    }
+
+    @Override
+    public void channelClosed ()
+    {
+      closed ();
+    }
+
+    @Override
+    public void handleBufferRead (final ByteBuffer buf)
+    {
+      new Writer (sc, nioHandler, buf, this).write ();
+    }
+  }
+
+  private class Writer extends AbstractSimpleBlockSender
+  {
+    private final Reader reader;
+
+    public Writer (final SocketChannel sc, final INioHandler nioHandler, final ByteBuffer buf, final Reader reader)
+    {
+      super (sc, nioHandler, buf, null);
+      this.reader = reader;
+    }
+
+    @Override
+    public void done ()
+    {
+      bufferHandler.putBuffer (getBuffer ());
+      reader.register ();
+    }
+
+    @Override
+    public void closed ()
+    {
+      bufferHandler.putBuffer (getBuffer ());
+      super.closed ();
+    }
+  }
+}
@@ -0,0 +1,204 @@
+/**
+ * Copyright (c) 2010 Robert Olofsson.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the authors nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHORS AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE AUTHORS OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package com.helger.rnio.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.helger.rnio.IReadHandler;
+import com.helger.rnio.IWriteHandler;
+import com.helger.rnio.statistics.SelectorStatistics;
+
+/**
+ * Dispatch ready read and write events through a {@link ChannelOpsHandler},
+ * the way the selector thread does for each selected key. The keys come from
+ * a pipe that is selected once, so that the ready operations stay set, and
+ * the handlers install themselves again, like a handler that waits for more
+ * data.
+ *
+ * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
+ */
+@State (Scope.Thread)
+@BenchmarkMode (Mode.AverageTime)
+@OutputTimeUnit (TimeUnit.NANOSECONDS)
+@Fork (value = 2, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+@Warmup (iterations = 5, time = 1)
+@Measurement (iterations = 5, time = 1)
+public class ChannelOpsDispatchBenchmarks
+{
+  /** The handler dispatch mode, "static" or "adaptive". */
+  @Param ({ "static", "adaptive" })
+  public String dispatch;
+
+  private ExecutorService executorService;
+  private Pipe pipe;
+  private Selector selector;
+  private HandlerDispatcher dispatcher;
+  private ChannelOpsHandler readOps;
+  private ChannelOpsHandler writeOps;
+  private SelectionKey readKey;
+  private SelectionKey writeKey;
+  private final Handler handler = new Handler ();
+
+  /**
+   * Create the pipe and select it once so that both ends are ready.
+   *
+   * @throws IOException
+   *         if the pipe or selector can not be opened
+   */
+  @Setup
+  public void setup () throws IOException
+  {
+    executorService = Executors.newCachedThreadPool ();
+    pipe = Pipe.open ();
+    pipe.source ().configureBlocking (false);
+    pipe.sink ().configureBlocking (false);
+    pipe.sink ().write (ByteBuffer.wrap (new byte [] { 1 }));
+    selector = Selector.open ();
+
+    final TimeoutWheel <ChannelOpsHandler> wheel = new TimeoutWheel<> (System.currentTimeMillis ());
+    readOps = new ChannelOpsHandler (wheel);
+    readOps.setReadHandler (handler);
+    readKey = pipe.source ().register (selector, readOps.getInterestOps (), readOps);
+    readOps.setSelectionKey (readKey);
+    writeOps = new ChannelOpsHandler (wheel);
+    writeOps.setWriteHandler (handler);
+    writeKey = pipe.sink ().register (selector, writeOps.getInterestOps (), writeOps);
+    writeOps.setSelectionKey (writeKey);
+    selector.selectNow ();
+
+    dispatcher = new HandlerDispatcher (executorService, new SelectorStatistics ());
+    dispatcher.setAdaptive ("adaptive".equals (dispatch));
+  }
+
+  /**
+   * Close the pipe and selector.
+   *
+   * @throws IOException
+   *         if closing fails
+   */
+  @TearDown
+  public void tearDown () throws IOException
+  {
+    selector.close ();
+    pipe.source ().close ();
+    pipe.sink ().close ();
+    executorService.shutdown ();
+  }
+
+  /**
+   * @return the number of handled events, so that the work is not optimized
+   *         away
+   */
+  @Benchmark
+  public long read ()
+  {
+    dispatcher.startLoop ();
+    readOps.handle (dispatcher, readKey);
+    readOps.setReadHandler (handler);
+    return handler.events;
+  }
+
+  /**
+   * @return the number of handled events, so that the work is not optimized
+   *         away
+   */
+  @Benchmark
+  public long write ()
+  {
+    dispatcher.startLoop ();
+    writeOps.handle (dispatcher, writeKey);
+    writeOps.setWriteHandler (handler);
+    return handler.events;
+  }
+
+  private static final class Handler implements IReadHandler, IWriteHandler
+  {
+    private long events = 0;
+
+    public void closed ()
+    { /* empty */ }
+
+    public void timeout ()
+    { /* empty */ }
+
+    public boolean useSeparateThread ()
+    {
+      return false;
+    }
+
+    /** Lets adaptive dispatch measure it, it is cheap so it stays inline */
+    public boolean isThreadSafe ()
+    {
+      return true;
+    }
+
+    public String getDescription ()
+    {
+      return "Handler";
+    }
+
+    public Long getTimeout ()
+    {
+      return null;
+    }
+
+    public void read ()
+    {
+      events++;
+    }
+
+    public void write ()
+    {
+      events++;
+    }
+  }
+}
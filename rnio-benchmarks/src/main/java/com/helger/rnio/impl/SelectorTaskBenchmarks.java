@@ -0,0 +1,141 @@
+/**
+ * Copyright (c) 2010 Robert Olofsson.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the authors nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHORS AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE AUTHORS OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package com.helger.rnio.impl;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Submit selector tasks to one running selector thread. Each producer submits
+ * a batch of tasks and waits until the selector thread has run them, so the
+ * score is the rate at which tasks get through the queue and the wakeups, not
+ * only how fast they can be queued.
+ *
+ * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
+ */
+@State (Scope.Benchmark)
+@BenchmarkMode (Mode.Throughput)
+@OutputTimeUnit (TimeUnit.SECONDS)
+@Fork (value = 2, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+@Warmup (iterations = 5, time = 1)
+@Measurement (iterations = 5, time = 1)
+public class SelectorTaskBenchmarks
+{
+  private static final int BATCH = 64;
+
+  private ExecutorService executorService;
+  private SingleSelectorRunner runner;
+
+  /**
+   * Start the selector thread.
+   *
+   * @throws IOException
+   *         if the selector can not be opened
+   */
+  @Setup
+  public void setup () throws IOException
+  {
+    executorService = Executors.newCachedThreadPool ();
+    runner = new SingleSelectorRunner (executorService,
+                                       new ChannelOwnership (),
+                                       new SelectorRebalancer (Collections.emptyList ()));
+    runner.start (new SimpleThreadFactory ());
+  }
+
+  /** Stop the selector thread. */
+  @TearDown
+  public void tearDown ()
+  {
+    runner.shutdown ();
+    executorService.shutdown ();
+  }
+
+  /** The tasks of one producer thread. */
+  @State (Scope.Thread)
+  public static class Producer
+  {
+    private final AtomicLong executed = new AtomicLong ();
+    private final ISelectorRunnable task = ssr -> executed.incrementAndGet ();
+    private long submitted = 0;
+  }
+
+  private void submitBatch (final Producer p)
+  {
+    for (int i = 0; i < BATCH; i++)
+      runner.runSelectorTask (p.task);
+    p.submitted += BATCH;
+    while (p.executed.get () < p.submitted)
+      Thread.yield ();
+  }
+
+  /**
+   * @param p
+   *        the producer of this thread
+   */
+  @Benchmark
+  @Threads (1)
+  @OperationsPerInvocation (BATCH)
+  public void submitOneProducer (final Producer p)
+  {
+    submitBatch (p);
+  }
+
+  /**
+   * @param p
+   *        the producer of this thread
+   */
+  @Benchmark
+  @Threads (8)
+  @OperationsPerInvocation (BATCH)
+  public void submitEightProducers (final Producer p)
+  {
+    submitBatch (p);
+  }
+}
@@ -0,0 +1,173 @@
+/**
+ * Copyright (c) 2010 Robert Olofsson.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the authors nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHORS AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE AUTHORS OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package com.helger.rnio.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.helger.rnio.IReadHandler;
+
+/**
+ * The timeout bookkeeping of one selector thread. Each channel has a read
+ * handler with a timeout 15 to 60 seconds ahead.
+ * <p>
+ * selectorLoop advances the clock one milli, expires the timed out channels
+ * and gives them new read handlers, like one pass through the selector loop.
+ * rearm moves the timeout of one channel, like what happens each time a
+ * channel has been read from and waits for more data.
+ *
+ * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
+ */
+@State (Scope.Thread)
+@BenchmarkMode (Mode.AverageTime)
+@OutputTimeUnit (TimeUnit.NANOSECONDS)
+@Fork (value = 2, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+@Warmup (iterations = 5, time = 1)
+@Measurement (iterations = 5, time = 1)
+public class TimeoutWheelBenchmarks
+{
+  /** The number of channels with timeouts. */
+  @Param ({ "1000", "10000", "100000" })
+  public int channels;
+
+  private final Random random = new Random (4711);
+  private final List <ChannelOpsHandler> expired = new ArrayList<> ();
+  private TimeoutWheel <ChannelOpsHandler> wheel;
+  private ChannelOpsHandler [] cohs;
+  private TimedReader [] readers;
+  private long now;
+  private int next;
+
+  /** Give each channel a read handler with a timeout. */
+  @Setup
+  public void setup ()
+  {
+    now = 0;
+    wheel = new TimeoutWheel<> (now);
+    cohs = new ChannelOpsHandler [channels];
+    readers = new TimedReader [channels];
+    for (int i = 0; i < channels; i++)
+    {
+      cohs[i] = new ChannelOpsHandler (wheel);
+      readers[i] = new TimedReader (nextTimeout ());
+      cohs[i].setReadHandler (readers[i]);
+    }
+  }
+
+  private long nextTimeout ()
+  {
+    return now + 15000 + random.nextInt (45000);
+  }
+
+  /**
+   * @return the next deadline, so that the work is not optimized away
+   */
+  @Benchmark
+  public long selectorLoop ()
+  {
+    now++;
+    wheel.expire (now, expired);
+    final int s = expired.size ();
+    for (int i = 0; i < s; i++)
+    {
+      final ChannelOpsHandler coh = expired.get (i);
+      if (coh.doTimeouts (now))
+        coh.setReadHandler (new TimedReader (nextTimeout ()));
+    }
+    expired.clear ();
+    return wheel.getNextDeadline ();
+  }
+
+  /**
+   * @return the number of scheduled timeouts, so that the work is not
+   *         optimized away
+   */
+  @Benchmark
+  public int rearm ()
+  {
+    final int i = next;
+    next = i + 1 == channels ? 0 : i + 1;
+    final ChannelOpsHandler coh = cohs[i];
+    coh.cancel (readers[i]);
+    readers[i] = new TimedReader (nextTimeout ());
+    coh.setReadHandler (readers[i]);
+    return wheel.size ();
+  }
+
+  private static final class TimedReader implements IReadHandler
+  {
+    private final Long timeout;
+
+    public TimedReader (final long timeout)
+    {
+      this.timeout = Long.valueOf (timeout);
+    }
+
+    public void closed ()
+    { /* empty */ }
+
+    public void timeout ()
+    { /* empty */ }
+
+    public boolean useSeparateThread ()
+    {
+      return false;
+    }
+
+    public String getDescription ()
+    {
+      return "TimedReader";
+    }
+
+    public Long getTimeout ()
+    {
+      return timeout;
+    }
+
+    public void read ()
+    { /* empty */ }
+  }
+}
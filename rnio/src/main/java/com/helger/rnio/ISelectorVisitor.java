@@ -33,9 +33,12 @@ package com.helger.rnio;
 
 import java.nio.channels.Selector;
 
+import com.helger.rnio.statistics.SelectorStatistics;
+
 /**
  * A visitor of the selectors used by a NioHandler. The method selector will be
- * called once for each of the different selectors used by the NioHandler.
+ * called once for each of the different selectors used by the NioHandler,
+ * followed by a call to statistics for the same selector.
  */
 public interface ISelectorVisitor
 {
@@ -47,6 +50,18 @@ public interface ISelectorVisitor
    */
   void selector (Selector selector);
 
+  /**
+   * Visit the statistics of the selector that was just visited. The default
+   * is to do nothing.
+   *
+   * @param stats
+   *        the statistics of the selector given in the last call to selector
+   */
+  default void statistics (final SelectorStatistics stats)
+  {
+    // statistics are not used
+  }
+
   /**
    * Indicates that all selectors have been visited
    */
@@ -49,6 +49,19 @@ public interface ISocketChannelHandler
    */
   boolean useSeparateThread ();
 
+  /**
+   * Check if this handler may run on any thread even though
+   * useSeparateThread () returns false. Only such handlers are moved off the
+   * selector thread when a MultiSelectorNioHandler uses adaptive dispatch,
+   * other handlers stay confined to the selector thread. The default is false.
+   *
+   * @return true if this handler may run on an executor thread
+   */
+  default boolean isThreadSafe ()
+  {
+    return false;
+  }
+
   /**
    * Get a string description.
    *
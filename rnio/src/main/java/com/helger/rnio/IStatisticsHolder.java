@@ -31,10 +31,12 @@
  */
 package com.helger.rnio;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
 import com.helger.rnio.statistics.CompletionEntry;
+import com.helger.rnio.statistics.LatencyHistogram;
 import com.helger.rnio.statistics.TotalTimeSpent;
 
 /**
@@ -73,6 +75,22 @@ public interface IStatisticsHolder
    */
   void changeTaskStatusToFinished (ITaskIdentifier ti, boolean wasOk, long timeSpent);
 
+  /**
+   * Record the latencies of a completed task. Implementations should not
+   * allocate any memory for this. The default is to ignore the latencies.
+   *
+   * @param ti
+   *        the identifier of the task that has completed.
+   * @param waitNanos
+   *        the time the task spent waiting to be run.
+   * @param runNanos
+   *        the time spent running the task.
+   */
+  default void recordLatencies (final ITaskIdentifier ti, final long waitNanos, final long runNanos)
+  {
+    // latencies are not tracked
+  }
+
   /**
    * Get information about the currently pending tasks.
    *
@@ -80,6 +98,22 @@ public interface IStatisticsHolder
    */
   Map <String, List <ITaskIdentifier>> getPendingTasks ();
 
+  /**
+   * Get the number of tasks that are pending, over all groups. This is meant to
+   * be cheap enough to be called often. The default counts the tasks given by
+   * getPendingTasks, implementations should override it with something
+   * cheaper.
+   *
+   * @return the current number of pending tasks
+   */
+  default int getNumPendingTasks ()
+  {
+    int ret = 0;
+    for (final List <ITaskIdentifier> ls : getPendingTasks ().values ())
+      ret += ls.size ();
+    return ret;
+  }
+
   /**
    * Get information about the currently running tasks.
    *
@@ -107,4 +141,26 @@ public interface IStatisticsHolder
    * @return a mapping from group ids to the task identifiers
    */
   Map <String, TotalTimeSpent> getTotalTimeSpent ();
+
+  /**
+   * Get the distribution of the time tasks waited before they were run.
+   *
+   * @return a mapping from group ids to a copy of the wait time histogram,
+   *         the default is an empty map
+   */
+  default Map <String, LatencyHistogram> getWaitTimes ()
+  {
+    return Collections.emptyMap ();
+  }
+
+  /**
+   * Get the distribution of the time spent running tasks.
+   *
+   * @return a mapping from group ids to a copy of the run time histogram, the
+   *         default is an empty map
+   */
+  default Map <String, LatencyHistogram> getRunTimes ()
+  {
+    return Collections.emptyMap ();
+  }
 }
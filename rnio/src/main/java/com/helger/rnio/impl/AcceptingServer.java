@@ -36,6 +36,8 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 
 import com.helger.rnio.INioHandler;
@@ -49,14 +51,18 @@ import com.helger.rnio.IStatisticsHolder;
  * When you start this server it will begin to listen for socket connections on
  * the specified InetAddress and port and hand off new socket connections to the
  * {@link IAcceptorListener}
+ * <p>
+ * If reuse port is used each selector thread gets its own listening socket,
+ * bound with SO_REUSEPORT, and keeps the connections it accepts.
  *
  * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
  */
 public class AcceptingServer
 {
-  private final ServerSocketChannel ssc;
+  private final List <ServerSocketChannel> sscs = new ArrayList<> ();
   private final IAcceptorListener listener;
-  private final INioHandler nioHandler;
+  private final MultiSelectorNioHandler nioHandler;
+  private final boolean reusePort;
 
   /**
    * Create a new server using the parameters given.
@@ -83,10 +89,50 @@ public class AcceptingServer
                           final int selectorThreads,
                           final Long defaultTimeout) throws IOException
   {
-    ssc = ServerSocketChannel.open ();
-    ssc.configureBlocking (false);
-    final ServerSocket ss = ssc.socket ();
-    ss.bind (new InetSocketAddress (addr, port));
+    this (addr, port, listener, es, selectorThreads, defaultTimeout, false);
+  }
+
+  /**
+   * Create a new server using the parameters given.
+   *
+   * @param addr
+   *        the InetAddress to bind to, may be null for wildcard address
+   * @param port
+   *        the port number to bind to
+   * @param listener
+   *        the client that will handle the accepted sockets
+   * @param es
+   *        the ExecutorService to use for the NioHandler
+   * @param selectorThreads
+   *        the number of threads that the NioHandler will use
+   * @param defaultTimeout
+   *        the default timeout value for the NioHandler
+   * @param reusePort
+   *        if true, open one listening socket per selector thread using
+   *        SO_REUSEPORT
+   * @throws IOException
+   *         if network setup fails or if SO_REUSEPORT is not supported
+   */
+  public AcceptingServer (final InetAddress addr,
+                          final int port,
+                          final IAcceptorListener listener,
+                          final ExecutorService es,
+                          final int selectorThreads,
+                          final Long defaultTimeout,
+                          final boolean reusePort) throws IOException
+  {
+    this.reusePort = reusePort;
+    final int numListeners = reusePort ? selectorThreads : 1;
+    for (int i = 0; i < numListeners; i++)
+    {
+      final ServerSocketChannel ssc = ServerSocketChannel.open ();
+      ssc.configureBlocking (false);
+      if (reusePort)
+        ReusePort.enable (ssc);
+      final ServerSocket ss = ssc.socket ();
+      ss.bind (new InetSocketAddress (addr, port), Acceptor.DEFAULT_BACKLOG);
+      sscs.add (ssc);
+    }
     this.listener = listener;
     final IStatisticsHolder stats = new BasicStatisticsHolder ();
     nioHandler = new MultiSelectorNioHandler (es, stats, selectorThreads, defaultTimeout);
@@ -98,8 +144,18 @@ public class AcceptingServer
   public void start ()
   {
     nioHandler.start (new SimpleThreadFactory ());
-    final Acceptor acceptor = new Acceptor (ssc, nioHandler, listener);
-    acceptor.register ();
+    for (int i = 0; i < sscs.size (); i++)
+    {
+      final ServerSocketChannel ssc = sscs.get (i);
+      IAcceptorListener al = listener;
+      if (reusePort)
+      {
+        nioHandler.bindToSelector (ssc, i);
+        al = new SelectorLocalAcceptorListener (nioHandler, listener);
+      }
+      final Acceptor acceptor = new Acceptor (ssc, nioHandler, al);
+      acceptor.register ();
+    }
   }
 
   /**
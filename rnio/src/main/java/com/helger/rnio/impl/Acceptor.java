@@ -32,23 +32,61 @@
 package com.helger.rnio.impl;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.LongAdder;
 
+import com.helger.commons.io.stream.StreamHelper;
 import com.helger.rnio.IAcceptHandler;
 import com.helger.rnio.INioHandler;
+import com.helger.rnio.IReadHandler;
 
 /**
  * A standard acceptor.
  * <p>
  * This AcceptHandler will never timeout, will never use a separate thread and
  * will keep accepting connections until you remove it.
+ * <p>
+ * Each time the channel is ready this acceptor will accept up to batch size
+ * connections, so that a full backlog can be drained without going back to the
+ * selector for every connection.
+ * <p>
+ * If an {@link AdmissionController} is set the acceptor checks it before each
+ * connection. While the controller is overloaded the acceptor either stops
+ * waiting for accept until the load is down or rejects the new connections,
+ * depending on the controller's {@link OverloadAction}.
  *
  * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
  */
 public class Acceptor extends AbstractSocketHandlerBase <ServerSocketChannel> implements IAcceptHandler
 {
+  /** The default number of connections to accept for each accept event. */
+  public static final int DEFAULT_BATCH_SIZE = 64;
+
+  /**
+   * The listen backlog to use for server sockets. The platform default of 50
+   * is easily overrun during connection bursts and the clients then have to
+   * wait for SYN retransmits.
+   */
+  public static final int DEFAULT_BACKLOG = 1024;
+
   private final IAcceptorListener listener;
+  private final int batchSize;
+
+  private final LongAdder acceptEvents = new LongAdder ();
+  private final LongAdder accepted = new LongAdder ();
+  private final LongAdder fullBatches = new LongAdder ();
+  private final LongAdder acceptNanos = new LongAdder ();
+  private volatile int maxBatch = 0;
+
+  /**
+   * How long, in milliseconds, a rejected connection is kept open to read
+   * what the client sends after the reject response.
+   */
+  public static final long REJECT_LINGER_MILLIS = 2000;
+
+  private volatile AdmissionController admission;
 
   /**
    * Create a new Acceptor that will wait for accepts on the given channel.
@@ -61,9 +99,32 @@ public class Acceptor extends AbstractSocketHandlerBase <ServerSocketChannel> im
    *        the listener waiting for connections
    */
   public Acceptor (final ServerSocketChannel ssc, final INioHandler nioHandler, final IAcceptorListener listener)
+  {
+    this (ssc, nioHandler, listener, DEFAULT_BATCH_SIZE);
+  }
+
+  /**
+   * Create a new Acceptor that will wait for accepts on the given channel.
+   *
+   * @param ssc
+   *        the channel to accept connections from
+   * @param nioHandler
+   *        the NioHandler to use for waiting
+   * @param listener
+   *        the listener waiting for connections
+   * @param batchSize
+   *        the maximum number of connections to accept for each accept event
+   */
+  public Acceptor (final ServerSocketChannel ssc,
+                   final INioHandler nioHandler,
+                   final IAcceptorListener listener,
+                   final int batchSize)
   {
     super (ssc, nioHandler, null);
+    if (batchSize < 1)
+      throw new IllegalArgumentException ("Batch size must be at least one: " + batchSize);
     this.listener = listener;
+    this.batchSize = batchSize;
   }
 
   /**
@@ -76,16 +137,39 @@ public class Acceptor extends AbstractSocketHandlerBase <ServerSocketChannel> im
   }
 
   /**
-   * Accept a SocketChannel.
+   * Accept the waiting SocketChannels, at most batch size of them.
    */
   public void accept ()
   {
     try
     {
-      final SocketChannel s = sc.accept ();
-      s.configureBlocking (false);
-      listener.connectionAccepted (s);
-      register ();
+      final long started = System.nanoTime ();
+      final AdmissionController ac = admission;
+      boolean pause = false;
+      int num = 0;
+      SocketChannel s;
+      while (num < batchSize)
+      {
+        final boolean overloaded = ac != null && ac.isOverloaded ();
+        if (overloaded && ac.getAction () == OverloadAction.PAUSE_ACCEPT)
+        {
+          pause = true;
+          break;
+        }
+        if ((s = sc.accept ()) == null)
+          break;
+        num++;
+        s.configureBlocking (false);
+        if (overloaded)
+          reject (s, ac);
+        else
+          listener.connectionAccepted (s);
+      }
+      updateStatistics (num, System.nanoTime () - started);
+      if (pause)
+        ac.pauseUntilAdmitted (this::register);
+      else
+        register ();
     }
     catch (final IOException e)
     {
@@ -93,6 +177,162 @@ public class Acceptor extends AbstractSocketHandlerBase <ServerSocketChannel> im
     }
   }
 
+  /**
+   * Send the reject response and close the connection for writing. The
+   * connection is then read until the client closes it, or for at most
+   * REJECT_LINGER_MILLIS, before it is closed. Closing a socket with unread
+   * data sends a reset that may make the client lose the response, and the
+   * request has usually not arrived when we accept the connection.
+   */
+  private void reject (final SocketChannel s, final AdmissionController ac)
+  {
+    ac.recordRejected ();
+    final ByteBuffer response = ac.getRejectResponse ();
+    if (response != null)
+    {
+      try
+      {
+        s.write (response);
+        s.shutdownOutput ();
+        final Long timeout = Long.valueOf (System.currentTimeMillis () + REJECT_LINGER_MILLIS);
+        nioHandler.waitForRead (s, new RejectDrainer (s, nioHandler, timeout));
+        return;
+      }
+      catch (final IOException e)
+      {
+        // The client is gone, nothing more to do
+      }
+    }
+    StreamHelper.close (s);
+  }
+
+  /**
+   * Reads and throws away what a rejected client sends until it closes the
+   * connection or the timeout is reached.
+   */
+  private static final class RejectDrainer extends AbstractSocketHandlerBase <SocketChannel> implements IReadHandler
+  {
+    private final ByteBuffer buffer = ByteBuffer.allocate (1024);
+
+    RejectDrainer (final SocketChannel sc, final INioHandler nioHandler, final Long timeout)
+    {
+      super (sc, nioHandler, timeout);
+    }
+
+    public void read ()
+    {
+      try
+      {
+        buffer.clear ();
+        if (sc.read (buffer) >= 0)
+        {
+          nioHandler.waitForRead (sc, this);
+          return;
+        }
+      }
+      catch (final IOException e)
+      {
+        // The client is gone, nothing more to do
+      }
+      closed ();
+    }
+  }
+
+  private void updateStatistics (final int num, final long nanos)
+  {
+    acceptEvents.increment ();
+    accepted.add (num);
+    acceptNanos.add (nanos);
+    if (num == batchSize)
+      fullBatches.increment ();
+    // Only the selector thread updates this
+    if (num > maxBatch)
+      maxBatch = num;
+  }
+
+  /**
+   * Set the admission controller to check before each new connection. The
+   * controller has to be started for a paused acceptor to resume.
+   *
+   * @param admission
+   *        the controller to use, null to admit every connection
+   */
+  public void setAdmissionController (final AdmissionController admission)
+  {
+    this.admission = admission;
+  }
+
+  /**
+   * Get the admission controller this acceptor uses.
+   *
+   * @return the controller, null if every connection is admitted
+   */
+  public AdmissionController getAdmissionController ()
+  {
+    return admission;
+  }
+
+  /**
+   * Get the maximum number of connections accepted for one accept event.
+   *
+   * @return the batch size
+   */
+  public int getBatchSize ()
+  {
+    return batchSize;
+  }
+
+  /**
+   * Get the number of times the channel has been ready for accept.
+   *
+   * @return the number of accept events handled
+   */
+  public long getAcceptEvents ()
+  {
+    return acceptEvents.sum ();
+  }
+
+  /**
+   * Get the number of accepted connections.
+   *
+   * @return the total number of accepted connections
+   */
+  public long getAccepted ()
+  {
+    return accepted.sum ();
+  }
+
+  /**
+   * Get the number of accept events that used the full batch, the backlog may
+   * have had more connections waiting when this happened.
+   *
+   * @return the number of accept events that hit the batch size
+   */
+  public long getFullBatches ()
+  {
+    return fullBatches.sum ();
+  }
+
+  /**
+   * Get the largest number of connections accepted for one accept event.
+   *
+   * @return the largest drained backlog
+   */
+  public int getMaxBatch ()
+  {
+    return maxBatch;
+  }
+
+  /**
+   * Get the total time spent accepting and handing off connections.
+   *
+   * @return the time spent in nanos
+   */
+  public long getAcceptNanos ()
+  {
+    return acceptNanos.sum ();
+  }
+
   /**
    * Register OP_ACCEPT with the selector.
    */
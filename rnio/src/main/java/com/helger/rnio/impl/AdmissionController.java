@@ -0,0 +1,519 @@
+/**
+ * Copyright (c) 2010 Robert Olofsson.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the authors nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHORS AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE AUTHORS OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package com.helger.rnio.impl;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.logging.Logger;
+
+import com.helger.rnio.IStatisticsHolder;
+
+/**
+ * Decides if new connections should be admitted, based on the current load.
+ * <p>
+ * The controller has a set of limits, each a load value and the maximum
+ * allowed value, like the depth of the executor queue or the number of pooled
+ * buffers in use. A background thread samples the limits once every sample
+ * interval. When any value reaches its maximum the controller becomes
+ * overloaded, and it stays overloaded until every value is down to the resume
+ * fraction of its maximum. This hysteresis keeps the Acceptors from flapping
+ * at the limit.
+ * <p>
+ * While overloaded the Acceptors that use this controller either stop
+ * accepting or reject new connections, see {@link OverloadAction}.
+ * <p>
+ * This class is thread safe, {@link #isOverloaded()} is a volatile read.
+ *
+ * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
+ */
+public class AdmissionController
+{
+  /** The default time between samples, in millis. */
+  public static final long DEFAULT_SAMPLE_INTERVAL = 50;
+  /** The default fraction of the limits the load has to go down to. */
+  public static final double DEFAULT_RESUME_FRACTION = 0.8;
+
+  private final List <Limit> limits = new CopyOnWriteArrayList<> ();
+  private final Queue <Runnable> paused = new ConcurrentLinkedQueue<> ();
+  private final Logger logger = Logger.getLogger ("org.khelekore.rnio");
+
+  private volatile OverloadAction action = OverloadAction.PAUSE_ACCEPT;
+  private volatile double resumeFraction = DEFAULT_RESUME_FRACTION;
+  private volatile ByteBuffer rejectResponse;
+  private volatile boolean overloaded = false;
+  private volatile Limit overloadCause;
+  private volatile long overloadStarted;
+
+  private final LongAdder overloads = new LongAdder ();
+  private final LongAdder overloadNanos = new LongAdder ();
+  private final LongAdder pauses = new LongAdder ();
+  private final LongAdder rejected = new LongAdder ();
+
+  private ScheduledExecutorService sampler;
+
+  /**
+   * Add a limit.
+   *
+   * @param name
+   *        the name of the limit, used in logs and statistics
+   * @param value
+   *        gives the current load value, will be called on the sampler thread
+   * @param max
+   *        the value at which the controller becomes overloaded
+   */
+  public void addLimit (final String name, final LongSupplier value, final long max)
+  {
+    if (max <= 0)
+      throw new IllegalArgumentException ("The limit for " + name + " must be positive: " + max);
+    limits.add (new Limit (name, value, max));
+  }
+
+  /**
+   * Limit the number of tasks waiting to be run on any one selector thread.
+   *
+   * @param nioHandler
+   *        the NioHandler whose selectors are checked
+   * @param max
+   *        the maximum number of queued selector tasks
+   */
+  public void limitSelectorBacklog (final MultiSelectorNioHandler nioHandler, final int max)
+  {
+    addLimit ("selector backlog", nioHandler::getMaxQueuedSelectorTasks, max);
+  }
+
+  /**
+   * Limit the number of tasks waiting for an executor thread.
+   *
+   * @param executor
+   *        the executor to check
+   * @param max
+   *        the maximum number of queued tasks
+   */
+  public void limitExecutorQueue (final MeteredExecutorService executor, final int max)
+  {
+    addLimit ("executor queue", executor::getQueued, max);
+  }
+
+  /**
+   * Limit the number of background tasks that have not yet started to run.
+   *
+   * @param stats
+   *        the statistics that track the tasks
+   * @param max
+   *        the maximum number of pending tasks
+   */
+  public void limitPendingTasks (final IStatisticsHolder stats, final int max)
+  {
+    addLimit ("pending tasks", stats::getNumPendingTasks, max);
+  }
+
+  /**
+   * Limit the number of bytes in buffers that are handed out by a buffer pool.
+   *
+   * @param bufferHandler
+   *        the pool to check
+   * @param max
+   *        the maximum number of bytes in use
+   */
+  public void limitBufferBytes (final PooledBufferHandler bufferHandler, final long max)
+  {
+    addLimit ("buffer bytes", bufferHandler::getOutstandingBytes, max);
+  }
+
+  /**
+   * Get the limits of this controller.
+   *
+   * @return the current limits
+   */
+  public List <Limit> getLimits ()
+  {
+    return Collections.unmodifiableList (limits);
+  }
+
+  /**
+   * Set what the Acceptors do while the controller is overloaded.
+   *
+   * @param action
+   *        the overload action
+   */
+  public void setAction (final OverloadAction action)
+  {
+    if (action == null)
+      throw new IllegalArgumentException ("Overload action may not be null");
+    this.action = action;
+  }
+
+  /**
+   * Get what the Acceptors do while the controller is overloaded.
+   *
+   * @return the overload action
+   */
+  public OverloadAction getAction ()
+  {
+    return action;
+  }
+
+  /**
+   * Set how far the load has to go down before new connections are admitted
+   * again.
+   *
+   * @param resumeFraction
+   *        the fraction of each limit that every value has to be at or below,
+   *        larger than 0 and at most 1
+   */
+  public void setResumeFraction (final double resumeFraction)
+  {
+    if (!(resumeFraction > 0 && resumeFraction <= 1))
+      throw new IllegalArgumentException ("Resume fraction must be in (0, 1]: " + resumeFraction);
+    this.resumeFraction = resumeFraction;
+  }
+
+  /**
+   * Get how far the load has to go down before new connections are admitted
+   * again.
+   *
+   * @return the resume fraction
+   */
+  public double getResumeFraction ()
+  {
+    return resumeFraction;
+  }
+
+  /**
+   * Set the bytes to send to connections that are rejected. The bytes are
+   * copied once, each rejected connection gets a view of the same direct
+   * buffer. The response should be small enough to fit in the socket send
+   * buffer since it is written once, without waiting.
+   *
+   * @param response
+   *        the complete response, or null to close rejected connections without
+   *        sending anything
+   */
+  public void setRejectResponse (final byte [] response)
+  {
+    if (response == null)
+    {
+      rejectResponse = null;
+      return;
+    }
+    final ByteBuffer buf = ByteBuffer.allocateDirect (response.length);
+    buf.put (response);
+    buf.flip ();
+    rejectResponse = buf.asReadOnlyBuffer ();
+  }
+
+  /**
+   * Get the response to send to rejected connections.
+   *
+   * @return a new view of the response, or null if there is none
+   */
+  public ByteBuffer getRejectResponse ()
+  {
+    final ByteBuffer buf = rejectResponse;
+    return buf == null ? null : buf.duplicate ();
+  }
+
+  /**
+   * Start sampling the limits.
+   *
+   * @param interval
+   *        the time between samples, in millis
+   */
+  public synchronized void start (final long interval)
+  {
+    if (sampler != null)
+      throw new IllegalStateException ("Already started");
+    if (interval <= 0)
+      throw new IllegalArgumentException ("Sample interval must be positive: " + interval);
+    sampler = Executors.newSingleThreadScheduledExecutor (r -> {
+      final Thread t = new Thread (r, getClass ().getSimpleName ());
+      t.setDaemon (true);
+      return t;
+    });
+    sampler.scheduleWithFixedDelay (this::sample, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stop sampling the limits. Paused Acceptors are resumed so that they do not
+   * wait for a sample that will never come.
+   */
+  public synchronized void stop ()
+  {
+    if (sampler == null)
+      return;
+    sampler.shutdown ();
+    sampler = null;
+    if (overloaded)
+      leaveOverload ();
+  }
+
+  /**
+   * Check the limits now and update the overload state. This is normally called
+   * by the sampler thread.
+   *
+   * @return true if the controller is overloaded after the check
+   */
+  public synchronized boolean sample ()
+  {
+    if (!overloaded)
+    {
+      for (final Limit l : limits)
+      {
+        if (l.sample () >= l.max)
+        {
+          l.trips.increment ();
+          enterOverload (l);
+          break;
+        }
+      }
+    }
+    else
+    {
+      final double resume = resumeFraction;
+      boolean below = true;
+      for (final Limit l : limits)
+        if (l.sample () > l.max * resume)
+          below = false;
+      if (below)
+        leaveOverload ();
+    }
+    return overloaded;
+  }
+
+  private void enterOverload (final Limit cause)
+  {
+    overloadCause = cause;
+    overloadStarted = System.nanoTime ();
+    overloaded = true;
+    overloads.increment ();
+    logger.warning ("Overloaded, " + cause + ", " + action + " for new connections");
+  }
+
+  private void leaveOverload ()
+  {
+    overloaded = false;
+    final long nanos = System.nanoTime () - overloadStarted;
+    overloadNanos.add (nanos);
+    logger.info ("Load is down, admitting new connections after " +
+                 TimeUnit.NANOSECONDS.toMillis (nanos) +
+                 " millis, rejected so far: " +
+                 rejected.sum ());
+    resumePaused ();
+  }
+
+  private void resumePaused ()
+  {
+    Runnable r;
+    while ((r = paused.poll ()) != null)
+      r.run ();
+  }
+
+  /**
+   * Check if new connections should be held back.
+   *
+   * @return true if the controller is overloaded
+   */
+  public boolean isOverloaded ()
+  {
+    return overloaded;
+  }
+
+  /**
+   * Get the limit that made the controller overloaded the last time.
+   *
+   * @return the cause of the last overload, null if it has never been
+   *         overloaded
+   */
+  public Limit getOverloadCause ()
+  {
+    return overloadCause;
+  }
+
+  /**
+   * Run the given task once the controller is no longer overloaded. If the
+   * controller is not overloaded the task is run directly.
+   *
+   * @param resume
+   *        the task that starts accepting again
+   */
+  public void pauseUntilAdmitted (final Runnable resume)
+  {
+    pauses.increment ();
+    paused.add (resume);
+    // The load may have gone down before the task was added
+    if (!overloaded)
+      resumePaused ();
+  }
+
+  /**
+   * Record that a connection was rejected.
+   */
+  public void recordRejected ()
+  {
+    rejected.increment ();
+  }
+
+  /**
+   * Get the number of times the controller has become overloaded.
+   *
+   * @return the number of overloads
+   */
+  public long getOverloads ()
+  {
+    return overloads.sum ();
+  }
+
+  /**
+   * Get the total time the controller has been overloaded.
+   *
+   * @return the time overloaded in millis, including the current overload
+   */
+  public long getOverloadMillis ()
+  {
+    long nanos = overloadNanos.sum ();
+    if (overloaded)
+      nanos += System.nanoTime () - overloadStarted;
+    return TimeUnit.NANOSECONDS.toMillis (nanos);
+  }
+
+  /**
+   * Get the number of times an Acceptor stopped accepting.
+   *
+   * @return the number of paused accepts
+   */
+  public long getPauses ()
+  {
+    return pauses.sum ();
+  }
+
+  /**
+   * Get the number of connections that were rejected.
+   *
+   * @return the number of shed connections
+   */
+  public long getRejected ()
+  {
+    return rejected.sum ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return getClass ().getSimpleName () +
+           "{action: " +
+           action +
+           ", overloaded: " +
+           overloaded +
+           ", limits: " +
+           limits +
+           "}";
+  }
+
+  /** One load value and its maximum. */
+  public static final class Limit
+  {
+    private final String name;
+    private final LongSupplier value;
+    private final long max;
+    private final LongAdder trips = new LongAdder ();
+    private volatile long lastValue;
+
+    private Limit (final String name, final LongSupplier value, final long max)
+    {
+      this.name = name;
+      this.value = value;
+      this.max = max;
+    }
+
+    private long sample ()
+    {
+      final long v = value.getAsLong ();
+      lastValue = v;
+      return v;
+    }
+
+    /**
+     * Get the name of this limit.
+     *
+     * @return the name
+     */
+    public String getName ()
+    {
+      return name;
+    }
+
+    /**
+     * Get the value at which the controller becomes overloaded.
+     *
+     * @return the maximum value
+     */
+    public long getMax ()
+    {
+      return max;
+    }
+
+    /**
+     * Get the value seen at the latest sample.
+     *
+     * @return the latest value
+     */
+    public long getLastValue ()
+    {
+      return lastValue;
+    }
+
+    /**
+     * Get the number of times this limit made the controller overloaded.
+     *
+     * @return the number of trips
+     */
+    public long getTrips ()
+    {
+      return trips.sum ();
+    }
+
+    @Override
+    public String toString ()
+    {
+      return name + ": " + lastValue + "/" + max;
+    }
+  }
+}
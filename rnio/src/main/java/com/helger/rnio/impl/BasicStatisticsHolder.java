@@ -32,169 +32,288 @@
 package com.helger.rnio.impl;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
 
 import com.helger.rnio.IStatisticsHolder;
 import com.helger.rnio.ITaskIdentifier;
 import com.helger.rnio.statistics.CompletionEntry;
+import com.helger.rnio.statistics.LatencyHistogram;
 import com.helger.rnio.statistics.TotalTimeSpent;
 
 /**
  * A holder of statistics for tasks.
+ * <p>
+ * This class is thread safe. Updates take no global lock, each task group
+ * keeps its own counters and splits its pending and running tasks over a few
+ * stripes, each with its own lock, so a status change only locks the stripe
+ * of the task. The lists of the longest tasks are only locked, per group, when
+ * a task takes longer than the shortest one in the list. The getters return
+ * snapshots.
+ * <p>
+ * Each group also keeps histograms of the wait and run times of its tasks.
  *
  * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
  */
 public class BasicStatisticsHolder implements IStatisticsHolder
 {
-  // Map is group id to TaskIdentifier
-  private final Map <String, List <ITaskIdentifier>> pendingTasks = new HashMap<> ();
+  private static final int MAX_LATEST = 10;
+  private static final int MAX_LONGEST = 10;
 
-  // Map is group id to TaskIdentifier
-  private final Map <String, List <ITaskIdentifier>> runningTasks = new HashMap<> ();
+  /** The number of task stripes in each group, a power of two. */
+  private static final int STRIPES = Integer.highestOneBit (Runtime.getRuntime ().availableProcessors () * 4);
 
-  private final int maxLatest = 10;
-  // Map is group id to CompletionEntry
-  private final Map <String, List <CompletionEntry>> latest = new HashMap<> ();
+  // Map is group id to the statistics of the group
+  private final ConcurrentMap <String, GroupStatistics> groups = new ConcurrentHashMap<> ();
+  private final LongAdder pending = new LongAdder ();
 
-  private final int maxLongest = 10;
-  // Map is group id to CompletionEntry
-  private final Map <String, List <CompletionEntry>> longest = new HashMap<> ();
-
-  private final Map <String, TotalTimeSpent> total = new HashMap<> ();
+  private GroupStatistics getGroup (final String id)
+  {
+    final GroupStatistics gs = groups.get (id);
+    if (gs != null)
+      return gs;
+    return groups.computeIfAbsent (id, k -> new GroupStatistics ());
+  }
 
-  private <T> List <T> getList (final String id, final Map <String, List <T>> tasks)
+  public void addPendingTask (final ITaskIdentifier ti)
   {
-    List <T> ls = tasks.get (id);
-    if (ls == null)
-    {
-      ls = new ArrayList<> ();
-      tasks.put (id, ls);
-    }
-    return ls;
+    getGroup (ti.getGroupId ()).getStripe (ti).addPending (ti);
+    pending.increment ();
   }
 
-  private void addTask (final ITaskIdentifier ti, final Map <String, List <ITaskIdentifier>> tasks)
+  public void changeTaskStatusToRunning (final ITaskIdentifier ti)
   {
-    getList (ti.getGroupId (), tasks).add (ti);
+    getGroup (ti.getGroupId ()).getStripe (ti).setRunning (ti);
+    pending.decrement ();
   }
 
-  private void removeTask (final ITaskIdentifier ti, final Map <String, List <ITaskIdentifier>> tasks)
+  public void changeTaskStatusToFinished (final ITaskIdentifier ti, final boolean wasOk, final long timeSpent)
   {
-    final List <ITaskIdentifier> ls = tasks.get (ti.getGroupId ());
-    if (ls == null)
-      throw new NullPointerException ("No pending taks for group: " + ti.getGroupId ());
-    if (!ls.remove (ti))
-      throw new IllegalArgumentException ("Given task was not pending: " + ti);
+    final GroupStatistics gs = getGroup (ti.getGroupId ());
+    gs.getStripe (ti).setFinished (ti);
+    final CompletionEntry ce = new CompletionEntry (ti, wasOk, timeSpent);
+    gs.addToLatest (ce);
+    gs.addToLongest (ce);
+    gs.addToTotal (ce);
   }
 
-  public synchronized void addPendingTask (final ITaskIdentifier ti)
+  private Map <String, List <ITaskIdentifier>> getTasks (final boolean running)
   {
-    addTask (ti, pendingTasks);
+    final Map <String, List <ITaskIdentifier>> ret = new HashMap<> ();
+    for (final Map.Entry <String, GroupStatistics> me : groups.entrySet ())
+    {
+      final List <ITaskIdentifier> ls = new ArrayList<> ();
+      for (final TaskStripe ts : me.getValue ().stripes)
+        ts.copyTo (ls, running);
+      addIfNotEmpty (ret, me.getKey (), ls);
+    }
+    return ret;
   }
 
-  public synchronized void changeTaskStatusToRunning (final ITaskIdentifier ti)
+  public Map <String, List <ITaskIdentifier>> getPendingTasks ()
   {
-    removeTask (ti, pendingTasks);
-    addTask (ti, runningTasks);
+    return getTasks (false);
   }
 
-  public synchronized void changeTaskStatusToFinished (final ITaskIdentifier ti,
-                                                       final boolean wasOk,
-                                                       final long timeSpent)
+  public int getNumPendingTasks ()
   {
-    removeTask (ti, runningTasks);
-    final CompletionEntry ce = new CompletionEntry (ti, wasOk, timeSpent);
-    addToLatest (ce);
-    addToLongest (ce);
-    addToTotal (ce);
+    return (int) pending.sum ();
   }
 
-  private void addToLatest (final CompletionEntry ce)
+  public Map <String, List <ITaskIdentifier>> getRunningTasks ()
   {
-    final List <CompletionEntry> ls = getList (ce.ti.getGroupId (), latest);
-    ls.add (ce);
-    if (ls.size () > maxLatest)
-      ls.remove (0);
+    return getTasks (true);
   }
 
-  private void addToLongest (final CompletionEntry ce)
+  public Map <String, List <CompletionEntry>> getLatest ()
   {
-    final List <CompletionEntry> ls = getList (ce.ti.getGroupId (), longest);
-    if (ls.isEmpty ())
-    {
-      ls.add (ce);
-    }
-    else
-      if (addSorted (ce, ls))
-      {
-        if (ls.size () > maxLongest)
-          ls.remove (ls.size () - 1);
-      }
+    final Map <String, List <CompletionEntry>> ret = new HashMap<> ();
+    for (final Map.Entry <String, GroupStatistics> me : groups.entrySet ())
+      addIfNotEmpty (ret, me.getKey (), me.getValue ().getLatest ());
+    return ret;
   }
 
-  private boolean addSorted (final CompletionEntry ce, final List <CompletionEntry> ls)
+  public Map <String, List <CompletionEntry>> getLongest ()
   {
-    final int s = ls.size ();
-    for (int i = 0; i < s; i++)
-    {
-      if (ce.timeSpent > ls.get (i).timeSpent)
-      {
-        ls.add (i, ce);
-        return true;
-      }
-    }
-    if (s < maxLongest)
-    {
-      ls.add (ce);
-      return true;
-    }
-    return false;
+    final Map <String, List <CompletionEntry>> ret = new HashMap<> ();
+    for (final Map.Entry <String, GroupStatistics> me : groups.entrySet ())
+      addIfNotEmpty (ret, me.getKey (), me.getValue ().getLongest ());
+    return ret;
   }
 
-  private void addToTotal (final CompletionEntry ce)
+  public Map <String, TotalTimeSpent> getTotalTimeSpent ()
   {
-    TotalTimeSpent tts = total.get (ce.ti.getGroupId ());
-    if (tts == null)
+    final Map <String, TotalTimeSpent> ret = new HashMap<> ();
+    for (final Map.Entry <String, GroupStatistics> me : groups.entrySet ())
     {
-      tts = new TotalTimeSpent ();
-      total.put (ce.ti.getGroupId (), tts);
+      final GroupStatistics gs = me.getValue ();
+      final long successful = gs.successful.sum ();
+      final long failures = gs.failures.sum ();
+      if (successful + failures > 0)
+        ret.put (me.getKey (), new TotalTimeSpent (successful, failures, gs.totalMillis.sum ()));
     }
-    tts.update (ce);
+    return ret;
   }
 
-  private <K, V> Map <K, List <V>> copy (final Map <K, List <V>> m)
+  public void recordLatencies (final ITaskIdentifier ti, final long waitNanos, final long runNanos)
   {
-    final Map <K, List <V>> ret = new HashMap<> ();
-    for (final Map.Entry <K, List <V>> me : m.entrySet ())
-      ret.put (me.getKey (), new ArrayList<> (me.getValue ()));
-    return ret;
+    final GroupStatistics gs = getGroup (ti.getGroupId ());
+    gs.waitTimes.record (waitNanos);
+    gs.runTimes.record (runNanos);
   }
 
-  public synchronized Map <String, List <ITaskIdentifier>> getPendingTasks ()
+  public Map <String, LatencyHistogram> getWaitTimes ()
   {
-    return copy (pendingTasks);
+    final Map <String, LatencyHistogram> ret = new HashMap<> ();
+    for (final Map.Entry <String, GroupStatistics> me : groups.entrySet ())
+      ret.put (me.getKey (), me.getValue ().waitTimes.copy ());
+    return ret;
   }
 
-  public synchronized Map <String, List <ITaskIdentifier>> getRunningTasks ()
+  public Map <String, LatencyHistogram> getRunTimes ()
   {
-    return copy (runningTasks);
+    final Map <String, LatencyHistogram> ret = new HashMap<> ();
+    for (final Map.Entry <String, GroupStatistics> me : groups.entrySet ())
+      ret.put (me.getKey (), me.getValue ().runTimes.copy ());
+    return ret;
   }
 
-  public synchronized Map <String, List <CompletionEntry>> getLatest ()
+  private static <T> void addIfNotEmpty (final Map <String, List <T>> m, final String id, final List <T> ls)
   {
-    return copy (latest);
+    if (!ls.isEmpty ())
+      m.put (id, ls);
   }
 
-  public synchronized Map <String, List <CompletionEntry>> getLongest ()
+  /**
+   * A part of the pending and running tasks of a group. Each task stays in the
+   * stripe that its hash code picks, so the lock of a stripe is only contended
+   * when tasks with the same hash bits change status at the same time.
+   */
+  private static final class TaskStripe
   {
-    return copy (longest);
+    // Guarded by this
+    private final List <ITaskIdentifier> pendingTasks = new ArrayList<> ();
+    private final List <ITaskIdentifier> runningTasks = new ArrayList<> ();
+
+    public synchronized void addPending (final ITaskIdentifier ti)
+    {
+      pendingTasks.add (ti);
+    }
+
+    public synchronized void setRunning (final ITaskIdentifier ti)
+    {
+      if (!pendingTasks.remove (ti))
+        throw new IllegalArgumentException ("Given task was not pending: " + ti);
+      runningTasks.add (ti);
+    }
+
+    public synchronized void setFinished (final ITaskIdentifier ti)
+    {
+      if (!runningTasks.remove (ti))
+        throw new IllegalArgumentException ("Given task was not running: " + ti);
+    }
+
+    public synchronized void copyTo (final List <ITaskIdentifier> ls, final boolean running)
+    {
+      ls.addAll (running ? runningTasks : pendingTasks);
+    }
   }
 
-  public synchronized Map <String, TotalTimeSpent> getTotalTimeSpent ()
+  /** The statistics of one task group. */
+  private static final class GroupStatistics
   {
-    return Collections.unmodifiableMap (total);
+    // The pending and running tasks
+    private final TaskStripe [] stripes = new TaskStripe [STRIPES];
+
+    // A ring of the latest completed tasks
+    private final AtomicReferenceArray <CompletionEntry> latest = new AtomicReferenceArray<> (MAX_LATEST);
+    private final AtomicLong latestCount = new AtomicLong ();
+
+    // Sorted, longest first, guarded by itself
+    private final List <CompletionEntry> longest = new ArrayList<> (MAX_LONGEST + 1);
+    // The time a task has to exceed to get into a full longest list
+    private volatile long longestThreshold = -1;
+
+    private final LongAdder successful = new LongAdder ();
+    private final LongAdder failures = new LongAdder ();
+    private final LongAdder totalMillis = new LongAdder ();
+
+    private final LatencyHistogram waitTimes = new LatencyHistogram ();
+    private final LatencyHistogram runTimes = new LatencyHistogram ();
+
+    public GroupStatistics ()
+    {
+      for (int i = 0; i < stripes.length; i++)
+        stripes[i] = new TaskStripe ();
+    }
+
+    public TaskStripe getStripe (final ITaskIdentifier ti)
+    {
+      final int h = ti.hashCode ();
+      return stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    }
+
+    public void addToLatest (final CompletionEntry ce)
+    {
+      final long n = latestCount.getAndIncrement ();
+      latest.lazySet ((int) (n % MAX_LATEST), ce);
+    }
+
+    public List <CompletionEntry> getLatest ()
+    {
+      final long n = latestCount.get ();
+      final int num = (int) Math.min (n, MAX_LATEST);
+      final List <CompletionEntry> ret = new ArrayList<> (num);
+      for (long i = n - num; i < n; i++)
+      {
+        final CompletionEntry ce = latest.get ((int) (i % MAX_LATEST));
+        if (ce != null)
+          ret.add (ce);
+      }
+      return ret;
+    }
+
+    public void addToLongest (final CompletionEntry ce)
+    {
+      if (ce.timeSpent <= longestThreshold)
+        return;
+      synchronized (longest)
+      {
+        final int s = longest.size ();
+        int i = 0;
+        while (i < s && ce.timeSpent <= longest.get (i).timeSpent)
+          i++;
+        if (i == MAX_LONGEST)
+          return;
+        longest.add (i, ce);
+        if (longest.size () > MAX_LONGEST)
+          longest.remove (MAX_LONGEST);
+        if (longest.size () == MAX_LONGEST)
+          longestThreshold = longest.get (MAX_LONGEST - 1).timeSpent;
+      }
+    }
+
+    public List <CompletionEntry> getLongest ()
+    {
+      synchronized (longest)
+      {
+        return new ArrayList<> (longest);
+      }
+    }
+
+    public void addToTotal (final CompletionEntry ce)
+    {
+      if (ce.wasOk)
+        successful.increment ();
+      else
+        failures.increment ();
+      totalMillis.add (ce.timeSpent);
+    }
   }
 }
@@ -31,6 +31,7 @@
  */
 package com.helger.rnio.impl;
 
+import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.util.concurrent.ExecutorService;
 
@@ -94,6 +95,39 @@ class ChannelOpsHandler
   private IAcceptHandler acceptHandler = NULL_HANDLER;
   private IConnectHandler connectHandler = NULL_HANDLER;
 
+  private final TimeoutWheel <ChannelOpsHandler> timeoutWheel;
+  private final TimeoutWheel.Entry <ChannelOpsHandler> timeoutEntry;
+  private SelectionKey selectionKey;
+  private boolean isClosed = false;
+
+  /** The number of ready events handled in the current period. */
+  private int activity = 0;
+  /** The number of ready events handled in the last full period. */
+  private int lastActivity = 0;
+
+  /**
+   * Create a new ChannelOpsHandler.
+   *
+   * @param timeoutWheel
+   *        the timing wheel of the selector thread that this handler belongs
+   *        to, the minimum timeout of the handlers will be kept updated in it
+   */
+  public ChannelOpsHandler (final TimeoutWheel <ChannelOpsHandler> timeoutWheel)
+  {
+    this.timeoutWheel = timeoutWheel;
+    timeoutEntry = new TimeoutWheel.Entry<> (this);
+  }
+
+  public void setSelectionKey (final SelectionKey selectionKey)
+  {
+    this.selectionKey = selectionKey;
+  }
+
+  public SelectionKey getSelectionKey ()
+  {
+    return selectionKey;
+  }
+
   @Override
   public String toString ()
   {
@@ -150,6 +184,7 @@ class ChannelOpsHandler
       throw new IllegalArgumentException ("read handler may not be null");
     checkNullHandler (this.readHandler, rh, "readHandler");
     this.readHandler = rh;
+    updateTimeout ();
   }
 
   public void setWriteHandler (final IWriteHandler writeHandler)
@@ -158,6 +193,7 @@ class ChannelOpsHandler
       throw new IllegalArgumentException ("write handler may not be null");
     checkNullHandler (this.writeHandler, writeHandler, "writeHandler");
     this.writeHandler = writeHandler;
+    updateTimeout ();
   }
 
   public void setAcceptHandler (final IAcceptHandler acceptHandler)
@@ -166,6 +202,7 @@ class ChannelOpsHandler
       throw new IllegalArgumentException ("accept handler may not be null");
     checkNullHandler (this.acceptHandler, acceptHandler, "acceptHandler");
     this.acceptHandler = acceptHandler;
+    updateTimeout ();
   }
 
   public void setConnectHandler (final IConnectHandler connectHandler)
@@ -174,30 +211,7 @@ class ChannelOpsHandler
       throw new IllegalArgumentException ("connect handler may not be null");
     checkNullHandler (this.connectHandler, connectHandler, "connectHandler");
     this.connectHandler = connectHandler;
-  }
-
-  private void handleRead (final ExecutorService executorService, final IReadHandler rh)
-  {
-    if (rh.useSeparateThread ())
-    {
-      executorService.execute ( () -> rh.read ());
-    }
-    else
-    {
-      rh.read ();
-    }
-  }
-
-  private void handleWrite (final ExecutorService executorService, final IWriteHandler wh)
-  {
-    if (wh.useSeparateThread ())
-    {
-      executorService.execute ( () -> wh.write ());
-    }
-    else
-    {
-      wh.write ();
-    }
+    updateTimeout ();
   }
 
   private void handleAccept (final ExecutorService executorService, final IAcceptHandler ah)
@@ -224,41 +238,67 @@ class ChannelOpsHandler
     }
   }
 
-  public void handle (final ExecutorService executorService, final SelectionKey sk)
+  public void handle (final HandlerDispatcher dispatcher, final SelectionKey sk)
   {
-    sk.interestOps (0);
-    final IReadHandler rh = readHandler;
-    final IWriteHandler wh = writeHandler;
-    final IAcceptHandler ah = acceptHandler;
-    final IConnectHandler ch = connectHandler;
-    readHandler = NULL_HANDLER;
-    writeHandler = NULL_HANDLER;
-    acceptHandler = NULL_HANDLER;
-    connectHandler = NULL_HANDLER;
+    // Take out the ready handlers before any of them are run, handlers that
+    // run on the selector thread may install new handlers directly.
+    final int readyOps = sk.readyOps ();
+    activity++;
+    IReadHandler rh = NULL_HANDLER;
+    IWriteHandler wh = NULL_HANDLER;
+    IAcceptHandler ah = NULL_HANDLER;
+    IConnectHandler ch = NULL_HANDLER;
+    if ((readyOps & SelectionKey.OP_READ) != 0)
+    {
+      rh = readHandler;
+      readHandler = NULL_HANDLER;
+    }
+    if ((readyOps & SelectionKey.OP_WRITE) != 0)
+    {
+      wh = writeHandler;
+      writeHandler = NULL_HANDLER;
+    }
+    if ((readyOps & SelectionKey.OP_ACCEPT) != 0)
+    {
+      ah = acceptHandler;
+      acceptHandler = NULL_HANDLER;
+    }
+    if ((readyOps & SelectionKey.OP_CONNECT) != 0)
+    {
+      ch = connectHandler;
+      connectHandler = NULL_HANDLER;
+    }
+    sk.interestOps (getInterestOps ());
+    updateTimeout ();
 
-    if (sk.isReadable ())
-      handleRead (executorService, rh);
-    else
-      if (rh != NULL_HANDLER)
-        setReadHandler (rh);
+    // A handler may close the channel, the remaining handlers are then told
+    // that the channel is closed.
+    if (rh != NULL_HANDLER)
+      dispatcher.read (rh);
 
-    if (sk.isValid () && sk.isWritable ())
-      handleWrite (executorService, wh);
-    else
-      if (wh != NULL_HANDLER)
-        setWriteHandler (wh);
+    if (wh != NULL_HANDLER)
+    {
+      if (sk.isValid ())
+        dispatcher.write (wh);
+      else
+        wh.closed ();
+    }
 
-    if (sk.isValid () && sk.isAcceptable ())
-      handleAccept (executorService, ah);
-    else
-      if (ah != NULL_HANDLER)
-        setAcceptHandler (ah);
+    if (ah != NULL_HANDLER)
+    {
+      if (sk.isValid ())
+        handleAccept (dispatcher.getExecutorService (), ah);
+      else
+        ah.closed ();
+    }
 
-    if (sk.isValid () && sk.isConnectable ())
-      handleConnect (executorService, ch);
-    else
-      if (ch != NULL_HANDLER)
-        setConnectHandler (ch);
+    if (ch != NULL_HANDLER)
+    {
+      if (sk.isValid ())
+        handleConnect (dispatcher.getExecutorService (), ch);
+      else
+        ch.closed ();
+    }
   }
 
   private boolean doTimeout (final long now, final ISocketChannelHandler sch)
@@ -285,6 +325,7 @@ class ChannelOpsHandler
       acceptHandler = NULL_HANDLER;
     if (ret |= doTimeout (now, connectHandler))
       connectHandler = NULL_HANDLER;
+    updateTimeout ();
     return ret;
   }
 
@@ -319,6 +360,87 @@ class ChannelOpsHandler
       acceptHandler = NULL_HANDLER;
     if (connectHandler == sch)
       connectHandler = NULL_HANDLER;
+    updateTimeout ();
+  }
+
+  /**
+   * Reschedule this handler in the timing wheel using the current minimum
+   * timeout of the installed handlers.
+   */
+  private void updateTimeout ()
+  {
+    if (isClosed)
+      return;
+    final Long t = getMinimumTimeout ();
+    if (t == null)
+      timeoutWheel.cancel (timeoutEntry);
+    else
+      timeoutWheel.schedule (timeoutEntry, t.longValue ());
+  }
+
+  /**
+   * End the current activity period.
+   *
+   * @return the number of ready events that were handled in the period
+   */
+  public int rollActivity ()
+  {
+    lastActivity = activity;
+    activity = 0;
+    return lastActivity;
+  }
+
+  /**
+   * Get the number of ready events that were handled in the last full
+   * activity period.
+   *
+   * @return the number of handled events
+   */
+  public int getLastActivity ()
+  {
+    return lastActivity;
+  }
+
+  /**
+   * Check if the channel of this handler may be moved to another selector.
+   * Only channels that are idle, waiting for read or write, may be moved.
+   * Channels that are waiting for accept or connect are left where they are.
+   *
+   * @return true if the channel may be moved
+   */
+  public boolean isMovable ()
+  {
+    return !isClosed &&
+           acceptHandler == NULL_HANDLER &&
+           connectHandler == NULL_HANDLER &&
+           (readHandler != NULL_HANDLER || writeHandler != NULL_HANDLER);
+  }
+
+  /**
+   * Take out all the handlers so that they can be installed on another
+   * selector. This handler is not used after this, its handlers are not told
+   * that the channel is closed and its timeout is removed from the timing
+   * wheel. The handlers keep their own timeouts, so they will time out at the
+   * same time on the new selector.
+   *
+   * @param channel
+   *        the channel that is moved
+   * @return a task that installs the handlers on the selector that runs it
+   */
+  public ISelectorRunnable detach (final SelectableChannel channel)
+  {
+    final IReadHandler rh = readHandler;
+    final IWriteHandler wh = writeHandler;
+    readHandler = NULL_HANDLER;
+    writeHandler = NULL_HANDLER;
+    isClosed = true;
+    timeoutWheel.cancel (timeoutEntry);
+    return ssr -> {
+      if (rh != NULL_HANDLER)
+        ssr.waitForRead (channel, rh);
+      if (wh != NULL_HANDLER)
+        ssr.waitForWrite (channel, wh);
+    };
   }
 
   private void closedIfSet (final ISocketChannelHandler sch)
@@ -327,8 +449,23 @@ class ChannelOpsHandler
       sch.closed ();
   }
 
+  /**
+   * Check if the handlers have been told that the channel is closed, or have
+   * been moved to another selector.
+   *
+   * @return true if this handler is no longer used
+   */
+  public boolean isClosed ()
+  {
+    return isClosed;
+  }
+
   public void closed ()
   {
+    if (isClosed)
+      return;
+    isClosed = true;
+    timeoutWheel.cancel (timeoutEntry);
     closedIfSet (readHandler);
     closedIfSet (writeHandler);
     closedIfSet (acceptHandler);
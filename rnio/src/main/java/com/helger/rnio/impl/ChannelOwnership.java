@@ -0,0 +1,169 @@
+/**
+ * Copyright (c) 2010 Robert Olofsson.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the authors nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHORS AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE AUTHORS OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package com.helger.rnio.impl;
+
+import java.nio.channels.SelectableChannel;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Keeps track of which selector runner that owns a channel.
+ * <p>
+ * A channel is bound to one selector runner the first time anyone waits for
+ * an operation on it and stays bound to that runner until it is closed or
+ * moved, so all selector tasks for a channel can be sent directly to its
+ * owner.
+ * <p>
+ * A channel may be moved to another runner by its current owner, see
+ * {@link #move(SelectableChannel, SingleSelectorRunner, SingleSelectorRunner)}.
+ * Selector tasks that were queued on the old owner are then forwarded to the
+ * new owner.
+ * <p>
+ * Channels that are closed without going through the NioHandler are removed
+ * by {@link #purgeClosed(SingleSelectorRunner)} that the selector threads call
+ * now and then.
+ * <p>
+ * This class is thread safe.
+ */
+final class ChannelOwnership
+{
+  private final ConcurrentMap <SelectableChannel, SingleSelectorRunner> owners = new ConcurrentHashMap<> ();
+
+  /**
+   * Get the runner that owns the given channel.
+   *
+   * @param channel
+   *        the channel to check
+   * @return the owning runner or null if the channel is not bound
+   */
+  public SingleSelectorRunner getOwner (final SelectableChannel channel)
+  {
+    return owners.get (channel);
+  }
+
+  /**
+   * Get the owner of the channel, binding it to a new runner if it is not
+   * already bound.
+   *
+   * @param channel
+   *        the channel to find the owner for
+   * @param runnerSupplier
+   *        the supplier of the runner to use for unbound channels
+   * @return the runner that owns the channel
+   */
+  public SingleSelectorRunner bind (final SelectableChannel channel,
+                                    final Supplier <SingleSelectorRunner> runnerSupplier)
+  {
+    final SingleSelectorRunner ssr = owners.get (channel);
+    if (ssr != null)
+      return ssr;
+    return owners.computeIfAbsent (channel, c -> {
+      final SingleSelectorRunner r = runnerSupplier.get ();
+      r.channelBound ();
+      return r;
+    });
+  }
+
+  /**
+   * Release the binding of a channel.
+   *
+   * @param channel
+   *        the channel that is no longer handled
+   * @param runner
+   *        the runner that used to own the channel
+   */
+  public void release (final SelectableChannel channel, final SingleSelectorRunner runner)
+  {
+    if (owners.remove (channel, runner))
+      runner.channelReleased ();
+  }
+
+  /**
+   * Move a channel to another runner.
+   *
+   * @param channel
+   *        the channel to move
+   * @param from
+   *        the runner that currently owns the channel
+   * @param to
+   *        the new owner of the channel
+   * @return true if the channel was moved, false if it was not owned by the
+   *         given runner
+   */
+  public boolean move (final SelectableChannel channel,
+                       final SingleSelectorRunner from,
+                       final SingleSelectorRunner to)
+  {
+    if (!owners.replace (channel, from, to))
+      return false;
+    from.channelReleased ();
+    to.channelBound ();
+    return true;
+  }
+
+  /**
+   * Remove all the closed channels owned by the given runner.
+   *
+   * @param runner
+   *        the runner to purge channels for
+   * @return the number of removed bindings
+   */
+  public int purgeClosed (final SingleSelectorRunner runner)
+  {
+    int ret = 0;
+    final Iterator <Map.Entry <SelectableChannel, SingleSelectorRunner>> i = owners.entrySet ().iterator ();
+    while (i.hasNext ())
+    {
+      final Map.Entry <SelectableChannel, SingleSelectorRunner> me = i.next ();
+      if (me.getValue () == runner && !me.getKey ().isOpen ())
+      {
+        i.remove ();
+        runner.channelReleased ();
+        ret++;
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * Get the number of bound channels.
+   *
+   * @return the number of channels that currently have an owner
+   */
+  public int size ()
+  {
+    return owners.size ();
+  }
+}
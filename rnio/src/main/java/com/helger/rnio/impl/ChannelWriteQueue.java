@@ -0,0 +1,404 @@
+/**
+ * Copyright (c) 2010 Robert Olofsson.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the authors nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHORS AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE AUTHORS OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package com.helger.rnio.impl;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.helger.rnio.INioHandler;
+import com.helger.rnio.IWriteCompletion;
+import com.helger.rnio.IWriteHandler;
+import com.helger.rnio.IWriteQueueListener;
+
+/**
+ * An outbound queue of data for one channel.
+ * <p>
+ * Buffers may be added from any thread. The queued buffers are written with
+ * gathering writes, so many small buffers, like a header, a chunk header, a
+ * block of data and a chunk trailer, are sent with one system call. The first
+ * thread that adds data to an idle queue writes directly to the channel, if
+ * the channel can not take all the data the queue waits for the channel to
+ * become writable and the rest is written on the selector thread.
+ * <p>
+ * Each add may be given an {@link IWriteCompletion} that is told when its
+ * buffers have been written or when the write failed. Once a write has failed
+ * the queue fails all queued and future buffers, closing the channel is left
+ * to the user of the queue.
+ * <p>
+ * The number of queued bytes is kept below the high watermark by the users of
+ * the queue: {@link #add(IWriteCompletion, ByteBuffer...)} returns false when
+ * the queue is full and the {@link IWriteQueueListener} is told when it has
+ * been drained down to the low watermark.
+ *
+ * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
+ */
+public class ChannelWriteQueue implements IWriteHandler
+{
+  private static final class Entry
+  {
+    private final ByteBuffer [] buffers;
+    private final IWriteCompletion completion;
+
+    public Entry (final ByteBuffer [] buffers, final IWriteCompletion completion)
+    {
+      this.buffers = buffers;
+      this.completion = completion;
+    }
+
+    public boolean isWritten ()
+    {
+      for (final ByteBuffer b : buffers)
+        if (b.hasRemaining ())
+          return false;
+      return true;
+    }
+  }
+
+  /** The default low watermark, in bytes. */
+  public static final long DEFAULT_LOW_WATERMARK = 32 * 1024;
+  /** The default high watermark, in bytes. */
+  public static final long DEFAULT_HIGH_WATERMARK = 64 * 1024;
+  /** The largest number of buffers to give to one gathering write. */
+  private static final int MAX_GATHER = 64;
+
+  private final SocketChannel channel;
+  private final INioHandler nioHandler;
+  private final IWriteQueueListener listener;
+  private final long lowWatermark;
+  private final long highWatermark;
+
+  /** Entries added by any thread. */
+  private final Queue <Entry> incoming = new ConcurrentLinkedQueue<> ();
+  /** Entries being written, only used by the thread that is flushing. */
+  private final ArrayDeque <Entry> pending = new ArrayDeque<> ();
+  private final ByteBuffer [] gather = new ByteBuffer [MAX_GATHER];
+  /** Set while one thread writes or while waiting for the channel. */
+  private final AtomicBoolean flushing = new AtomicBoolean (false);
+  private final AtomicLong queuedBytes = new AtomicLong ();
+  private final AtomicBoolean full = new AtomicBoolean (false);
+  private volatile IOException failure;
+  private volatile long bytesWritten = 0;
+  private volatile Long timeout;
+
+  /**
+   * Create a new ChannelWriteQueue that uses the default watermarks.
+   *
+   * @param channel
+   *        the channel to write to
+   * @param nioHandler
+   *        the NioHandler to use to wait for the channel to become writable
+   * @param listener
+   *        the listener to tell when a full queue can take more data, may be
+   *        null
+   */
+  public ChannelWriteQueue (final SocketChannel channel,
+                            final INioHandler nioHandler,
+                            final IWriteQueueListener listener)
+  {
+    this (channel, nioHandler, listener, DEFAULT_LOW_WATERMARK, DEFAULT_HIGH_WATERMARK);
+  }
+
+  /**
+   * Create a new ChannelWriteQueue.
+   *
+   * @param channel
+   *        the channel to write to
+   * @param nioHandler
+   *        the NioHandler to use to wait for the channel to become writable
+   * @param listener
+   *        the listener to tell when a full queue can take more data, may be
+   *        null
+   * @param lowWatermark
+   *        the number of queued bytes that a full queue must drain down to
+   *        before the listener is told that it is writable
+   * @param highWatermark
+   *        the number of queued bytes at which the queue is full
+   */
+  public ChannelWriteQueue (final SocketChannel channel,
+                            final INioHandler nioHandler,
+                            final IWriteQueueListener listener,
+                            final long lowWatermark,
+                            final long highWatermark)
+  {
+    if (lowWatermark < 0 || highWatermark < lowWatermark)
+      throw new IllegalArgumentException ("Bad watermarks, low: " + lowWatermark + ", high: " + highWatermark);
+    this.channel = channel;
+    this.nioHandler = nioHandler;
+    this.listener = listener;
+    this.lowWatermark = lowWatermark;
+    this.highWatermark = highWatermark;
+  }
+
+  /**
+   * Queue buffers for writing. The buffers are written in the order they are
+   * added and must not be touched until the completion has been told that they
+   * are written. If the queue has already failed the completion is told so
+   * directly.
+   *
+   * @param completion
+   *        the listener to tell when all the buffers have been written, may be
+   *        null
+   * @param buffers
+   *        the data to write
+   * @return true if the queue can take more data, false if it has reached its
+   *         high watermark or has failed. The listener is told when a full
+   *         queue can take more data, it may also be told so when this method
+   *         returns true.
+   */
+  public boolean add (final IWriteCompletion completion, final ByteBuffer... buffers)
+  {
+    final IOException f = failure;
+    if (f != null)
+    {
+      if (completion != null)
+        completion.failed (f);
+      return false;
+    }
+    long size = 0;
+    for (final ByteBuffer b : buffers)
+      size += b.remaining ();
+    incoming.add (new Entry (buffers, completion));
+    if (queuedBytes.addAndGet (size) >= highWatermark)
+      full.set (true);
+    if (flushing.compareAndSet (false, true))
+      flushAndRelease ();
+    return !full.get () && failure == null;
+  }
+
+  /**
+   * Flush the queue and release the flushing flag, unless the queue is left
+   * waiting for the channel. Must only be called by the thread that holds the
+   * flushing flag.
+   */
+  private void flushAndRelease ()
+  {
+    do
+    {
+      boolean waiting = false;
+      try
+      {
+        waiting = flush ();
+      }
+      finally
+      {
+        if (!waiting)
+          flushing.set (false);
+      }
+      if (waiting)
+        return;
+      // Someone may have added data after we drained the queue
+    } while (!incoming.isEmpty () && flushing.compareAndSet (false, true));
+  }
+
+  /**
+   * Write as much as possible.
+   *
+   * @return true if the queue now waits for the channel to become writable
+   */
+  private boolean flush ()
+  {
+    try
+    {
+      while (true)
+      {
+        if (failure != null)
+        {
+          failAll ();
+          return false;
+        }
+        Entry e;
+        while ((e = incoming.poll ()) != null)
+          pending.add (e);
+        completeWritten ();
+        if (pending.isEmpty ())
+          return false;
+
+        final int n = fillGather ();
+        final long written = channel.write (gather, 0, n);
+        Arrays.fill (gather, 0, n, null);
+        if (written > 0)
+        {
+          bytesWritten += written;
+          final long left = queuedBytes.addAndGet (-written);
+          if (left <= lowWatermark && full.compareAndSet (true, false) && listener != null)
+            listener.writable ();
+        }
+        else
+        {
+          completeWritten ();
+          if (!pending.isEmpty ())
+          {
+            timeout = nioHandler.getDefaultTimeout ();
+            nioHandler.waitForWrite (channel, this);
+            return true;
+          }
+        }
+      }
+    }
+    catch (final IOException e)
+    {
+      failure = e;
+      failAll ();
+      return false;
+    }
+  }
+
+  private int fillGather ()
+  {
+    int n = 0;
+    for (final Entry e : pending)
+    {
+      for (final ByteBuffer b : e.buffers)
+      {
+        if (!b.hasRemaining ())
+          continue;
+        gather[n++] = b;
+        if (n == MAX_GATHER)
+          return n;
+      }
+    }
+    return n;
+  }
+
+  private void completeWritten ()
+  {
+    Entry e;
+    while ((e = pending.peekFirst ()) != null && e.isWritten ())
+    {
+      pending.pollFirst ();
+      if (e.completion != null)
+        e.completion.written ();
+    }
+  }
+
+  private void failAll ()
+  {
+    final IOException f = failure;
+    Entry e;
+    while ((e = incoming.poll ()) != null)
+      pending.add (e);
+    while ((e = pending.pollFirst ()) != null)
+      if (e.completion != null)
+        e.completion.failed (f);
+    queuedBytes.set (0);
+    full.set (false);
+  }
+
+  public void write ()
+  {
+    flushAndRelease ();
+  }
+
+  public void closed ()
+  {
+    failure = new IOException ("channel was closed");
+    flushAndRelease ();
+  }
+
+  public void timeout ()
+  {
+    failure = new SocketTimeoutException ("write timed out");
+    flushAndRelease ();
+  }
+
+  /** Runs on the selector thread */
+  public boolean useSeparateThread ()
+  {
+    return false;
+  }
+
+  /** Flushing is guarded, so the queue may be flushed from any thread */
+  public boolean isThreadSafe ()
+  {
+    return true;
+  }
+
+  public String getDescription ()
+  {
+    return getClass ().getSimpleName () + "{queued: " + queuedBytes.get () + ", written: " + bytesWritten + "}";
+  }
+
+  public Long getTimeout ()
+  {
+    return timeout;
+  }
+
+  /**
+   * Get the number of bytes that are queued but not yet written.
+   *
+   * @return the number of queued bytes
+   */
+  public long getQueuedBytes ()
+  {
+    return queuedBytes.get ();
+  }
+
+  /**
+   * Get the total number of bytes written to the channel by this queue.
+   *
+   * @return the number of written bytes
+   */
+  public long getBytesWritten ()
+  {
+    return bytesWritten;
+  }
+
+  /**
+   * Check if the queue has reached its high watermark and not yet been drained
+   * down to its low watermark.
+   *
+   * @return true if the queue is full
+   */
+  public boolean isFull ()
+  {
+    return full.get ();
+  }
+
+  /**
+   * Get the reason the queue failed.
+   *
+   * @return the exception that made the queue fail, or null if it has not
+   *         failed
+   */
+  public IOException getFailure ()
+  {
+    return failure;
+  }
+}
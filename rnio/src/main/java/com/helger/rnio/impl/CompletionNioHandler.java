@@ -0,0 +1,626 @@
+/**
+ * Copyright (c) 2010 Robert Olofsson.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the authors nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHORS AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE AUTHORS OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package com.helger.rnio.impl;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.helger.rnio.IAcceptHandler;
+import com.helger.rnio.IConnectHandler;
+import com.helger.rnio.INioHandler;
+import com.helger.rnio.IReadHandler;
+import com.helger.rnio.ISelectorVisitor;
+import com.helger.rnio.ISocketChannelHandler;
+import com.helger.rnio.IStatisticsHolder;
+import com.helger.rnio.ITaskIdentifier;
+import com.helger.rnio.IWriteHandler;
+import com.helger.rnio.statistics.SelectorStatistics;
+
+/**
+ * A NioHandler that dispatches ready events the way the asynchronous channel
+ * groups of NIO.2 do, as completions on a fixed pool of I/O threads.
+ * <p>
+ * There are no dedicated selector threads. The I/O threads share one selector
+ * and one event queue, and a single poll token is passed around in the queue.
+ * The thread that takes the token drains the queued registration changes,
+ * expires timeouts and waits in select. When select returns the ready handlers
+ * are queued, followed by the poll token, and the thread goes back to the
+ * queue. So the poller usually runs the first ready handler itself without a
+ * hand off, idle threads run the others, and the next free thread polls.
+ * <p>
+ * Read and write handlers that do not want a separate thread run on the I/O
+ * threads, the others and all thread tasks run on the executor. Interest is
+ * one shot, like for {@link MultiSelectorNioHandler}. Registration changes from
+ * other threads are queued for the poller, a thread that is waiting in select
+ * is only woken up by the first change queued while it waits. The changes are
+ * run before the ready handlers are queued, so a handler that was cancelled
+ * while the poller waited is not run. A queued handler that closes its channel
+ * makes the poller tell the other handlers of the channel that it is closed.
+ *
+ * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
+ */
+public class CompletionNioHandler implements INioHandler
+{
+  /** The poll token, the thread that takes it from the queue polls. */
+  private static final Runnable POLL = () -> {};
+
+  private final MeteredExecutorService executorService;
+  /** The lanes that background tasks are routed to. */
+  private final TaskLanes taskLanes;
+  private final IStatisticsHolder stats;
+  private final Long defaultTimeout;
+  private final int numThreads;
+  private final Selector selector;
+  private final Logger logger = Logger.getLogger ("org.khelekore.rnio");
+
+  /** The ready handlers and the poll token. */
+  private final BlockingQueue <Runnable> events = new LinkedBlockingQueue<> ();
+  /** The registration changes waiting for the poller. */
+  private final Queue <IPollerTask> updates = new ConcurrentLinkedQueue<> ();
+  private final AtomicBoolean wakeupPending = new AtomicBoolean (false);
+  private volatile boolean selecting = false;
+  private final AtomicBoolean running = new AtomicBoolean (false);
+  private final Set <Thread> ioThreads = ConcurrentHashMap.newKeySet ();
+
+  // Only used by the thread holding the poll token
+  private final TimeoutWheel <ChannelOpsHandler> timeoutWheel;
+  private final List <ChannelOpsHandler> expiredHandlers = new ArrayList<> ();
+  private final HandlerDispatcher dispatcher;
+  private final SelectorStatistics statistics = new SelectorStatistics ();
+  /** The key whose handlers are being queued. */
+  private SelectionKey dispatching;
+
+  /** A registration change, run by the thread holding the poll token. */
+  private interface IPollerTask
+  {
+    void run () throws IOException;
+  }
+
+  /**
+   * Create a new CompletionNioHandler.
+   *
+   * @param executorService
+   *        the ExecutorService to use for thread tasks and for handlers that
+   *        want a separate thread
+   * @param stats
+   *        the StatisticsHolder to use for this NioHandler
+   * @param numThreads
+   *        the number of I/O threads
+   * @param defaultTimeout
+   *        the default timeout value for this NioHandler
+   * @throws IOException
+   *         if the selector can not be opened
+   */
+  public CompletionNioHandler (final ExecutorService executorService,
+                               final IStatisticsHolder stats,
+                               final int numThreads,
+                               final Long defaultTimeout) throws IOException
+  {
+    if (numThreads < 1)
+      throw new IllegalArgumentException ("Must have at least one I/O thread: " + numThreads);
+    if (defaultTimeout != null && defaultTimeout.longValue () <= 0)
+      throw new IllegalArgumentException ("Default timeout may not be zero or negative");
+    this.executorService = executorService instanceof MeteredExecutorService ? (MeteredExecutorService) executorService
+                                                                             : new MeteredExecutorService (executorService,
+                                                                                                           null);
+    taskLanes = new TaskLanes (this.executorService);
+    this.stats = stats;
+    this.numThreads = numThreads;
+    this.defaultTimeout = defaultTimeout;
+    selector = Selector.open ();
+    timeoutWheel = new TimeoutWheel<> (System.currentTimeMillis ());
+    dispatcher = new HandlerDispatcher (this.executorService, this::queueHandler, statistics);
+  }
+
+  /**
+   * Create a new CompletionNioHandler that runs thread tasks on an executor
+   * created using the given strategy.
+   *
+   * @param strategy
+   *        the kind of executor to use for thread tasks
+   * @param maxThreads
+   *        the thread limit for the executor, see
+   *        {@link ExecutorStrategy#create(int)}
+   * @param stats
+   *        the StatisticsHolder to use for this NioHandler
+   * @param numThreads
+   *        the number of I/O threads
+   * @param defaultTimeout
+   *        the default timeout value for this NioHandler
+   * @throws IOException
+   *         if the selector can not be opened
+   */
+  public CompletionNioHandler (final ExecutorStrategy strategy,
+                               final int maxThreads,
+                               final IStatisticsHolder stats,
+                               final int numThreads,
+                               final Long defaultTimeout) throws IOException
+  {
+    this (strategy.create (maxThreads), stats, numThreads, defaultTimeout);
+  }
+
+  public void start (final ThreadFactory tf)
+  {
+    if (!running.compareAndSet (false, true))
+      throw new IllegalStateException ("Already started");
+    events.add (POLL);
+    for (int i = 0; i < numThreads; i++)
+    {
+      final Thread t = tf.newThread (this::runIoThread);
+      t.setName (getClass ().getName () + " " + i);
+      ioThreads.add (t);
+      t.start ();
+    }
+  }
+
+  public void shutdown ()
+  {
+    if (!running.compareAndSet (true, false))
+      return;
+    final Thread t = new Thread ( () -> {
+      executorService.shutdown ();
+      taskLanes.shutdown ();
+      for (final Thread io : ioThreads)
+        io.interrupt ();
+      try
+      {
+        for (final Thread io : ioThreads)
+          io.join (10000);
+        for (final SelectionKey sk : selector.keys ())
+        {
+          final ChannelOpsHandler coh = (ChannelOpsHandler) sk.attachment ();
+          cancelKeyAndCloseChannel (sk);
+          coh.closed ();
+        }
+        selector.close ();
+      }
+      catch (final InterruptedException e)
+      {
+        logger.log (Level.WARNING, "Got exception while closing selector", e);
+      }
+      catch (final IOException e)
+      {
+        logger.log (Level.WARNING, "Got exception while closing selector", e);
+      }
+    });
+    t.start ();
+  }
+
+  public Long getDefaultTimeout ()
+  {
+    if (defaultTimeout == null)
+      return null;
+    return Long.valueOf (System.currentTimeMillis () + defaultTimeout.longValue ());
+  }
+
+  /**
+   * Check if the current thread is one of the I/O threads, they poll the
+   * selector and run the handlers, so they should not block.
+   */
+  public boolean isSelectorThread ()
+  {
+    return ioThreads.contains (Thread.currentThread ());
+  }
+
+  public void runThreadTask (final Runnable r, final ITaskIdentifier ti)
+  {
+    taskLanes.execute (r, ti, stats);
+  }
+
+  private void runIoThread ()
+  {
+    try
+    {
+      while (running.get ())
+      {
+        final Runnable r = events.take ();
+        if (r == POLL)
+        {
+          try
+          {
+            poll ();
+          }
+          finally
+          {
+            events.add (POLL);
+          }
+        }
+        else
+        {
+          try
+          {
+            r.run ();
+          }
+          catch (final RuntimeException e)
+          {
+            logger.warning ("Handler failed: " + e + "\n" + getStackTrace (e));
+          }
+        }
+      }
+    }
+    catch (final InterruptedException e)
+    {
+      // Shutting down
+    }
+  }
+
+  /**
+   * Run the queued registration changes, wait for ready channels and queue
+   * their handlers. This is only called by the thread holding the poll token.
+   */
+  private void poll ()
+  {
+    try
+    {
+      int tasks = runUpdates ();
+      final long now = System.currentTimeMillis ();
+      cancelTimeouts (now);
+      final long nextTimeout = timeoutWheel.getNextDeadline ();
+      final long sleepTime = nextTimeout >= 0 ? Math.max (1, nextTimeout - now) : 100 * 1000;
+
+      wakeupPending.set (false);
+      selecting = true;
+      final long beforeSelect = System.nanoTime ();
+      statistics.selectStarted (beforeSelect);
+      try
+      {
+        if (updates.isEmpty ())
+          selector.select (sleepTime);
+        else
+          selector.selectNow ();
+      }
+      finally
+      {
+        selecting = false;
+      }
+      final long afterSelect = System.nanoTime ();
+      // Changes queued while we waited may cancel ready handlers
+      tasks += runUpdates ();
+      dispatcher.startLoop ();
+      final int keys = handleSelects ();
+      final long afterKeys = System.nanoTime ();
+      tasks += runUpdates ();
+      statistics.recordLoop (afterSelect - beforeSelect,
+                             keys,
+                             afterKeys - afterSelect,
+                             tasks,
+                             System.nanoTime () - afterSelect);
+    }
+    catch (final IOException e)
+    {
+      logger.warning ("Failed to select, shutting down: " + e + "\n" + getStackTrace (e));
+      shutdown ();
+    }
+    catch (final RuntimeException e)
+    {
+      logger.warning ("Unknown error: " + e + " attemting to ignore\n" + getStackTrace (e));
+    }
+  }
+
+  private int runUpdates ()
+  {
+    int ret = 0;
+    IPollerTask t;
+    while ((t = updates.poll ()) != null)
+    {
+      ret++;
+      try
+      {
+        t.run ();
+      }
+      catch (final IOException e)
+      {
+        logger.log (Level.WARNING, "Got exception when running selector task", e);
+      }
+      catch (final RuntimeException e)
+      {
+        logger.log (Level.WARNING, "Selector task failed", e);
+      }
+    }
+    return ret;
+  }
+
+  private int handleSelects ()
+  {
+    final Set <SelectionKey> selected = selector.selectedKeys ();
+    final int ret = selected.size ();
+    for (final SelectionKey sk : selected)
+    {
+      final ChannelOpsHandler coh = (ChannelOpsHandler) sk.attachment ();
+      if (sk.isValid ())
+      {
+        dispatching = sk;
+        coh.handle (dispatcher, sk);
+      }
+      else
+        if (!coh.isClosed ())
+        {
+          cancelKeyAndCloseChannel (sk);
+          coh.closed ();
+        }
+    }
+    dispatching = null;
+    selected.clear ();
+    return ret;
+  }
+
+  /**
+   * Queue a ready handler for the I/O threads. Handlers may close the channel
+   * directly, the key is then cancelled without the poller ever seeing it, so
+   * the handlers that were installed after this one are told by the poller.
+   */
+  private void queueHandler (final Runnable r)
+  {
+    final SelectionKey sk = dispatching;
+    events.add ( () -> {
+      try
+      {
+        r.run ();
+      }
+      finally
+      {
+        if (!sk.channel ().isOpen ())
+          runPollerTask ( () -> closedByHandler (sk));
+      }
+    });
+  }
+
+  private void closedByHandler (final SelectionKey sk)
+  {
+    final ChannelOpsHandler coh = (ChannelOpsHandler) sk.attachment ();
+    if (coh.isClosed ())
+      return;
+    sk.cancel ();
+    statistics.channelReleased ();
+    coh.closed ();
+  }
+
+  private void cancelTimeouts (final long now)
+  {
+    timeoutWheel.expire (now, expiredHandlers);
+    final int s = expiredHandlers.size ();
+    for (int i = 0; i < s; i++)
+    {
+      final ChannelOpsHandler coh = expiredHandlers.get (i);
+      if (coh.doTimeouts (now))
+      {
+        final SelectionKey sk = coh.getSelectionKey ();
+        if (sk != null && sk.isValid ())
+          sk.interestOps (coh.getInterestOps ());
+      }
+    }
+    expiredHandlers.clear ();
+  }
+
+  private void cancelKeyAndCloseChannel (final SelectionKey sk)
+  {
+    sk.cancel ();
+    statistics.channelReleased ();
+    @SuppressWarnings ("resource")
+    final SelectableChannel sc = sk.channel ();
+    try
+    {
+      sc.close ();
+    }
+    catch (final IOException e)
+    {
+      logger.log (Level.WARNING, "Failed to shutdown and close socket", e);
+    }
+  }
+
+  /**
+   * Queue a registration change for the poller, if a thread is waiting in
+   * select it is woken up.
+   */
+  private void runPollerTask (final IPollerTask t)
+  {
+    updates.add (t);
+    if (selecting && wakeupPending.compareAndSet (false, true))
+      selector.wakeup ();
+  }
+
+  private interface ChannelOpsUpdater
+  {
+    // Add the new handler
+    void addHandler (ChannelOpsHandler coh);
+  }
+
+  private void updateSelectionKey (final SelectableChannel channel,
+                                   final ISocketChannelHandler handler,
+                                   final ChannelOpsUpdater updater) throws IOException
+  {
+    SelectionKey sk = channel.keyFor (selector);
+    if (!channel.isOpen ())
+    {
+      logger.warning ("channel: " + channel + " is closed, wont register: handler: " + handler);
+      if (sk != null && sk.isValid ())
+      {
+        final ChannelOpsHandler coh = (ChannelOpsHandler) sk.attachment ();
+        cancelKeyAndCloseChannel (sk);
+        coh.closed ();
+      }
+      handler.closed ();
+      return;
+    }
+
+    if (sk == null)
+    {
+      final ChannelOpsHandler coh = new ChannelOpsHandler (timeoutWheel);
+      updater.addHandler (coh);
+      sk = channel.register (selector, coh.getInterestOps (), coh);
+      coh.setSelectionKey (sk);
+      statistics.channelBound ();
+    }
+    else
+    {
+      final ChannelOpsHandler coh = (ChannelOpsHandler) sk.attachment ();
+      if (sk.isValid ())
+      {
+        updater.addHandler (coh);
+        sk.interestOps (coh.getInterestOps ());
+      }
+      else
+      {
+        cancelKeyAndCloseChannel (sk);
+        coh.closed ();
+        handler.closed ();
+      }
+    }
+  }
+
+  public void waitForRead (final SelectableChannel channel, final IReadHandler handler)
+  {
+    runPollerTask ( () -> updateSelectionKey (channel, handler, coh -> coh.setReadHandler (handler)));
+  }
+
+  public void waitForWrite (final SelectableChannel channel, final IWriteHandler handler)
+  {
+    runPollerTask ( () -> updateSelectionKey (channel, handler, coh -> coh.setWriteHandler (handler)));
+  }
+
+  public void waitForAccept (final SelectableChannel channel, final IAcceptHandler handler)
+  {
+    runPollerTask ( () -> updateSelectionKey (channel, handler, coh -> coh.setAcceptHandler (handler)));
+  }
+
+  public void waitForConnect (final SelectableChannel channel, final IConnectHandler handler)
+  {
+    runPollerTask ( () -> updateSelectionKey (channel, handler, coh -> coh.setConnectHandler (handler)));
+  }
+
+  public void cancel (final SelectableChannel channel, final ISocketChannelHandler handler)
+  {
+    runPollerTask ( () -> {
+      final SelectionKey sk = channel.keyFor (selector);
+      if (sk == null)
+        return;
+      final ChannelOpsHandler coh = (ChannelOpsHandler) sk.attachment ();
+      coh.cancel (handler);
+      if (sk.isValid ())
+        sk.interestOps (coh.getInterestOps ());
+    });
+  }
+
+  public void close (final SelectableChannel channel)
+  {
+    runPollerTask ( () -> {
+      final SelectionKey sk = channel.keyFor (selector);
+      if (sk == null)
+        return;
+      final ChannelOpsHandler coh = (ChannelOpsHandler) sk.attachment ();
+      if (coh.isClosed ())
+        return;
+      cancelKeyAndCloseChannel (sk);
+      coh.closed ();
+    });
+  }
+
+  /**
+   * Get the number of I/O threads.
+   *
+   * @return the number of threads that poll and run handlers
+   */
+  public int getNumThreads ()
+  {
+    return numThreads;
+  }
+
+  /**
+   * Get the executor that runs the thread tasks.
+   *
+   * @return the executor, with metrics
+   */
+  public MeteredExecutorService getExecutorService ()
+  {
+    return executorService;
+  }
+
+  /**
+   * Get the lanes that background tasks are routed to, add lanes to give a
+   * task group its own threads.
+   *
+   * @return the task lanes
+   */
+  public TaskLanes getTaskLanes ()
+  {
+    return taskLanes;
+  }
+
+  /**
+   * Get the number of ready handlers and registration changes that are waiting
+   * for an I/O thread.
+   *
+   * @return the current number of queued events
+   */
+  public int getQueuedEvents ()
+  {
+    return events.size () + updates.size ();
+  }
+
+  public void visitSelectors (final ISelectorVisitor visitor)
+  {
+    statistics.setCurrentState (selector.keys ().size (), updates.size ());
+    visitor.selector (selector);
+    visitor.statistics (statistics);
+    visitor.end ();
+  }
+
+  public IStatisticsHolder getTimingStatistics ()
+  {
+    return stats;
+  }
+
+  private static String getStackTrace (final Throwable t)
+  {
+    final StringWriter sw = new StringWriter ();
+    final PrintWriter ps = new PrintWriter (sw);
+    t.printStackTrace (ps);
+    return sw.toString ();
+  }
+}
@@ -31,6 +31,8 @@
  */
 package com.helger.rnio.impl;
 
+import java.util.concurrent.ThreadLocalRandom;
+
 import com.helger.rnio.ITaskIdentifier;
 
 /**
@@ -42,6 +44,9 @@ public class DefaultTaskIdentifier implements ITaskIdentifier
 {
   private final String groupId;
   private final String description;
+  // Statistics holders hash every task, a random hash is much cheaper than
+  // the identity hash code and equals is still identity.
+  private final int hash = ThreadLocalRandom.current ().nextInt ();
 
   public DefaultTaskIdentifier (final String groupId, final String description)
   {
@@ -58,4 +63,10 @@ public class DefaultTaskIdentifier implements ITaskIdentifier
   {
     return description;
   }
+
+  @Override
+  public int hashCode ()
+  {
+    return hash;
+  }
 }
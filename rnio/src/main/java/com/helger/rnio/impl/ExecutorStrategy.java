@@ -0,0 +1,186 @@
+/**
+ * Copyright (c) 2010 Robert Olofsson.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the authors nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHORS AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE AUTHORS OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package com.helger.rnio.impl;
+
+import java.lang.reflect.Method;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The different kinds of executors that can run the background tasks of a
+ * NioHandler.
+ *
+ * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
+ */
+public enum ExecutorStrategy
+{
+  /** An unbounded cached thread pool, one new thread for each busy task. */
+  CACHED
+  {
+    @Override
+    protected ExecutorService createExecutor (final int maxThreads)
+    {
+      return Executors.newCachedThreadPool ();
+    }
+  },
+
+  /**
+   * A thread pool with at most maxThreads threads, tasks are queued when all
+   * threads are busy. Idle threads time out.
+   */
+  BOUNDED
+  {
+    @Override
+    protected ExecutorService createExecutor (final int maxThreads)
+    {
+      final ThreadPoolExecutor tpe = new ThreadPoolExecutor (maxThreads,
+                                                             maxThreads,
+                                                             60,
+                                                             TimeUnit.SECONDS,
+                                                             new LinkedBlockingQueue<> ());
+      tpe.allowCoreThreadTimeOut (true);
+      return tpe;
+    }
+  },
+
+  /**
+   * One new virtual thread for each task, needs java 21 or later. Blocking
+   * tasks, like dns lookups, only park their virtual thread.
+   */
+  VIRTUAL
+  {
+    @Override
+    public boolean isSupported ()
+    {
+      return NEW_VIRTUAL != null;
+    }
+
+    @Override
+    protected ExecutorService createExecutor (final int maxThreads)
+    {
+      if (NEW_VIRTUAL == null)
+        throw new UnsupportedOperationException ("Virtual threads are not supported by this jvm");
+      try
+      {
+        return (ExecutorService) NEW_VIRTUAL.invoke (null);
+      }
+      catch (final ReflectiveOperationException e)
+      {
+        throw new UnsupportedOperationException ("Failed to create virtual thread executor", e);
+      }
+    }
+  },
+
+  /**
+   * A work stealing ForkJoinPool with a parallelism of maxThreads. Tasks that
+   * block hold on to one of the pool threads.
+   */
+  FORK_JOIN
+  {
+    @Override
+    protected ExecutorService createExecutor (final int maxThreads)
+    {
+      return new ForkJoinPool (maxThreads, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+    }
+  };
+
+  /** Executors.newVirtualThreadPerTaskExecutor, if available. */
+  private static final Method NEW_VIRTUAL = findVirtualFactory ();
+
+  private static Method findVirtualFactory ()
+  {
+    try
+    {
+      return Executors.class.getMethod ("newVirtualThreadPerTaskExecutor");
+    }
+    catch (final NoSuchMethodException e)
+    {
+      return null;
+    }
+  }
+
+  /**
+   * Check if this strategy can be used in the running jvm.
+   *
+   * @return true if create will work
+   */
+  public boolean isSupported ()
+  {
+    return true;
+  }
+
+  /**
+   * Create the actual executor.
+   *
+   * @param maxThreads
+   *        the thread limit, not used by all strategies
+   * @return a new ExecutorService
+   */
+  protected abstract ExecutorService createExecutor (int maxThreads);
+
+  /**
+   * Create a new executor that keeps metrics about the tasks it runs.
+   *
+   * @param maxThreads
+   *        the maximum number of threads for BOUNDED and the parallelism for
+   *        FORK_JOIN, not used by the other strategies
+   * @return a new MeteredExecutorService
+   * @throws UnsupportedOperationException
+   *         if this strategy is not supported
+   */
+  public MeteredExecutorService create (final int maxThreads)
+  {
+    if (maxThreads < 1)
+      throw new IllegalArgumentException ("Need at least one thread: " + maxThreads);
+    return new MeteredExecutorService (createExecutor (maxThreads), this);
+  }
+
+  /**
+   * Find the strategy with the given name, ignoring case and treating '-' as
+   * '_'.
+   *
+   * @param name
+   *        the name of the strategy, for instance "virtual" or "fork-join"
+   * @return the matching strategy
+   * @throws IllegalArgumentException
+   *         if no strategy has the given name
+   */
+  public static ExecutorStrategy getFromName (final String name)
+  {
+    return valueOf (name.trim ().toUpperCase (Locale.US).replace ('-', '_'));
+  }
+}
@@ -0,0 +1,262 @@
+/**
+ * Copyright (c) 2010 Robert Olofsson.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the authors nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHORS AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE AUTHORS OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package com.helger.rnio.impl;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+
+import com.helger.rnio.IReadHandler;
+import com.helger.rnio.IWriteHandler;
+import com.helger.rnio.statistics.SelectorStatistics;
+
+/**
+ * Decides if read and write handlers run on the selector thread or on the
+ * executor.
+ * <p>
+ * In static mode a handler runs on the executor if its
+ * {@link com.helger.rnio.ISocketChannelHandler#useSeparateThread()} says so
+ * and on the selector thread otherwise.
+ * <p>
+ * In adaptive mode handlers that do not want a separate thread but say that
+ * they are thread safe may be moved to the executor. The run time of each
+ * such handler class is tracked, both when it runs inline and when it runs on
+ * the executor. A handler runs inline if it is cheap, that is its average run
+ * time is at most a quarter of the inline budget, and if the handlers already
+ * run inline in this selector loop leave room for it. Other handlers run on
+ * the executor. Handler classes that have not been measured yet run inline.
+ * All other handlers are dispatched like in static mode, handlers that want a
+ * separate thread are never run inline and handlers that are not thread safe
+ * never leave the selector thread.
+ * <p>
+ * A dispatcher may also have a completion executor, static mode then hands the
+ * handlers that do not want a separate thread to it instead of running them
+ * directly.
+ * <p>
+ * Each selector thread has its own dispatcher, only the mode and budget may be
+ * changed from other threads.
+ */
+final class HandlerDispatcher
+{
+  /** A moving average of the run time of one kind of handler. */
+  private static final class HandlerCost
+  {
+    private volatile long averageNanos = -1;
+
+    public void record (final long nanos)
+    {
+      // Racy updates may lose a sample now and then, that is fine
+      final long a = averageNanos;
+      averageNanos = a < 0 ? nanos : a + ((nanos - a) >> 3);
+    }
+  }
+
+  private static final class CostMap extends ClassValue <HandlerCost>
+  {
+    @Override
+    protected HandlerCost computeValue (final Class <?> type)
+    {
+      return new HandlerCost ();
+    }
+  }
+
+  private static final CostMap READ_COSTS = new CostMap ();
+  private static final CostMap WRITE_COSTS = new CostMap ();
+
+  /** The default time that handlers may run inline in each selector loop. */
+  public static final long DEFAULT_INLINE_BUDGET_NANOS = 1000L * 1000;
+
+  private final ExecutorService executorService;
+  private final Executor completions;
+  private final SelectorStatistics statistics;
+  private volatile boolean adaptive = false;
+  private volatile long inlineBudget = DEFAULT_INLINE_BUDGET_NANOS;
+  /** The time handlers have run inline in the current loop. */
+  private long loopNanos = 0;
+
+  public HandlerDispatcher (final ExecutorService executorService, final SelectorStatistics statistics)
+  {
+    this (executorService, null, statistics);
+  }
+
+  public HandlerDispatcher (final ExecutorService executorService,
+                            final Executor completions,
+                            final SelectorStatistics statistics)
+  {
+    this.executorService = executorService;
+    this.completions = completions;
+    this.statistics = statistics;
+  }
+
+  public ExecutorService getExecutorService ()
+  {
+    return executorService;
+  }
+
+  public void setAdaptive (final boolean adaptive)
+  {
+    this.adaptive = adaptive;
+  }
+
+  public boolean isAdaptive ()
+  {
+    return adaptive;
+  }
+
+  public void setInlineBudget (final long nanos)
+  {
+    if (nanos <= 0)
+      throw new IllegalArgumentException ("Inline budget must be positive: " + nanos);
+    inlineBudget = nanos;
+  }
+
+  public long getInlineBudget ()
+  {
+    return inlineBudget;
+  }
+
+  /**
+   * Start a new selector loop, the full inline budget is available again.
+   */
+  public void startLoop ()
+  {
+    loopNanos = 0;
+  }
+
+  /**
+   * Check if a handler should run on the selector thread, this also updates
+   * the statistics.
+   */
+  private boolean runInline (final HandlerCost cost)
+  {
+    final long avg = cost.averageNanos;
+    final long budget = inlineBudget;
+    boolean inline = avg <= budget / 4;
+    if (inline && avg > 0 && loopNanos + avg > budget)
+    {
+      statistics.recordOffloadedOverBudget ();
+      inline = false;
+    }
+    if (inline)
+      statistics.recordInlineHandler ();
+    else
+      statistics.recordOffloadedHandler ();
+    return inline;
+  }
+
+  public void read (final IReadHandler rh)
+  {
+    if (!adaptive || rh.useSeparateThread () || !rh.isThreadSafe ())
+    {
+      if (rh.useSeparateThread ())
+        executorService.execute ( () -> rh.read ());
+      else if (completions != null)
+        completions.execute ( () -> rh.read ());
+      else
+        rh.read ();
+      return;
+    }
+
+    final HandlerCost cost = READ_COSTS.get (rh.getClass ());
+    if (runInline (cost))
+    {
+      final long start = System.nanoTime ();
+      try
+      {
+        rh.read ();
+      }
+      finally
+      {
+        final long time = System.nanoTime () - start;
+        loopNanos += time;
+        cost.record (time);
+      }
+    }
+    else
+    {
+      executorService.execute ( () -> {
+        final long start = System.nanoTime ();
+        try
+        {
+          rh.read ();
+        }
+        finally
+        {
+          cost.record (System.nanoTime () - start);
+        }
+      });
+    }
+  }
+
+  public void write (final IWriteHandler wh)
+  {
+    if (!adaptive || wh.useSeparateThread () || !wh.isThreadSafe ())
+    {
+      if (wh.useSeparateThread ())
+        executorService.execute ( () -> wh.write ());
+      else if (completions != null)
+        completions.execute ( () -> wh.write ());
+      else
+        wh.write ();
+      return;
+    }
+
+    final HandlerCost cost = WRITE_COSTS.get (wh.getClass ());
+    if (runInline (cost))
+    {
+      final long start = System.nanoTime ();
+      try
+      {
+        wh.write ();
+      }
+      finally
+      {
+        final long time = System.nanoTime () - start;
+        loopNanos += time;
+        cost.record (time);
+      }
+    }
+    else
+    {
+      executorService.execute ( () -> {
+        final long start = System.nanoTime ();
+        try
+        {
+          wh.write ();
+        }
+        finally
+        {
+          cost.record (System.nanoTime () - start);
+        }
+      });
+    }
+  }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2010 Robert Olofsson.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the authors nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHORS AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE AUTHORS OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package com.helger.rnio.impl;
+
+import java.util.Locale;
+
+/**
+ * What a TaskLane does with a task when all of its threads are busy and its
+ * queue is full.
+ *
+ * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
+ */
+public enum LaneRejectionPolicy
+{
+  /**
+   * Run the task on the shared executor of the NioHandler instead, the task is
+   * delayed no more than any other background task.
+   */
+  SHARED,
+
+  /**
+   * Run the task in the thread that submitted it. This slows down the
+   * submitter, which may be a selector thread, so use it with care.
+   */
+  CALLER_RUNS,
+
+  /**
+   * Do not run the task, runThreadTask throws a RejectedExecutionException
+   * and the task is recorded as failed.
+   */
+  ABORT;
+
+  /**
+   * Get the policy with the given name, case and dashes are ignored so
+   * "caller-runs" gives CALLER_RUNS.
+   *
+   * @param name
+   *        the name of the policy
+   * @return the policy
+   * @throws IllegalArgumentException
+   *         if there is no policy with the given name
+   */
+  public static LaneRejectionPolicy getFromName (final String name)
+  {
+    return valueOf (name.trim ().toUpperCase (Locale.US).replace ('-', '_'));
+  }
+}
@@ -0,0 +1,213 @@
+/**
+ * Copyright (c) 2010 Robert Olofsson.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the authors nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHORS AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE AUTHORS OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package com.helger.rnio.impl;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An ExecutorService that runs its tasks on another executor and keeps track
+ * of how many tasks are queued, running and done.
+ *
+ * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
+ */
+public class MeteredExecutorService extends AbstractExecutorService
+{
+  private final ExecutorService executor;
+  private final ExecutorStrategy strategy;
+
+  private final LongAdder submitted = new LongAdder ();
+  private final LongAdder started = new LongAdder ();
+  private final LongAdder completed = new LongAdder ();
+  private final LongAdder waitNanos = new LongAdder ();
+  private volatile int maxQueued = 0;
+  private volatile int maxActive = 0;
+
+  /**
+   * Create a new MeteredExecutorService.
+   *
+   * @param executor
+   *        the executor that actually runs the tasks
+   * @param strategy
+   *        the strategy that created the executor, may be null if unknown
+   */
+  public MeteredExecutorService (final ExecutorService executor, final ExecutorStrategy strategy)
+  {
+    this.executor = executor;
+    this.strategy = strategy;
+  }
+
+  public void execute (final Runnable command)
+  {
+    final long queued = System.nanoTime ();
+    submitted.increment ();
+    updateMax ();
+    try
+    {
+      executor.execute ( () -> {
+        waitNanos.add (System.nanoTime () - queued);
+        started.increment ();
+        updateMax ();
+        try
+        {
+          command.run ();
+        }
+        finally
+        {
+          completed.increment ();
+        }
+      });
+    }
+    catch (final RejectedExecutionException e)
+    {
+      // Never queued, do not count it as waiting
+      submitted.decrement ();
+      throw e;
+    }
+  }
+
+  // Racy, but these are only used as an indication
+  private void updateMax ()
+  {
+    final int q = getQueued ();
+    if (q > maxQueued)
+      maxQueued = q;
+    final int a = getActive ();
+    if (a > maxActive)
+      maxActive = a;
+  }
+
+  public void shutdown ()
+  {
+    executor.shutdown ();
+  }
+
+  public List <Runnable> shutdownNow ()
+  {
+    return executor.shutdownNow ();
+  }
+
+  public boolean isShutdown ()
+  {
+    return executor.isShutdown ();
+  }
+
+  public boolean isTerminated ()
+  {
+    return executor.isTerminated ();
+  }
+
+  public boolean awaitTermination (final long timeout, final TimeUnit unit) throws InterruptedException
+  {
+    return executor.awaitTermination (timeout, unit);
+  }
+
+  /**
+   * Get the strategy used to create the underlying executor.
+   *
+   * @return the strategy or null if unknown
+   */
+  public ExecutorStrategy getStrategy ()
+  {
+    return strategy;
+  }
+
+  /**
+   * Get the number of tasks waiting to be run.
+   *
+   * @return the current queue depth
+   */
+  public int getQueued ()
+  {
+    return (int) (submitted.sum () - started.sum ());
+  }
+
+  /**
+   * Get the number of tasks being run right now.
+   *
+   * @return the number of active threads
+   */
+  public int getActive ()
+  {
+    return (int) (started.sum () - completed.sum ());
+  }
+
+  /**
+   * Get the largest queue depth seen.
+   *
+   * @return the largest number of waiting tasks
+   */
+  public int getMaxQueued ()
+  {
+    return maxQueued;
+  }
+
+  /**
+   * Get the largest number of tasks seen running at the same time.
+   *
+   * @return the largest number of active threads
+   */
+  public int getMaxActive ()
+  {
+    return maxActive;
+  }
+
+  /**
+   * Get the number of tasks that have been run to completion.
+   *
+   * @return the number of completed tasks
+   */
+  public long getCompleted ()
+  {
+    return completed.sum ();
+  }
+
+  /**
+   * Get the total time that started tasks have spent waiting to be run.
+   *
+   * @return the time spent waiting in nanoseconds
+   */
+  public long getWaitNanos ()
+  {
+    return waitNanos.sum ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return getClass ().getSimpleName () + "{strategy: " + strategy + ", executor: " + executor + "}";
+  }
+}
@@ -34,9 +34,12 @@ package com.helger.rnio.impl;
 import java.io.IOException;
 import java.nio.channels.SelectableChannel;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -49,12 +52,21 @@ import com.helger.rnio.ISocketChannelHandler;
 import com.helger.rnio.IStatisticsHolder;
 import com.helger.rnio.ITaskIdentifier;
 import com.helger.rnio.IWriteHandler;
+import com.helger.rnio.statistics.SelectorStatistics;
 
 /**
  * An implementation of NioHandler that runs several selector threads.
  * <p>
  * Any tasks that should run on a background thread are passed to the
- * {@link ExecutorService} that was given in the constructor.
+ * {@link ExecutorService} that was given in the constructor, or that was
+ * created using the given {@link ExecutorStrategy}. The executor is wrapped in
+ * a {@link MeteredExecutorService} so that its queue depth and number of active
+ * tasks can be monitored.
+ * <p>
+ * Channels are bound to one selector for their lifetime unless rebalancing is
+ * enabled with {@link #setRebalanceInterval(long)}, busy channels may then be
+ * moved from a busy selector to a less loaded one while they wait for read or
+ * write.
  * <p>
  * This class will log using the "org.khelekore.rnio" {@link Logger}.
  *
@@ -63,12 +75,18 @@ import com.helger.rnio.IWriteHandler;
 public class MultiSelectorNioHandler implements INioHandler
 {
   /** The executor service. */
-  private final ExecutorService executorService;
+  private final MeteredExecutorService executorService;
+  /** The lanes that background tasks are routed to. */
+  private final TaskLanes taskLanes;
   private final List <SingleSelectorRunner> selectorRunners;
+  private final ChannelOwnership channelOwners = new ChannelOwnership ();
+  private final SelectorRebalancer rebalancer;
+  private final LongAdder wakeupsAvoided = new LongAdder ();
   private final Logger logger = Logger.getLogger ("org.khelekore.rnio");
   private final IStatisticsHolder stats;
   private final Long defaultTimeout;
-  private int nextIndex = 0;
+  private final List <SelectorStatistics> selectorStatistics;
+  private volatile ISelectorAssignmentPolicy assignmentPolicy = SelectorAssignment.LEAST_LOADED;
 
   /**
    * Create a new MultiSelectorNioHandler that runs background tasks on the
@@ -89,8 +107,48 @@ public class MultiSelectorNioHandler implements INioHandler
                                   final IStatisticsHolder stats,
                                   final int numSelectors,
                                   final Long defaultTimeout) throws IOException
+  {
+    this (executorService instanceof MeteredExecutorService ? (MeteredExecutorService) executorService
+                                                            : new MeteredExecutorService (executorService, null),
+          stats,
+          numSelectors,
+          defaultTimeout);
+  }
+
+  /**
+   * Create a new MultiSelectorNioHandler that runs background tasks on an
+   * executor created using the given strategy.
+   *
+   * @param strategy
+   *        the kind of executor to use for background tasks
+   * @param maxThreads
+   *        the thread limit for the executor, see
+   *        {@link ExecutorStrategy#create(int)}
+   * @param stats
+   *        the StatisticsHolder to use for this NioHandler
+   * @param numSelectors
+   *        the number of threads that this NioHandler will use
+   * @param defaultTimeout
+   *        the default timeout value for this NioHandler
+   * @throws IOException
+   *         if the selectors can not be started
+   */
+  public MultiSelectorNioHandler (final ExecutorStrategy strategy,
+                                  final int maxThreads,
+                                  final IStatisticsHolder stats,
+                                  final int numSelectors,
+                                  final Long defaultTimeout) throws IOException
+  {
+    this (strategy.create (maxThreads), stats, numSelectors, defaultTimeout);
+  }
+
+  private MultiSelectorNioHandler (final MeteredExecutorService executorService,
+                                   final IStatisticsHolder stats,
+                                   final int numSelectors,
+                                   final Long defaultTimeout) throws IOException
   {
     this.executorService = executorService;
+    taskLanes = new TaskLanes (executorService);
     this.stats = stats;
 
     if (numSelectors < 1)
@@ -99,8 +157,15 @@ public class MultiSelectorNioHandler implements INioHandler
       throw new IllegalArgumentException (err);
     }
     selectorRunners = new ArrayList<> (numSelectors);
+    rebalancer = new SelectorRebalancer (selectorRunners);
+    final List <SelectorStatistics> stl = new ArrayList<> (numSelectors);
     for (int i = 0; i < numSelectors; i++)
-      selectorRunners.add (new SingleSelectorRunner (executorService));
+    {
+      final SingleSelectorRunner ssr = new SingleSelectorRunner (executorService, channelOwners, rebalancer);
+      selectorRunners.add (ssr);
+      stl.add (ssr.getStatistics ());
+    }
+    selectorStatistics = Collections.unmodifiableList (stl);
     if (defaultTimeout != null && defaultTimeout.longValue () <= 0)
     {
       final String err = "Default timeout may not be zero or negative";
@@ -119,6 +184,7 @@ public class MultiSelectorNioHandler implements INioHandler
   {
     final Thread t = new Thread ( () -> {
       executorService.shutdown ();
+      taskLanes.shutdown ();
       for (final SingleSelectorRunner ssr : selectorRunners)
         ssr.shutdown ();
     });
@@ -142,24 +208,30 @@ public class MultiSelectorNioHandler implements INioHandler
 
   public void runThreadTask (final Runnable r, final ITaskIdentifier ti)
   {
-    stats.addPendingTask (ti);
-    executorService.execute (new StatisticsCollector (stats, r, ti));
+    taskLanes.execute (r, ti, stats);
   }
 
+  /**
+   * Get the selector runner that new channels should be bound to, as chosen by
+   * the current assignment policy.
+   *
+   * @return the runner to bind a new channel to
+   */
   private SingleSelectorRunner getSelectorRunner ()
   {
-    int index;
-    synchronized (this)
-    {
-      index = nextIndex++;
-      nextIndex %= selectorRunners.size ();
-    }
+    final int index = assignmentPolicy.chooseSelector (selectorStatistics);
+    if (index < 0 || index >= selectorRunners.size ())
+      throw new IllegalStateException ("Selector assignment policy: " +
+                                       assignmentPolicy +
+                                       " gave bad index: " +
+                                       index);
     return selectorRunners.get (index);
   }
 
   /**
-   * Run a task on one of the selector threads. The task will be run sometime in
-   * the future.
+   * Run a task on the selector thread that owns the channel. If the channel is
+   * not yet owned by any selector it will be bound to one. The task will be run
+   * sometime in the future.
    *
    * @param channel
    *        the channel to run the task on
@@ -168,18 +240,48 @@ public class MultiSelectorNioHandler implements INioHandler
    */
   private void runSelectorTask (final SelectableChannel channel, final ISelectorRunnable sr)
   {
-    // If the channel is already being served by someone, favor that one.
-    for (final SingleSelectorRunner ssr : selectorRunners)
-    {
-      if (ssr.handlesChannel (channel))
-      {
-        ssr.runSelectorTask (sr);
-        return;
-      }
-    }
-    // Put it on any selector
-    final SingleSelectorRunner ssr = getSelectorRunner ();
-    ssr.runSelectorTask (sr);
+    final SingleSelectorRunner ssr = channelOwners.bind (channel, this::getSelectorRunner);
+    ssr.runSelectorTask (forwardIfMoved (channel, sr));
+  }
+
+  /**
+   * Run a task on the selector thread that owns the channel. Channels that are
+   * not owned by any selector are not registered anywhere so the task is
+   * dropped.
+   *
+   * @param channel
+   *        the channel to run the task on
+   * @param sr
+   *        the task to run on the main thread.
+   */
+  private void runOwnerTask (final SelectableChannel channel, final ISelectorRunnable sr)
+  {
+    final SingleSelectorRunner ssr = channelOwners.getOwner (channel);
+    final int others = ssr == null ? selectorRunners.size () : selectorRunners.size () - 1;
+    wakeupsAvoided.add (others);
+    if (ssr != null)
+      ssr.runSelectorTask (forwardIfMoved (channel, sr));
+  }
+
+  /**
+   * Wrap a selector task so that it is passed on to the new owner if the
+   * channel is moved to another selector while the task is queued.
+   *
+   * @param channel
+   *        the channel the task is for
+   * @param sr
+   *        the task to run on the owning selector thread
+   * @return the wrapped task
+   */
+  private ISelectorRunnable forwardIfMoved (final SelectableChannel channel, final ISelectorRunnable sr)
+  {
+    return r -> {
+      final SingleSelectorRunner owner = channelOwners.getOwner (channel);
+      if (owner == null || owner == r)
+        sr.run (r);
+      else
+        owner.runSelectorTask (forwardIfMoved (channel, sr));
+    };
   }
 
   public void waitForRead (final SelectableChannel channel, final IReadHandler handler)
@@ -210,18 +312,283 @@ public class MultiSelectorNioHandler implements INioHandler
 
   public void cancel (final SelectableChannel channel, final ISocketChannelHandler handler)
   {
-    for (final SingleSelectorRunner sr : selectorRunners)
-    {
-      sr.runSelectorTask (ssr -> ssr.cancel (channel, handler));
-    }
+    runOwnerTask (channel, ssr -> ssr.cancel (channel, handler));
   }
 
   public void close (final SelectableChannel channel)
   {
-    for (final SingleSelectorRunner sr : selectorRunners)
-    {
-      sr.runSelectorTask (ssr -> ssr.close (channel));
-    }
+    runOwnerTask (channel, ssr -> ssr.close (channel));
+  }
+
+  /**
+   * Get the number of selector threads this NioHandler uses.
+   *
+   * @return the number of selectors
+   */
+  public int getNumSelectors ()
+  {
+    return selectorRunners.size ();
+  }
+
+  /**
+   * Bind a channel to the given selector. All later operations on the channel
+   * will be handled by that selector.
+   *
+   * @param channel
+   *        the channel to bind
+   * @param selectorIndex
+   *        the index of the selector, from 0 to getNumSelectors () - 1
+   * @return true if the channel was bound to the given selector, false if it
+   *         was already bound to another selector
+   */
+  public boolean bindToSelector (final SelectableChannel channel, final int selectorIndex)
+  {
+    final SingleSelectorRunner ssr = selectorRunners.get (selectorIndex);
+    return channelOwners.bind (channel, () -> ssr) == ssr;
+  }
+
+  /**
+   * Bind a channel to the selector whose thread is running this method. This
+   * does nothing if called from a thread that is not a selector thread.
+   *
+   * @param channel
+   *        the channel to bind
+   * @return true if the channel was bound to the current selector
+   */
+  public boolean bindToCurrentSelector (final SelectableChannel channel)
+  {
+    for (final SingleSelectorRunner ssr : selectorRunners)
+      if (ssr.isSelectorThread ())
+        return channelOwners.bind (channel, () -> ssr) == ssr;
+    return false;
+  }
+
+  /**
+   * Set the policy that decides which selector new channels are bound to. The
+   * default policy is {@link SelectorAssignment#LEAST_LOADED}. Channels that
+   * are already bound are not moved.
+   *
+   * @param assignmentPolicy
+   *        the new policy
+   */
+  public void setSelectorAssignmentPolicy (final ISelectorAssignmentPolicy assignmentPolicy)
+  {
+    if (assignmentPolicy == null)
+      throw new NullPointerException ("assignmentPolicy may not be null");
+    this.assignmentPolicy = assignmentPolicy;
+  }
+
+  /**
+   * Get the policy that decides which selector new channels are bound to.
+   *
+   * @return the current policy
+   */
+  public ISelectorAssignmentPolicy getSelectorAssignmentPolicy ()
+  {
+    return assignmentPolicy;
+  }
+
+  /**
+   * Set how often each selector checks if it should move some of its channels
+   * to a less loaded selector. Only channels that have been active and that
+   * are waiting for read or write are moved. Server channels and channels
+   * that wait for accept or connect are never moved. Rebalancing is off by
+   * default.
+   *
+   * @param interval
+   *        the time between checks in milliseconds, 0 to never move channels
+   */
+  public void setRebalanceInterval (final long interval)
+  {
+    rebalancer.setInterval (interval);
+  }
+
+  /**
+   * Get how often each selector checks if it should move some of its channels.
+   *
+   * @return the time between checks in milliseconds, 0 if channels are never
+   *         moved
+   */
+  public long getRebalanceInterval ()
+  {
+    return rebalancer.getInterval ();
+  }
+
+  /**
+   * Turn adaptive handler dispatch on or off. In adaptive mode the run time of
+   * each kind of thread safe read and write handler, see
+   * {@link com.helger.rnio.ISocketChannelHandler#isThreadSafe()}, that does
+   * not want a separate thread is tracked. Cheap ones run on the selector
+   * thread while expensive ones run on the executor. Other handlers always run
+   * where useSeparateThread () says. Adaptive dispatch is off by default.
+   *
+   * @param adaptive
+   *        true to use adaptive dispatch, false to only use
+   *        useSeparateThread ()
+   */
+  public void setAdaptiveDispatch (final boolean adaptive)
+  {
+    for (final SingleSelectorRunner ssr : selectorRunners)
+      ssr.getDispatcher ().setAdaptive (adaptive);
+  }
+
+  /**
+   * Check if adaptive handler dispatch is used.
+   *
+   * @return true if adaptive dispatch is on
+   */
+  public boolean isAdaptiveDispatch ()
+  {
+    return selectorRunners.get (0).getDispatcher ().isAdaptive ();
+  }
+
+  /**
+   * Set how long read and write handlers may run on each selector thread in
+   * one selector loop when adaptive dispatch is used. A handler kind whose
+   * average run time is more than a quarter of this always runs on the
+   * executor.
+   *
+   * @param micros
+   *        the inline budget in microseconds, must be positive
+   */
+  public void setInlineBudget (final long micros)
+  {
+    final long nanos = TimeUnit.MICROSECONDS.toNanos (micros);
+    for (final SingleSelectorRunner ssr : selectorRunners)
+      ssr.getDispatcher ().setInlineBudget (nanos);
+  }
+
+  /**
+   * Get how long read and write handlers may run on each selector thread in
+   * one selector loop when adaptive dispatch is used.
+   *
+   * @return the inline budget in microseconds
+   */
+  public long getInlineBudget ()
+  {
+    return TimeUnit.NANOSECONDS.toMicros (selectorRunners.get (0).getDispatcher ().getInlineBudget ());
+  }
+
+  /**
+   * Set how long each selector thread busy polls for ready keys and tasks
+   * before it blocks in select. Polling avoids the wakeup system call and
+   * context switch when work arrives within the window, at the cost of cpu.
+   * This only pays off when there are spare cores, a polling selector that
+   * competes with the executor threads for a core makes the latency worse. The
+   * default is 0, to always block.
+   *
+   * @param micros
+   *        the spin window in microseconds, 0 to never spin
+   */
+  public void setSpinWindow (final long micros)
+  {
+    final long nanos = TimeUnit.MICROSECONDS.toNanos (micros);
+    for (final SingleSelectorRunner ssr : selectorRunners)
+      ssr.getSpinner ().setSpinWindow (nanos);
+  }
+
+  /**
+   * Get how long each selector thread busy polls before it blocks.
+   *
+   * @return the spin window in microseconds, 0 if the selectors never spin
+   */
+  public long getSpinWindow ()
+  {
+    return TimeUnit.NANOSECONDS.toMicros (selectorRunners.get (0).getSpinner ().getSpinWindow ());
+  }
+
+  /**
+   * Set the fraction of time each selector thread may spend busy polling. Once
+   * a selector has used up its budget it blocks right away, until the budget is
+   * renewed. The default is 0.1.
+   *
+   * @param budget
+   *        the spin budget, larger than 0 and at most 1
+   */
+  public void setSpinBudget (final double budget)
+  {
+    for (final SingleSelectorRunner ssr : selectorRunners)
+      ssr.getSpinner ().setSpinBudget (budget);
+  }
+
+  /**
+   * Get the fraction of time each selector thread may spend busy polling.
+   *
+   * @return the spin budget
+   */
+  public double getSpinBudget ()
+  {
+    return selectorRunners.get (0).getSpinner ().getSpinBudget ();
+  }
+
+  /**
+   * Get the number of channels that have been moved between selectors.
+   *
+   * @return the total number of moved channels
+   */
+  public long getChannelsMoved ()
+  {
+    long ret = 0;
+    for (final SelectorStatistics ss : selectorStatistics)
+      ret += ss.getChannelsMovedOut ();
+    return ret;
+  }
+
+  /**
+   * Get the largest number of tasks waiting to be run on one of the selector
+   * threads.
+   *
+   * @return the longest selector task queue
+   */
+  public int getMaxQueuedSelectorTasks ()
+  {
+    int ret = 0;
+    for (final SingleSelectorRunner ssr : selectorRunners)
+      ret = Math.max (ret, ssr.getQueuedTasks ());
+    return ret;
+  }
+
+  /**
+   * Get the executor that runs the background tasks.
+   *
+   * @return the executor, with metrics
+   */
+  public MeteredExecutorService getExecutorService ()
+  {
+    return executorService;
+  }
+
+  /**
+   * Get the lanes that background tasks are routed to, add lanes to give a
+   * task group its own threads.
+   *
+   * @return the task lanes
+   */
+  public TaskLanes getTaskLanes ()
+  {
+    return taskLanes;
+  }
+
+  /**
+   * Get the number of selector wakeups that were avoided since cancel and
+   * close only need to wake up the selector that owns the channel instead of
+   * all selectors.
+   *
+   * @return the number of avoided wakeups
+   */
+  public long getWakeupsAvoided ()
+  {
+    return wakeupsAvoided.sum ();
+  }
+
+  /**
+   * Get the number of channels that are currently bound to a selector.
+   *
+   * @return the number of owned channels
+   */
+  public int getNumOwnedChannels ()
+  {
+    return channelOwners.size ();
   }
 
   public void visitSelectors (final ISelectorVisitor visitor)
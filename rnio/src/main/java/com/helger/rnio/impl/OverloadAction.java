@@ -0,0 +1,71 @@
+/**
+ * Copyright (c) 2010 Robert Olofsson.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the authors nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHORS AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE AUTHORS OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package com.helger.rnio.impl;
+
+import java.util.Locale;
+
+/**
+ * What an Acceptor does with new connections while its AdmissionController
+ * says that the server is overloaded.
+ *
+ * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
+ */
+public enum OverloadAction
+{
+  /**
+   * Stop waiting for accept until the load is down again. New connections wait
+   * in the listen backlog, and when that is full the kernel drops or refuses
+   * them.
+   */
+  PAUSE_ACCEPT,
+
+  /**
+   * Keep accepting, but write the reject response, if any, to each new
+   * connection and close it right away.
+   */
+  REJECT;
+
+  /**
+   * Get the action with the given name, case and dashes are ignored so
+   * "pause-accept" gives PAUSE_ACCEPT.
+   *
+   * @param name
+   *        the name of the action
+   * @return the action
+   * @throws IllegalArgumentException
+   *         if there is no action with the given name
+   */
+  public static OverloadAction getFromName (final String name)
+  {
+    return valueOf (name.trim ().toUpperCase (Locale.US).replace ('-', '_'));
+  }
+}
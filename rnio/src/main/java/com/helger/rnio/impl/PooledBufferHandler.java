@@ -0,0 +1,693 @@
+/**
+ * Copyright (c) 2010 Robert Olofsson.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the authors nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHORS AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE AUTHORS OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package com.helger.rnio.impl;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.helger.rnio.IBufferHandler;
+
+/**
+ * A buffer handler that pools direct buffers in power of two size classes.
+ * <p>
+ * Each thread keeps a small magazine of buffers for the small size classes so
+ * that most calls to get and put a buffer use no synchronization at all. When a
+ * magazine runs full or empty it is exchanged, as a whole, with a shared
+ * depot. A magazine holds at most 64 KB, size classes that would fit less than
+ * two buffers in that are not cached per thread and always use the depot. The
+ * depot for each size class is bounded; buffers that do not fit are dropped so
+ * that their memory can be released.
+ * <p>
+ * {@link #trim()} drops the buffers in the depots. Each thread hands its
+ * magazines back to the depots the next time it uses the pool after a trim, and
+ * the magazines of threads that have ended are taken back by the next trim or
+ * the next new thread. A trim can be run periodically with
+ * {@link #setTrimInterval(long)}.
+ * <p>
+ * New buffers may optionally be sliced out of larger direct slabs to reduce
+ * the number of direct allocations.
+ * <p>
+ * Buffers handed back to this handler that do not match one of the size
+ * classes, or that are not direct, are dropped.
+ *
+ * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
+ */
+public class PooledBufferHandler implements IBufferHandler
+{
+  /** The default size of the buffers returned by getBuffer. */
+  public static final int DEFAULT_SMALL_SIZE = 4096;
+  /** The default size of the buffers returned by the first growBuffer. */
+  public static final int DEFAULT_LARGE_SIZE = 128 * 1024;
+  /** The default size of the largest pooled buffers. */
+  public static final int DEFAULT_MAX_SIZE = 1024 * 1024;
+  /** The default number of bytes the depots may hold, in total. */
+  public static final long DEFAULT_MAX_POOLED = 64L * 1024 * 1024;
+
+  /** The most bytes that one magazine will try to hold. */
+  private static final int MAGAZINE_BYTES = 64 * 1024;
+  private static final int MAX_MAGAZINE_SIZE = 16;
+  private static final int MIN_MAGAZINE_SIZE = 2;
+
+  private final int smallSize;
+  private final int largeSize;
+  private final int smallShift;
+  private final SizeClass [] classes;
+  private final ThreadLocal <ThreadMagazines> magazines;
+  /** The magazines of all the threads that have used this pool. */
+  private final Set <ThreadMagazines> allMagazines = ConcurrentHashMap.newKeySet ();
+  /** The number of trims, threads flush their magazines when it changes. */
+  private volatile int trims;
+  private volatile long trimInterval;
+  private Thread trimmer;
+
+  /**
+   * Create a new PooledBufferHandler using the default sizes, holding at most
+   * 64 MB in the depots and without using slabs.
+   */
+  public PooledBufferHandler ()
+  {
+    this (DEFAULT_SMALL_SIZE, DEFAULT_LARGE_SIZE, DEFAULT_MAX_SIZE, DEFAULT_MAX_POOLED, 0);
+  }
+
+  /**
+   * Create a new PooledBufferHandler.
+   *
+   * @param smallSize
+   *        the size of the buffers returned by getBuffer, must be a power of
+   *        two
+   * @param largeSize
+   *        the size of the buffers returned when a small buffer is grown, must
+   *        be a power of two
+   * @param maxSize
+   *        the size of the largest pooled buffers, must be a power of two.
+   *        Larger buffers are allocated on demand and never pooled.
+   * @param maxPooled
+   *        the number of bytes that the shared depots may hold, split evenly
+   *        over the size classes. Buffers that are returned when the depots are
+   *        full are dropped. Each thread may hold up to 64 KB for each of the
+   *        small size classes on top of this.
+   * @param slabSize
+   *        the size of the direct slabs to slice new buffers out of, size
+   *        classes larger than half the slab size are allocated directly. Use
+   *        0 to allocate every buffer on its own.
+   */
+  public PooledBufferHandler (final int smallSize,
+                              final int largeSize,
+                              final int maxSize,
+                              final long maxPooled,
+                              final int slabSize)
+  {
+    checkPowerOfTwo ("small size", smallSize);
+    checkPowerOfTwo ("large size", largeSize);
+    checkPowerOfTwo ("max size", maxSize);
+    if (smallSize > largeSize || largeSize > maxSize)
+      throw new IllegalArgumentException ("Sizes must not decrease: " + smallSize + ", " + largeSize + ", " + maxSize);
+    if (maxPooled < 0)
+      throw new IllegalArgumentException ("Max pooled may not be negative: " + maxPooled);
+    if (slabSize < 0)
+      throw new IllegalArgumentException ("Slab size may not be negative: " + slabSize);
+    this.smallSize = smallSize;
+    this.largeSize = largeSize;
+    smallShift = Integer.numberOfTrailingZeros (smallSize);
+    final int numClasses = Integer.numberOfTrailingZeros (maxSize) - smallShift + 1;
+    classes = new SizeClass [numClasses];
+    final long bytesPerClass = maxPooled / numClasses;
+    for (int i = 0; i < numClasses; i++)
+    {
+      final int size = smallSize << i;
+      int magazineSize = Math.min (MAX_MAGAZINE_SIZE, MAGAZINE_BYTES / size);
+      if (magazineSize < MIN_MAGAZINE_SIZE)
+        magazineSize = 1;
+      final int maxMagazines = (int) Math.min (Integer.MAX_VALUE, bytesPerClass / ((long) size * magazineSize));
+      final int useSlab = slabSize >= 2 * size ? slabSize : 0;
+      classes[i] = new SizeClass (size, magazineSize, maxMagazines, useSlab);
+    }
+    magazines = ThreadLocal.withInitial (this::createMagazines);
+  }
+
+  private ThreadMagazines createMagazines ()
+  {
+    final Magazine [] ms = new Magazine [classes.length];
+    for (int i = 0; i < ms.length; i++)
+      if (classes[i].usesMagazines ())
+        ms[i] = new Magazine (classes[i].magazineSize);
+    reclaimEnded ();
+    final ThreadMagazines tm = new ThreadMagazines (ms, trims);
+    allMagazines.add (tm);
+    return tm;
+  }
+
+  /**
+   * Get the magazines of the current thread, they are handed back to the
+   * depots first if there has been a trim since the thread last used them.
+   */
+  private Magazine [] getMagazines ()
+  {
+    final ThreadMagazines tm = magazines.get ();
+    final int t = trims;
+    if (tm.trims != t)
+    {
+      tm.trims = t;
+      flush (tm.magazines);
+    }
+    return tm.magazines;
+  }
+
+  private void flush (final Magazine [] ms)
+  {
+    for (int i = 0; i < ms.length; i++)
+      if (ms[i] != null && ms[i].count > 0)
+        ms[i] = classes[i].exchangeFull (ms[i]);
+  }
+
+  /**
+   * Take back the magazines of the threads that have ended. A thread that has
+   * ended is seen by isAlive, so its magazines may be used by this thread.
+   */
+  private void reclaimEnded ()
+  {
+    for (final ThreadMagazines tm : allMagazines)
+      if (!tm.owner.isAlive () && allMagazines.remove (tm))
+        flush (tm.magazines);
+  }
+
+  private static void checkPowerOfTwo (final String what, final int size)
+  {
+    if (size <= 0 || Integer.bitCount (size) != 1)
+      throw new IllegalArgumentException ("The " + what + " must be a positive power of two: " + size);
+  }
+
+  /**
+   * Find the size class for the given capacity.
+   *
+   * @return the index of the size class or -1 if the capacity is not pooled
+   */
+  private int getClassIndex (final int capacity)
+  {
+    if (capacity < smallSize || Integer.bitCount (capacity) != 1)
+      return -1;
+    final int index = Integer.numberOfTrailingZeros (capacity) - smallShift;
+    return index < classes.length ? index : -1;
+  }
+
+  private ByteBuffer getBuffer (final int index)
+  {
+    final SizeClass sc = classes[index];
+    final Magazine [] ms = getMagazines ();
+    if (!sc.usesMagazines ())
+    {
+      ByteBuffer b = sc.take ();
+      if (b != null)
+      {
+        sc.hits.increment ();
+      }
+      else
+      {
+        b = sc.allocate ();
+        sc.misses.increment ();
+      }
+      b.clear ();
+      return b;
+    }
+    Magazine m = ms[index];
+    if (m.count == 0)
+    {
+      final Magazine full = sc.exchangeEmpty (m);
+      if (full != null)
+        ms[index] = m = full;
+    }
+    ByteBuffer b;
+    if (m.count > 0)
+    {
+      b = m.pop ();
+      sc.hits.increment ();
+    }
+    else
+    {
+      b = sc.allocate ();
+      sc.misses.increment ();
+    }
+    b.clear ();
+    return b;
+  }
+
+  public ByteBuffer getBuffer ()
+  {
+    return getBuffer (0);
+  }
+
+  public void putBuffer (final ByteBuffer buffer)
+  {
+    if (buffer == null)
+      throw new IllegalArgumentException ("null buffer not allowed");
+    if (!buffer.isDirect ())
+      return;
+    final int index = getClassIndex (buffer.capacity ());
+    if (index < 0)
+      return;
+    final SizeClass sc = classes[index];
+    sc.returned.increment ();
+    final Magazine [] ms = getMagazines ();
+    if (!sc.usesMagazines ())
+    {
+      sc.give (buffer);
+      return;
+    }
+    Magazine m = ms[index];
+    if (m.isFull ())
+      ms[index] = m = sc.exchangeFull (m);
+    m.push (buffer);
+  }
+
+  public ByteBuffer growBuffer (final ByteBuffer buffer)
+  {
+    int size = largeSize;
+    if (buffer != null && buffer.capacity () >= largeSize)
+      size = buffer.capacity () << 1;
+    final int index = getClassIndex (size);
+    final ByteBuffer lb = index >= 0 ? getBuffer (index) : ByteBuffer.allocateDirect (size);
+    if (buffer != null)
+    {
+      lb.put (buffer);
+      putBuffer (buffer);
+    }
+    return lb;
+  }
+
+  public boolean isLarge (final ByteBuffer buffer)
+  {
+    return buffer.capacity () > smallSize;
+  }
+
+  /**
+   * Drop all the buffers held in the shared depots so that their memory can be
+   * released. The magazines of threads that have ended are dropped as well,
+   * other threads hand their magazines back to the depots the next time they
+   * get or put a buffer, so those buffers are dropped by the next trim unless
+   * they are used again before it.
+   */
+  public void trim ()
+  {
+    reclaimEnded ();
+    trims++;
+    for (final SizeClass sc : classes)
+      sc.trim ();
+  }
+
+  /**
+   * Hand the magazines of the current thread back to the depots. A thread that
+   * will not use the pool for a while may call this so that its buffers can be
+   * used by other threads or dropped by the next trim.
+   */
+  public void flush ()
+  {
+    flush (magazines.get ().magazines);
+  }
+
+  /**
+   * Set how often the pool is trimmed. The trims are run by a daemon thread
+   * that is started when the interval is first set.
+   *
+   * @param interval
+   *        the time between trims in milliseconds, 0 to never trim
+   */
+  public synchronized void setTrimInterval (final long interval)
+  {
+    if (interval < 0)
+      throw new IllegalArgumentException ("Trim interval may not be negative: " + interval);
+    trimInterval = interval;
+    if (trimmer != null)
+      trimmer.interrupt ();
+    if (interval > 0 && trimmer == null)
+    {
+      trimmer = new Thread (this::runTrimmer, getClass ().getName () + ".trimmer");
+      trimmer.setDaemon (true);
+      trimmer.start ();
+    }
+  }
+
+  /**
+   * Get how often the pool is trimmed.
+   *
+   * @return the time between trims in milliseconds, 0 if the pool is never
+   *         trimmed
+   */
+  public long getTrimInterval ()
+  {
+    return trimInterval;
+  }
+
+  private void runTrimmer ()
+  {
+    while (true)
+    {
+      final long interval;
+      synchronized (this)
+      {
+        interval = trimInterval;
+        if (interval == 0)
+        {
+          trimmer = null;
+          return;
+        }
+      }
+      try
+      {
+        Thread.sleep (interval);
+        trim ();
+      }
+      catch (final InterruptedException e)
+      {
+        // The interval was changed
+      }
+    }
+  }
+
+  /**
+   * Get the number of size classes.
+   *
+   * @return the number of size classes
+   */
+  public int getNumSizeClasses ()
+  {
+    return classes.length;
+  }
+
+  /**
+   * Get the buffer size of a size class.
+   *
+   * @param index
+   *        the index of the size class
+   * @return the size of the buffers in the size class
+   */
+  public int getSize (final int index)
+  {
+    return classes[index].size;
+  }
+
+  /**
+   * Get the number of buffers that were handed out from the pool.
+   *
+   * @param index
+   *        the index of the size class
+   * @return the number of requests that were served by pooled buffers
+   */
+  public long getHits (final int index)
+  {
+    return classes[index].hits.sum ();
+  }
+
+  /**
+   * Get the number of buffers that had to be allocated.
+   *
+   * @param index
+   *        the index of the size class
+   * @return the number of requests that needed a new buffer
+   */
+  public long getMisses (final int index)
+  {
+    return classes[index].misses.sum ();
+  }
+
+  /**
+   * Get the number of buffers that are currently handed out.
+   *
+   * @param index
+   *        the index of the size class
+   * @return the number of buffers handed out but not yet returned
+   */
+  public long getOutstanding (final int index)
+  {
+    final SizeClass sc = classes[index];
+    return sc.hits.sum () + sc.misses.sum () - sc.returned.sum ();
+  }
+
+  /**
+   * Get the number of bytes in buffers that are currently handed out, over all
+   * size classes. Buffers larger than the max size are not counted.
+   *
+   * @return the number of bytes handed out but not yet returned
+   */
+  public long getOutstandingBytes ()
+  {
+    long ret = 0;
+    for (int i = 0; i < classes.length; i++)
+      ret += getOutstanding (i) * classes[i].size;
+    return ret;
+  }
+
+  /**
+   * Get the number of buffers that were dropped since the depot was full.
+   *
+   * @param index
+   *        the index of the size class
+   * @return the number of dropped buffers
+   */
+  public long getDropped (final int index)
+  {
+    return classes[index].dropped.sum ();
+  }
+
+  /**
+   * Get the number of buffers held in the shared depot.
+   *
+   * @param index
+   *        the index of the size class
+   * @return the number of buffers in the depot, not counting the buffers
+   *         held by the magazines that threads are using
+   */
+  public int getPooled (final int index)
+  {
+    return classes[index].getPooled ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return getClass ().getSimpleName () +
+           "{small: " +
+           smallSize +
+           ", large: " +
+           largeSize +
+           ", classes: " +
+           classes.length +
+           "}";
+  }
+
+  /** The magazines of one thread. */
+  private static final class ThreadMagazines
+  {
+    private final Thread owner = Thread.currentThread ();
+    private final Magazine [] magazines;
+    /** The number of trims when the magazines were last flushed. */
+    private int trims;
+
+    public ThreadMagazines (final Magazine [] magazines, final int trims)
+    {
+      this.magazines = magazines;
+      this.trims = trims;
+    }
+  }
+
+  /** A stack of buffers owned by one thread. */
+  private static final class Magazine
+  {
+    private final ByteBuffer [] buffers;
+    private int count;
+
+    public Magazine (final int size)
+    {
+      buffers = new ByteBuffer [size];
+    }
+
+    public boolean isFull ()
+    {
+      return count == buffers.length;
+    }
+
+    public void push (final ByteBuffer buffer)
+    {
+      buffers[count++] = buffer;
+    }
+
+    public ByteBuffer pop ()
+    {
+      final ByteBuffer b = buffers[--count];
+      buffers[count] = null;
+      return b;
+    }
+
+    public void clear ()
+    {
+      while (count > 0)
+        buffers[--count] = null;
+    }
+  }
+
+  /** The shared state of one size class. */
+  private static final class SizeClass
+  {
+    private final int size;
+    private final int magazineSize;
+    private final int maxMagazines;
+    private final int slabSize;
+
+    private final ArrayDeque <Magazine> full = new ArrayDeque<> ();
+    private final ArrayDeque <Magazine> empty = new ArrayDeque<> ();
+    /** The buffers of a size class that does not use magazines. */
+    private final ArrayDeque <ByteBuffer> buffers = new ArrayDeque<> ();
+    private ByteBuffer slab;
+
+    private final LongAdder hits = new LongAdder ();
+    private final LongAdder misses = new LongAdder ();
+    private final LongAdder returned = new LongAdder ();
+    private final LongAdder dropped = new LongAdder ();
+
+    public SizeClass (final int size, final int magazineSize, final int maxMagazines, final int slabSize)
+    {
+      this.size = size;
+      this.magazineSize = magazineSize;
+      this.maxMagazines = maxMagazines;
+      this.slabSize = slabSize;
+    }
+
+    /**
+     * Check if the buffers of this size class are kept in per thread
+     * magazines.
+     *
+     * @return false if the buffers always go to the depot
+     */
+    public boolean usesMagazines ()
+    {
+      return magazineSize > 1;
+    }
+
+    /**
+     * Take a buffer from a depot that does not use magazines.
+     *
+     * @return a buffer or null if the depot is empty
+     */
+    public synchronized ByteBuffer take ()
+    {
+      return buffers.poll ();
+    }
+
+    /**
+     * Hand a buffer to a depot that does not use magazines, it is dropped if
+     * the depot is full.
+     */
+    public void give (final ByteBuffer buffer)
+    {
+      synchronized (this)
+      {
+        if (buffers.size () < maxMagazines)
+        {
+          buffers.push (buffer);
+          return;
+        }
+      }
+      dropped.increment ();
+    }
+
+    /**
+     * Hand in an empty magazine and get a full one back.
+     *
+     * @return a full magazine or null if the depot is empty
+     */
+    public synchronized Magazine exchangeEmpty (final Magazine m)
+    {
+      final Magazine f = full.poll ();
+      if (f != null && empty.size () < maxMagazines)
+        empty.push (m);
+      return f;
+    }
+
+    /**
+     * Hand in a full magazine and get an empty one back. If the depot is full
+     * the buffers in the magazine are dropped and the magazine is reused.
+     */
+    public Magazine exchangeFull (final Magazine m)
+    {
+      synchronized (this)
+      {
+        if (full.size () < maxMagazines)
+        {
+          full.push (m);
+          final Magazine e = empty.poll ();
+          return e != null ? e : new Magazine (magazineSize);
+        }
+      }
+      dropped.add (m.count);
+      m.clear ();
+      return m;
+    }
+
+    public ByteBuffer allocate ()
+    {
+      if (slabSize == 0)
+        return ByteBuffer.allocateDirect (size);
+      synchronized (this)
+      {
+        if (slab == null || slab.remaining () < size)
+          slab = ByteBuffer.allocateDirect (slabSize);
+        final int pos = slab.position ();
+        slab.limit (pos + size);
+        final ByteBuffer b = slab.slice ();
+        slab.limit (slab.capacity ());
+        slab.position (pos + size);
+        return b;
+      }
+    }
+
+    public synchronized void trim ()
+    {
+      for (final Magazine m : full)
+        dropped.add (m.count);
+      full.clear ();
+      empty.clear ();
+      dropped.add (buffers.size ());
+      buffers.clear ();
+      slab = null;
+    }
+
+    public synchronized int getPooled ()
+    {
+      int ret = buffers.size ();
+      for (final Magazine m : full)
+        ret += m.count;
+      return ret;
+    }
+  }
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright (c) 2010 Robert Olofsson.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the authors nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHORS AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE AUTHORS OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package com.helger.rnio.impl;
+
+import java.io.IOException;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.NetworkChannel;
+
+/**
+ * Helper for the SO_REUSEPORT socket option.
+ * <p>
+ * SO_REUSEPORT lets several sockets bind to the same address and port, the
+ * kernel then spreads new connections over the listening sockets. The option
+ * is only available on java 9 and later and only on some platforms so it is
+ * looked up at runtime.
+ *
+ * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
+ */
+public final class ReusePort
+{
+  private static final SocketOption <Boolean> SO_REUSEPORT = findOption ();
+
+  private ReusePort ()
+  {}
+
+  @SuppressWarnings ("unchecked")
+  private static SocketOption <Boolean> findOption ()
+  {
+    try
+    {
+      return (SocketOption <Boolean>) StandardSocketOptions.class.getField ("SO_REUSEPORT").get (null);
+    }
+    catch (final ReflectiveOperationException e)
+    {
+      return null;
+    }
+  }
+
+  /**
+   * Check if the given channel supports SO_REUSEPORT.
+   *
+   * @param channel
+   *        the channel to check
+   * @return true if SO_REUSEPORT can be set on the channel
+   */
+  public static boolean isSupported (final NetworkChannel channel)
+  {
+    return SO_REUSEPORT != null && channel.supportedOptions ().contains (SO_REUSEPORT);
+  }
+
+  /**
+   * Turn on SO_REUSEPORT for the given channel, this has to be done before the
+   * channel is bound.
+   *
+   * @param channel
+   *        the channel to set the option on
+   * @throws IOException
+   *         if the option is not supported or can not be set
+   */
+  public static void enable (final NetworkChannel channel) throws IOException
+  {
+    if (!isSupported (channel))
+      throw new IOException ("SO_REUSEPORT is not supported for: " + channel);
+    channel.setOption (SO_REUSEPORT, Boolean.TRUE);
+  }
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright (c) 2010 Robert Olofsson.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the authors nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHORS AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE AUTHORS OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package com.helger.rnio.impl;
+
+import com.helger.rnio.statistics.SelectorStatistics;
+
+/**
+ * Decides how long a selector thread busy polls before it blocks in select.
+ * <p>
+ * Waking up a selector that is blocked in select costs a system call for the
+ * thread that queues a task and a context switch for the selector thread. With
+ * a spin window the selector instead polls with selectNow and checks its task
+ * queue for up to the spin window before it blocks. While it polls the other
+ * threads do not have to wake it up.
+ * <p>
+ * Polling burns cpu, so each selector has a spin budget, the fraction of wall
+ * clock time it may spend polling. The time is counted over fixed windows of
+ * 100 ms. Once the budget of a window is used up the selector blocks right away
+ * until the next window starts.
+ * <p>
+ * Each selector thread has its own spinner, only the spin window and budget may
+ * be changed from other threads.
+ */
+final class SelectSpinner
+{
+  /** The default fraction of time a selector may spend polling. */
+  public static final double DEFAULT_SPIN_BUDGET = 0.1;
+
+  /** The time over which the spin budget is counted. */
+  private static final long BUDGET_WINDOW_NANOS = 100L * 1000 * 1000;
+
+  private final SelectorStatistics statistics;
+  private volatile long spinWindow = 0;
+  private volatile double spinBudget = DEFAULT_SPIN_BUDGET;
+  private long budgetStart = 0;
+  private long budgetSpent = 0;
+
+  public SelectSpinner (final SelectorStatistics statistics)
+  {
+    this.statistics = statistics;
+  }
+
+  public void setSpinWindow (final long nanos)
+  {
+    if (nanos < 0)
+      throw new IllegalArgumentException ("Spin window may not be negative: " + nanos);
+    spinWindow = nanos;
+  }
+
+  public long getSpinWindow ()
+  {
+    return spinWindow;
+  }
+
+  public void setSpinBudget (final double budget)
+  {
+    if (!(budget > 0 && budget <= 1))
+      throw new IllegalArgumentException ("Spin budget must be in (0, 1]: " + budget);
+    spinBudget = budget;
+  }
+
+  public double getSpinBudget ()
+  {
+    return spinBudget;
+  }
+
+  /**
+   * Get the time to poll before blocking.
+   *
+   * @param now
+   *        the current System.nanoTime
+   * @return the time to poll in nanos, 0 to block right away
+   */
+  public long getSpinNanos (final long now)
+  {
+    final long window = spinWindow;
+    if (window == 0)
+      return 0;
+    if (now - budgetStart >= BUDGET_WINDOW_NANOS)
+    {
+      budgetStart = now;
+      budgetSpent = 0;
+    }
+    final long left = (long) (spinBudget * BUDGET_WINDOW_NANOS) - budgetSpent;
+    if (left <= 0)
+    {
+      statistics.recordSpinBudgetExhausted ();
+      return 0;
+    }
+    return Math.min (window, left);
+  }
+
+  /**
+   * Record one spin.
+   *
+   * @param nanos
+   *        the time spent polling
+   * @param found
+   *        true if polling found ready keys or tasks
+   */
+  public void spun (final long nanos, final boolean found)
+  {
+    budgetSpent += nanos;
+    statistics.recordSpin (nanos, found);
+  }
+}
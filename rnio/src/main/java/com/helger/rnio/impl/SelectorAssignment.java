@@ -0,0 +1,149 @@
+/**
+ * Copyright (c) 2010 Robert Olofsson.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the authors nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHORS AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE AUTHORS OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package com.helger.rnio.impl;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.helger.rnio.statistics.SelectorStatistics;
+
+/**
+ * The built in selector assignment policies.
+ *
+ * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
+ */
+public enum SelectorAssignment implements ISelectorAssignmentPolicy
+{
+  /** Use the selectors in turn, ignoring their load. */
+  ROUND_ROBIN
+  {
+    public int chooseSelector (final List <SelectorStatistics> selectors)
+    {
+      return nextStart (selectors.size ());
+    }
+  },
+
+  /** Use the selector with the fewest channels. */
+  LEAST_CHANNELS
+  {
+    public int chooseSelector (final List <SelectorStatistics> selectors)
+    {
+      final int size = selectors.size ();
+      final int start = nextStart (size);
+      int best = start;
+      int min = Integer.MAX_VALUE;
+      for (int i = 0; i < size; i++)
+      {
+        final int index = (start + i) % size;
+        final int n = selectors.get (index).getNumChannels ();
+        if (n < min)
+        {
+          min = n;
+          best = index;
+        }
+      }
+      return best;
+    }
+  },
+
+  /**
+   * Use the selector with the lowest load. The load of a selector is its number
+   * of channels, scaled up by how busy the selector thread has recently been,
+   * plus its recent selector task backlog. A selector full of idle tunnels is
+   * thus less loaded than one with the same number of busy downloads.
+   */
+  LEAST_LOADED
+  {
+    public int chooseSelector (final List <SelectorStatistics> selectors)
+    {
+      final int size = selectors.size ();
+      final int start = nextStart (size);
+      int best = start;
+      double min = Double.MAX_VALUE;
+      for (int i = 0; i < size; i++)
+      {
+        final int index = (start + i) % size;
+        final double load = getLoad (selectors.get (index));
+        if (load < min)
+        {
+          min = load;
+          best = index;
+        }
+      }
+      return best;
+    }
+  };
+
+  /** How much a fully busy selector multiplies the weight of its channels. */
+  private static final double BUSY_WEIGHT = 4;
+  /** How many channels one queued selector task per loop is worth. */
+  private static final double BACKLOG_WEIGHT = 2;
+
+  private final AtomicInteger next = new AtomicInteger ();
+
+  /**
+   * Get the next position to start searching at, so that selectors with the
+   * same load are used in turn.
+   */
+  protected int nextStart (final int size)
+  {
+    return (next.getAndIncrement () & Integer.MAX_VALUE) % size;
+  }
+
+  /**
+   * Get the load of a selector, as used by {@link #LEAST_LOADED}.
+   *
+   * @param ss
+   *        the statistics of the selector
+   * @return the current load
+   */
+  public static double getLoad (final SelectorStatistics ss)
+  {
+    return ss.getNumChannels () * (1 + BUSY_WEIGHT * ss.getUtilization ()) + BACKLOG_WEIGHT * ss.getBacklog ();
+  }
+
+  /**
+   * Find the policy with the given name, ignoring case and treating '-' as
+   * '_'.
+   *
+   * @param name
+   *        the name of the policy, for instance "least-loaded"
+   * @return the matching policy
+   * @throws IllegalArgumentException
+   *         if no policy has the given name
+   */
+  public static SelectorAssignment getFromName (final String name)
+  {
+    return valueOf (name.trim ().toUpperCase (Locale.US).replace ('-', '_'));
+  }
+}
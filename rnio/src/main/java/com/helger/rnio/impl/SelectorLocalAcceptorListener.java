@@ -0,0 +1,71 @@
+/**
+ * Copyright (c) 2010 Robert Olofsson.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the authors nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHORS AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE AUTHORS OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package com.helger.rnio.impl;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+
+/**
+ * An acceptor listener that keeps the accepted connections on the selector
+ * thread that accepted them.
+ * <p>
+ * This is useful when each selector has its own listening socket, the
+ * connections are then handled by the same thread from the accept and on
+ * without any hand off to other selector threads.
+ *
+ * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
+ */
+public class SelectorLocalAcceptorListener implements IAcceptorListener
+{
+  private final MultiSelectorNioHandler nioHandler;
+  private final IAcceptorListener listener;
+
+  /**
+   * Create a new SelectorLocalAcceptorListener.
+   *
+   * @param nioHandler
+   *        the NioHandler that runs the selectors
+   * @param listener
+   *        the listener that will handle the accepted connections
+   */
+  public SelectorLocalAcceptorListener (final MultiSelectorNioHandler nioHandler, final IAcceptorListener listener)
+  {
+    this.nioHandler = nioHandler;
+    this.listener = listener;
+  }
+
+  public void connectionAccepted (final SocketChannel sc) throws IOException
+  {
+    nioHandler.bindToCurrentSelector (sc);
+    listener.connectionAccepted (sc);
+  }
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright (c) 2010 Robert Olofsson.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the authors nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHORS AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE AUTHORS OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package com.helger.rnio.impl;
+
+import java.util.List;
+
+/**
+ * Decides when busy channels should be moved from one selector to another.
+ * <p>
+ * Each selector thread calls {@link #rebalance(SingleSelectorRunner)} with
+ * itself once every rebalance interval. If the selector is busy and its load,
+ * see {@link SelectorAssignment#getLoad}, is well above the load of the least
+ * loaded selector it moves some of its most active idle channels there.
+ * <p>
+ * This class is thread safe.
+ */
+final class SelectorRebalancer
+{
+  private final List <SingleSelectorRunner> runners;
+  private volatile long interval = 0;
+
+  /** The source load must be this many times the target load. */
+  private static final double IMBALANCE = 1.5;
+  /** Selectors that are less busy than this never move channels. */
+  private static final double MIN_UTILIZATION = 0.25;
+  /** The largest number of channels to move in one rebalance. */
+  private static final int MAX_MOVES = 8;
+
+  /**
+   * Create a new SelectorRebalancer.
+   *
+   * @param runners
+   *        all the selector runners, the list may be filled in after this
+   *        constructor but before the runners are started
+   */
+  public SelectorRebalancer (final List <SingleSelectorRunner> runners)
+  {
+    this.runners = runners;
+  }
+
+  /**
+   * Set the time between rebalances.
+   *
+   * @param interval
+   *        the time between rebalances in millis, 0 to never move channels
+   */
+  public void setInterval (final long interval)
+  {
+    if (interval < 0)
+      throw new IllegalArgumentException ("Rebalance interval may not be negative: " + interval);
+    this.interval = interval;
+  }
+
+  /**
+   * Get the time between rebalances.
+   *
+   * @return the time between rebalances in millis, 0 if channels are never
+   *         moved
+   */
+  public long getInterval ()
+  {
+    return interval;
+  }
+
+  /**
+   * Move channels away from the given runner if it is more loaded than the
+   * others. This must be called on the selector thread of the source.
+   *
+   * @param source
+   *        the runner that is checked
+   * @return the number of moved channels
+   */
+  public int rebalance (final SingleSelectorRunner source)
+  {
+    final double sourceLoad = SelectorAssignment.getLoad (source.getStatistics ());
+    SingleSelectorRunner target = null;
+    double min = sourceLoad;
+    for (final SingleSelectorRunner ssr : runners)
+    {
+      if (ssr == source)
+        continue;
+      final double load = SelectorAssignment.getLoad (ssr.getStatistics ());
+      if (load < min)
+      {
+        min = load;
+        target = ssr;
+      }
+    }
+    double fraction = 0;
+    if (target != null &&
+        source.getStatistics ().getUtilization () >= MIN_UTILIZATION &&
+        sourceLoad > IMBALANCE * min)
+    {
+      // Move half the difference, so that the two end up about equal
+      fraction = (sourceLoad - min) / (2 * sourceLoad);
+    }
+    return source.moveChannels (target, fraction, MAX_MOVES);
+  }
+}
@@ -37,13 +37,18 @@ import java.io.StringWriter;
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -53,6 +58,7 @@ import com.helger.rnio.IReadHandler;
 import com.helger.rnio.ISelectorVisitor;
 import com.helger.rnio.ISocketChannelHandler;
 import com.helger.rnio.IWriteHandler;
+import com.helger.rnio.statistics.SelectorStatistics;
 
 /**
  * A selector handler.
@@ -62,22 +68,51 @@ class SingleSelectorRunner implements Runnable
   private final Selector selector;
   private final AtomicBoolean running = new AtomicBoolean (false);
   private final Logger logger = Logger.getLogger ("org.khelekore.rnio");
-  private final ExecutorService executorService;
+  private final HandlerDispatcher dispatcher;
+  private final SelectSpinner spinner;
+  private final ChannelOwnership channelOwners;
+  private final SelectorRebalancer rebalancer;
+  private final List <ChannelOpsHandler> moveCandidates = new ArrayList<> ();
 
   /** The queue to get back on the main thread. */
-  private final Object returnedTasksLock = new Object ();
-  private List <ISelectorRunnable> returnedTasks1 = new ArrayList<> ();
-  private List <ISelectorRunnable> returnedTasks2 = new ArrayList<> ();
+  private final Queue <ISelectorRunnable> returnedTasks = new ConcurrentLinkedQueue<> ();
+  /**
+   * The number of tasks in returnedTasks, ConcurrentLinkedQueue.size () walks
+   * the whole queue.
+   */
+  private final AtomicInteger queuedTasks = new AtomicInteger ();
+  /**
+   * Set when someone has woken up the selector, cleared just before the
+   * selector thread goes to sleep, only the first task added after that needs
+   * to wake up the selector.
+   */
+  private final AtomicBoolean wakeupPending = new AtomicBoolean (false);
 
-  private Thread selectorThread;
+  /** The timeouts of the channels handled by this selector. */
+  private final TimeoutWheel <ChannelOpsHandler> timeoutWheel;
+  private final List <ChannelOpsHandler> expiredHandlers = new ArrayList<> ();
+
+  private volatile Thread selectorThread;
+
+  /** What this selector has been doing. */
+  private final SelectorStatistics statistics = new SelectorStatistics ();
 
   private int id = 0;
   private static int idSequence = 0;
 
-  public SingleSelectorRunner (final ExecutorService executorService) throws IOException
+  /** How often closed channels are purged from the channel owners. */
+  private static final long PURGE_INTERVAL = 30 * 1000;
+
+  public SingleSelectorRunner (final ExecutorService executorService,
+                               final ChannelOwnership channelOwners,
+                               final SelectorRebalancer rebalancer) throws IOException
   {
     selector = Selector.open ();
-    this.executorService = executorService;
+    dispatcher = new HandlerDispatcher (executorService, statistics);
+    spinner = new SelectSpinner (statistics);
+    this.channelOwners = channelOwners;
+    this.rebalancer = rebalancer;
+    timeoutWheel = new TimeoutWheel<> (System.currentTimeMillis ());
     id = idSequence++;
   }
 
@@ -131,10 +166,7 @@ class SingleSelectorRunner implements Runnable
 
   public boolean isSelectorThread ()
   {
-    synchronized (this)
-    {
-      return selectorThread == Thread.currentThread ();
-    }
+    return selectorThread == Thread.currentThread ();
   }
 
   private interface ChannelOpsUpdater
@@ -163,6 +195,7 @@ class SingleSelectorRunner implements Runnable
         cancelKeyAndCloseChannel (sk);
         coh.closed ();
       }
+      channelOwners.release (channel, this);
       handler.closed ();
       return;
     }
@@ -171,9 +204,10 @@ class SingleSelectorRunner implements Runnable
       logger.fine ("SingleSelectorRunner." + id + ": updating " + "selection key for: " + sk);
     if (sk == null)
     {
-      final ChannelOpsHandler coh = new ChannelOpsHandler ();
+      final ChannelOpsHandler coh = new ChannelOpsHandler (timeoutWheel);
       updater.addHandler (coh);
       sk = channel.register (selector, coh.getInterestOps (), coh);
+      coh.setSelectionKey (sk);
     }
     else
     {
@@ -219,6 +253,8 @@ class SingleSelectorRunner implements Runnable
   public void run ()
   {
     long lastRun = System.currentTimeMillis ();
+    long lastPurge = lastRun;
+    long lastRebalance = lastRun;
     int counter = 0;
     long sleepTime = 100 * 1000; // 100 seconds
     runReturnedTasks ();
@@ -228,7 +264,11 @@ class SingleSelectorRunner implements Runnable
       {
         if (logger.isLoggable (Level.FINEST))
           logger.finest (id + ": going into select: " + sleepTime);
-        selector.select (sleepTime);
+        wakeupPending.set (false);
+        final long beforeSelect = System.nanoTime ();
+        statistics.selectStarted (beforeSelect);
+        select (beforeSelect, sleepTime);
+        final long afterSelect = System.nanoTime ();
         final long now = System.currentTimeMillis ();
         final long diff = now - lastRun;
         if (diff > 100)
@@ -237,15 +277,24 @@ class SingleSelectorRunner implements Runnable
         if (logger.isLoggable (Level.FINEST))
           logger.finest (id + ": after select, time taken: " + diff);
         cancelTimeouts (now);
-        int num = handleSelects ();
+        final long beforeKeys = System.nanoTime ();
+        dispatcher.startLoop ();
+        final int keys = handleSelects ();
+        final long afterKeys = System.nanoTime ();
+        int tasks = 0;
         int rt = 0;
         do
         {
           rt = runReturnedTasks ();
-          num += rt;
+          tasks += rt;
         } while (rt > 0);
-        if (num == 0)
+        if (keys + tasks == 0)
           counter++;
+        statistics.recordLoop (afterSelect - beforeSelect,
+                               keys,
+                               afterKeys - beforeKeys,
+                               tasks,
+                               System.nanoTime () - afterSelect);
 
         if (counter > 100000)
         {
@@ -253,12 +302,25 @@ class SingleSelectorRunner implements Runnable
           counter = 0;
         }
 
-        final Long nextTimeout = findNextTimeout ();
-        if (nextTimeout != null)
-          sleepTime = nextTimeout.longValue () - now;
+        final long nextTimeout = timeoutWheel.getNextDeadline ();
+        if (nextTimeout >= 0)
+          sleepTime = Math.max (1, nextTimeout - now);
         else
           sleepTime = 100 * 1000;
 
+        if (now - lastPurge > PURGE_INTERVAL)
+        {
+          channelOwners.purgeClosed (this);
+          lastPurge = now;
+        }
+
+        final long rebalanceInterval = rebalancer.getInterval ();
+        if (rebalanceInterval > 0 && now - lastRebalance > rebalanceInterval)
+        {
+          rebalancer.rebalance (this);
+          lastRebalance = now;
+        }
+
         lastRun = now;
       }
       catch (final IOException e)
@@ -273,28 +335,43 @@ class SingleSelectorRunner implements Runnable
     }
   }
 
-  private Long findNextTimeout ()
+  /**
+   * Wait for ready keys or tasks. If there are tasks queued this does not wait
+   * at all. Otherwise the selector may first poll for up to the spin window,
+   * and then it blocks for at most sleepTime millis.
+   */
+  private void select (final long started, final long sleepTime) throws IOException
   {
-    Long min = null;
-    for (final SelectionKey sk : selector.keys ())
+    if (!returnedTasks.isEmpty ())
     {
-      final ChannelOpsHandler coh = (ChannelOpsHandler) sk.attachment ();
-      if (coh == null)
-        continue;
-      final Long timeout = coh.getMinimumTimeout ();
-      if (timeout != null)
+      selector.selectNow ();
+      return;
+    }
+    final long spinNanos = spinner.getSpinNanos (started);
+    if (spinNanos > 0)
+    {
+      // No one needs to wake us up while we poll
+      wakeupPending.set (true);
+      final long deadline = started + spinNanos;
+      long now;
+      do
       {
-        if (min != null)
-        {
-          min = min.longValue () < timeout.longValue () ? min : timeout;
-        }
-        else
+        if (selector.selectNow () > 0 || !returnedTasks.isEmpty ())
         {
-          min = timeout;
+          spinner.spun (System.nanoTime () - started, true);
+          return;
         }
+        now = System.nanoTime ();
+      } while (now - deadline < 0);
+      spinner.spun (now - started, false);
+      wakeupPending.set (false);
+      if (!returnedTasks.isEmpty ())
+      {
+        selector.selectNow ();
+        return;
       }
     }
-    return min;
+    selector.select (sleepTime);
   }
 
   private String getStackTrace (final Throwable t)
@@ -314,6 +391,7 @@ class SingleSelectorRunner implements Runnable
    */
   private void tryAvoidSpinning (final int counter, final long now, final long diff) throws IOException
   {
+    statistics.recordSpinEvasion ();
     logger.warning (id +
                     ": Trying to avoid spinning, may close some " +
                     "channels: counter: " +
@@ -362,17 +440,19 @@ class SingleSelectorRunner implements Runnable
 
   private void cancelTimeouts (final long now)
   {
-    for (final SelectionKey sk : selector.keys ())
+    timeoutWheel.expire (now, expiredHandlers);
+    final int s = expiredHandlers.size ();
+    for (int i = 0; i < s; i++)
     {
-      final ChannelOpsHandler coh = (ChannelOpsHandler) sk.attachment ();
-      if (coh == null)
-        continue;
+      final ChannelOpsHandler coh = expiredHandlers.get (i);
       if (coh.doTimeouts (now))
       {
-        if (sk.isValid ())
+        final SelectionKey sk = coh.getSelectionKey ();
+        if (sk != null && sk.isValid ())
           sk.interestOps (coh.getInterestOps ());
       }
     }
+    expiredHandlers.clear ();
   }
 
   /**
@@ -384,10 +464,11 @@ class SingleSelectorRunner implements Runnable
   private void cancelKeyAndCloseChannel (final SelectionKey sk)
   {
     sk.cancel ();
+    @SuppressWarnings ("resource")
+    final SelectableChannel sc = sk.channel ();
+    channelOwners.release (sc, this);
     try
     {
-      @SuppressWarnings ("resource")
-      final SelectableChannel sc = sk.channel ();
       sc.close ();
     }
     catch (final IOException e)
@@ -409,7 +490,7 @@ class SingleSelectorRunner implements Runnable
         logger.finest (id + ": ChanneOpsHandler " + coh);
       if (sk.isValid ())
       {
-        coh.handle (executorService, sk);
+        coh.handle (dispatcher, sk);
       }
       else
       {
@@ -423,20 +504,14 @@ class SingleSelectorRunner implements Runnable
 
   private int runReturnedTasks ()
   {
-    synchronized (returnedTasksLock)
-    {
-      final List <ISelectorRunnable> toRun = returnedTasks1;
-      returnedTasks1 = returnedTasks2;
-      returnedTasks2 = toRun;
-    }
-    final int s = returnedTasks2.size ();
-    if (s > 0 && logger.isLoggable (Level.FINEST))
-      logger.finest (id + ": Selector running " + s + " returned tasks");
-    for (int i = 0; i < s; i++)
+    int s = 0;
+    ISelectorRunnable sr;
+    while ((sr = returnedTasks.poll ()) != null)
     {
+      queuedTasks.decrementAndGet ();
+      s++;
       try
       {
-        final ISelectorRunnable sr = returnedTasks2.get (i);
         if (logger.isLoggable (Level.FINEST))
           logger.finest (id + ": Selector running task " + sr);
         sr.run (this);
@@ -446,40 +521,48 @@ class SingleSelectorRunner implements Runnable
         logger.log (Level.WARNING, "Got exception when running returned task", e);
       }
     }
-    returnedTasks2.clear ();
+    if (s > 0 && logger.isLoggable (Level.FINEST))
+      logger.finest (id + ": Selector ran " + s + " returned tasks");
     return s;
   }
 
+  /**
+   * Run a task on the selector thread. Tasks given from the selector thread
+   * are run directly, other tasks are queued and the selector is woken up
+   * unless someone else has already done so.
+   *
+   * @param sr
+   *        the task to run
+   */
   public void runSelectorTask (final ISelectorRunnable sr)
   {
     if (!running.get ())
     {
-      synchronized (this)
+      if (selectorThread != null)
       {
-        if (selectorThread != null)
-        {
-          final String err = "Trying to add selector task while not running: " + sr;
-          logger.finest (err);
-          return;
-        }
+        final String err = "Trying to add selector task while not running: " + sr;
+        logger.finest (err);
+        return;
       }
     }
 
-    synchronized (returnedTasksLock)
+    if (isSelectorThread ())
     {
-      returnedTasks1.add (sr);
+      try
+      {
+        sr.run (this);
+      }
+      catch (final IOException e)
+      {
+        logger.log (Level.WARNING, "Got exception when running selector task", e);
+      }
+      return;
     }
 
-    synchronized (this)
-    {
+    queuedTasks.incrementAndGet ();
+    returnedTasks.add (sr);
+    if (wakeupPending.compareAndSet (false, true))
       selector.wakeup ();
-    }
-  }
-
-  public boolean handlesChannel (final SelectableChannel channel)
-  {
-    final SelectionKey sk = channel.keyFor (selector);
-    return sk != null;
   }
 
   public void cancel (final SelectableChannel channel, final ISocketChannelHandler handler)
@@ -500,14 +583,136 @@ class SingleSelectorRunner implements Runnable
   {
     final SelectionKey sk = channel.keyFor (selector);
     if (sk == null)
+    {
+      channelOwners.release (channel, this);
       return;
+    }
     final ChannelOpsHandler coh = (ChannelOpsHandler) sk.attachment ();
     cancelKeyAndCloseChannel (sk);
     coh.closed ();
   }
 
+  /**
+   * Start a new activity period for all channels and move the most active
+   * idle channels to the target selector. Channels that are more active than
+   * what is left to move are skipped, moving them would only move the
+   * imbalance. This must be called on the selector thread.
+   *
+   * @param target
+   *        the selector to move channels to, may be null if no channels
+   *        should be moved
+   * @param fraction
+   *        the part of the activity of this selector to move
+   * @param maxMoves
+   *        the largest number of channels to move
+   * @return the number of moved channels
+   */
+  int moveChannels (final SingleSelectorRunner target, final double fraction, final int maxMoves)
+  {
+    long total = 0;
+    for (final SelectionKey sk : selector.keys ())
+    {
+      if (!sk.isValid ())
+        continue;
+      final ChannelOpsHandler coh = (ChannelOpsHandler) sk.attachment ();
+      final int a = coh.rollActivity ();
+      total += a;
+      if (a > 0 && coh.isMovable () && !(sk.channel () instanceof ServerSocketChannel))
+        moveCandidates.add (coh);
+    }
+    int moved = 0;
+    if (target != null && fraction > 0 && total > 0)
+    {
+      moveCandidates.sort (Comparator.comparingInt (ChannelOpsHandler::getLastActivity).reversed ());
+      long left = (long) (total * fraction);
+      for (final ChannelOpsHandler coh : moveCandidates)
+      {
+        if (moved >= maxMoves || left <= 0)
+          break;
+        final int a = coh.getLastActivity ();
+        if (a > left)
+          continue;
+        moveChannel (coh, target);
+        left -= a;
+        moved++;
+      }
+      if (moved > 0 && logger.isLoggable (Level.FINE))
+        logger.fine (id + ": moved " + moved + " channels to " + target);
+    }
+    moveCandidates.clear ();
+    return moved;
+  }
+
+  /**
+   * Move one channel to another selector. The handlers are queued on the
+   * target before the owner changes, so they are installed before any task
+   * that is sent directly to the new owner. Tasks that are already queued on
+   * this selector are forwarded by the MultiSelectorNioHandler.
+   */
+  private void moveChannel (final ChannelOpsHandler coh, final SingleSelectorRunner target)
+  {
+    final SelectionKey sk = coh.getSelectionKey ();
+    @SuppressWarnings ("resource")
+    final SelectableChannel channel = sk.channel ();
+    final ISelectorRunnable installer = coh.detach (channel);
+    sk.cancel ();
+    target.runSelectorTask (ssr -> {
+      ssr.statistics.recordChannelMovedIn ();
+      installer.run (ssr);
+    });
+    channelOwners.move (channel, this, target);
+    statistics.recordChannelMovedOut ();
+  }
+
+  void channelBound ()
+  {
+    statistics.channelBound ();
+  }
+
+  void channelReleased ()
+  {
+    statistics.channelReleased ();
+  }
+
+  /**
+   * Get the number of channels bound to this selector.
+   *
+   * @return the current number of channels
+   */
+  public int getNumChannels ()
+  {
+    return statistics.getNumChannels ();
+  }
+
+  /**
+   * Get the number of tasks waiting to be run on the selector thread.
+   *
+   * @return the current number of queued tasks
+   */
+  public int getQueuedTasks ()
+  {
+    return queuedTasks.get ();
+  }
+
+  SelectorStatistics getStatistics ()
+  {
+    return statistics;
+  }
+
+  HandlerDispatcher getDispatcher ()
+  {
+    return dispatcher;
+  }
+
+  SelectSpinner getSpinner ()
+  {
+    return spinner;
+  }
+
   public void visit (final ISelectorVisitor visitor)
   {
+    statistics.setCurrentState (selector.keys ().size (), queuedTasks.get ());
     visitor.selector (selector);
+    visitor.statistics (statistics);
   }
 }
@@ -45,6 +45,7 @@ class StatisticsCollector implements Runnable
   private final IStatisticsHolder stats;
   private final Runnable realTask;
   private final ITaskIdentifier ti;
+  private final long created = System.nanoTime ();
 
   /**
    * Create a new StatisticsCollector that will update the given
@@ -70,6 +71,7 @@ class StatisticsCollector implements Runnable
   public void run ()
   {
     stats.changeTaskStatusToRunning (ti);
+    final long startedNanos = System.nanoTime ();
     final long started = System.currentTimeMillis ();
     boolean wasOk = false;
     try
@@ -82,6 +84,7 @@ class StatisticsCollector implements Runnable
       final long ended = System.currentTimeMillis ();
       final long diff = ended - started;
       stats.changeTaskStatusToFinished (ti, wasOk, diff);
+      stats.recordLatencies (ti, startedNanos - created, System.nanoTime () - startedNanos);
     }
   }
 }
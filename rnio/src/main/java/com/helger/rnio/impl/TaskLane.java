@@ -0,0 +1,199 @@
+/**
+ * Copyright (c) 2010 Robert Olofsson.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the authors nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHORS AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE AUTHORS OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package com.helger.rnio.impl;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded executor for the background tasks of one task group. Tasks whose
+ * group id starts with the name of the lane run on the threads of the lane,
+ * so a burst of slow tasks in one group can not use up the threads of the
+ * other groups.
+ *
+ * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
+ */
+public class TaskLane
+{
+  private final String name;
+  private final int maxThreads;
+  private final int maxQueued;
+  private final LaneRejectionPolicy rejectionPolicy;
+  private final MeteredExecutorService executor;
+  private final LongAdder rejected = new LongAdder ();
+
+  /**
+   * Create a new TaskLane.
+   *
+   * @param name
+   *        the group id, or group id prefix, of the tasks to run in this lane
+   * @param maxThreads
+   *        the maximum number of tasks to run at the same time
+   * @param maxQueued
+   *        the maximum number of tasks waiting for a thread, 0 for no limit
+   * @param rejectionPolicy
+   *        what to do with tasks when all threads are busy and the queue is
+   *        full
+   */
+  public TaskLane (final String name,
+                   final int maxThreads,
+                   final int maxQueued,
+                   final LaneRejectionPolicy rejectionPolicy)
+  {
+    if (maxThreads < 1)
+      throw new IllegalArgumentException ("Need at least one thread: " + maxThreads);
+    if (maxQueued < 0)
+      throw new IllegalArgumentException ("Negative queue size: " + maxQueued);
+    this.name = name;
+    this.maxThreads = maxThreads;
+    this.maxQueued = maxQueued;
+    this.rejectionPolicy = rejectionPolicy;
+    final BlockingQueue <Runnable> queue = maxQueued > 0 ? new ArrayBlockingQueue<> (maxQueued)
+                                                         : new LinkedBlockingQueue<> ();
+    final ThreadPoolExecutor tpe = new ThreadPoolExecutor (maxThreads, maxThreads, 60, TimeUnit.SECONDS, queue);
+    tpe.allowCoreThreadTimeOut (true);
+    executor = new MeteredExecutorService (tpe, ExecutorStrategy.BOUNDED);
+  }
+
+  /**
+   * Check if a task belongs in this lane. A task matches if its group id is
+   * the name of this lane or if the name is followed by something that is not
+   * a letter or digit, so the lane "ImageHandler" runs the
+   * "ImageHandler.convertImage" tasks.
+   *
+   * @param groupId
+   *        the group id of the task
+   * @return true if the task should run in this lane
+   */
+  public boolean matches (final String groupId)
+  {
+    if (!groupId.startsWith (name))
+      return false;
+    return groupId.length () == name.length () || !Character.isLetterOrDigit (groupId.charAt (name.length ()));
+  }
+
+  /**
+   * Note that the lane could not take a task.
+   */
+  void taskRejected ()
+  {
+    rejected.increment ();
+  }
+
+  /**
+   * Get the name of this lane.
+   *
+   * @return the group id prefix this lane handles
+   */
+  public String getName ()
+  {
+    return name;
+  }
+
+  /**
+   * Get the maximum number of tasks to run at the same time.
+   *
+   * @return the thread limit
+   */
+  public int getMaxThreads ()
+  {
+    return maxThreads;
+  }
+
+  /**
+   * Get the maximum number of tasks that may wait for a thread.
+   *
+   * @return the queue limit, 0 for no limit
+   */
+  public int getMaxQueued ()
+  {
+    return maxQueued;
+  }
+
+  /**
+   * Get the policy for tasks that do not fit.
+   *
+   * @return the rejection policy
+   */
+  public LaneRejectionPolicy getRejectionPolicy ()
+  {
+    return rejectionPolicy;
+  }
+
+  /**
+   * Get the executor that runs the tasks of this lane, with its metrics.
+   *
+   * @return the executor
+   */
+  public MeteredExecutorService getExecutorService ()
+  {
+    return executor;
+  }
+
+  /**
+   * Get the number of tasks that did not fit in this lane and were handled by
+   * the rejection policy.
+   *
+   * @return the number of rejected tasks
+   */
+  public long getRejected ()
+  {
+    return rejected.sum ();
+  }
+
+  /**
+   * Shut down the threads of this lane.
+   */
+  public void shutdown ()
+  {
+    executor.shutdown ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return getClass ().getSimpleName () +
+           "{name: " +
+           name +
+           ", maxThreads: " +
+           maxThreads +
+           ", maxQueued: " +
+           maxQueued +
+           ", rejectionPolicy: " +
+           rejectionPolicy +
+           "}";
+  }
+}
@@ -0,0 +1,176 @@
+/**
+ * Copyright (c) 2010 Robert Olofsson.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the authors nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHORS AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE AUTHORS OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package com.helger.rnio.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.helger.rnio.IStatisticsHolder;
+import com.helger.rnio.ITaskIdentifier;
+
+/**
+ * Routes the background tasks of a NioHandler to TaskLanes based on the group
+ * id of each task. Tasks that do not match any lane run on the shared
+ * executor.
+ *
+ * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
+ */
+public class TaskLanes
+{
+  private static final TaskLane [] NO_LANES = new TaskLane [0];
+
+  private final MeteredExecutorService shared;
+  // Copy on write, sorted with the longest name first so the most specific
+  // lane wins.
+  private volatile TaskLane [] lanes = NO_LANES;
+
+  /**
+   * Create a new TaskLanes that has no lanes yet.
+   *
+   * @param shared
+   *        the executor for tasks that do not belong to any lane
+   */
+  public TaskLanes (final MeteredExecutorService shared)
+  {
+    this.shared = shared;
+  }
+
+  /**
+   * Add a lane. Lanes are normally added before the NioHandler is started, but
+   * it is safe to add them later.
+   *
+   * @param lane
+   *        the new lane
+   */
+  public synchronized void addLane (final TaskLane lane)
+  {
+    final TaskLane [] ls = Arrays.copyOf (lanes, lanes.length + 1);
+    ls[ls.length - 1] = lane;
+    Arrays.sort (ls, Comparator.comparingInt ((final TaskLane l) -> l.getName ().length ()).reversed ());
+    lanes = ls;
+  }
+
+  /**
+   * Find the lane for a task group.
+   *
+   * @param groupId
+   *        the group id of the task
+   * @return the matching lane or null if the task runs on the shared executor
+   */
+  public TaskLane getLane (final String groupId)
+  {
+    for (final TaskLane lane : lanes)
+      if (lane.matches (groupId))
+        return lane;
+    return null;
+  }
+
+  /**
+   * Run a task in its lane and keep the statistics up to date.
+   *
+   * @param r
+   *        the task to run
+   * @param ti
+   *        the identifier of the task
+   * @param stats
+   *        the statistics to update
+   * @throws RejectedExecutionException
+   *         if the lane is full and has the ABORT policy
+   */
+  public void execute (final Runnable r, final ITaskIdentifier ti, final IStatisticsHolder stats)
+  {
+    stats.addPendingTask (ti);
+    final StatisticsCollector sc = new StatisticsCollector (stats, r, ti);
+    final TaskLane lane = lanes.length == 0 ? null : getLane (ti.getGroupId ());
+    if (lane == null)
+    {
+      shared.execute (sc);
+      return;
+    }
+    try
+    {
+      lane.getExecutorService ().execute (sc);
+    }
+    catch (final RejectedExecutionException e)
+    {
+      if (lane.getExecutorService ().isShutdown ())
+        throw e;
+      lane.taskRejected ();
+      switch (lane.getRejectionPolicy ())
+      {
+        case SHARED:
+          shared.execute (sc);
+          break;
+        case CALLER_RUNS:
+          sc.run ();
+          break;
+        default:
+          stats.changeTaskStatusToRunning (ti);
+          stats.changeTaskStatusToFinished (ti, false, 0);
+          throw e;
+      }
+    }
+  }
+
+  /**
+   * Get all the lanes.
+   *
+   * @return an unmodifiable list of the lanes
+   */
+  public List <TaskLane> getLanes ()
+  {
+    return Collections.unmodifiableList (new ArrayList<> (Arrays.asList (lanes)));
+  }
+
+  /**
+   * Get the executor for tasks that are not in any lane.
+   *
+   * @return the shared executor
+   */
+  public MeteredExecutorService getSharedExecutor ()
+  {
+    return shared;
+  }
+
+  /**
+   * Shut down all the lanes, the shared executor is left running.
+   */
+  public void shutdown ()
+  {
+    for (final TaskLane lane : lanes)
+      lane.shutdown ();
+  }
+}
@@ -0,0 +1,285 @@
+/**
+ * Copyright (c) 2010 Robert Olofsson.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the authors nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHORS AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE AUTHORS OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package com.helger.rnio.impl;
+
+import java.util.List;
+
+/**
+ * A hashed timing wheel used by the selector threads to keep track of channel
+ * timeouts.
+ * <p>
+ * Each entry is put in the slot for the tick its deadline falls into. Expiring
+ * entries only walks the slots for the ticks that have passed since the last
+ * call, so the cost depends on the number of expired entries and not on the
+ * number of registered channels. Entries with a deadline further away than one
+ * turn of the wheel simply stay in their slot until their deadline passes.
+ * <p>
+ * Deadlines are rounded up to the end of their tick, so an entry may expire up
+ * to one tick late, but never early.
+ * <p>
+ * This class uses no synchronization, it should only be used from the selector
+ * thread that owns it.
+ *
+ * @param <T>
+ *        the type of the objects that are scheduled
+ */
+final class TimeoutWheel <T>
+{
+  /** The default tick length in millis. */
+  public static final long DEFAULT_TICK_MILLIS = 10;
+  /** The default number of slots, about 40 seconds with the default tick. */
+  public static final int DEFAULT_NUM_SLOTS = 4096;
+
+  /**
+   * One scheduled item in the wheel.
+   *
+   * @param <T>
+   *        the type of the owner
+   */
+  static final class Entry <T>
+  {
+    private final T owner;
+    private long deadline;
+    private Entry <T> prev;
+    private Entry <T> next;
+    private int slot = -1;
+
+    public Entry (final T owner)
+    {
+      this.owner = owner;
+    }
+
+    public T getOwner ()
+    {
+      return owner;
+    }
+
+    public boolean isScheduled ()
+    {
+      return slot >= 0;
+    }
+
+    public long getDeadline ()
+    {
+      return deadline;
+    }
+  }
+
+  private final long tickMillis;
+  private final int mask;
+  private final Entry <T> [] slots;
+  private int size = 0;
+
+  /** All deadlines before the end of this tick have been expired. */
+  private long lastTick;
+  /** A lower bound for the next tick with a non empty slot. */
+  private long nextTickHint;
+
+  /**
+   * Create a new TimeoutWheel using the default tick length and size.
+   *
+   * @param now
+   *        the current time in millis
+   */
+  public TimeoutWheel (final long now)
+  {
+    this (DEFAULT_TICK_MILLIS, DEFAULT_NUM_SLOTS, now);
+  }
+
+  /**
+   * Create a new TimeoutWheel.
+   *
+   * @param tickMillis
+   *        the length of one tick in millis
+   * @param numSlots
+   *        the number of slots, must be a power of two
+   * @param now
+   *        the current time in millis
+   */
+  public TimeoutWheel (final long tickMillis, final int numSlots, final long now)
+  {
+    if (tickMillis <= 0)
+      throw new IllegalArgumentException ("tickMillis must be positive: " + tickMillis);
+    if (numSlots <= 0 || Integer.bitCount (numSlots) != 1)
+      throw new IllegalArgumentException ("numSlots must be a power of two: " + numSlots);
+    this.tickMillis = tickMillis;
+    mask = numSlots - 1;
+    @SuppressWarnings ("unchecked")
+    final Entry <T> [] s = (Entry <T> []) new Entry <?> [numSlots];
+    slots = s;
+    lastTick = now / tickMillis - 1;
+    nextTickHint = lastTick + 1;
+  }
+
+  /**
+   * Get the number of scheduled entries.
+   *
+   * @return the number of entries currently in the wheel
+   */
+  public int size ()
+  {
+    return size;
+  }
+
+  /**
+   * Check if this wheel has any scheduled entries.
+   *
+   * @return true if no entry is scheduled
+   */
+  public boolean isEmpty ()
+  {
+    return size == 0;
+  }
+
+  /**
+   * Schedule an entry. If the entry is already scheduled it will be moved to
+   * the new deadline.
+   *
+   * @param e
+   *        the entry to schedule
+   * @param deadline
+   *        the time in millis when the entry times out
+   */
+  public void schedule (final Entry <T> e, final long deadline)
+  {
+    if (e.slot >= 0)
+    {
+      if (e.deadline == deadline)
+        return;
+      unlink (e);
+    }
+    long tick = deadline / tickMillis;
+    if (tick <= lastTick)
+      tick = lastTick + 1;
+    // The first tick when the slot will be walked
+    final long firstTick = lastTick + 1 + ((tick - lastTick - 1) & mask);
+    if (firstTick < nextTickHint)
+      nextTickHint = firstTick;
+
+    e.deadline = deadline;
+    final int slot = (int) (tick & mask);
+    final Entry <T> head = slots[slot];
+    e.prev = null;
+    e.next = head;
+    if (head != null)
+      head.prev = e;
+    slots[slot] = e;
+    e.slot = slot;
+    size++;
+  }
+
+  /**
+   * Remove an entry from the wheel, does nothing if the entry is not
+   * scheduled.
+   *
+   * @param e
+   *        the entry to remove
+   */
+  public void cancel (final Entry <T> e)
+  {
+    if (e.slot >= 0)
+      unlink (e);
+  }
+
+  private void unlink (final Entry <T> e)
+  {
+    if (e.prev != null)
+      e.prev.next = e.next;
+    else
+      slots[e.slot] = e.next;
+    if (e.next != null)
+      e.next.prev = e.prev;
+    e.prev = null;
+    e.next = null;
+    e.slot = -1;
+    size--;
+  }
+
+  /**
+   * Remove all entries that have a deadline before the given time.
+   *
+   * @param now
+   *        the current time in millis
+   * @param expired
+   *        the list that the owners of the expired entries are added to
+   */
+  public void expire (final long now, final List <T> expired)
+  {
+    final long currentTick = now / tickMillis;
+    // Only walk ticks that have completely passed
+    final long lastDone = currentTick - 1;
+    if (lastDone <= lastTick)
+      return;
+    final long toWalk = Math.min (lastDone - lastTick, slots.length);
+    for (long t = lastTick + 1; t <= lastTick + toWalk; t++)
+    {
+      if (size == 0)
+        break;
+      final int slot = (int) (t & mask);
+      Entry <T> e = slots[slot];
+      while (e != null)
+      {
+        final Entry <T> next = e.next;
+        if (e.deadline < now)
+        {
+          unlink (e);
+          expired.add (e.owner);
+        }
+        e = next;
+      }
+    }
+    lastTick = lastDone;
+  }
+
+  /**
+   * Get the time for the next call to {@link #expire}. The returned time is
+   * the end of the first tick that has scheduled entries, entries in that tick
+   * may have a later deadline if they are more than one turn away.
+   * <p>
+   * This is bounded by the number of slots and amortized constant since
+   * successive calls continue from where the previous call stopped.
+   *
+   * @return the time in millis, or -1 if no entry is scheduled
+   */
+  public long getNextDeadline ()
+  {
+    if (size == 0)
+      return -1;
+    final long first = lastTick + 1;
+    long t = Math.max (nextTickHint, first);
+    final long last = first + slots.length;
+    while (t < last && slots[(int) (t & mask)] == null)
+      t++;
+    nextTickHint = t;
+    return (t + 1) * tickMillis;
+  }
+}
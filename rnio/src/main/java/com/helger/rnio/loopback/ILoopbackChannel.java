@@ -0,0 +1,77 @@
+/**
+ * Copyright (c) 2010 Robert Olofsson.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the authors nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHORS AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE AUTHORS OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package com.helger.rnio.loopback;
+
+/**
+ * A channel that can be registered with a {@link LoopbackSelector}.
+ *
+ * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
+ */
+interface ILoopbackChannel
+{
+  /**
+   * Check which of the given operations that can be done now.
+   *
+   * @param interestOps
+   *        the operations to check
+   * @param now
+   *        the current time in nanos
+   * @return the ready operations
+   */
+  int getReadyOps (int interestOps, long now);
+
+  /**
+   * Get the time when one of the given operations will be ready, for
+   * operations that wait for data or a connection in transit.
+   *
+   * @param interestOps
+   *        the operations to check
+   * @return the time in nanos, or Long.MAX_VALUE if no such time is known
+   */
+  long getNextReadyTime (int interestOps);
+
+  /**
+   * Add a selector to tell when the channel state changes.
+   *
+   * @param selector
+   *        the selector the channel is registered with
+   */
+  void addSelector (LoopbackSelector selector);
+
+  /**
+   * Remove a selector the channel is no longer registered with.
+   *
+   * @param selector
+   *        the selector to remove
+   */
+  void removeSelector (LoopbackSelector selector);
+}
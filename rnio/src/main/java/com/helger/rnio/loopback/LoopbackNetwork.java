@@ -0,0 +1,253 @@
+/**
+ * Copyright (c) 2010 Robert Olofsson.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the authors nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHORS AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE AUTHORS OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package com.helger.rnio.loopback;
+
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The in memory network that loopback channels connect over.
+ * <p>
+ * Every address is local, listening sockets are found by port only. Each
+ * direction of a connection has its own send buffer and link, so the
+ * bandwidth limit is per connection and direction. Data that is written
+ * becomes readable by the peer once it has been sent at the configured
+ * bandwidth and then delayed by the configured latency, connections are
+ * established after one round trip.
+ * <p>
+ * The default network is configured from the system properties
+ * <code>rnio.loopback.latency</code> (one way latency in microseconds),
+ * <code>rnio.loopback.bandwidth</code> (bytes per second, 0 for unlimited)
+ * and <code>rnio.loopback.buffer</code> (the send buffer size in bytes). The
+ * settings may be changed at any time, they are used for data written and
+ * connections made after the change.
+ *
+ * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
+ */
+public final class LoopbackNetwork
+{
+  /** The default size of the buffer for each direction of a connection. */
+  public static final int DEFAULT_BUFFER_SIZE = 128 * 1024;
+
+  private static final int FIRST_EPHEMERAL_PORT = 32768;
+  private static final int LAST_EPHEMERAL_PORT = 60999;
+
+  private static final LoopbackNetwork DEFAULT = createDefault ();
+
+  private final ConcurrentMap <Integer, LoopbackServerSocketChannel> servers = new ConcurrentHashMap<> ();
+  private final AtomicInteger nextPort = new AtomicInteger ();
+  private volatile long latencyNanos = 0;
+  private volatile long bandwidth = 0;
+  private volatile int bufferSize = DEFAULT_BUFFER_SIZE;
+  private final LongAdder connections = new LongAdder ();
+  private final LongAdder bytes = new LongAdder ();
+
+  private static LoopbackNetwork createDefault ()
+  {
+    final LoopbackNetwork ret = new LoopbackNetwork ();
+    ret.setLatency (Long.getLong ("rnio.loopback.latency", 0).longValue ());
+    ret.setBandwidth (Long.getLong ("rnio.loopback.bandwidth", 0).longValue ());
+    ret.setBufferSize (Integer.getInteger ("rnio.loopback.buffer", DEFAULT_BUFFER_SIZE).intValue ());
+    return ret;
+  }
+
+  /**
+   * Get the network used by the channels of the default
+   * {@link LoopbackSelectorProvider}.
+   *
+   * @return the default network
+   */
+  public static LoopbackNetwork getDefault ()
+  {
+    return DEFAULT;
+  }
+
+  /**
+   * Set the one way latency of the network.
+   *
+   * @param micros
+   *        the time, in microseconds, from when data has been sent until the
+   *        peer can read it, 0 for no delay
+   */
+  public void setLatency (final long micros)
+  {
+    if (micros < 0)
+      throw new IllegalArgumentException ("Latency may not be negative: " + micros);
+    latencyNanos = micros * 1000;
+  }
+
+  /**
+   * Get the one way latency of the network.
+   *
+   * @return the latency in microseconds
+   */
+  public long getLatency ()
+  {
+    return latencyNanos / 1000;
+  }
+
+  long getLatencyNanos ()
+  {
+    return latencyNanos;
+  }
+
+  /**
+   * Set the bandwidth of each direction of each connection.
+   *
+   * @param bytesPerSecond
+   *        the bandwidth, 0 for unlimited
+   */
+  public void setBandwidth (final long bytesPerSecond)
+  {
+    if (bytesPerSecond < 0)
+      throw new IllegalArgumentException ("Bandwidth may not be negative: " + bytesPerSecond);
+    bandwidth = bytesPerSecond;
+  }
+
+  /**
+   * Get the bandwidth of each direction of each connection.
+   *
+   * @return the bandwidth in bytes per second, 0 if unlimited
+   */
+  public long getBandwidth ()
+  {
+    return bandwidth;
+  }
+
+  /**
+   * Set the size of the buffer for each direction of new connections. Written
+   * data stays in the buffer until the peer has read it, a full buffer blocks
+   * the writer.
+   *
+   * @param size
+   *        the buffer size in bytes
+   */
+  public void setBufferSize (final int size)
+  {
+    if (size < 1)
+      throw new IllegalArgumentException ("Buffer size must be positive: " + size);
+    bufferSize = size;
+  }
+
+  /**
+   * Get the size of the buffer for each direction of new connections.
+   *
+   * @return the buffer size in bytes
+   */
+  public int getBufferSize ()
+  {
+    return bufferSize;
+  }
+
+  /**
+   * Get the number of connections made over this network.
+   *
+   * @return the number of connections
+   */
+  public long getConnections ()
+  {
+    return connections.sum ();
+  }
+
+  /**
+   * Get the number of bytes written over this network.
+   *
+   * @return the number of bytes
+   */
+  public long getBytes ()
+  {
+    return bytes.sum ();
+  }
+
+  void connectionOpened ()
+  {
+    connections.increment ();
+  }
+
+  void bytesWritten (final int n)
+  {
+    bytes.add (n);
+  }
+
+  /**
+   * Bind a listening channel.
+   *
+   * @param channel
+   *        the channel to bind
+   * @param local
+   *        the address to bind to, may be null, port 0 means any free port
+   * @return the bound address
+   * @throws IOException
+   *         if the port is already in use
+   */
+  InetSocketAddress bind (final LoopbackServerSocketChannel channel,
+                          final InetSocketAddress local) throws IOException
+  {
+    final InetAddress ia = local == null ? new InetSocketAddress (0).getAddress () : local.getAddress ();
+    final int port = local == null ? 0 : local.getPort ();
+    if (port != 0)
+    {
+      if (servers.putIfAbsent (Integer.valueOf (port), channel) != null)
+        throw new BindException ("Address already in use: " + port);
+      return new InetSocketAddress (ia, port);
+    }
+    for (int i = FIRST_EPHEMERAL_PORT; i <= LAST_EPHEMERAL_PORT; i++)
+    {
+      final int p = getEphemeralPort ();
+      if (servers.putIfAbsent (Integer.valueOf (p), channel) == null)
+        return new InetSocketAddress (ia, p);
+    }
+    throw new BindException ("No free ports");
+  }
+
+  void unbind (final int port, final LoopbackServerSocketChannel channel)
+  {
+    servers.remove (Integer.valueOf (port), channel);
+  }
+
+  LoopbackServerSocketChannel getServer (final int port)
+  {
+    return servers.get (Integer.valueOf (port));
+  }
+
+  int getEphemeralPort ()
+  {
+    final int range = LAST_EPHEMERAL_PORT - FIRST_EPHEMERAL_PORT + 1;
+    return FIRST_EPHEMERAL_PORT + Math.floorMod (nextPort.getAndIncrement (), range);
+  }
+}
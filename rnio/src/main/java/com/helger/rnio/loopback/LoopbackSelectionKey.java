@@ -0,0 +1,128 @@
+/**
+ * Copyright (c) 2010 Robert Olofsson.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the authors nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHORS AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE AUTHORS OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package com.helger.rnio.loopback;
+
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.spi.AbstractSelectionKey;
+
+/**
+ * The selection key of a loopback channel.
+ *
+ * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
+ */
+final class LoopbackSelectionKey extends AbstractSelectionKey
+{
+  private final LoopbackSelector selector;
+  private final SelectableChannel channel;
+  private volatile int interestOps;
+  private volatile int readyOps;
+
+  LoopbackSelectionKey (final LoopbackSelector selector, final SelectableChannel channel)
+  {
+    this.selector = selector;
+    this.channel = channel;
+  }
+
+  private void ensureValid ()
+  {
+    if (!isValid ())
+      throw new CancelledKeyException ();
+  }
+
+  @Override
+  public SelectableChannel channel ()
+  {
+    return channel;
+  }
+
+  @Override
+  public Selector selector ()
+  {
+    return selector;
+  }
+
+  ILoopbackChannel getLoopbackChannel ()
+  {
+    return (ILoopbackChannel) channel;
+  }
+
+  @Override
+  public int interestOps ()
+  {
+    ensureValid ();
+    return interestOps;
+  }
+
+  int getInterestOps ()
+  {
+    return interestOps;
+  }
+
+  @Override
+  public SelectionKey interestOps (final int ops)
+  {
+    ensureValid ();
+    if ((ops & ~channel.validOps ()) != 0)
+      throw new IllegalArgumentException ("Invalid interest ops: " + ops);
+    interestOps = ops;
+    return this;
+  }
+
+  @Override
+  public int readyOps ()
+  {
+    ensureValid ();
+    return readyOps;
+  }
+
+  void setReadyOps (final int ops)
+  {
+    readyOps = ops;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return "LoopbackSelectionKey{channel: " +
+           channel +
+           ", interest: " +
+           interestOps +
+           ", ready: " +
+           readyOps +
+           ", valid: " +
+           isValid () +
+           "}";
+  }
+}
@@ -0,0 +1,333 @@
+/**
+ * Copyright (c) 2010 Robert Olofsson.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the authors nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHORS AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE AUTHORS OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package com.helger.rnio.loopback;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.spi.AbstractSelectableChannel;
+import java.nio.channels.spi.AbstractSelector;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A selector for loopback channels.
+ * <p>
+ * Channels signal the selectors they are registered with whenever their
+ * state changes, registration does not wait for a running select. Selecting
+ * checks the ready operations of all keys with interest and, if none is
+ * ready, waits for a signal, a wakeup or until the next data in transit
+ * arrives.
+ *
+ * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
+ */
+final class LoopbackSelector extends AbstractSelector
+{
+  private final Lock lock = new ReentrantLock ();
+  private final Condition changed = lock.newCondition ();
+  private final Set <LoopbackSelectionKey> keys = ConcurrentHashMap.newKeySet ();
+  private final Set <SelectionKey> publicKeys = Collections.unmodifiableSet (keys);
+  private final Set <SelectionKey> selected = new HashSet<> ();
+  private final Set <SelectionKey> publicSelected = new UngrowableSet (selected);
+  private boolean wakeup;
+  private boolean signalled;
+
+  LoopbackSelector (final SelectorProvider provider)
+  {
+    super (provider);
+  }
+
+  @Override
+  protected SelectionKey register (final AbstractSelectableChannel ch, final int ops, final Object att)
+  {
+    if (!isOpen ())
+      throw new ClosedSelectorException ();
+    final LoopbackSelectionKey sk = new LoopbackSelectionKey (this, ch);
+    sk.interestOps (ops);
+    sk.attach (att);
+    keys.add (sk);
+    sk.getLoopbackChannel ().addSelector (this);
+    signal ();
+    return sk;
+  }
+
+  /** Called by the channels when their state changes. */
+  void signal ()
+  {
+    lock.lock ();
+    try
+    {
+      signalled = true;
+      changed.signalAll ();
+    }
+    finally
+    {
+      lock.unlock ();
+    }
+  }
+
+  @Override
+  public Set <SelectionKey> keys ()
+  {
+    if (!isOpen ())
+      throw new ClosedSelectorException ();
+    return publicKeys;
+  }
+
+  @Override
+  public Set <SelectionKey> selectedKeys ()
+  {
+    if (!isOpen ())
+      throw new ClosedSelectorException ();
+    return publicSelected;
+  }
+
+  @Override
+  public int selectNow () throws IOException
+  {
+    return doSelect (0);
+  }
+
+  @Override
+  public int select (final long timeout) throws IOException
+  {
+    if (timeout < 0)
+      throw new IllegalArgumentException ("Negative timeout");
+    return doSelect (timeout == 0 ? -1 : TimeUnit.MILLISECONDS.toNanos (timeout));
+  }
+
+  @Override
+  public int select () throws IOException
+  {
+    return doSelect (-1);
+  }
+
+  /**
+   * Select ready keys.
+   *
+   * @param timeout
+   *        the longest time to wait in nanos, 0 to not wait, -1 to wait until
+   *        a key is ready or the selector is woken up
+   */
+  private int doSelect (final long timeout)
+  {
+    if (!isOpen ())
+      throw new ClosedSelectorException ();
+    processCancelledKeys ();
+    int ret;
+    if (timeout != 0)
+      begin ();
+    try
+    {
+      ret = selectKeys (timeout);
+    }
+    finally
+    {
+      if (timeout != 0)
+        end ();
+    }
+    processCancelledKeys ();
+    return ret;
+  }
+
+  private int selectKeys (final long timeout)
+  {
+    final long deadline = timeout > 0 ? System.nanoTime () + timeout : 0;
+    lock.lock ();
+    try
+    {
+      while (true)
+      {
+        signalled = false;
+        final long now = System.nanoTime ();
+        long next = Long.MAX_VALUE;
+        int ret = 0;
+        for (final LoopbackSelectionKey sk : keys)
+        {
+          final int interest = sk.getInterestOps ();
+          if (interest == 0 || !sk.isValid ())
+            continue;
+          final ILoopbackChannel ch = sk.getLoopbackChannel ();
+          final int ready = ch.getReadyOps (interest, now);
+          if (ready != 0)
+          {
+            if (selected.add (sk))
+            {
+              sk.setReadyOps (ready);
+              ret++;
+            }
+            else
+              if ((sk.readyOps () | ready) != sk.readyOps ())
+              {
+                sk.setReadyOps (sk.readyOps () | ready);
+                ret++;
+              }
+          }
+          else
+          {
+            next = Math.min (next, ch.getNextReadyTime (interest));
+          }
+        }
+        if (ret > 0 || timeout == 0 || wakeup || Thread.currentThread ().isInterrupted () || !isOpen ())
+        {
+          wakeup = false;
+          return ret;
+        }
+        if (deadline != 0)
+        {
+          if (now >= deadline)
+            return 0;
+          next = Math.min (next, deadline);
+        }
+        if (!signalled)
+        {
+          if (next == Long.MAX_VALUE)
+            changed.awaitUninterruptibly ();
+          else
+            changed.awaitNanos (next - now);
+        }
+      }
+    }
+    catch (final InterruptedException e)
+    {
+      Thread.currentThread ().interrupt ();
+      return 0;
+    }
+    finally
+    {
+      lock.unlock ();
+    }
+  }
+
+  /**
+   * Remove the cancelled keys. Keys are cancelled while their channels hold
+   * the key lock, so no lock may be held when the keys are deregistered.
+   */
+  private void processCancelledKeys ()
+  {
+    final Set <SelectionKey> cancelled = cancelledKeys ();
+    final List <SelectionKey> removed;
+    synchronized (cancelled)
+    {
+      if (cancelled.isEmpty ())
+        return;
+      removed = new ArrayList<> (cancelled);
+      cancelled.clear ();
+    }
+    for (final SelectionKey k : removed)
+    {
+      final LoopbackSelectionKey sk = (LoopbackSelectionKey) k;
+      keys.remove (sk);
+      selected.remove (sk);
+      deregister (sk);
+      sk.getLoopbackChannel ().removeSelector (this);
+    }
+  }
+
+  @Override
+  public Selector wakeup ()
+  {
+    lock.lock ();
+    try
+    {
+      wakeup = true;
+      changed.signalAll ();
+    }
+    finally
+    {
+      lock.unlock ();
+    }
+    return this;
+  }
+
+  @Override
+  protected void implCloseSelector () throws IOException
+  {
+    wakeup ();
+    for (final LoopbackSelectionKey sk : keys)
+      sk.cancel ();
+    processCancelledKeys ();
+  }
+
+  /** The selected key set, keys may be removed but not added. */
+  private static final class UngrowableSet extends AbstractSet <SelectionKey>
+  {
+    private final Set <SelectionKey> set;
+
+    UngrowableSet (final Set <SelectionKey> set)
+    {
+      this.set = set;
+    }
+
+    @Override
+    public Iterator <SelectionKey> iterator ()
+    {
+      return set.iterator ();
+    }
+
+    @Override
+    public int size ()
+    {
+      return set.size ();
+    }
+
+    @Override
+    public boolean contains (final Object o)
+    {
+      return set.contains (o);
+    }
+
+    @Override
+    public boolean remove (final Object o)
+    {
+      return set.remove (o);
+    }
+
+    @Override
+    public void clear ()
+    {
+      set.clear ();
+    }
+  }
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright (c) 2010 Robert Olofsson.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the authors nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHORS AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE AUTHORS OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package com.helger.rnio.loopback;
+
+import java.net.ProtocolFamily;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.Pipe;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.spi.AbstractSelector;
+import java.nio.channels.spi.SelectorProvider;
+
+/**
+ * A SelectorProvider whose selectors and socket channels work over an in
+ * memory {@link LoopbackNetwork} instead of the kernel.
+ * <p>
+ * Start the jvm with
+ * <code>-Djava.nio.channels.spi.SelectorProvider=com.helger.rnio.loopback.LoopbackSelectorProvider</code>
+ * to make <code>Selector.open ()</code>, <code>SocketChannel.open ()</code>
+ * and <code>ServerSocketChannel.open ()</code> use the default loopback
+ * network, so that servers and clients built on rnio run unchanged in one jvm
+ * with a repeatable latency and bandwidth. Datagram channels and pipes are not
+ * supported, so name lookups have to be done without them.
+ *
+ * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
+ */
+public class LoopbackSelectorProvider extends SelectorProvider
+{
+  private final LoopbackNetwork network;
+
+  /**
+   * Create a provider for the default loopback network.
+   */
+  public LoopbackSelectorProvider ()
+  {
+    this (LoopbackNetwork.getDefault ());
+  }
+
+  /**
+   * Create a provider for the given loopback network.
+   *
+   * @param network
+   *        the network that channels from this provider connect over
+   */
+  public LoopbackSelectorProvider (final LoopbackNetwork network)
+  {
+    this.network = network;
+  }
+
+  /**
+   * Get the network that channels from this provider connect over.
+   *
+   * @return the loopback network
+   */
+  public LoopbackNetwork getNetwork ()
+  {
+    return network;
+  }
+
+  @Override
+  public DatagramChannel openDatagramChannel ()
+  {
+    throw new UnsupportedOperationException ("Datagram channels are not supported by the loopback network");
+  }
+
+  @Override
+  public DatagramChannel openDatagramChannel (final ProtocolFamily family)
+  {
+    throw new UnsupportedOperationException ("Datagram channels are not supported by the loopback network");
+  }
+
+  @Override
+  public Pipe openPipe ()
+  {
+    throw new UnsupportedOperationException ("Pipes are not supported by the loopback network");
+  }
+
+  @Override
+  public AbstractSelector openSelector ()
+  {
+    return new LoopbackSelector (this);
+  }
+
+  @Override
+  public ServerSocketChannel openServerSocketChannel ()
+  {
+    return new LoopbackServerSocketChannel (this, network);
+  }
+
+  @Override
+  public SocketChannel openSocketChannel ()
+  {
+    return new LoopbackSocketChannel (this, network);
+  }
+}
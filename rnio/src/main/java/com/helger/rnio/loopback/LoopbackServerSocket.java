@@ -0,0 +1,182 @@
+/**
+ * Copyright (c) 2010 Robert Olofsson.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the authors nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHORS AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE AUTHORS OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package com.helger.rnio.loopback;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.IllegalBlockingModeException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * The server socket adaptor of a {@link LoopbackServerSocketChannel}, it
+ * forwards to the channel.
+ *
+ * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
+ */
+final class LoopbackServerSocket extends ServerSocket
+{
+  private final LoopbackServerSocketChannel channel;
+  private int soTimeout;
+
+  LoopbackServerSocket (final LoopbackServerSocketChannel channel) throws IOException
+  {
+    this.channel = channel;
+  }
+
+  private InetSocketAddress getLocal ()
+  {
+    try
+    {
+      return (InetSocketAddress) channel.getLocalAddress ();
+    }
+    catch (final IOException e)
+    {
+      return null;
+    }
+  }
+
+  @Override
+  public ServerSocketChannel getChannel ()
+  {
+    return channel;
+  }
+
+  @Override
+  public void bind (final SocketAddress endpoint) throws IOException
+  {
+    bind (endpoint, 0);
+  }
+
+  @Override
+  public void bind (final SocketAddress endpoint, final int backlog) throws IOException
+  {
+    channel.bind (endpoint, backlog);
+  }
+
+  @Override
+  public Socket accept () throws IOException
+  {
+    if (!channel.isBlocking ())
+      throw new IllegalBlockingModeException ();
+    final SocketChannel sc = channel.accept ();
+    return sc == null ? null : sc.socket ();
+  }
+
+  @Override
+  public InetAddress getInetAddress ()
+  {
+    final InetSocketAddress isa = getLocal ();
+    return isa == null ? null : isa.getAddress ();
+  }
+
+  @Override
+  public int getLocalPort ()
+  {
+    final InetSocketAddress isa = getLocal ();
+    return isa == null ? -1 : isa.getPort ();
+  }
+
+  @Override
+  public SocketAddress getLocalSocketAddress ()
+  {
+    return getLocal ();
+  }
+
+  @Override
+  public synchronized void setSoTimeout (final int timeout) throws SocketException
+  {
+    soTimeout = timeout;
+  }
+
+  @Override
+  public synchronized int getSoTimeout () throws IOException
+  {
+    return soTimeout;
+  }
+
+  @Override
+  public void setReuseAddress (final boolean on) throws SocketException
+  {
+    try
+    {
+      channel.setOption (StandardSocketOptions.SO_REUSEADDR, Boolean.valueOf (on));
+    }
+    catch (final IOException e)
+    {
+      throw new SocketException (e.getMessage ());
+    }
+  }
+
+  @Override
+  public boolean getReuseAddress () throws SocketException
+  {
+    try
+    {
+      return channel.getOption (StandardSocketOptions.SO_REUSEADDR).booleanValue ();
+    }
+    catch (final IOException e)
+    {
+      throw new SocketException (e.getMessage ());
+    }
+  }
+
+  @Override
+  public void close () throws IOException
+  {
+    channel.close ();
+  }
+
+  @Override
+  public boolean isBound ()
+  {
+    return getLocal () != null;
+  }
+
+  @Override
+  public boolean isClosed ()
+  {
+    return !channel.isOpen ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return "LoopbackServerSocket[" + getLocal () + "]";
+  }
+}
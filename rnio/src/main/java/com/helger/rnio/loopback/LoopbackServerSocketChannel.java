@@ -0,0 +1,342 @@
+/**
+ * Copyright (c) 2010 Robert Olofsson.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the authors nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHORS AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE AUTHORS OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package com.helger.rnio.loopback;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.SocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.AlreadyBoundException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NotYetBoundException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+import java.nio.channels.UnsupportedAddressTypeException;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A listening channel on a {@link LoopbackNetwork}. Connections arrive in the
+ * backlog after the network latency.
+ *
+ * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
+ */
+final class LoopbackServerSocketChannel extends ServerSocketChannel implements ILoopbackChannel
+{
+  private static final Set <SocketOption <?>> OPTIONS = createOptions ();
+  private static final int DEFAULT_BACKLOG = 50;
+
+  private final LoopbackNetwork network;
+  private final List <LoopbackSelector> selectors = new CopyOnWriteArrayList<> ();
+  private final Map <SocketOption <?>, Object> options = new HashMap<> ();
+  /** The connections that have not been accepted yet. */
+  private final ArrayDeque <Pending> backlog = new ArrayDeque<> ();
+  private int maxBacklog;
+  private InetSocketAddress local;
+  private ServerSocket socket;
+
+  private static final class Pending
+  {
+    private final LoopbackSocketChannel channel;
+    private final long arrivalTime;
+
+    Pending (final LoopbackSocketChannel channel, final long arrivalTime)
+    {
+      this.channel = channel;
+      this.arrivalTime = arrivalTime;
+    }
+  }
+
+  private static Set <SocketOption <?>> createOptions ()
+  {
+    final Set <SocketOption <?>> ret = new HashSet<> ();
+    ret.add (StandardSocketOptions.SO_RCVBUF);
+    ret.add (StandardSocketOptions.SO_REUSEADDR);
+    return Collections.unmodifiableSet (ret);
+  }
+
+  LoopbackServerSocketChannel (final SelectorProvider provider, final LoopbackNetwork network)
+  {
+    super (provider);
+    this.network = network;
+  }
+
+  private void ensureOpen () throws ClosedChannelException
+  {
+    if (!isOpen ())
+      throw new ClosedChannelException ();
+  }
+
+  @Override
+  public ServerSocketChannel bind (final SocketAddress sa, final int backlogSize) throws IOException
+  {
+    if (sa != null && !(sa instanceof InetSocketAddress))
+      throw new UnsupportedAddressTypeException ();
+    final InetSocketAddress isa = (InetSocketAddress) sa;
+    if (isa != null && isa.isUnresolved ())
+      throw new UnresolvedAddressException ();
+    synchronized (backlog)
+    {
+      ensureOpen ();
+      if (local != null)
+        throw new AlreadyBoundException ();
+      local = network.bind (this, isa);
+      maxBacklog = backlogSize < 1 ? DEFAULT_BACKLOG : backlogSize;
+    }
+    return this;
+  }
+
+  /**
+   * Add a new connection to the backlog.
+   *
+   * @param channel
+   *        the server side of the connection
+   * @param arrivalTime
+   *        the nano time when the connection may be accepted
+   * @return false if the channel is closed or the backlog is full
+   */
+  boolean offer (final LoopbackSocketChannel channel, final long arrivalTime)
+  {
+    synchronized (backlog)
+    {
+      if (!isOpen () || backlog.size () >= maxBacklog)
+        return false;
+      backlog.add (new Pending (channel, arrivalTime));
+      backlog.notifyAll ();
+    }
+    signalSelectors ();
+    return true;
+  }
+
+  @Override
+  public SocketChannel accept () throws IOException
+  {
+    synchronized (backlog)
+    {
+      ensureOpen ();
+      if (local == null)
+        throw new NotYetBoundException ();
+    }
+    if (!isBlocking ())
+      return poll ();
+    SocketChannel sc = null;
+    try
+    {
+      begin ();
+      while (isOpen () && (sc = poll ()) == null)
+      {
+        final long wait;
+        synchronized (backlog)
+        {
+          final Pending p = backlog.peek ();
+          if (p == null)
+          {
+            if (isOpen ())
+              backlog.wait ();
+            continue;
+          }
+          wait = p.arrivalTime - System.nanoTime ();
+        }
+        if (wait > 0)
+          LockSupport.parkNanos (this, wait);
+      }
+    }
+    catch (final InterruptedException e)
+    {
+      Thread.currentThread ().interrupt ();
+    }
+    finally
+    {
+      end (sc != null);
+    }
+    return sc;
+  }
+
+  private SocketChannel poll ()
+  {
+    synchronized (backlog)
+    {
+      final Pending p = backlog.peek ();
+      if (p == null || p.arrivalTime > System.nanoTime ())
+        return null;
+      backlog.poll ();
+      return p.channel;
+    }
+  }
+
+  @Override
+  public ServerSocket socket ()
+  {
+    synchronized (backlog)
+    {
+      if (socket == null)
+      {
+        try
+        {
+          socket = new LoopbackServerSocket (this);
+        }
+        catch (final IOException e)
+        {
+          throw new IllegalStateException ("Failed to create the socket adaptor", e);
+        }
+      }
+      return socket;
+    }
+  }
+
+  @Override
+  public SocketAddress getLocalAddress () throws IOException
+  {
+    ensureOpen ();
+    synchronized (backlog)
+    {
+      return local;
+    }
+  }
+
+  @Override
+  public <T> ServerSocketChannel setOption (final SocketOption <T> name, final T value) throws IOException
+  {
+    if (!OPTIONS.contains (name))
+      throw new UnsupportedOperationException ("'" + name + "' not supported");
+    ensureOpen ();
+    synchronized (backlog)
+    {
+      options.put (name, value);
+    }
+    return this;
+  }
+
+  @Override
+  @SuppressWarnings ("unchecked")
+  public <T> T getOption (final SocketOption <T> name) throws IOException
+  {
+    if (!OPTIONS.contains (name))
+      throw new UnsupportedOperationException ("'" + name + "' not supported");
+    ensureOpen ();
+    synchronized (backlog)
+    {
+      final Object value = options.get (name);
+      if (value != null)
+        return (T) value;
+    }
+    if (name == StandardSocketOptions.SO_RCVBUF)
+      return (T) Integer.valueOf (network.getBufferSize ());
+    return (T) Boolean.FALSE;
+  }
+
+  @Override
+  public Set <SocketOption <?>> supportedOptions ()
+  {
+    return OPTIONS;
+  }
+
+  @Override
+  protected void implCloseSelectableChannel () throws IOException
+  {
+    final List <Pending> pending;
+    synchronized (backlog)
+    {
+      if (local != null)
+        network.unbind (local.getPort (), this);
+      pending = new ArrayList<> (backlog);
+      backlog.clear ();
+      backlog.notifyAll ();
+    }
+    // Connections that were never accepted are closed, the clients see end of
+    // stream
+    for (final Pending p : pending)
+      p.channel.close ();
+    signalSelectors ();
+  }
+
+  @Override
+  protected void implConfigureBlocking (final boolean block) throws IOException
+  {
+    // Nothing to do, the mode is checked on each accept
+  }
+
+  public int getReadyOps (final int interestOps, final long now)
+  {
+    if ((interestOps & SelectionKey.OP_ACCEPT) == 0)
+      return 0;
+    synchronized (backlog)
+    {
+      final Pending p = backlog.peek ();
+      return p != null && p.arrivalTime <= now ? SelectionKey.OP_ACCEPT : 0;
+    }
+  }
+
+  public long getNextReadyTime (final int interestOps)
+  {
+    synchronized (backlog)
+    {
+      final Pending p = backlog.peek ();
+      return p == null ? Long.MAX_VALUE : p.arrivalTime;
+    }
+  }
+
+  public void addSelector (final LoopbackSelector selector)
+  {
+    selectors.add (selector);
+  }
+
+  public void removeSelector (final LoopbackSelector selector)
+  {
+    selectors.remove (selector);
+  }
+
+  private void signalSelectors ()
+  {
+    for (final LoopbackSelector s : selectors)
+      s.signal ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return getClass ().getSimpleName () + "{local: " + local + ", open: " + isOpen () + "}";
+  }
+}
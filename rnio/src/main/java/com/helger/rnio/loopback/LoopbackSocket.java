@@ -0,0 +1,334 @@
+/**
+ * Copyright (c) 2010 Robert Olofsson.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the authors nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHORS AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE AUTHORS OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package com.helger.rnio.loopback;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+
+/**
+ * The socket adaptor of a {@link LoopbackSocketChannel}, it forwards to the
+ * channel.
+ *
+ * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
+ */
+final class LoopbackSocket extends Socket
+{
+  private final LoopbackSocketChannel channel;
+  private int soTimeout;
+
+  LoopbackSocket (final LoopbackSocketChannel channel)
+  {
+    this.channel = channel;
+  }
+
+  private static SocketException toSocketException (final IOException e)
+  {
+    if (e instanceof SocketException)
+      return (SocketException) e;
+    final SocketException se = new SocketException (e.getMessage ());
+    se.initCause (e);
+    return se;
+  }
+
+  private <T> void setChannelOption (final SocketOption <T> name, final T value) throws SocketException
+  {
+    try
+    {
+      channel.setOption (name, value);
+    }
+    catch (final IOException e)
+    {
+      throw toSocketException (e);
+    }
+  }
+
+  private <T> T getChannelOption (final SocketOption <T> name) throws SocketException
+  {
+    try
+    {
+      return channel.getOption (name);
+    }
+    catch (final IOException e)
+    {
+      throw toSocketException (e);
+    }
+  }
+
+  private InetSocketAddress getLocal ()
+  {
+    try
+    {
+      return (InetSocketAddress) channel.getLocalAddress ();
+    }
+    catch (final IOException e)
+    {
+      return null;
+    }
+  }
+
+  private InetSocketAddress getRemote ()
+  {
+    try
+    {
+      return (InetSocketAddress) channel.getRemoteAddress ();
+    }
+    catch (final IOException e)
+    {
+      return null;
+    }
+  }
+
+  @Override
+  public SocketChannel getChannel ()
+  {
+    return channel;
+  }
+
+  @Override
+  public void connect (final SocketAddress endpoint) throws IOException
+  {
+    connect (endpoint, 0);
+  }
+
+  @Override
+  public void connect (final SocketAddress endpoint, final int timeout) throws IOException
+  {
+    channel.connect (endpoint);
+    channel.finishConnect ();
+  }
+
+  @Override
+  public void bind (final SocketAddress bindpoint) throws IOException
+  {
+    channel.bind (bindpoint);
+  }
+
+  @Override
+  public InetAddress getInetAddress ()
+  {
+    final InetSocketAddress isa = getRemote ();
+    return isa == null ? null : isa.getAddress ();
+  }
+
+  @Override
+  public InetAddress getLocalAddress ()
+  {
+    final InetSocketAddress isa = getLocal ();
+    return isa == null ? new InetSocketAddress (0).getAddress () : isa.getAddress ();
+  }
+
+  @Override
+  public int getPort ()
+  {
+    final InetSocketAddress isa = getRemote ();
+    return isa == null ? 0 : isa.getPort ();
+  }
+
+  @Override
+  public int getLocalPort ()
+  {
+    final InetSocketAddress isa = getLocal ();
+    return isa == null ? -1 : isa.getPort ();
+  }
+
+  @Override
+  public SocketAddress getRemoteSocketAddress ()
+  {
+    return getRemote ();
+  }
+
+  @Override
+  public SocketAddress getLocalSocketAddress ()
+  {
+    return getLocal ();
+  }
+
+  @Override
+  public InputStream getInputStream () throws IOException
+  {
+    return Channels.newInputStream (channel);
+  }
+
+  @Override
+  public OutputStream getOutputStream () throws IOException
+  {
+    return Channels.newOutputStream (channel);
+  }
+
+  @Override
+  public void setTcpNoDelay (final boolean on) throws SocketException
+  {
+    setChannelOption (StandardSocketOptions.TCP_NODELAY, Boolean.valueOf (on));
+  }
+
+  @Override
+  public boolean getTcpNoDelay () throws SocketException
+  {
+    return getChannelOption (StandardSocketOptions.TCP_NODELAY).booleanValue ();
+  }
+
+  @Override
+  public void setSoLinger (final boolean on, final int linger) throws SocketException
+  {
+    setChannelOption (StandardSocketOptions.SO_LINGER, Integer.valueOf (on ? linger : -1));
+  }
+
+  @Override
+  public int getSoLinger () throws SocketException
+  {
+    return getChannelOption (StandardSocketOptions.SO_LINGER).intValue ();
+  }
+
+  @Override
+  public synchronized void setSoTimeout (final int timeout) throws SocketException
+  {
+    soTimeout = timeout;
+  }
+
+  @Override
+  public synchronized int getSoTimeout () throws SocketException
+  {
+    return soTimeout;
+  }
+
+  @Override
+  public synchronized void setSendBufferSize (final int size) throws SocketException
+  {
+    setChannelOption (StandardSocketOptions.SO_SNDBUF, Integer.valueOf (size));
+  }
+
+  @Override
+  public synchronized int getSendBufferSize () throws SocketException
+  {
+    return getChannelOption (StandardSocketOptions.SO_SNDBUF).intValue ();
+  }
+
+  @Override
+  public synchronized void setReceiveBufferSize (final int size) throws SocketException
+  {
+    setChannelOption (StandardSocketOptions.SO_RCVBUF, Integer.valueOf (size));
+  }
+
+  @Override
+  public synchronized int getReceiveBufferSize () throws SocketException
+  {
+    return getChannelOption (StandardSocketOptions.SO_RCVBUF).intValue ();
+  }
+
+  @Override
+  public void setKeepAlive (final boolean on) throws SocketException
+  {
+    setChannelOption (StandardSocketOptions.SO_KEEPALIVE, Boolean.valueOf (on));
+  }
+
+  @Override
+  public boolean getKeepAlive () throws SocketException
+  {
+    return getChannelOption (StandardSocketOptions.SO_KEEPALIVE).booleanValue ();
+  }
+
+  @Override
+  public void setReuseAddress (final boolean on) throws SocketException
+  {
+    setChannelOption (StandardSocketOptions.SO_REUSEADDR, Boolean.valueOf (on));
+  }
+
+  @Override
+  public boolean getReuseAddress () throws SocketException
+  {
+    return getChannelOption (StandardSocketOptions.SO_REUSEADDR).booleanValue ();
+  }
+
+  @Override
+  public void shutdownInput () throws IOException
+  {
+    channel.shutdownInput ();
+  }
+
+  @Override
+  public void shutdownOutput () throws IOException
+  {
+    channel.shutdownOutput ();
+  }
+
+  @Override
+  public synchronized void close () throws IOException
+  {
+    channel.close ();
+  }
+
+  @Override
+  public boolean isConnected ()
+  {
+    return channel.isConnected ();
+  }
+
+  @Override
+  public boolean isBound ()
+  {
+    return getLocal () != null;
+  }
+
+  @Override
+  public boolean isClosed ()
+  {
+    return !channel.isOpen ();
+  }
+
+  @Override
+  public boolean isInputShutdown ()
+  {
+    return channel.isInputShutdown ();
+  }
+
+  @Override
+  public boolean isOutputShutdown ()
+  {
+    return channel.isOutputShutdown ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return "LoopbackSocket[" + getRemote () + ", local: " + getLocal () + "]";
+  }
+}
@@ -0,0 +1,496 @@
+/**
+ * Copyright (c) 2010 Robert Olofsson.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the authors nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHORS AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE AUTHORS OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package com.helger.rnio.loopback;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.AlreadyBoundException;
+import java.nio.channels.AlreadyConnectedException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ConnectionPendingException;
+import java.nio.channels.NoConnectionPendingException;
+import java.nio.channels.NotYetConnectedException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+import java.nio.channels.UnsupportedAddressTypeException;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A socket channel that is connected over a {@link LoopbackNetwork}.
+ *
+ * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
+ */
+final class LoopbackSocketChannel extends SocketChannel implements ILoopbackChannel
+{
+  private static final Set <SocketOption <?>> OPTIONS = createOptions ();
+
+  private static final int ST_UNCONNECTED = 0;
+  private static final int ST_PENDING = 1;
+  private static final int ST_CONNECTED = 2;
+
+  private final LoopbackNetwork network;
+  private final Object stateLock = new Object ();
+  private final List <LoopbackSelector> selectors = new CopyOnWriteArrayList<> ();
+  private final Map <SocketOption <?>, Object> options = new HashMap<> ();
+  private volatile int state = ST_UNCONNECTED;
+  private long connectTime;
+  private InetSocketAddress local;
+  private InetSocketAddress remote;
+  private LoopbackStream in;
+  private LoopbackStream out;
+  private volatile boolean inputShutdown;
+  private volatile boolean outputShutdown;
+  private Socket socket;
+
+  private static Set <SocketOption <?>> createOptions ()
+  {
+    final Set <SocketOption <?>> ret = new HashSet<> ();
+    ret.add (StandardSocketOptions.SO_SNDBUF);
+    ret.add (StandardSocketOptions.SO_RCVBUF);
+    ret.add (StandardSocketOptions.SO_KEEPALIVE);
+    ret.add (StandardSocketOptions.SO_REUSEADDR);
+    ret.add (StandardSocketOptions.SO_LINGER);
+    ret.add (StandardSocketOptions.TCP_NODELAY);
+    return Collections.unmodifiableSet (ret);
+  }
+
+  LoopbackSocketChannel (final SelectorProvider provider, final LoopbackNetwork network)
+  {
+    super (provider);
+    this.network = network;
+  }
+
+  /** Create the server side of an accepted connection. */
+  private LoopbackSocketChannel (final SelectorProvider provider,
+                                 final LoopbackNetwork network,
+                                 final InetSocketAddress local,
+                                 final InetSocketAddress remote,
+                                 final LoopbackStream in,
+                                 final LoopbackStream out)
+  {
+    this (provider, network);
+    this.local = local;
+    this.remote = remote;
+    this.in = in;
+    this.out = out;
+    state = ST_CONNECTED;
+  }
+
+  private void ensureOpen () throws ClosedChannelException
+  {
+    if (!isOpen ())
+      throw new ClosedChannelException ();
+  }
+
+  private void ensureConnected () throws ClosedChannelException
+  {
+    ensureOpen ();
+    if (state != ST_CONNECTED)
+      throw new NotYetConnectedException ();
+  }
+
+  private static InetSocketAddress checkAddress (final SocketAddress sa)
+  {
+    if (!(sa instanceof InetSocketAddress))
+      throw new UnsupportedAddressTypeException ();
+    final InetSocketAddress isa = (InetSocketAddress) sa;
+    if (isa.isUnresolved ())
+      throw new UnresolvedAddressException ();
+    return isa;
+  }
+
+  private static InetAddress getReportedAddress (final InetAddress ia)
+  {
+    return ia == null || ia.isAnyLocalAddress () ? InetAddress.getLoopbackAddress () : ia;
+  }
+
+  @Override
+  public SocketChannel bind (final SocketAddress sa) throws IOException
+  {
+    synchronized (stateLock)
+    {
+      ensureOpen ();
+      if (state == ST_PENDING)
+        throw new ConnectionPendingException ();
+      if (state == ST_CONNECTED)
+        throw new AlreadyConnectedException ();
+      if (local != null)
+        throw new AlreadyBoundException ();
+      final InetSocketAddress isa = sa == null ? new InetSocketAddress (0) : checkAddress (sa);
+      final int port = isa.getPort () == 0 ? network.getEphemeralPort () : isa.getPort ();
+      local = new InetSocketAddress (getReportedAddress (isa.getAddress ()), port);
+    }
+    return this;
+  }
+
+  @Override
+  public boolean connect (final SocketAddress sa) throws IOException
+  {
+    final InetSocketAddress isa = checkAddress (sa);
+    final long now;
+    synchronized (stateLock)
+    {
+      ensureOpen ();
+      if (state == ST_PENDING)
+        throw new ConnectionPendingException ();
+      if (state == ST_CONNECTED)
+        throw new AlreadyConnectedException ();
+      final LoopbackServerSocketChannel server = network.getServer (isa.getPort ());
+      if (server == null)
+        throw new ConnectException ("Connection refused: " + isa);
+      if (local == null)
+        local = new InetSocketAddress (InetAddress.getLoopbackAddress (), network.getEphemeralPort ());
+      final LoopbackStream up = new LoopbackStream (network);
+      final LoopbackStream down = new LoopbackStream (network);
+      final InetSocketAddress serverAddress = new InetSocketAddress (getReportedAddress (isa.getAddress ()),
+                                                                     isa.getPort ());
+      final LoopbackSocketChannel peer = new LoopbackSocketChannel (server.provider (),
+                                                                    network,
+                                                                    serverAddress,
+                                                                    local,
+                                                                    up,
+                                                                    down);
+      up.setEnds (this, peer);
+      down.setEnds (peer, this);
+      now = System.nanoTime ();
+      final long latency = network.getLatencyNanos ();
+      if (!server.offer (peer, now + latency))
+        throw new ConnectException ("Connection refused: " + isa);
+      network.connectionOpened ();
+      in = down;
+      out = up;
+      remote = serverAddress;
+      connectTime = now + 2 * latency;
+      state = ST_PENDING;
+    }
+    if (connectTime <= now)
+    {
+      state = ST_CONNECTED;
+      return true;
+    }
+    if (isBlocking ())
+      return finishConnect ();
+    return false;
+  }
+
+  @Override
+  public boolean finishConnect () throws IOException
+  {
+    synchronized (stateLock)
+    {
+      ensureOpen ();
+      if (state == ST_CONNECTED)
+        return true;
+      if (state != ST_PENDING)
+        throw new NoConnectionPendingException ();
+    }
+    if (isBlocking ())
+    {
+      boolean completed = false;
+      try
+      {
+        begin ();
+        long left;
+        while ((left = connectTime - System.nanoTime ()) > 0 && isOpen () && !Thread.currentThread ().isInterrupted ())
+          LockSupport.parkNanos (this, left);
+        completed = left <= 0 && isOpen ();
+      }
+      finally
+      {
+        end (completed);
+      }
+    }
+    if (System.nanoTime () < connectTime)
+      return false;
+    state = ST_CONNECTED;
+    return true;
+  }
+
+  @Override
+  public boolean isConnected ()
+  {
+    return state == ST_CONNECTED;
+  }
+
+  @Override
+  public boolean isConnectionPending ()
+  {
+    return state == ST_PENDING;
+  }
+
+  @Override
+  public SocketChannel shutdownInput () throws IOException
+  {
+    ensureConnected ();
+    if (!inputShutdown)
+    {
+      inputShutdown = true;
+      in.closeReader ();
+    }
+    return this;
+  }
+
+  @Override
+  public SocketChannel shutdownOutput () throws IOException
+  {
+    ensureConnected ();
+    if (!outputShutdown)
+    {
+      outputShutdown = true;
+      out.shutdownOutput ();
+    }
+    return this;
+  }
+
+  boolean isInputShutdown ()
+  {
+    return inputShutdown;
+  }
+
+  boolean isOutputShutdown ()
+  {
+    return outputShutdown;
+  }
+
+  @Override
+  public Socket socket ()
+  {
+    synchronized (stateLock)
+    {
+      if (socket == null)
+        socket = new LoopbackSocket (this);
+      return socket;
+    }
+  }
+
+  @Override
+  public SocketAddress getLocalAddress () throws IOException
+  {
+    ensureOpen ();
+    synchronized (stateLock)
+    {
+      return local;
+    }
+  }
+
+  @Override
+  public SocketAddress getRemoteAddress () throws IOException
+  {
+    ensureOpen ();
+    synchronized (stateLock)
+    {
+      return remote;
+    }
+  }
+
+  @Override
+  public <T> SocketChannel setOption (final SocketOption <T> name, final T value) throws IOException
+  {
+    if (!OPTIONS.contains (name))
+      throw new UnsupportedOperationException ("'" + name + "' not supported");
+    ensureOpen ();
+    synchronized (stateLock)
+    {
+      options.put (name, value);
+    }
+    return this;
+  }
+
+  @Override
+  @SuppressWarnings ("unchecked")
+  public <T> T getOption (final SocketOption <T> name) throws IOException
+  {
+    if (!OPTIONS.contains (name))
+      throw new UnsupportedOperationException ("'" + name + "' not supported");
+    ensureOpen ();
+    synchronized (stateLock)
+    {
+      final Object value = options.get (name);
+      if (value != null)
+        return (T) value;
+    }
+    if (name == StandardSocketOptions.SO_SNDBUF || name == StandardSocketOptions.SO_RCVBUF)
+      return (T) Integer.valueOf (network.getBufferSize ());
+    if (name == StandardSocketOptions.SO_LINGER)
+      return (T) Integer.valueOf (-1);
+    return (T) Boolean.FALSE;
+  }
+
+  @Override
+  public Set <SocketOption <?>> supportedOptions ()
+  {
+    return OPTIONS;
+  }
+
+  @Override
+  public int read (final ByteBuffer dst) throws IOException
+  {
+    return (int) read (new ByteBuffer [] { dst }, 0, 1);
+  }
+
+  @Override
+  public long read (final ByteBuffer [] dsts, final int offset, final int length) throws IOException
+  {
+    ensureConnected ();
+    if (inputShutdown)
+      return -1;
+    if (!isBlocking ())
+      return in.read (dsts, offset, length, false);
+    long n = 0;
+    try
+    {
+      begin ();
+      n = in.read (dsts, offset, length, true);
+    }
+    finally
+    {
+      end (n > 0);
+    }
+    return n;
+  }
+
+  @Override
+  public int write (final ByteBuffer src) throws IOException
+  {
+    return (int) write (new ByteBuffer [] { src }, 0, 1);
+  }
+
+  @Override
+  public long write (final ByteBuffer [] srcs, final int offset, final int length) throws IOException
+  {
+    ensureConnected ();
+    if (outputShutdown)
+      throw new ClosedChannelException ();
+    if (!isBlocking ())
+      return out.write (srcs, offset, length, false);
+    long n = 0;
+    try
+    {
+      begin ();
+      n = out.write (srcs, offset, length, true);
+    }
+    finally
+    {
+      end (n > 0);
+    }
+    return n;
+  }
+
+  @Override
+  protected void implCloseSelectableChannel () throws IOException
+  {
+    synchronized (stateLock)
+    {
+      if (out != null)
+        out.shutdownOutput ();
+      if (in != null)
+        in.closeReader ();
+    }
+    signalSelectors ();
+  }
+
+  @Override
+  protected void implConfigureBlocking (final boolean block) throws IOException
+  {
+    // Nothing to do, the mode is checked on each operation
+  }
+
+  public int getReadyOps (final int interestOps, final long now)
+  {
+    if (!isOpen ())
+      return 0;
+    int ret = 0;
+    final int s = state;
+    if (s == ST_PENDING)
+    {
+      if ((interestOps & SelectionKey.OP_CONNECT) != 0 && now >= connectTime)
+        ret |= SelectionKey.OP_CONNECT;
+    }
+    else
+      if (s == ST_CONNECTED)
+      {
+        if ((interestOps & SelectionKey.OP_READ) != 0 && (inputShutdown || in.isReadable (now)))
+          ret |= SelectionKey.OP_READ;
+        if ((interestOps & SelectionKey.OP_WRITE) != 0 && (outputShutdown || out.isWritable ()))
+          ret |= SelectionKey.OP_WRITE;
+      }
+    return ret;
+  }
+
+  public long getNextReadyTime (final int interestOps)
+  {
+    final int s = state;
+    if (s == ST_PENDING && (interestOps & SelectionKey.OP_CONNECT) != 0)
+      return connectTime;
+    if (s == ST_CONNECTED && (interestOps & SelectionKey.OP_READ) != 0)
+      return in.getNextArrival ();
+    return Long.MAX_VALUE;
+  }
+
+  public void addSelector (final LoopbackSelector selector)
+  {
+    selectors.add (selector);
+  }
+
+  public void removeSelector (final LoopbackSelector selector)
+  {
+    selectors.remove (selector);
+  }
+
+  void signalSelectors ()
+  {
+    for (final LoopbackSelector s : selectors)
+      s.signal ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return getClass ().getSimpleName () + "{local: " + local + ", remote: " + remote + ", open: " + isOpen () + "}";
+  }
+}
@@ -0,0 +1,393 @@
+/**
+ * Copyright (c) 2010 Robert Olofsson.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the authors nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHORS AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE AUTHORS OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package com.helger.rnio.loopback;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One direction of a loopback connection, a bounded byte ring where written
+ * data becomes readable once it has arrived.
+ * <p>
+ * Each write is sent over the link at the bandwidth of the network and then
+ * delayed by the latency, the arrival times are kept as marks over the
+ * written bytes. Without latency and bandwidth limit data is readable at
+ * once and no marks are used.
+ *
+ * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
+ */
+final class LoopbackStream
+{
+  private final LoopbackNetwork network;
+  private final Lock lock = new ReentrantLock ();
+  private final Condition changed = lock.newCondition ();
+  private final byte [] data;
+  private LoopbackSocketChannel writer;
+  private LoopbackSocketChannel reader;
+
+  /** Total number of bytes written, read and arrived. */
+  private long written;
+  private long read;
+  private long arrived;
+
+  /** Arrival marks: bytes up to markEnd are readable at markTime. */
+  private long [] markEnd = new long [16];
+  private long [] markTime = new long [16];
+  private int markHead;
+  private int markCount;
+  private long linkFreeAt;
+
+  private boolean eof;
+  private long eofTime;
+  private boolean readerClosed;
+
+  LoopbackStream (final LoopbackNetwork network)
+  {
+    this.network = network;
+    data = new byte [network.getBufferSize ()];
+  }
+
+  void setEnds (final LoopbackSocketChannel writer, final LoopbackSocketChannel reader)
+  {
+    this.writer = writer;
+    this.reader = reader;
+  }
+
+  private long getArrivalTime (final long now, final int n)
+  {
+    final long bw = network.getBandwidth ();
+    long sent = now;
+    if (bw > 0)
+    {
+      sent = Math.max (now, linkFreeAt) + n * 1000000000L / bw;
+      linkFreeAt = sent;
+    }
+    return sent + network.getLatencyNanos ();
+  }
+
+  private void addMark (final long end, final long time)
+  {
+    if (markCount == markEnd.length)
+    {
+      final long [] ne = new long [markEnd.length * 2];
+      final long [] nt = new long [markEnd.length * 2];
+      for (int i = 0; i < markCount; i++)
+      {
+        final int j = (markHead + i) % markEnd.length;
+        ne[i] = markEnd[j];
+        nt[i] = markTime[j];
+      }
+      markEnd = ne;
+      markTime = nt;
+      markHead = 0;
+    }
+    final int j = (markHead + markCount) % markEnd.length;
+    markEnd[j] = end;
+    markTime[j] = time;
+    markCount++;
+  }
+
+  private void updateArrived (final long now)
+  {
+    while (markCount > 0 && markTime[markHead] <= now)
+    {
+      arrived = markEnd[markHead];
+      markHead = (markHead + 1) % markEnd.length;
+      markCount--;
+    }
+  }
+
+  private boolean isEofArrived (final long now)
+  {
+    return eof && arrived == written && eofTime <= now;
+  }
+
+  private int copyIn (final ByteBuffer src, final int max)
+  {
+    final int n = Math.min (src.remaining (), max);
+    final int pos = (int) (written % data.length);
+    final int first = Math.min (n, data.length - pos);
+    src.get (data, pos, first);
+    if (first < n)
+      src.get (data, 0, n - first);
+    written += n;
+    return n;
+  }
+
+  private int copyOut (final ByteBuffer dst, final int max)
+  {
+    final int n = Math.min (dst.remaining (), max);
+    final int pos = (int) (read % data.length);
+    final int first = Math.min (n, data.length - pos);
+    dst.put (data, pos, first);
+    if (first < n)
+      dst.put (data, 0, n - first);
+    read += n;
+    return n;
+  }
+
+  /**
+   * Write as much as fits in the buffer.
+   *
+   * @param srcs
+   *        the buffers to write from
+   * @param offset
+   *        the first buffer to use
+   * @param length
+   *        the number of buffers to use
+   * @param blocking
+   *        if true wait until something could be written
+   * @return the number of bytes written
+   * @throws IOException
+   *         if the reader has closed its end or the output has been shut down
+   */
+  long write (final ByteBuffer [] srcs, final int offset, final int length, final boolean blocking) throws IOException
+  {
+    long ret = 0;
+    lock.lock ();
+    try
+    {
+      while (true)
+      {
+        if (eof)
+          throw new ClosedChannelException ();
+        if (readerClosed)
+          throw new IOException ("Connection reset by peer");
+        final int free = data.length - (int) (written - read);
+        if (free > 0 || !blocking)
+        {
+          int left = free;
+          for (int i = offset; i < offset + length && left > 0; i++)
+          {
+            final int n = copyIn (srcs[i], left);
+            left -= n;
+            ret += n;
+          }
+          break;
+        }
+        if (!await (0))
+          return 0;
+      }
+      if (ret == 0)
+        return 0;
+      final long now = System.nanoTime ();
+      final long time = getArrivalTime (now, (int) ret);
+      if (time <= now && markCount == 0)
+        arrived = written;
+      else
+        addMark (written, time);
+      changed.signalAll ();
+    }
+    finally
+    {
+      lock.unlock ();
+    }
+    network.bytesWritten ((int) ret);
+    reader.signalSelectors ();
+    return ret;
+  }
+
+  /**
+   * Read the data that has arrived.
+   *
+   * @param dsts
+   *        the buffers to read into
+   * @param offset
+   *        the first buffer to use
+   * @param length
+   *        the number of buffers to use
+   * @param blocking
+   *        if true wait until some data or the end of the stream has arrived
+   * @return the number of bytes read, -1 at the end of the stream or if the
+   *         reader has been closed
+   */
+  long read (final ByteBuffer [] dsts, final int offset, final int length, final boolean blocking)
+  {
+    long ret = 0;
+    lock.lock ();
+    try
+    {
+      while (true)
+      {
+        if (readerClosed)
+          return -1;
+        final long now = System.nanoTime ();
+        updateArrived (now);
+        final int available = (int) (arrived - read);
+        if (available > 0)
+        {
+          int left = available;
+          for (int i = offset; i < offset + length && left > 0; i++)
+          {
+            final int n = copyOut (dsts[i], left);
+            left -= n;
+            ret += n;
+          }
+          break;
+        }
+        if (isEofArrived (now))
+          return -1;
+        if (!blocking || !await (getNextArrival ()))
+          return 0;
+      }
+      if (ret == 0)
+        return 0;
+      changed.signalAll ();
+    }
+    finally
+    {
+      lock.unlock ();
+    }
+    writer.signalSelectors ();
+    return ret;
+  }
+
+  /**
+   * Wait for a change or until the given time.
+   *
+   * @param until
+   *        the nano time to wait until, Long.MAX_VALUE or 0 to wait for a
+   *        change
+   * @return false if the thread was interrupted
+   */
+  private boolean await (final long until)
+  {
+    try
+    {
+      if (until == 0 || until == Long.MAX_VALUE)
+        changed.await ();
+      else
+        changed.awaitNanos (until - System.nanoTime ());
+      return true;
+    }
+    catch (final InterruptedException e)
+    {
+      Thread.currentThread ().interrupt ();
+      return false;
+    }
+  }
+
+  /** The writer will not write any more, the reader gets end of stream. */
+  void shutdownOutput ()
+  {
+    lock.lock ();
+    try
+    {
+      if (eof)
+        return;
+      eof = true;
+      eofTime = getArrivalTime (System.nanoTime (), 0);
+      changed.signalAll ();
+    }
+    finally
+    {
+      lock.unlock ();
+    }
+    reader.signalSelectors ();
+  }
+
+  /** The reader has closed its end, unread data is dropped. */
+  void closeReader ()
+  {
+    lock.lock ();
+    try
+    {
+      if (readerClosed)
+        return;
+      readerClosed = true;
+      read = written;
+      arrived = written;
+      markCount = 0;
+      changed.signalAll ();
+    }
+    finally
+    {
+      lock.unlock ();
+    }
+    writer.signalSelectors ();
+  }
+
+  boolean isReadable (final long now)
+  {
+    lock.lock ();
+    try
+    {
+      if (readerClosed)
+        return true;
+      updateArrived (now);
+      return arrived > read || isEofArrived (now);
+    }
+    finally
+    {
+      lock.unlock ();
+    }
+  }
+
+  boolean isWritable ()
+  {
+    lock.lock ();
+    try
+    {
+      return readerClosed || written - read < data.length;
+    }
+    finally
+    {
+      lock.unlock ();
+    }
+  }
+
+  /**
+   * Get the time when more data or the end of stream arrives.
+   *
+   * @return the time in nanos, Long.MAX_VALUE if nothing is in transit
+   */
+  long getNextArrival ()
+  {
+    lock.lock ();
+    try
+    {
+      if (markCount > 0)
+        return markTime[markHead];
+      if (eof && eofTime > System.nanoTime ())
+        return eofTime;
+      return Long.MAX_VALUE;
+    }
+    finally
+    {
+      lock.unlock ();
+    }
+  }
+}
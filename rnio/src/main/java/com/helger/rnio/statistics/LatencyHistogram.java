@@ -0,0 +1,212 @@
+/**
+ * Copyright (c) 2010 Robert Olofsson.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the authors nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHORS AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE AUTHORS OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package com.helger.rnio.statistics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size histogram of latencies with log linear buckets.
+ * <p>
+ * Values below 64 ns are recorded exactly, larger values are put in one of
+ * 32 buckets for each power of two so that the relative error of a reported
+ * percentile is at most about 3%. Values larger than about 18 minutes are
+ * recorded as the largest value.
+ * <p>
+ * Recording is thread safe and does not allocate. Histograms can be copied
+ * and merged.
+ *
+ * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
+ */
+public final class LatencyHistogram
+{
+  /** The number of bits used for the sub buckets. */
+  private static final int SUB_BITS = 5;
+  private static final int SUB_COUNT = 1 << SUB_BITS;
+  /** The highest bit of a recordable value. */
+  private static final int MAX_BIT = 39;
+  private static final long MAX_VALUE = (1L << (MAX_BIT + 1)) - 1;
+  private static final int NUM_BUCKETS = getIndex (MAX_VALUE) + 1;
+
+  private final AtomicLongArray counts = new AtomicLongArray (NUM_BUCKETS);
+  private final AtomicLong total = new AtomicLong ();
+  private final AtomicLong max = new AtomicLong ();
+
+  /**
+   * Get the bucket for a value.
+   */
+  private static int getIndex (final long value)
+  {
+    if (value < 2 * SUB_COUNT)
+      return (int) value;
+    final int shift = 63 - Long.numberOfLeadingZeros (value) - SUB_BITS;
+    return (int) ((shift + 1) * SUB_COUNT + (value >>> shift) - SUB_COUNT);
+  }
+
+  /**
+   * Get the largest value that is recorded in a bucket.
+   */
+  private static long getHighestValue (final int index)
+  {
+    if (index < 2 * SUB_COUNT)
+      return index;
+    final int shift = index / SUB_COUNT - 1;
+    final long sub = index % SUB_COUNT + SUB_COUNT;
+    return ((sub + 1) << shift) - 1;
+  }
+
+  /**
+   * Record one value.
+   *
+   * @param nanos
+   *        the latency to record, negative values are recorded as 0
+   */
+  public void record (final long nanos)
+  {
+    final long v = nanos < 0 ? 0 : Math.min (nanos, MAX_VALUE);
+    counts.incrementAndGet (getIndex (v));
+    total.addAndGet (v);
+    long m = max.get ();
+    while (v > m && !max.compareAndSet (m, v))
+      m = max.get ();
+  }
+
+  /**
+   * Add all the values recorded in another histogram to this one.
+   *
+   * @param other
+   *        the histogram to merge into this one
+   */
+  public void add (final LatencyHistogram other)
+  {
+    for (int i = 0; i < NUM_BUCKETS; i++)
+    {
+      final long c = other.counts.get (i);
+      if (c > 0)
+        counts.addAndGet (i, c);
+    }
+    total.addAndGet (other.total.get ());
+    final long om = other.max.get ();
+    long m = max.get ();
+    while (om > m && !max.compareAndSet (m, om))
+      m = max.get ();
+  }
+
+  /**
+   * Get a copy of this histogram. Values recorded while copying may or may
+   * not be part of the copy.
+   *
+   * @return a new histogram with the same values as this one
+   */
+  public LatencyHistogram copy ()
+  {
+    final LatencyHistogram ret = new LatencyHistogram ();
+    ret.add (this);
+    return ret;
+  }
+
+  /**
+   * Get the number of recorded values.
+   *
+   * @return the number of values
+   */
+  public long getCount ()
+  {
+    long c = 0;
+    for (int i = 0; i < NUM_BUCKETS; i++)
+      c += counts.get (i);
+    return c;
+  }
+
+  /**
+   * Get the largest recorded value.
+   *
+   * @return the largest value in nanoseconds
+   */
+  public long getMax ()
+  {
+    return max.get ();
+  }
+
+  /**
+   * Get the average of the recorded values.
+   *
+   * @return the mean value in nanoseconds, 0 if nothing has been recorded
+   */
+  public long getMean ()
+  {
+    final long c = getCount ();
+    return c == 0 ? 0 : total.get () / c;
+  }
+
+  /**
+   * Get the value that the given percentage of the recorded values are at or
+   * below.
+   *
+   * @param percentile
+   *        the percentile to get, for instance 99.9
+   * @return the value in nanoseconds, this is the highest value that is
+   *         recorded in the same bucket, 0 if nothing has been recorded
+   */
+  public long getValueAtPercentile (final double percentile)
+  {
+    final long c = getCount ();
+    if (c == 0)
+      return 0;
+    final double p = Math.min (100, Math.max (0, percentile));
+    final long target = Math.max (1, (long) Math.ceil (p / 100 * c));
+    long seen = 0;
+    for (int i = 0; i < NUM_BUCKETS; i++)
+    {
+      seen += counts.get (i);
+      if (seen >= target)
+        return Math.min (getHighestValue (i), max.get ());
+    }
+    return max.get ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return getClass ().getSimpleName () +
+           "{count: " +
+           getCount () +
+           ", p50: " +
+           TimeUnit.NANOSECONDS.toMicros (getValueAtPercentile (50)) +
+           " us, p99: " +
+           TimeUnit.NANOSECONDS.toMicros (getValueAtPercentile (99)) +
+           " us, max: " +
+           TimeUnit.NANOSECONDS.toMicros (getMax ()) +
+           " us}";
+  }
+}
@@ -0,0 +1,489 @@
+/**
+ * Copyright (c) 2010 Robert Olofsson.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the authors nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHORS AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE AUTHORS OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package com.helger.rnio.statistics;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Information about what one selector thread has been doing.
+ * <p>
+ * The counters are only updated by the selector thread, other threads may read
+ * them at any time. The channel count is updated by the threads that bind and
+ * release channels.
+ * <p>
+ * The utilization and task backlog are moving averages over the last few
+ * loops, they are cheap to read and meant to be used when choosing a selector
+ * for new channels.
+ *
+ * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
+ */
+public final class SelectorStatistics
+{
+  private final LatencyHistogram selectTimes = new LatencyHistogram ();
+  private final LatencyHistogram handleTimes = new LatencyHistogram ();
+  private final LatencyHistogram keyTimes = new LatencyHistogram ();
+
+  private volatile long loops = 0;
+  private volatile long readyKeys = 0;
+  private volatile int maxReadyKeys = 0;
+  private volatile long tasks = 0;
+  private volatile int maxTasks = 0;
+  private volatile long spinEvasions = 0;
+  private volatile long channelsMovedOut = 0;
+  private volatile long channelsMovedIn = 0;
+  private volatile long inlineHandlers = 0;
+  private volatile long offloadedHandlers = 0;
+  private volatile long offloadedOverBudget = 0;
+  private volatile long spins = 0;
+  private volatile long spinHits = 0;
+  private volatile long spinNanos = 0;
+  private volatile long spinBudgetExhausted = 0;
+  private volatile int registeredKeys = 0;
+  private volatile int queuedTasks = 0;
+
+  private final AtomicInteger channels = new AtomicInteger ();
+  private volatile double utilization = 0;
+  private volatile double backlog = 0;
+  private volatile long selectingSince = 0;
+
+  /** Utilization drops to zero once select has waited this long. */
+  private static final long IDLE_NANOS = 100L * 1000 * 1000;
+  /** The weight of the latest loop in the moving averages. */
+  private static final double ALPHA = 0.125;
+
+  /**
+   * Record that the selector is about to wait in select.
+   *
+   * @param nanos
+   *        the current System.nanoTime
+   */
+  public void selectStarted (final long nanos)
+  {
+    selectingSince = nanos;
+  }
+
+  /**
+   * Record one pass through the selector loop.
+   *
+   * @param selectNanos
+   *        the time spent waiting in select
+   * @param keys
+   *        the number of ready keys that were handled
+   * @param keyNanos
+   *        the time spent handling the ready keys
+   * @param numTasks
+   *        the number of selector tasks that were run
+   * @param handleNanos
+   *        the time spent handling keys, tasks and timeouts
+   */
+  public void recordLoop (final long selectNanos,
+                          final int keys,
+                          final long keyNanos,
+                          final int numTasks,
+                          final long handleNanos)
+  {
+    selectingSince = 0;
+    loops++;
+    final long total = selectNanos + handleNanos;
+    final double busy = total > 0 ? (double) handleNanos / total : 0;
+    utilization += ALPHA * (busy - utilization);
+    backlog += ALPHA * (numTasks - backlog);
+    selectTimes.record (selectNanos);
+    handleTimes.record (handleNanos);
+    if (keys > 0)
+    {
+      readyKeys += keys;
+      if (keys > maxReadyKeys)
+        maxReadyKeys = keys;
+      keyTimes.record (keyNanos / keys);
+    }
+    if (numTasks > 0)
+    {
+      tasks += numTasks;
+      if (numTasks > maxTasks)
+        maxTasks = numTasks;
+    }
+  }
+
+  /**
+   * Record that the selector tried to avoid spinning.
+   */
+  public void recordSpinEvasion ()
+  {
+    spinEvasions++;
+  }
+
+  /**
+   * Record that a channel was moved from this selector to another one.
+   */
+  public void recordChannelMovedOut ()
+  {
+    channelsMovedOut++;
+  }
+
+  /**
+   * Record that a channel was moved to this selector from another one.
+   */
+  public void recordChannelMovedIn ()
+  {
+    channelsMovedIn++;
+  }
+
+  /**
+   * Record that a read or write handler was run on the selector thread.
+   */
+  public void recordInlineHandler ()
+  {
+    inlineHandlers++;
+  }
+
+  /**
+   * Record that a read or write handler was handed to the executor.
+   */
+  public void recordOffloadedHandler ()
+  {
+    offloadedHandlers++;
+  }
+
+  /**
+   * Record that a read or write handler that is cheap enough to run on the
+   * selector thread was handed to the executor since the inline budget of the
+   * loop was used up. This is also recorded as an offloaded handler.
+   */
+  public void recordOffloadedOverBudget ()
+  {
+    offloadedOverBudget++;
+  }
+
+  /**
+   * Record that the selector busy polled before blocking in select.
+   *
+   * @param nanos
+   *        the time spent polling
+   * @param found
+   *        true if ready keys or tasks were found while polling
+   */
+  public void recordSpin (final long nanos, final boolean found)
+  {
+    spins++;
+    spinNanos += nanos;
+    if (found)
+      spinHits++;
+  }
+
+  /**
+   * Record that the selector blocked without busy polling since its spin
+   * budget was used up.
+   */
+  public void recordSpinBudgetExhausted ()
+  {
+    spinBudgetExhausted++;
+  }
+
+  /**
+   * Update the current state of the selector.
+   *
+   * @param registeredKeys
+   *        the number of keys registered with the selector
+   * @param queuedTasks
+   *        the number of tasks waiting to be run on the selector thread
+   */
+  public void setCurrentState (final int registeredKeys, final int queuedTasks)
+  {
+    this.registeredKeys = registeredKeys;
+    this.queuedTasks = queuedTasks;
+  }
+
+  /**
+   * Record that a channel was bound to the selector.
+   */
+  public void channelBound ()
+  {
+    channels.incrementAndGet ();
+  }
+
+  /**
+   * Record that a channel was released from the selector.
+   */
+  public void channelReleased ()
+  {
+    channels.decrementAndGet ();
+  }
+
+  /**
+   * Get the number of channels bound to the selector.
+   *
+   * @return the current number of channels
+   */
+  public int getNumChannels ()
+  {
+    return channels.get ();
+  }
+
+  /**
+   * Get the recent fraction of time the selector thread spent handling keys
+   * and tasks rather than waiting in select. If the selector is waiting in
+   * select right now the value decays towards zero.
+   *
+   * @return the utilization, between 0 and 1
+   */
+  public double getUtilization ()
+  {
+    final double u = utilization;
+    final long since = selectingSince;
+    if (since == 0)
+      return u;
+    final long idle = System.nanoTime () - since;
+    if (idle >= IDLE_NANOS)
+      return 0;
+    return u * (IDLE_NANOS - idle) / IDLE_NANOS;
+  }
+
+  /**
+   * Get the recent average number of selector tasks run in each loop.
+   *
+   * @return the task backlog
+   */
+  public double getBacklog ()
+  {
+    return backlog;
+  }
+
+  /**
+   * Get the distribution of the time spent waiting in select.
+   *
+   * @return the select times, in nanoseconds
+   */
+  public LatencyHistogram getSelectTimes ()
+  {
+    return selectTimes.copy ();
+  }
+
+  /**
+   * Get the distribution of the time spent handling each pass through the
+   * selector loop.
+   *
+   * @return the handling times, in nanoseconds
+   */
+  public LatencyHistogram getHandleTimes ()
+  {
+    return handleTimes.copy ();
+  }
+
+  /**
+   * Get the distribution of the time spent handling each ready key, this is
+   * the average over the keys handled in one loop.
+   *
+   * @return the handling time for each key, in nanoseconds
+   */
+  public LatencyHistogram getKeyTimes ()
+  {
+    return keyTimes.copy ();
+  }
+
+  /**
+   * Get the number of passes through the selector loop.
+   *
+   * @return the number of loops
+   */
+  public long getLoops ()
+  {
+    return loops;
+  }
+
+  /**
+   * Get the total number of ready keys handled.
+   *
+   * @return the number of ready keys
+   */
+  public long getReadyKeys ()
+  {
+    return readyKeys;
+  }
+
+  /**
+   * Get the largest number of ready keys handled in one loop.
+   *
+   * @return the largest number of ready keys from one select
+   */
+  public int getMaxReadyKeys ()
+  {
+    return maxReadyKeys;
+  }
+
+  /**
+   * Get the total number of selector tasks run.
+   *
+   * @return the number of tasks
+   */
+  public long getTasks ()
+  {
+    return tasks;
+  }
+
+  /**
+   * Get the largest number of selector tasks run in one loop.
+   *
+   * @return the largest number of tasks in one loop
+   */
+  public int getMaxTasks ()
+  {
+    return maxTasks;
+  }
+
+  /**
+   * Get the number of times that the selector tried to avoid spinning.
+   *
+   * @return the number of spin evasions
+   */
+  public long getSpinEvasions ()
+  {
+    return spinEvasions;
+  }
+
+  /**
+   * Get the number of keys registered with the selector.
+   *
+   * @return the number of keys, as seen when the selector was last visited
+   */
+  public int getRegisteredKeys ()
+  {
+    return registeredKeys;
+  }
+
+  /**
+   * Get the number of tasks waiting to be run on the selector thread.
+   *
+   * @return the queue depth, as seen when the selector was last visited
+   */
+  public int getQueuedTasks ()
+  {
+    return queuedTasks;
+  }
+
+  /**
+   * Get the number of channels that were moved from this selector to other
+   * selectors.
+   *
+   * @return the number of channels moved out
+   */
+  public long getChannelsMovedOut ()
+  {
+    return channelsMovedOut;
+  }
+
+  /**
+   * Get the number of channels that were moved to this selector from other
+   * selectors.
+   *
+   * @return the number of channels moved in
+   */
+  public long getChannelsMovedIn ()
+  {
+    return channelsMovedIn;
+  }
+
+  /**
+   * Get the number of read and write handlers that ran on the selector thread.
+   * Only handlers dispatched in adaptive mode are counted.
+   *
+   * @return the number of inline handlers
+   */
+  public long getInlineHandlers ()
+  {
+    return inlineHandlers;
+  }
+
+  /**
+   * Get the number of read and write handlers that were handed to the
+   * executor. Only handlers dispatched in adaptive mode are counted.
+   *
+   * @return the number of offloaded handlers
+   */
+  public long getOffloadedHandlers ()
+  {
+    return offloadedHandlers;
+  }
+
+  /**
+   * Get the number of cheap handlers that were handed to the executor since
+   * the inline budget of the selector loop was used up.
+   *
+   * @return the number of handlers offloaded because of the budget
+   */
+  public long getOffloadedOverBudget ()
+  {
+    return offloadedOverBudget;
+  }
+
+  /**
+   * Get the number of times the selector busy polled before blocking.
+   *
+   * @return the number of spins
+   */
+  public long getSpins ()
+  {
+    return spins;
+  }
+
+  /**
+   * Get the number of spins that found ready keys or tasks, so that the
+   * selector did not have to block.
+   *
+   * @return the number of successful spins
+   */
+  public long getSpinHits ()
+  {
+    return spinHits;
+  }
+
+  /**
+   * Get the total time spent busy polling.
+   *
+   * @return the spin time in nanos
+   */
+  public long getSpinNanos ()
+  {
+    return spinNanos;
+  }
+
+  /**
+   * Get the number of times the selector blocked without spinning since its
+   * spin budget was used up.
+   *
+   * @return the number of skipped spins
+   */
+  public long getSpinBudgetExhausted ()
+  {
+    return spinBudgetExhausted;
+  }
+}
@@ -45,6 +45,29 @@ public class TotalTimeSpent
   private long failures = 0;
   private long totalMillis = 0;
 
+  /**
+   * Create a new TotalTimeSpent without any tasks.
+   */
+  public TotalTimeSpent ()
+  {}
+
+  /**
+   * Create a new TotalTimeSpent with the given values.
+   *
+   * @param successful
+   *        the number of successful jobs
+   * @param failures
+   *        the number of failed jobs
+   * @param totalMillis
+   *        the total time spent on the jobs
+   */
+  public TotalTimeSpent (final long successful, final long failures, final long totalMillis)
+  {
+    this.successful = successful;
+    this.failures = failures;
+    this.totalMillis = totalMillis;
+  }
+
   /**
    * Update this information with data from the newly completed task.
    *
@@ -0,0 +1,306 @@
+/**
+ * Copyright (c) 2010 Robert Olofsson.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the authors nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHORS AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE AUTHORS OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package com.helger.rnio.impl;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.helger.rnio.INioHandler;
+import com.helger.rnio.IReadHandler;
+
+/**
+ * Test that the {@link CompletionNioHandler} does not lose any events. The
+ * clients use their connections the way a connection pool does, an idle
+ * connection has a read handler that closes it if the server sends anything,
+ * and that handler is cancelled when the connection is taken for a request.
+ * A request that neither gets its response nor is told that the connection
+ * closed makes the test fail.
+ *
+ * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
+ */
+public final class CompletionNioHandlerTest
+{
+  private static final int CLIENTS = 8;
+  private static final int ROUNDS = 2000;
+  private static final int REPLIES_PER_CONNECTION = 5;
+  private static final long STALL_SECONDS = 10;
+
+  private static final Object REPLY = new Object ();
+  private static final Object CLOSED = new Object ();
+
+  @Test (timeout = 120 * 1000)
+  public void testNoStallsWhenReusingConnections () throws Exception
+  {
+    final CompletionNioHandler nioHandler = new CompletionNioHandler (Executors.newCachedThreadPool (),
+                                                                      new BasicStatisticsHolder (),
+                                                                      2,
+                                                                      null);
+    nioHandler.start (new SimpleThreadFactory ());
+    try (ServerSocketChannel ssc = ServerSocketChannel.open ())
+    {
+      ssc.bind (new InetSocketAddress (InetAddress.getLoopbackAddress (), 0));
+      final Thread server = new Thread ( () -> serve (ssc));
+      server.setDaemon (true);
+      server.start ();
+
+      final AtomicReference <String> failure = new AtomicReference<> ();
+      final AtomicInteger replies = new AtomicInteger ();
+      final List <Thread> clients = new ArrayList<> ();
+      for (int i = 0; i < CLIENTS; i++)
+      {
+        final Thread t = new Thread ( () -> {
+          try
+          {
+            runClient (nioHandler, (InetSocketAddress) ssc.getLocalAddress (), replies);
+          }
+          catch (final Exception e)
+          {
+            failure.compareAndSet (null, e.toString ());
+          }
+        });
+        clients.add (t);
+        t.start ();
+      }
+      for (final Thread t : clients)
+        t.join ();
+      if (failure.get () != null)
+        fail (failure.get ());
+      assertTrue ("Too few replies: " + replies, replies.get () > 0);
+    }
+    finally
+    {
+      nioHandler.shutdown ();
+    }
+  }
+
+  /**
+   * Answer every byte with a byte, on a thread for each connection. The
+   * connection is closed after a few answers, like servers close idle keep
+   * alive connections, so the idle handlers of the clients are run as well.
+   */
+  private static void serve (final ServerSocketChannel ssc)
+  {
+    try
+    {
+      while (true)
+      {
+        final SocketChannel sc = ssc.accept ();
+        final Thread t = new Thread ( () -> {
+          final ByteBuffer buf = ByteBuffer.allocate (1);
+          try (SocketChannel c = sc)
+          {
+            for (int i = 0; i < REPLIES_PER_CONNECTION && c.read (buf) > 0; i++)
+            {
+              buf.flip ();
+              c.write (buf);
+              buf.clear ();
+            }
+          }
+          catch (final IOException e)
+          {
+            // client closed the connection
+          }
+        });
+        t.setDaemon (true);
+        t.start ();
+      }
+    }
+    catch (final IOException e)
+    {
+      // server socket closed
+    }
+  }
+
+  private static void runClient (final INioHandler nioHandler,
+                                 final InetSocketAddress address,
+                                 final AtomicInteger replies) throws Exception
+  {
+    SocketChannel sc = open (address);
+    try
+    {
+      for (int i = 0; i < ROUNDS; i++)
+      {
+        // Put the connection in the pool
+        final CloseListener idle = new CloseListener (sc);
+        nioHandler.waitForRead (sc, idle);
+
+        // and take it out again
+        Thread.yield ();
+        nioHandler.cancel (sc, idle);
+        final ReplyReader reader = new ReplyReader (sc, nioHandler);
+        try
+        {
+          sc.write (ByteBuffer.wrap (new byte [] { 'x' }));
+          nioHandler.waitForRead (sc, reader);
+        }
+        catch (final IOException e)
+        {
+          reader.closed ();
+        }
+        final Object o = reader.result.poll (STALL_SECONDS, TimeUnit.SECONDS);
+        if (o == null)
+          throw new IllegalStateException ("Request " + i + " stalled");
+        if (o == REPLY)
+          replies.incrementAndGet ();
+        else
+        {
+          sc.close ();
+          sc = open (address);
+        }
+      }
+    }
+    finally
+    {
+      sc.close ();
+    }
+  }
+
+  private static SocketChannel open (final InetSocketAddress address) throws IOException
+  {
+    final SocketChannel sc = SocketChannel.open (address);
+    sc.configureBlocking (false);
+    return sc;
+  }
+
+  private abstract static class AbstractHandler implements IReadHandler
+  {
+    protected final SocketChannel sc;
+
+    public AbstractHandler (final SocketChannel sc)
+    {
+      this.sc = sc;
+    }
+
+    public void timeout ()
+    {
+      throw new IllegalStateException ("No timeout was set");
+    }
+
+    public boolean useSeparateThread ()
+    {
+      return false;
+    }
+
+    public Long getTimeout ()
+    {
+      return null;
+    }
+  }
+
+  /** Close the connection if the server sends anything while it is idle. */
+  private static final class CloseListener extends AbstractHandler
+  {
+    public CloseListener (final SocketChannel sc)
+    {
+      super (sc);
+    }
+
+    public void read ()
+    {
+      try
+      {
+        sc.read (ByteBuffer.allocate (1));
+        sc.close ();
+      }
+      catch (final IOException e)
+      {
+        // closing anyway
+      }
+    }
+
+    public void closed ()
+    {
+      // nothing to do
+    }
+
+    public String getDescription ()
+    {
+      return "CloseListener";
+    }
+  }
+
+  /** Wait for the reply to a request or for the connection to close. */
+  private static final class ReplyReader extends AbstractHandler
+  {
+    private final INioHandler nioHandler;
+    private final BlockingQueue <Object> result = new ArrayBlockingQueue<> (1);
+
+    public ReplyReader (final SocketChannel sc, final INioHandler nioHandler)
+    {
+      super (sc);
+      this.nioHandler = nioHandler;
+    }
+
+    public void read ()
+    {
+      try
+      {
+        final int r = sc.read (ByteBuffer.allocate (1));
+        if (r == 0)
+          nioHandler.waitForRead (sc, this);
+        else
+          result.offer (r > 0 ? REPLY : CLOSED);
+      }
+      catch (final IOException e)
+      {
+        result.offer (CLOSED);
+      }
+    }
+
+    public void closed ()
+    {
+      result.offer (CLOSED);
+    }
+
+    public String getDescription ()
+    {
+      return "ReplyReader";
+    }
+  }
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright (c) 2010 Robert Olofsson.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the authors nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHORS AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE AUTHORS OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package com.helger.rnio.impl;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A small benchmark that compares the executor strategies when running tasks
+ * that block for a while, like a dns lookup, and then do a little work.
+ *
+ * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
+ */
+public class ExecutorStrategyBenchmark
+{
+  private static final int NUM_TASKS = 10000;
+  private static final long BLOCK_MILLIS = 20;
+  private static final int MAX_THREADS = 256;
+
+  /**
+   * Run the benchmark.
+   *
+   * @param args
+   *        the number of tasks to run, defaults to 10000
+   * @throws Exception
+   *         if the benchmark fails
+   */
+  public static void main (final String [] args) throws Exception
+  {
+    final int numTasks = args.length > 0 ? Integer.parseInt (args[0]) : NUM_TASKS;
+    for (final ExecutorStrategy strategy : ExecutorStrategy.values ())
+    {
+      if (!strategy.isSupported ())
+      {
+        System.out.printf ("%-10s not supported by this jvm%n", strategy);
+        continue;
+      }
+      // One round to warm up, one to measure
+      run (strategy, numTasks / 10, false);
+      run (strategy, numTasks, true);
+    }
+  }
+
+  private static void run (final ExecutorStrategy strategy,
+                           final int numTasks,
+                           final boolean print) throws InterruptedException
+  {
+    final MeteredExecutorService es = strategy.create (MAX_THREADS);
+    final CountDownLatch done = new CountDownLatch (numTasks);
+    final long start = System.nanoTime ();
+    for (int i = 0; i < numTasks; i++)
+    {
+      es.execute ( () -> {
+        try
+        {
+          // A blocking dns lookup
+          Thread.sleep (BLOCK_MILLIS);
+        }
+        catch (final InterruptedException e)
+        {
+          Thread.currentThread ().interrupt ();
+        }
+        // Some parsing of the result
+        long x = 0;
+        for (int j = 0; j < 1000; j++)
+          x += j * 31;
+        if (x == 42)
+          System.out.println ("unlikely");
+        done.countDown ();
+      });
+    }
+    done.await ();
+    final long time = System.nanoTime () - start;
+    es.shutdown ();
+    es.awaitTermination (10, TimeUnit.SECONDS);
+
+    if (print)
+    {
+      final double secs = time / 1e9;
+      System.out.printf ("%-10s %8.0f tasks/s, max active: %5d, max queued: %5d, average wait: %8d us%n",
+                         strategy,
+                         Double.valueOf (numTasks / secs),
+                         Integer.valueOf (es.getMaxActive ()),
+                         Integer.valueOf (es.getMaxQueued ()),
+                         Long.valueOf (es.getWaitNanos () / numTasks / 1000));
+    }
+  }
+}
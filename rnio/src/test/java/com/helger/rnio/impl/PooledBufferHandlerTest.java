@@ -0,0 +1,125 @@
+/**
+ * Copyright (c) 2010 Robert Olofsson.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the authors nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHORS AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE AUTHORS OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package com.helger.rnio.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Test that the {@link PooledBufferHandler} gives back the buffers held by
+ * the thread magazines.
+ *
+ * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
+ */
+public final class PooledBufferHandlerTest
+{
+  private static List <ByteBuffer> get (final PooledBufferHandler pbh, final int n)
+  {
+    final List <ByteBuffer> ret = new ArrayList<> ();
+    for (int i = 0; i < n; i++)
+      ret.add (pbh.getBuffer ());
+    return ret;
+  }
+
+  private static int getIndex (final PooledBufferHandler pbh, final int size)
+  {
+    for (int i = 0; i < pbh.getNumSizeClasses (); i++)
+      if (pbh.getSize (i) == size)
+        return i;
+    throw new IllegalArgumentException ("No size class for: " + size);
+  }
+
+  @Test
+  public void testLargeBuffersAreNotHeldByThreads ()
+  {
+    final PooledBufferHandler pbh = new PooledBufferHandler ();
+    final ByteBuffer b = pbh.growBuffer (null);
+    assertEquals (PooledBufferHandler.DEFAULT_LARGE_SIZE, b.capacity ());
+    pbh.putBuffer (b);
+    final int index = getIndex (pbh, b.capacity ());
+    assertEquals (1, pbh.getPooled (index));
+    assertSame (b, pbh.growBuffer (null));
+    assertEquals (0, pbh.getPooled (index));
+    assertEquals (1, pbh.getHits (index));
+  }
+
+  @Test
+  public void testTrimFlushesThreadMagazines ()
+  {
+    final PooledBufferHandler pbh = new PooledBufferHandler ();
+    for (final ByteBuffer b : get (pbh, 10))
+      pbh.putBuffer (b);
+    assertEquals (0, pbh.getPooled (0));
+
+    pbh.trim ();
+    // The next use of the pool hands the magazine to the depot
+    pbh.putBuffer (pbh.growBuffer (null));
+    assertEquals (10, pbh.getPooled (0));
+    pbh.trim ();
+    assertEquals (0, pbh.getPooled (0));
+    assertEquals (10, pbh.getDropped (0));
+  }
+
+  @Test
+  public void testFlush ()
+  {
+    final PooledBufferHandler pbh = new PooledBufferHandler ();
+    for (final ByteBuffer b : get (pbh, 3))
+      pbh.putBuffer (b);
+    pbh.flush ();
+    assertEquals (3, pbh.getPooled (0));
+    assertEquals (3, get (pbh, 3).size ());
+    assertEquals (3, pbh.getHits (0));
+  }
+
+  @Test
+  public void testEndedThreadsAreReclaimed () throws InterruptedException
+  {
+    final PooledBufferHandler pbh = new PooledBufferHandler ();
+    final Thread t = new Thread ( () -> {
+      for (final ByteBuffer b : get (pbh, 5))
+        pbh.putBuffer (b);
+    });
+    t.start ();
+    t.join ();
+    assertEquals (0, pbh.getPooled (0));
+    pbh.trim ();
+    assertEquals (0, pbh.getPooled (0));
+    assertEquals (5, pbh.getDropped (0));
+  }
+}
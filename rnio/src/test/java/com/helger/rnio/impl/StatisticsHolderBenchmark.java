@@ -0,0 +1,116 @@
+/**
+ * Copyright (c) 2010 Robert Olofsson.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the authors nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHORS AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE AUTHORS OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package com.helger.rnio.impl;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.helger.rnio.IStatisticsHolder;
+import com.helger.rnio.ITaskIdentifier;
+
+/**
+ * A small benchmark that measures how many task status updates the
+ * BasicStatisticsHolder handles when a number of threads report tasks at the
+ * same time.
+ *
+ * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
+ */
+public class StatisticsHolderBenchmark
+{
+  private static final long RUN_MILLIS = 2000;
+  private static final String [] GROUPS = { "dns", "file", "image", "cache" };
+
+  /**
+   * Run the benchmark.
+   *
+   * @param args
+   *        the number of threads to test with, defaults to 1, 4 and 16
+   * @throws Exception
+   *         if the benchmark fails
+   */
+  public static void main (final String [] args) throws Exception
+  {
+    int [] threads = { 1, 4, 16 };
+    if (args.length > 0)
+    {
+      threads = new int [args.length];
+      for (int i = 0; i < args.length; i++)
+        threads[i] = Integer.parseInt (args[i]);
+    }
+    for (final int t : threads)
+    {
+      // One round to warm up, one to measure
+      run (t, false);
+      run (t, true);
+    }
+  }
+
+  private static void run (final int numThreads, final boolean print) throws InterruptedException
+  {
+    final IStatisticsHolder stats = new BasicStatisticsHolder ();
+    final LongAdder tasks = new LongAdder ();
+    final AtomicBoolean go = new AtomicBoolean (true);
+    final CountDownLatch done = new CountDownLatch (numThreads);
+    for (int i = 0; i < numThreads; i++)
+    {
+      final String group = GROUPS[i % GROUPS.length];
+      final Thread t = new Thread ( () -> {
+        long n = 0;
+        while (go.get ())
+        {
+          final ITaskIdentifier ti = new DefaultTaskIdentifier (group, "task");
+          stats.addPendingTask (ti);
+          stats.changeTaskStatusToRunning (ti);
+          stats.changeTaskStatusToFinished (ti, true, n & 1023);
+          n++;
+        }
+        tasks.add (n);
+        done.countDown ();
+      });
+      t.start ();
+    }
+    final long start = System.nanoTime ();
+    Thread.sleep (RUN_MILLIS);
+    go.set (false);
+    done.await ();
+    final long time = System.nanoTime () - start;
+
+    if (print)
+    {
+      final double secs = time / 1e9;
+      System.out.printf ("threads: %3d, %12.0f tasks/s%n",
+                         Integer.valueOf (numThreads),
+                         Double.valueOf (tasks.sum () / secs));
+    }
+  }
+}
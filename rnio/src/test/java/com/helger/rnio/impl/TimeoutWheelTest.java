@@ -0,0 +1,255 @@
+/**
+ * Copyright (c) 2010 Robert Olofsson.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the authors nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHORS AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE AUTHORS OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package com.helger.rnio.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Test the expiry and next deadline of the {@link TimeoutWheel}, both for
+ * entries at the slot and turn boundaries and against a brute force model.
+ *
+ * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
+ */
+public final class TimeoutWheelTest
+{
+  private static final long TICK = 10;
+  private static final int SLOTS = 8;
+  private static final long TURN = TICK * SLOTS;
+
+  private static List <Integer> expire (final TimeoutWheel <Integer> w, final long now)
+  {
+    final List <Integer> ret = new ArrayList<> ();
+    w.expire (now, ret);
+    return ret;
+  }
+
+  @Test
+  public void testSlotBoundaries ()
+  {
+    final TimeoutWheel <Integer> w = new TimeoutWheel<> (TICK, SLOTS, 0);
+    final TimeoutWheel.Entry <Integer> e1 = new TimeoutWheel.Entry<> (Integer.valueOf (1));
+    final TimeoutWheel.Entry <Integer> e2 = new TimeoutWheel.Entry<> (Integer.valueOf (2));
+    w.schedule (e1, 19);
+    w.schedule (e2, 20);
+    assertEquals (20, w.getNextDeadline ());
+    // The tick of a deadline has to pass completely
+    assertTrue (expire (w, 19).isEmpty ());
+    assertEquals (Collections.singletonList (Integer.valueOf (1)), expire (w, 20));
+    assertFalse (e1.isScheduled ());
+    assertEquals (30, w.getNextDeadline ());
+    assertTrue (expire (w, 29).isEmpty ());
+    assertEquals (Collections.singletonList (Integer.valueOf (2)), expire (w, 30));
+    assertTrue (w.isEmpty ());
+    assertEquals (-1, w.getNextDeadline ());
+  }
+
+  @Test
+  public void testTurnBoundaries ()
+  {
+    final TimeoutWheel <Integer> w = new TimeoutWheel<> (TICK, SLOTS, 0);
+    final TimeoutWheel.Entry <Integer> last = new TimeoutWheel.Entry<> (Integer.valueOf (1));
+    final TimeoutWheel.Entry <Integer> wrapped = new TimeoutWheel.Entry<> (Integer.valueOf (2));
+    // The last slot of this turn and the first slot of the next turn
+    w.schedule (last, TURN - 1);
+    w.schedule (wrapped, TURN);
+    // wrapped shares slot 0 with the current tick
+    assertEquals (TICK, w.getNextDeadline ());
+    assertTrue (expire (w, TICK).isEmpty ());
+    assertTrue (wrapped.isScheduled ());
+    assertEquals (TURN, w.getNextDeadline ());
+    assertTrue (expire (w, TURN - 1).isEmpty ());
+    assertEquals (Collections.singletonList (Integer.valueOf (1)), expire (w, TURN));
+    assertEquals (TURN + TICK, w.getNextDeadline ());
+    assertEquals (Collections.singletonList (Integer.valueOf (2)), expire (w, TURN + TICK));
+    assertTrue (w.isEmpty ());
+  }
+
+  @Test
+  public void testBeyondOneTurn ()
+  {
+    final TimeoutWheel <Integer> w = new TimeoutWheel<> (TICK, SLOTS, 0);
+    final TimeoutWheel.Entry <Integer> e = new TimeoutWheel.Entry<> (Integer.valueOf (1));
+    final long deadline = 5 * TURN + 3 * TICK + 5;
+    w.schedule (e, deadline);
+    final long expiresAt = (deadline / TICK + 1) * TICK;
+    for (long now = TICK; now < expiresAt; now += TICK)
+    {
+      assertTrue ("now: " + now, expire (w, now).isEmpty ());
+      assertTrue (w.getNextDeadline () <= expiresAt);
+    }
+    assertEquals (expiresAt, w.getNextDeadline ());
+    assertEquals (Collections.singletonList (Integer.valueOf (1)), expire (w, expiresAt));
+
+    // A jump of more than one turn still finds it
+    w.schedule (e, expiresAt + 3 * TURN);
+    assertTrue (expire (w, expiresAt + 2 * TURN).isEmpty ());
+    assertEquals (Collections.singletonList (Integer.valueOf (1)), expire (w, expiresAt + 10 * TURN));
+  }
+
+  @Test
+  public void testCancelAndReschedule ()
+  {
+    final TimeoutWheel <Integer> w = new TimeoutWheel<> (TICK, SLOTS, 0);
+    final TimeoutWheel.Entry <Integer> e1 = new TimeoutWheel.Entry<> (Integer.valueOf (1));
+    final TimeoutWheel.Entry <Integer> e2 = new TimeoutWheel.Entry<> (Integer.valueOf (2));
+    final TimeoutWheel.Entry <Integer> e3 = new TimeoutWheel.Entry<> (Integer.valueOf (3));
+    w.schedule (e1, 25);
+    w.schedule (e2, 25);
+    w.schedule (e3, 25);
+    assertEquals (3, w.size ());
+
+    // Remove from the middle of a slot and cancel twice
+    w.cancel (e2);
+    w.cancel (e2);
+    assertFalse (e2.isScheduled ());
+    assertEquals (2, w.size ());
+
+    // Same deadline is a no-op, later and earlier deadlines move the entry
+    w.schedule (e1, 25);
+    assertEquals (2, w.size ());
+    w.schedule (e1, 55);
+    w.schedule (e3, 5);
+    assertEquals (55, e1.getDeadline ());
+    assertEquals (2, w.size ());
+    assertEquals (10, w.getNextDeadline ());
+    assertEquals (Collections.singletonList (Integer.valueOf (3)), expire (w, 30));
+    assertEquals (60, w.getNextDeadline ());
+    w.cancel (e1);
+    assertTrue (w.isEmpty ());
+    assertEquals (-1, w.getNextDeadline ());
+    assertTrue (expire (w, 1000).isEmpty ());
+
+    // An entry can be scheduled again after it expired or was cancelled
+    w.schedule (e2, 1005);
+    assertEquals (Collections.singletonList (Integer.valueOf (2)), expire (w, 1010));
+  }
+
+  @Test
+  public void testDeadlineInThePast ()
+  {
+    final TimeoutWheel <Integer> w = new TimeoutWheel<> (TICK, SLOTS, 1000);
+    final TimeoutWheel.Entry <Integer> e = new TimeoutWheel.Entry<> (Integer.valueOf (1));
+    w.schedule (e, 500);
+    assertEquals (1010, w.getNextDeadline ());
+    assertTrue (expire (w, 1005).isEmpty ());
+    assertEquals (Collections.singletonList (Integer.valueOf (1)), expire (w, 1010));
+  }
+
+  /** The state the brute force model keeps for a scheduled entry. */
+  private static final class Scheduled
+  {
+    private final long deadline;
+    private final long tick;
+
+    Scheduled (final long deadline, final long tick)
+    {
+      this.deadline = deadline;
+      this.tick = tick;
+    }
+  }
+
+  @Test
+  public void testAgainstBruteForce ()
+  {
+    final Random r = new Random (4711);
+    long now = 12345;
+    final TimeoutWheel <Integer> w = new TimeoutWheel<> (TICK, SLOTS, now);
+    long lastTick = now / TICK - 1;
+    final List <TimeoutWheel.Entry <Integer>> entries = new ArrayList<> ();
+    for (int i = 0; i < 64; i++)
+      entries.add (new TimeoutWheel.Entry<> (Integer.valueOf (i)));
+    final Map <Integer, Scheduled> model = new HashMap<> ();
+
+    for (int round = 0; round < 100000; round++)
+    {
+      final TimeoutWheel.Entry <Integer> e = entries.get (r.nextInt (entries.size ()));
+      final int op = r.nextInt (10);
+      if (op < 5)
+      {
+        // Mostly within one turn, sometimes several turns away or in the past
+        final long deadline = now - 3 * TICK + (long) (r.nextDouble () * (r.nextInt (8) == 0 ? 4 * TURN : TURN));
+        final Scheduled old = model.get (e.getOwner ());
+        if (old == null || old.deadline != deadline)
+          model.put (e.getOwner (), new Scheduled (deadline, Math.max (deadline / TICK, lastTick + 1)));
+        w.schedule (e, deadline);
+      }
+      else
+        if (op < 6)
+        {
+          model.remove (e.getOwner ());
+          w.cancel (e);
+        }
+        else
+        {
+          now += r.nextInt (8) == 0 ? r.nextInt ((int) (3 * TURN)) : r.nextInt ((int) TICK * 2);
+          final List <Integer> expired = expire (w, now);
+          final long lastDone = now / TICK - 1;
+          if (lastDone > lastTick)
+            lastTick = lastDone;
+          for (final Integer id : expired)
+          {
+            final Scheduled s = model.remove (id);
+            assertTrue ("expired twice: " + id, s != null);
+            assertTrue ("expired early: " + s.deadline + ", now: " + now, s.deadline < now);
+          }
+          for (final Scheduled s : model.values ())
+            assertTrue ("not expired: " + s.deadline + ", now: " + now, s.tick > lastTick || s.deadline >= now);
+        }
+
+      assertEquals (model.size (), w.size ());
+      for (final TimeoutWheel.Entry <Integer> x : entries)
+        assertEquals (model.containsKey (x.getOwner ()), x.isScheduled ());
+
+      // The end of the first tick that will walk a slot with entries
+      long expected = -1;
+      if (!model.isEmpty ())
+      {
+        long first = Long.MAX_VALUE;
+        for (final Scheduled s : model.values ())
+          first = Math.min (first, lastTick + 1 + ((s.tick - lastTick - 1) & (SLOTS - 1)));
+        expected = (first + 1) * TICK;
+      }
+      assertEquals (expected, w.getNextDeadline ());
+    }
+  }
+}
@@ -0,0 +1,232 @@
+/**
+ * Copyright (c) 2010 Robert Olofsson.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the authors nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHORS AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE AUTHORS OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package com.helger.rnio.impl;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import com.helger.rnio.INioHandler;
+import com.helger.rnio.IWriteCompletion;
+
+/**
+ * A benchmark that sends messages made up of four small buffers, like a chunk
+ * header, a block of data, a chunk trailer and a small header, over loopback.
+ * The messages are sent either one buffer at a time, waiting for write when
+ * the channel is full, or with a {@link ChannelWriteQueue}.
+ *
+ * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
+ */
+public class WriteQueueBenchmark
+{
+  private static final int NUM_MESSAGES = 200000;
+  private static final byte [] [] PARTS = { new byte [40], new byte [6], new byte [512], new byte [2] };
+  private static final int MESSAGE_SIZE = 40 + 6 + 512 + 2;
+
+  /**
+   * Run the benchmark.
+   *
+   * @param args
+   *        ignored
+   * @throws Exception
+   *         if the benchmark fails
+   */
+  public static void main (final String [] args) throws Exception
+  {
+    final MultiSelectorNioHandler nioHandler = new MultiSelectorNioHandler (Executors.newCachedThreadPool (),
+                                                                            new BasicStatisticsHolder (),
+                                                                            1,
+                                                                            null);
+    nioHandler.start (new SimpleThreadFactory ());
+    try
+    {
+      // One round to warm up, one to measure
+      for (int i = 0; i < 2; i++)
+      {
+        run ("sender", nioHandler, i > 0, WriteQueueBenchmark::sendSeparately);
+        run ("queue", nioHandler, i > 0, WriteQueueBenchmark::sendQueued);
+      }
+    }
+    finally
+    {
+      nioHandler.shutdown ();
+    }
+  }
+
+  private interface IMessageWriter
+  {
+    void send (SocketChannel sc, INioHandler nioHandler) throws Exception;
+  }
+
+  private static ByteBuffer [] getMessage ()
+  {
+    final ByteBuffer [] ret = new ByteBuffer [PARTS.length];
+    for (int i = 0; i < PARTS.length; i++)
+      ret[i] = ByteBuffer.wrap (PARTS[i]);
+    return ret;
+  }
+
+  private static void run (final String name,
+                           final INioHandler nioHandler,
+                           final boolean print,
+                           final IMessageWriter writer) throws Exception
+  {
+    final InetAddress lo = InetAddress.getLoopbackAddress ();
+    try (ServerSocketChannel ssc = ServerSocketChannel.open ())
+    {
+      ssc.bind (new InetSocketAddress (lo, 0));
+      final long total = (long) NUM_MESSAGES * MESSAGE_SIZE;
+      final Thread reader = new Thread ( () -> {
+        try (SocketChannel in = ssc.accept ())
+        {
+          final ByteBuffer buf = ByteBuffer.allocateDirect (64 * 1024);
+          long read = 0;
+          while (read < total)
+          {
+            buf.clear ();
+            final int r = in.read (buf);
+            if (r < 0)
+              break;
+            read += r;
+          }
+        }
+        catch (final IOException e)
+        {
+          e.printStackTrace ();
+        }
+      });
+      reader.start ();
+
+      try (SocketChannel sc = SocketChannel.open (ssc.getLocalAddress ()))
+      {
+        sc.configureBlocking (false);
+        final long start = System.nanoTime ();
+        writer.send (sc, nioHandler);
+        reader.join ();
+        final long time = System.nanoTime () - start;
+        if (print)
+          System.out.printf ("%-8s %12.0f messages/s%n", name, Double.valueOf (NUM_MESSAGES / (time / 1e9)));
+      }
+    }
+  }
+
+  /** Write each buffer with its own write call, one after the other. */
+  private static void sendSeparately (final SocketChannel sc, final INioHandler nioHandler) throws Exception
+  {
+    final CountDownLatch done = new CountDownLatch (1);
+    new PartSender (sc, nioHandler, done).write ();
+    done.await ();
+  }
+
+  private static final class PartSender extends AbstractSimpleBlockSender
+  {
+    private final CountDownLatch done;
+    private ByteBuffer [] message = getMessage ();
+    private int part = 0;
+    private int messageNumber = 0;
+
+    public PartSender (final SocketChannel sc, final INioHandler nioHandler, final CountDownLatch done)
+    {
+      super (sc, nioHandler, null, null);
+      this.done = done;
+    }
+
+    @Override
+    public void write ()
+    {
+      try
+      {
+        while (messageNumber < NUM_MESSAGES)
+        {
+          final ByteBuffer buf = message[part];
+          sc.write (buf);
+          if (buf.hasRemaining ())
+          {
+            register ();
+            return;
+          }
+          if (++part == message.length)
+          {
+            part = 0;
+            messageNumber++;
+            message = getMessage ();
+          }
+        }
+        done.countDown ();
+      }
+      catch (final IOException e)
+      {
+        handleIOException (e);
+        done.countDown ();
+      }
+    }
+  }
+
+  /** Add whole messages to a write queue, waiting when it is full. */
+  private static void sendQueued (final SocketChannel sc, final INioHandler nioHandler) throws Exception
+  {
+    final Semaphore writable = new Semaphore (0);
+    final CountDownLatch done = new CountDownLatch (1);
+    final ChannelWriteQueue queue = new ChannelWriteQueue (sc, nioHandler, writable::release);
+    final IWriteCompletion last = new IWriteCompletion ()
+    {
+      public void written ()
+      {
+        done.countDown ();
+      }
+
+      public void failed (final IOException cause)
+      {
+        cause.printStackTrace ();
+        done.countDown ();
+      }
+    };
+    for (int i = 0; i < NUM_MESSAGES; i++)
+    {
+      final boolean isLast = i == NUM_MESSAGES - 1;
+      if (!queue.add (isLast ? last : null, getMessage ()))
+      {
+        if (queue.getFailure () != null)
+          throw queue.getFailure ();
+        writable.acquire ();
+        writable.drainPermits ();
+      }
+    }
+    done.await ();
+  }
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright (c) 2010 Robert Olofsson.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the authors nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHORS AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE AUTHORS OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package com.helger.rnio.samples;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.helger.rnio.impl.AcceptingServer;
+
+/**
+ * A loopback benchmark of how many connections that can be accepted per
+ * second, using one shared listening socket or one SO_REUSEPORT socket per
+ * selector thread, for a growing number of selector threads.
+ * <p>
+ * The server closes each connection as soon as it has been accepted.
+ *
+ * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
+ */
+public class AcceptThroughputBenchmark
+{
+  private static final long RUN_MILLIS = 2000;
+  private static final int CLIENT_THREADS = 16;
+
+  /**
+   * Run the benchmark.
+   *
+   * @param args
+   *        the port to use, and optionally the selector counts to test,
+   *        defaults to 9998 and 1, 2, 4 and 8 selectors
+   * @throws Exception
+   *         if the benchmark fails
+   */
+  public static void main (final String [] args) throws Exception
+  {
+    int port = 9998;
+    int [] selectors = { 1, 2, 4, 8 };
+    if (args.length > 0)
+      port = Integer.parseInt (args[0]);
+    if (args.length > 1)
+    {
+      selectors = new int [args.length - 1];
+      for (int i = 1; i < args.length; i++)
+        selectors[i - 1] = Integer.parseInt (args[i]);
+    }
+    for (final int s : selectors)
+    {
+      final double shared = run (port, s, false);
+      final double reuse = run (port, s, true);
+      System.out.printf ("selectors: %2d, shared socket: %8.0f accepts/s, reuse port: %8.0f accepts/s%n",
+                         Integer.valueOf (s),
+                         Double.valueOf (shared),
+                         Double.valueOf (reuse));
+    }
+  }
+
+  private static double run (final int port,
+                             final int numSelectors,
+                             final boolean reusePort) throws IOException, InterruptedException
+  {
+    final LongAdder accepted = new LongAdder ();
+    final ExecutorService es = Executors.newCachedThreadPool ();
+    final InetAddress lo = InetAddress.getLoopbackAddress ();
+    final AcceptingServer as = new AcceptingServer (lo, port, sc -> {
+      accepted.increment ();
+      sc.close ();
+    }, es, numSelectors, Long.valueOf (15000), reusePort);
+    as.start ();
+
+    final AtomicBoolean go = new AtomicBoolean (true);
+    final List <Thread> clients = new ArrayList<> ();
+    for (int i = 0; i < CLIENT_THREADS; i++)
+    {
+      final Thread t = new Thread ( () -> {
+        final InetSocketAddress isa = new InetSocketAddress (lo, port);
+        while (go.get ())
+        {
+          try
+          {
+            // just connect
+            SocketChannel.open (isa).close ();
+          }
+          catch (final IOException e)
+          {
+            // backlog full or out of ports, try again
+          }
+        }
+      });
+      clients.add (t);
+      t.start ();
+    }
+    final long start = System.nanoTime ();
+    Thread.sleep (RUN_MILLIS);
+    final long num = accepted.sum ();
+    final long time = System.nanoTime () - start;
+    go.set (false);
+    for (final Thread t : clients)
+      t.join ();
+    as.shutdown ();
+    // Give the selectors time to close the listening sockets
+    Thread.sleep (500);
+    return num / (time / 1e9);
+  }
+}
@@ -0,0 +1,277 @@
+/**
+ * Copyright (c) 2010 Robert Olofsson.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the authors nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHORS AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE AUTHORS OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package com.helger.rnio.samples;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.helger.rnio.IBufferHandler;
+import com.helger.rnio.INioHandler;
+import com.helger.rnio.impl.AbstractSimpleBlockReader;
+import com.helger.rnio.impl.AbstractSimpleBlockSender;
+import com.helger.rnio.impl.AcceptingServer;
+import com.helger.rnio.impl.IAcceptorListener;
+import com.helger.rnio.impl.MultiSelectorNioHandler;
+import com.helger.rnio.impl.PooledBufferHandler;
+import com.helger.rnio.impl.SelectorAssignment;
+import com.helger.rnio.statistics.LatencyHistogram;
+
+/**
+ * A benchmark that shows how the selector assignment policies handle
+ * connections with skewed lifetimes.
+ * <p>
+ * Connections arrive in a pattern where every fourth connection is a long
+ * lived, busy stream and the others are short request/response exchanges.
+ * Round robin then puts all the busy streams on the same selector. While the
+ * streams run the latency of new short exchanges is measured.
+ *
+ * @author <a href="mailto:robo@khelekore.org">Robert Olofsson</a>
+ */
+public class SelectorAssignmentBenchmark
+{
+  private static final int NUM_SELECTORS = 4;
+  private static final int NUM_STREAMS = 4;
+  private static final int NUM_PINGS = 2000;
+  private static final int STREAM_BLOCK = 16 * 1024;
+
+  private final IBufferHandler bufferHandler = new PooledBufferHandler ();
+  private final AcceptingServer as;
+  private final InetSocketAddress address;
+
+  /**
+   * Run the benchmark.
+   *
+   * @param args
+   *        the port to use, defaults to 9977
+   * @throws Exception
+   *         if the benchmark fails
+   */
+  public static void main (final String [] args) throws Exception
+  {
+    final int port = args.length > 0 ? Integer.parseInt (args[0]) : 9977;
+    for (final SelectorAssignment policy : SelectorAssignment.values ())
+    {
+      final SelectorAssignmentBenchmark b = new SelectorAssignmentBenchmark (port, policy);
+      try
+      {
+        b.run (policy);
+      }
+      finally
+      {
+        b.as.shutdown ();
+      }
+      // Let the port be released
+      Thread.sleep (500);
+    }
+  }
+
+  private SelectorAssignmentBenchmark (final int port, final SelectorAssignment policy) throws IOException
+  {
+    final InetAddress lo = InetAddress.getLoopbackAddress ();
+    address = new InetSocketAddress (lo, port);
+    as = new AcceptingServer (lo,
+                              port,
+                              new AcceptListener (),
+                              Executors.newCachedThreadPool (),
+                              NUM_SELECTORS,
+                              Long.valueOf (60000));
+    ((MultiSelectorNioHandler) as.getNioHandler ()).setSelectorAssignmentPolicy (policy);
+    as.start ();
+  }
+
+  private void run (final SelectorAssignment policy) throws Exception
+  {
+    final AtomicBoolean running = new AtomicBoolean (true);
+    final List <Thread> streams = new ArrayList<> ();
+    for (int i = 0; i < NUM_STREAMS; i++)
+    {
+      final SocketChannel sc = SocketChannel.open (address);
+      final Thread t = new Thread ( () -> stream (sc, running));
+      t.start ();
+      streams.add (t);
+      for (int j = 0; j < NUM_SELECTORS - 1; j++)
+        ping ();
+      // Give the selectors time to release the closed channels
+      Thread.sleep (50);
+    }
+    // Warm up
+    for (int i = 0; i < NUM_PINGS / 10; i++)
+      ping ();
+    final LatencyHistogram h = new LatencyHistogram ();
+    for (int i = 0; i < NUM_PINGS; i++)
+      h.record (ping ());
+    running.set (false);
+    for (final Thread t : streams)
+      t.join ();
+
+    System.out.printf ("%-15s ping p50: %6d us, p99: %6d us, p99.9: %6d us, max: %6d us%n",
+                       policy,
+                       Long.valueOf (TimeUnit.NANOSECONDS.toMicros (h.getValueAtPercentile (50))),
+                       Long.valueOf (TimeUnit.NANOSECONDS.toMicros (h.getValueAtPercentile (99))),
+                       Long.valueOf (TimeUnit.NANOSECONDS.toMicros (h.getValueAtPercentile (99.9))),
+                       Long.valueOf (TimeUnit.NANOSECONDS.toMicros (h.getMax ())));
+  }
+
+  /** Open a connection, send a few bytes, wait for the echo and close. */
+  private long ping () throws IOException
+  {
+    final long start = System.nanoTime ();
+    try (SocketChannel sc = SocketChannel.open (address))
+    {
+      final ByteBuffer buf = ByteBuffer.allocate (8);
+      buf.putLong (start).flip ();
+      while (buf.hasRemaining ())
+        sc.write (buf);
+      buf.clear ();
+      while (buf.hasRemaining ())
+        if (sc.read (buf) < 0)
+          throw new IOException ("Connection closed");
+    }
+    return System.nanoTime () - start;
+  }
+
+  /** Keep sending blocks and reading the echo until told to stop. */
+  private void stream (final SocketChannel sc, final AtomicBoolean running)
+  {
+    final ByteBuffer buf = ByteBuffer.allocateDirect (STREAM_BLOCK);
+    try
+    {
+      while (running.get ())
+      {
+        buf.clear ();
+        while (buf.hasRemaining ())
+          sc.write (buf);
+        buf.clear ();
+        while (buf.hasRemaining ())
+          if (sc.read (buf) < 0)
+            return;
+      }
+    }
+    catch (final IOException e)
+    {
+      e.printStackTrace ();
+    }
+    finally
+    {
+      try
+      {
+        sc.close ();
+      }
+      catch (final IOException e)
+      {
+        // ignore
+      }
+    }
+  }
+
+  private Long getTimeout ()
+  {
+    return Long.valueOf (System.currentTimeMillis () + 60 * 1000);
+  }
+
+  private class AcceptListener implements IAcceptorListener
+  {
+    public void connectionAccepted (final SocketChannel sc) throws IOException
+    {
+      new Reader (sc, as.getNioHandler (), getTimeout ()).register ();
+    }
+  }
+
+  private class Reader extends AbstractSimpleBlockReader
+  {
+    public Reader (final SocketChannel sc, final INioHandler nioHandler, final Long timeout)
+    {
+      super (sc, nioHandler, timeout);
+    }
+
+    @Override
+    public ByteBuffer getByteBuffer ()
+    {
+      return bufferHandler.getBuffer ();
+    }
+
+    @Override
+    public void putByteBuffer (final ByteBuffer buf)
+    {
+      bufferHandler.putBuffer (buf);
+    }
+
+    @Override
+    public void channelClosed ()
+    {
+      closed ();
+    }
+
+    @Override
+    public void handleBufferRead (final ByteBuffer buf)
+    {
+      new Writer (sc, nioHandler, buf, this, getTimeout ()).write ();
+    }
+  }
+
+  private class Writer extends AbstractSimpleBlockSender
+  {
+    private final Reader reader;
+
+    public Writer (final SocketChannel sc,
+                   final INioHandler nioHandler,
+                   final ByteBuffer buf,
+                   final Reader reader,
+                   final Long timeout)
+    {
+      super (sc, nioHandler, buf, timeout);
+      this.reader = reader;
+    }
+
+    @Override
+    public void done ()
+    {
+      bufferHandler.putBuffer (getBuffer ());
+      reader.register ();
+    }
+
+    @Override
+    public void closed ()
+    {
+      bufferHandler.putBuffer (getBuffer ());
+      super.closed ();
+    }
+  }
+}